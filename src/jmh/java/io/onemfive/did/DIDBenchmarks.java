@@ -0,0 +1,36 @@
+package io.onemfive.did;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the DID benchmarks at 1, 4 and 16 threads reporting throughput and, through the GC
+ * profiler, allocation rate. Results are written as JSON to target/jmh-&lt;threads&gt;.json
+ * so runs can be compared.
+ *
+ * Run with: mvn -Pbenchmark test-compile exec:exec [-Dbenchmark.include=regex] [-Dbenchmark.threads=1,4,16]
+ *
+ * @author objectorange
+ */
+public class DIDBenchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 && !args[0].isEmpty() ? args[0] : "io\\.onemfive\\.did\\..*Benchmark";
+        String threads = args.length > 1 && !args[1].isEmpty() ? args[1] : "1,4,16";
+        for(String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(n)
+                    .addProfiler(GCProfiler.class)
+                    .result("target/jmh-"+n+".json")
+                    .resultFormat(ResultFormatType.JSON)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.onemfive.did;
+
+import io.onemfive.core.MessageProducer;
+import io.onemfive.data.DID;
+import io.onemfive.data.Envelope;
+import io.onemfive.data.Hash;
+import io.onemfive.data.util.DLC;
+import io.onemfive.data.util.HashUtil;
+import io.onemfive.did.dao.DIDRecordCodec;
+import io.onemfive.did.dao.MemoryDIDStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of each DIDService operation handled through an envelope as the bus delivers it,
+ * against an in-memory store. Run with the DID cache enabled and disabled to measure cache
+ * hits and misses.
+ *
+ * @author objectorange
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DIDServiceBenchmark {
+
+    private static final int USERS = 64;
+    private static final String PASSPHRASE = "benchmark-passphrase";
+
+    /**
+     * DID cache size; 0 disables the cache so every operation loads from the store.
+     */
+    @Param({"10000", "0"})
+    public String cacheMaxSize;
+
+    private DIDService service;
+    private Hash passphraseHash;
+    private String content;
+    private Hash contentHash;
+    private final AtomicLong unknownUsers = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class User {
+        private final Random random = new Random();
+
+        String next() {
+            return username(random.nextInt(USERS));
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties p = new Properties();
+        p.setProperty(DIDService.PROP_CACHE_MAX_SIZE, cacheMaxSize);
+        service = new DIDService(new MessageProducer() {
+            @Override
+            public boolean send(Envelope envelope) {
+                return true;
+            }
+        }, null);
+        service.start(p);
+        MemoryDIDStore store = new MemoryDIDStore();
+        service.setDIDStore(store);
+        passphraseHash = HashUtil.generatePasswordHash(PASSPHRASE);
+        for(int i=0; i<USERS; i++) {
+            store.save(username(i), DIDRecordCodec.encode(did(username(i))), true);
+        }
+        char[] c = new char[1024];
+        for(int i=0; i<c.length; i++) {
+            c[i] = (char)('a' + i % 26);
+        }
+        content = new String(c);
+        contentHash = HashUtil.generateHash(content, Hash.Algorithm.SHA256);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public DID getLocalDID(User user) {
+        Envelope e = envelope(DIDService.OPERATION_GET_LOCAL_DID);
+        GetLocalDIDRequest r = new GetLocalDIDRequest();
+        r.did = new DID();
+        r.did.setUsername(user.next());
+        r.did.setPassphrase(PASSPHRASE);
+        DLC.addData(GetLocalDIDRequest.class, r, e);
+        service.handleDocument(e);
+        return r.did;
+    }
+
+    @Benchmark
+    public DID verify(User user) {
+        Envelope e = envelope(DIDService.OPERATION_VERIFY);
+        DID did = new DID();
+        did.setUsername(user.next());
+        e.setDID(did);
+        service.handleDocument(e);
+        return e.getDID();
+    }
+
+    @Benchmark
+    public DID save(User user) {
+        Envelope e = envelope(DIDService.OPERATION_SAVE);
+        DLC.addData(DID.class, did(user.next()), e);
+        service.handleDocument(e);
+        return e.getDID();
+    }
+
+    @Benchmark
+    public AuthenticateDIDRequest authenticate(User user) {
+        return authenticate(user.next(), false);
+    }
+
+    @Benchmark
+    public AuthenticateDIDRequest authenticateUnknown() {
+        return authenticate("unknown-"+unknownUsers.incrementAndGet(), false);
+    }
+
+    @Benchmark
+    public AuthenticateDIDRequest authenticateAutogenerate() {
+        return authenticate("generated-"+unknownUsers.incrementAndGet(), true);
+    }
+
+    @Benchmark
+    public HashRequest hash() {
+        Envelope e = envelope(DIDService.OPERATION_HASH);
+        HashRequest r = new HashRequest();
+        r.contentToHash = content;
+        DLC.addData(HashRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    @Benchmark
+    public boolean verifyHash() {
+        Envelope e = envelope(DIDService.OPERATION_VERIFY_HASH);
+        VerifyHashRequest r = new VerifyHashRequest();
+        r.content = content;
+        r.hashToVerify = contentHash;
+        DLC.addData(VerifyHashRequest.class, r, e);
+        service.handleDocument(e);
+        return r.isAMatch;
+    }
+
+    private AuthenticateDIDRequest authenticate(String username, boolean autogenerate) {
+        Envelope e = envelope(DIDService.OPERATION_AUTHENTICATE);
+        AuthenticateDIDRequest r = new AuthenticateDIDRequest();
+        r.did = new DID();
+        r.did.setUsername(username);
+        r.did.setPassphrase(PASSPHRASE);
+        r.autogenerate = autogenerate;
+        DLC.addData(AuthenticateDIDRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private DID did(String username) {
+        DID did = new DID();
+        did.setUsername(username);
+        did.setPassphraseHash(passphraseHash);
+        return did;
+    }
+
+    private static String username(int i) {
+        return "user-"+i;
+    }
+
+    private static Envelope envelope(String operation) {
+        Envelope e = Envelope.documentFactory();
+        DLC.addRoute(DIDService.class, operation, e);
+        e.setRoute(e.getDynamicRoutingSlip().nextRoute());
+        return e;
+    }
+}
@@ -0,0 +1,98 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.data.DID;
+import io.onemfive.data.util.HashUtil;
+import io.onemfive.data.util.JSONParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing DID records in the binary and legacy JSON formats, alone and through
+ * {@link LoadDIDDAO} and {@link SaveDIDDAO}.
+ *
+ * @author objectorange
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DIDRecordBenchmark {
+
+    private static final Collection<String> AUTHN_FIELDS = Arrays.asList(
+            DIDRecordCodec.FIELD_USERNAME,
+            DIDRecordCodec.FIELD_PASSPHRASE_HASH);
+
+    private DID did;
+    private byte[] binary;
+    private byte[] json;
+    private MemoryDIDStore store;
+
+    @Setup
+    public void setUp() throws Exception {
+        did = new DID();
+        did.setUsername("alice");
+        did.setAlias("Alice");
+        did.setPassphraseHash(HashUtil.generatePasswordHash("benchmark-passphrase"));
+        did.setVerified(true);
+        binary = DIDRecordCodec.encode(did);
+        json = JSONParser.toString(did.toMap()).getBytes();
+        store = new MemoryDIDStore();
+        store.save(did.getUsername(), binary, true);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return DIDRecordCodec.encode(did);
+    }
+
+    @Benchmark
+    public byte[] encodeJSON() {
+        return JSONParser.toString(did.toMap()).getBytes();
+    }
+
+    @Benchmark
+    public DID decodeBinary() {
+        return DIDRecordCodec.toDID(binary);
+    }
+
+    @Benchmark
+    public DID decodeJSON() {
+        return DIDRecordCodec.toDID(json);
+    }
+
+    @Benchmark
+    public DID decodeAuthNFields() {
+        return DIDRecordCodec.toDID(binary, AUTHN_FIELDS);
+    }
+
+    @Benchmark
+    public Object readUsername() {
+        return DIDRecordCodec.readField(binary, DIDRecordCodec.FIELD_USERNAME);
+    }
+
+    @Benchmark
+    public DID saveDAO() {
+        SaveDIDDAO dao = new SaveDIDDAO(null, store, did, true, true);
+        dao.execute();
+        return did;
+    }
+
+    @Benchmark
+    public DID loadDAO() {
+        LoadDIDDAO dao = new LoadDIDDAO(null, store, did, null);
+        dao.execute();
+        return dao.getLoadedDID();
+    }
+
+    @Benchmark
+    public DID loadDAOAuthNFields() {
+        LoadDIDDAO dao = new LoadDIDDAO(null, store, did, AUTHN_FIELDS);
+        dao.execute();
+        return dao.getLoadedDID();
+    }
+}
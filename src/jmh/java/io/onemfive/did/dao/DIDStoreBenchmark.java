@@ -0,0 +1,117 @@
+package io.onemfive.did.dao;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading and saving DID-sized records in {@link LogDIDStore} against a file per DID,
+ * the layout the InfoVaultDB local filesystem store uses.
+ *
+ * @author objectorange
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DIDStoreBenchmark {
+
+    private static final int RECORDS = 20000;
+
+    @Param({"file", "log"})
+    public String backend;
+
+    @Param({"512"})
+    public int recordSize;
+
+    private Path dir;
+    private DIDStore store;
+    private byte[] record;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("did-store-benchmark");
+        store = "log".equals(backend)
+                ? new LogDIDStore(dir, LogDIDStore.DEFAULT_SEGMENT_SIZE, LogDIDStore.DEFAULT_COMPACTION_RATIO, false)
+                : new FilePerDIDStore(dir);
+        record = new byte[recordSize];
+        new Random(1).nextBytes(record);
+        for(int i=0; i<RECORDS; i++) {
+            store.save("user"+i, record, true);
+        }
+        store.sync();
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        File[] files = dir.toFile().listFiles();
+        if(files != null) {
+            for(File f : files) {
+                f.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    @Benchmark
+    public byte[] load() throws IOException {
+        return store.load("user"+ThreadLocalRandom.current().nextInt(RECORDS));
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        store.save("user"+ThreadLocalRandom.current().nextInt(RECORDS), record, false);
+    }
+
+    /**
+     * One file per username as InfoVaultDB's local filesystem store writes them.
+     */
+    private static class FilePerDIDStore implements DIDStore {
+
+        private final Path dir;
+
+        private FilePerDIDStore(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public byte[] load(String username) throws IOException {
+            try {
+                return Files.readAllBytes(dir.resolve(username));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void save(String username, byte[] record, boolean autoCreate) throws IOException {
+            Files.write(dir.resolve(username), record);
+        }
+
+        @Override
+        public Collection<String> usernames() {
+            return null;
+        }
+
+        @Override
+        public void sync() {
+            // written through on each save
+        }
+
+        @Override
+        public void close() {
+            // nothing held open
+        }
+    }
+}
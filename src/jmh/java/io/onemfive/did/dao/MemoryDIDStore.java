@@ -0,0 +1,48 @@
+package io.onemfive.did.dao;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory stand-in for InfoVaultDB so benchmarks measure the service rather than the disk.
+ *
+ * @author objectorange
+ */
+public class MemoryDIDStore implements DIDStore {
+
+    private final Map<String,byte[]> records = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] load(String username) {
+        return records.get(username);
+    }
+
+    @Override
+    public void save(String username, byte[] record, boolean autoCreate) throws FileNotFoundException {
+        if(!autoCreate && !records.containsKey(username))
+            throw new FileNotFoundException("No DID record for "+username);
+        records.put(username, record);
+    }
+
+    @Override
+    public Collection<String> usernames() {
+        return new ArrayList<>(records.keySet());
+    }
+
+    @Override
+    public void sync() {
+        // nothing to sync
+    }
+
+    @Override
+    public void close() {
+        records.clear();
+    }
+
+    public int size() {
+        return records.size();
+    }
+}
@@ -0,0 +1,50 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+import io.onemfive.did.contact.Contact;
+
+import java.util.Map;
+
+/**
+ * Add a contact to the contact book of the owner, a DID on this node, proven by a session
+ * token issued to it or its passphrase.
+ * A contact with the same username is replaced.
+ *
+ * @author objectorange
+ */
+public class AddContactRequest extends ServiceRequest {
+
+    public static final int OWNER_REQUIRED = 1;
+    public static final int CONTACT_REQUIRED = 2;
+    public static final int OWNER_NOT_AUTHENTICATED = 3;
+    public static final int CONTACT_NOT_PERSISTED = 4;
+
+    public DID owner;
+    // Session token issued to the owner; otherwise the owner's passphrase is verified
+    public String token;
+    public Contact contact;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(owner!=null) m.put("owner",owner.toMap());
+        if(token!=null) m.put("token",token);
+        if(contact!=null) m.put("contact",contact.toMap());
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("owner")!=null) {
+            owner = new DID();
+            owner.fromMap((Map<String, Object>)m.get("owner"));
+        }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("contact")!=null) {
+            contact = new Contact();
+            contact.fromMap((Map<String, Object>)m.get("contact"));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package io.onemfive.did;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throttles authentication attempts after failed passphrases so a brute force or credential
+ * stuffing burst cannot spend every CPU on password hashes.
+ *
+ * Failures are allowed at a rate with a burst per username, per origin and across all
+ * attempts; each is a token bucket kept as the time its bucket next has a token (GCRA) in a
+ * single atomic so checking and taking is one compare-and-set. Consecutive failures for a
+ * username also back it off exponentially until it authenticates. Attempts are checked
+ * before any load or hash work and only failures take tokens.
+ *
+ * A username that authenticated within {@link #KNOWN_MILLIS} and has not failed since is known:
+ * the global bucket does not hold it back, so a credential stuffing burst draining it only
+ * stops hash work for unknown or failing usernames. At most maxKeys usernames and origins are
+ * tracked; idle ones are dropped at most once every {@link #PURGE_INTERVAL_MILLIS} and, while
+ * still full, failures for new keys only take from the global bucket.
+ *
+ * @author objectorange
+ */
+final class AuthNThrottle {
+
+    enum Result { ALLOWED, USERNAME, ORIGIN, GLOBAL, BACKOFF }
+
+    static final int DEFAULT_MAX_KEYS = 100000;
+    static final long KNOWN_MILLIS = 24 * 60 * 60 * 1000L;
+    static final long PURGE_INTERVAL_MILLIS = 1000;
+
+    private final Bucket.Rate usernameRate;
+    private final Bucket.Rate originRate;
+    private final Bucket global;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private final int maxKeys;
+    private final ConcurrentMap<String,UsernameState> usernames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,Bucket> origins = new ConcurrentHashMap<>();
+    // reserved before each insert so neither map grows past maxKeys
+    private final AtomicInteger usernameCount = new AtomicInteger();
+    private final AtomicInteger originCount = new AtomicInteger();
+    private final AtomicLong lastPurge = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong throttledUsername = new AtomicLong();
+    private final AtomicLong throttledOrigin = new AtomicLong();
+    private final AtomicLong throttledGlobal = new AtomicLong();
+    private final AtomicLong throttledBackoff = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong untracked = new AtomicLong();
+
+    /**
+     * @param usernameFailuresPerMinute failures allowed per username once its burst is spent
+     * @param originFailuresPerMinute failures allowed per origin once its burst is spent
+     * @param globalFailuresPerSecond failures allowed across all usernames once the burst is spent
+     * @param backoffBaseMillis back-off after the second consecutive failure, doubled on each further one
+     * @param maxKeys usernames and origins tracked at most
+     */
+    AuthNThrottle(double usernameFailuresPerMinute, int usernameBurst,
+                  double originFailuresPerMinute, int originBurst,
+                  double globalFailuresPerSecond, int globalBurst,
+                  long backoffBaseMillis, long backoffMaxMillis, int maxKeys) {
+        this.usernameRate = new Bucket.Rate(usernameFailuresPerMinute / 60, usernameBurst);
+        this.originRate = new Bucket.Rate(originFailuresPerMinute / 60, originBurst);
+        this.global = new Bucket(new Bucket.Rate(globalFailuresPerSecond, globalBurst));
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Checks whether an attempt may proceed without taking a token.
+     * @param origin where the attempt came from or null if unknown
+     */
+    Result check(String username, String origin) {
+        long now = System.nanoTime();
+        UsernameState u = usernames.get(username);
+        if(u != null) {
+            if(now - u.blockedUntil.get() < 0) {
+                throttledBackoff.incrementAndGet();
+                return Result.BACKOFF;
+            }
+            if(!u.bucket.available(now)) {
+                throttledUsername.incrementAndGet();
+                return Result.USERNAME;
+            }
+        }
+        if(origin != null) {
+            Bucket o = origins.get(origin);
+            if(o != null && !o.available(now)) {
+                throttledOrigin.incrementAndGet();
+                return Result.ORIGIN;
+            }
+        }
+        boolean known = u != null && u.failures.get() == 0 && now - u.knownUntil < 0;
+        if(!known && !global.available(now)) {
+            throttledGlobal.incrementAndGet();
+            return Result.GLOBAL;
+        }
+        return Result.ALLOWED;
+    }
+
+    /**
+     * Records a failed passphrase taking a token from each bucket and extending the username's back-off.
+     */
+    void failed(String username, String origin) {
+        long now = System.nanoTime();
+        failures.incrementAndGet();
+        UsernameState u = usernameState(username, now);
+        if(u != null) {
+            u.bucket.take(now);
+            int consecutive = u.failures.incrementAndGet();
+            if(consecutive > 1 && backoffBaseMillis > 0) {
+                long backoff = backoffBaseMillis << Math.min(consecutive - 2, 30);
+                if(backoff <= 0 || backoff > backoffMaxMillis)
+                    backoff = backoffMaxMillis;
+                u.blockedUntil.set(now + backoff * 1000000L);
+            }
+        }
+        Bucket o = origin == null ? null : originBucket(origin, now);
+        if(o != null)
+            o.take(now);
+        if(u == null || (origin != null && o == null))
+            untracked.incrementAndGet();
+        global.take(now);
+    }
+
+    /**
+     * Clears the username's back-off once it authenticates and marks it known.
+     */
+    void succeeded(String username) {
+        long now = System.nanoTime();
+        UsernameState u = usernameState(username, now);
+        if(u != null) {
+            u.failures.set(0);
+            u.blockedUntil.set(now);
+            u.knownUntil = now + KNOWN_MILLIS * 1000000L;
+        }
+    }
+
+    long getThrottled() {
+        return throttledUsername.get() + throttledOrigin.get() + throttledGlobal.get() + throttledBackoff.get();
+    }
+
+    Map<String,Object> toMap() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("failures", failures.get());
+        m.put("untracked", untracked.get());
+        m.put("throttledUsername", throttledUsername.get());
+        m.put("throttledOrigin", throttledOrigin.get());
+        m.put("throttledGlobal", throttledGlobal.get());
+        m.put("throttledBackoff", throttledBackoff.get());
+        m.put("trackedUsernames", usernames.size());
+        m.put("trackedOrigins", origins.size());
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthNThrottle"+toMap();
+    }
+
+    /**
+     * @return the username's state, null if it is not tracked and there is no room to
+     */
+    private UsernameState usernameState(String username, long now) {
+        UsernameState u = usernames.get(username);
+        if(u != null)
+            return u;
+        if(!reserve(usernameCount, now))
+            return null;
+        UsernameState created = new UsernameState(usernameRate);
+        u = usernames.putIfAbsent(username, created);
+        if(u == null)
+            return created;
+        usernameCount.decrementAndGet();
+        return u;
+    }
+
+    /**
+     * @return the origin's bucket, null if it is not tracked and there is no room to
+     */
+    private Bucket originBucket(String origin, long now) {
+        Bucket o = origins.get(origin);
+        if(o != null)
+            return o;
+        if(!reserve(originCount, now))
+            return null;
+        Bucket created = new Bucket(originRate);
+        o = origins.putIfAbsent(origin, created);
+        if(o == null)
+            return created;
+        originCount.decrementAndGet();
+        return o;
+    }
+
+    /**
+     * Reserves room for one more key, purging idle keys first if full and none were purged recently.
+     */
+    private boolean reserve(AtomicInteger count, long now) {
+        if(count.incrementAndGet() <= maxKeys)
+            return true;
+        count.decrementAndGet();
+        purge(now);
+        if(count.incrementAndGet() <= maxKeys)
+            return true;
+        count.decrementAndGet();
+        return false;
+    }
+
+    /**
+     * Drops usernames and origins whose buckets are full again and that are neither backed off
+     * nor known. Only one caller purges per interval so a full table is not scanned on every insert.
+     */
+    private void purge(long now) {
+        long last = lastPurge.get();
+        if(now - last < PURGE_INTERVAL_MILLIS * 1000000L || !lastPurge.compareAndSet(last, now))
+            return;
+        for(Map.Entry<String,UsernameState> e : usernames.entrySet()) {
+            UsernameState s = e.getValue();
+            if(s.bucket.idle(now) && now - s.blockedUntil.get() >= 0 && now - s.knownUntil >= 0
+                    && usernames.remove(e.getKey(), s))
+                usernameCount.decrementAndGet();
+        }
+        for(Map.Entry<String,Bucket> e : origins.entrySet()) {
+            if(e.getValue().idle(now) && origins.remove(e.getKey(), e.getValue()))
+                originCount.decrementAndGet();
+        }
+    }
+
+    private static final class UsernameState {
+        private final Bucket bucket;
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong blockedUntil = new AtomicLong(System.nanoTime());
+        private volatile long knownUntil = System.nanoTime();
+
+        private UsernameState(Bucket.Rate rate) {
+            this.bucket = new Bucket(rate);
+        }
+    }
+
+    /**
+     * Token bucket as the generic cell rate algorithm: the theoretical time the next token
+     * is due, with a burst allowed to run that far ahead of now.
+     */
+    static final class Bucket {
+
+        static final class Rate {
+            private final long intervalNanos;
+            private final long toleranceNanos;
+
+            /**
+             * @param perSecond tokens added per second; 0 or less never throttles
+             */
+            Rate(double perSecond, int burst) {
+                this.intervalNanos = perSecond <= 0 ? 0 : (long)(1000000000L / perSecond);
+                this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+            }
+        }
+
+        private final Rate rate;
+        private final AtomicLong due;
+
+        Bucket(Rate rate) {
+            this.rate = rate;
+            this.due = new AtomicLong(System.nanoTime());
+        }
+
+        boolean available(long now) {
+            return now - (due.get() - rate.toleranceNanos) >= 0;
+        }
+
+        void take(long now) {
+            long current = due.get();
+            long next = Math.max(current - now, 0) + now + rate.intervalNanos;
+            while(!due.compareAndSet(current, next)) {
+                current = due.get();
+                next = Math.max(current - now, 0) + now + rate.intervalNanos;
+            }
+        }
+
+        boolean idle(long now) {
+            return now - due.get() >= 0;
+        }
+    }
+}
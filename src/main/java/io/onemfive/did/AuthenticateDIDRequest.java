@@ -14,14 +14,26 @@ public class AuthenticateDIDRequest extends ServiceRequest {
     public static final int DID_PASSPHRASE_HASH_ALGORITHM_MISMATCH = 6;
     public static final int DID_PASSPHRASE_MISMATCH = 7;
     public static final int DID_TOKEN_FORMAT_MISMATCH = 8;
+    public static final int DID_AUTHN_CAPACITY_EXCEEDED = 9;
+    public static final int DID_TOKEN_REQUIRED = 10;
+    public static final int DID_TOKEN_EXPIRED = 11;
+    public static final int DID_TOKEN_REVOKED = 12;
+    public static final int DID_AUTHN_THROTTLED = 13;
+    public static final int DID_REVOKED = 14;
 
     public boolean autogenerate = false;
     public DID did;
+    // Issued on successful AUTHENTICATE; given to VALIDATE_TOKEN and REVOKE_TOKEN
+    public String token;
+    // Where the attempt came from, e.g. a peer address, for throttling failed attempts per origin
+    public String origin;
 
     @Override
     public Map<String, Object> toMap() {
         Map<String, Object> m = super.toMap();
         if(did!=null) m.put("did",did.toMap());
+        if(token!=null) m.put("token",token);
+        if(origin!=null) m.put("origin",origin);
         return m;
     }
 
@@ -32,5 +44,7 @@ public class AuthenticateDIDRequest extends ServiceRequest {
             did = new DID();
             did.fromMap((Map<String, Object>)m.get("did"));
         }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("origin")!=null) origin = (String)m.get("origin");
     }
 }
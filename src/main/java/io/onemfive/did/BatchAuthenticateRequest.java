@@ -0,0 +1,90 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Authenticate many DIDs (username and passphrase) in one envelope.
+ *
+ * Results are in request order with per-item error codes from {@link AuthenticateDIDRequest}.
+ *
+ * @author objectorange
+ */
+public class BatchAuthenticateRequest extends ServiceRequest {
+
+    public static final int DIDS_REQUIRED = 1;
+
+    public static final int ITEM_OK = 0;
+
+    // Request
+    public List<DID> dids;
+    public boolean autogenerate = false;
+    // Where the attempts came from, e.g. a peer address, for throttling failed attempts per origin
+    public String origin;
+    // Result
+    public List<DID> results;
+    public int[] errorCodes;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(dids!=null) m.put("dids",toMaps(dids));
+        m.put("autogenerate",autogenerate);
+        if(origin!=null) m.put("origin",origin);
+        if(results!=null) m.put("results",toMaps(results));
+        if(errorCodes!=null) m.put("errorCodes",toList(errorCodes));
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("dids")!=null) dids = fromMaps((List<Map<String,Object>>)m.get("dids"));
+        if(m.get("autogenerate")!=null) autogenerate = Boolean.parseBoolean(m.get("autogenerate").toString());
+        if(m.get("origin")!=null) origin = (String)m.get("origin");
+        if(m.get("results")!=null) results = fromMaps((List<Map<String,Object>>)m.get("results"));
+        if(m.get("errorCodes")!=null) errorCodes = fromList((List<Number>)m.get("errorCodes"));
+    }
+
+    static List<Map<String,Object>> toMaps(List<DID> dids) {
+        List<Map<String,Object>> l = new ArrayList<>(dids.size());
+        for(DID did : dids) {
+            l.add(did == null ? null : did.toMap());
+        }
+        return l;
+    }
+
+    static List<DID> fromMaps(List<Map<String,Object>> maps) {
+        List<DID> l = new ArrayList<>(maps.size());
+        for(Map<String,Object> m : maps) {
+            if(m == null) {
+                l.add(null);
+            } else {
+                DID did = new DID();
+                did.fromMap(m);
+                l.add(did);
+            }
+        }
+        return l;
+    }
+
+    static List<Integer> toList(int[] codes) {
+        List<Integer> l = new ArrayList<>(codes.length);
+        for(int c : codes) {
+            l.add(c);
+        }
+        return l;
+    }
+
+    static int[] fromList(List<Number> l) {
+        int[] codes = new int[l.size()];
+        for(int i=0; i<codes.length; i++) {
+            codes[i] = l.get(i).intValue();
+        }
+        return codes;
+    }
+}
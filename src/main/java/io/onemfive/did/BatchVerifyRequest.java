@@ -0,0 +1,44 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verify many DIDs in one envelope.
+ *
+ * Results are in request order with per-item error codes from {@link AuthenticateDIDRequest}.
+ *
+ * @author objectorange
+ */
+public class BatchVerifyRequest extends ServiceRequest {
+
+    public static final int DIDS_REQUIRED = 1;
+
+    public static final int ITEM_OK = 0;
+
+    // Request
+    public List<DID> dids;
+    // Result
+    public List<DID> results;
+    public int[] errorCodes;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(dids!=null) m.put("dids",BatchAuthenticateRequest.toMaps(dids));
+        if(results!=null) m.put("results",BatchAuthenticateRequest.toMaps(results));
+        if(errorCodes!=null) m.put("errorCodes",BatchAuthenticateRequest.toList(errorCodes));
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("dids")!=null) dids = BatchAuthenticateRequest.fromMaps((List<Map<String,Object>>)m.get("dids"));
+        if(m.get("results")!=null) results = BatchAuthenticateRequest.fromMaps((List<Map<String,Object>>)m.get("results"));
+        if(m.get("errorCodes")!=null) errorCodes = BatchAuthenticateRequest.fromList((List<Number>)m.get("errorCodes"));
+    }
+}
@@ -0,0 +1,68 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.did.vouch.Vouch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verify the signatures of many vouches in one envelope.
+ *
+ * Results are per-item error codes in request order. A vouch only verifies against its signer's
+ * key known to this node: the vouching key of a local DID or the Ed25519 public key, Base64
+ * encoded as the address, on the signer's stored DID. One signed before its signer withdrew
+ * its vouches for the signee with REVOKE_VOUCH no longer counts.
+ *
+ * @author objectorange
+ */
+public class BatchVerifyVouchesRequest extends ServiceRequest {
+
+    public static final int VOUCHES_REQUIRED = 1;
+
+    public static final int ITEM_OK = 0;
+    public static final int ITEM_VOUCH_REQUIRED = 1;
+    public static final int ITEM_SIGNATURE_INVALID = 2;
+    public static final int ITEM_SIGNER_REVOKED = 3;
+    public static final int ITEM_SIGNER_KEY_UNKNOWN = 4;
+    public static final int ITEM_VOUCH_REVOKED = 5;
+
+    // Request
+    public List<Vouch> vouches;
+    // Result
+    public int[] errorCodes;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(vouches!=null) {
+            List<Map<String,Object>> l = new ArrayList<>(vouches.size());
+            for(Vouch v : vouches) {
+                l.add(v == null ? null : v.toMap());
+            }
+            m.put("vouches",l);
+        }
+        if(errorCodes!=null) m.put("errorCodes",BatchAuthenticateRequest.toList(errorCodes));
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("vouches")!=null) {
+            List<Map<String,Object>> l = (List<Map<String,Object>>)m.get("vouches");
+            vouches = new ArrayList<>(l.size());
+            for(Map<String,Object> vm : l) {
+                if(vm == null) {
+                    vouches.add(null);
+                } else {
+                    Vouch v = new Vouch();
+                    v.fromMap(vm);
+                    vouches.add(v);
+                }
+            }
+        }
+        if(m.get("errorCodes")!=null) errorCodes = BatchAuthenticateRequest.fromList((List<Number>)m.get("errorCodes"));
+    }
+}
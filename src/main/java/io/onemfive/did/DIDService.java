@@ -4,19 +4,82 @@ import io.onemfive.core.*;
 import io.onemfive.core.keyring.AuthNRequest;
 import io.onemfive.core.keyring.GenerateKeyRingCollectionsRequest;
 import io.onemfive.data.Hash;
+import io.onemfive.did.contact.Contact;
+import io.onemfive.did.contact.ContactBook;
+import io.onemfive.did.dao.ContactStore;
+import io.onemfive.did.dao.DIDArchive;
+import io.onemfive.did.dao.DIDCache;
+import io.onemfive.did.dao.DIDRecordCodec;
+import io.onemfive.did.dao.DIDSnapshot;
+import io.onemfive.did.dao.DIDStore;
+import io.onemfive.did.dao.FingerprintIndex;
+import io.onemfive.did.dao.InfoVaultDIDStore;
+import io.onemfive.did.dao.LoadContactsDAO;
 import io.onemfive.did.dao.LoadDIDDAO;
+import io.onemfive.did.dao.LoadDIDsDAO;
+import io.onemfive.did.dao.LogDIDStore;
+import io.onemfive.did.dao.RevocationIndex;
+import io.onemfive.did.hash.ContentHasher;
+import io.onemfive.did.hash.DigestEngine;
+import io.onemfive.did.hash.MerkleHasher;
+import io.onemfive.did.metrics.DIDMetrics;
+import io.onemfive.did.trust.TrustGraph;
+import io.onemfive.did.trust.TrustLog;
+import io.onemfive.did.vouch.VerifiedVouchCache;
+import io.onemfive.did.vouch.Vouch;
+import io.onemfive.did.vouch.VouchKeys;
+import io.onemfive.did.vouch.VouchSigner;
+import io.onemfive.did.dao.SaveContactDAO;
 import io.onemfive.did.dao.SaveDIDDAO;
+import io.onemfive.did.dao.UsernameFilter;
+import io.onemfive.did.dao.UsernameJournal;
+import io.onemfive.did.dao.VersionedDIDStore;
+import io.onemfive.did.dao.WriteBehindDIDStore;
 import io.onemfive.data.DID;
+import io.onemfive.data.PublicKey;
 import io.onemfive.data.Envelope;
 import io.onemfive.data.Route;
+import io.onemfive.data.util.Base64;
 import io.onemfive.data.util.DLC;
 import io.onemfive.data.util.HashUtil;
+import io.onemfive.data.util.JSONParser;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import static io.onemfive.did.HashRequest.UNKNOWN_HASH_ALGORITHM;
 
@@ -25,6 +88,9 @@ import static io.onemfive.did.HashRequest.UNKNOWN_HASH_ALGORITHM;
  *
  * Implementation of W3C Spec {@link "https://w3c-ccg.github.io/did-spec/} ongoing.
  *
+ * Envelopes may be handled from multiple threads: operations on the same username
+ * are serialized by striped locks and local DID state is held in concurrent structures.
+ *
  * @author objectorange
  */
 public class DIDService extends BaseService {
@@ -35,24 +101,166 @@ public class DIDService extends BaseService {
     public static final String OPERATION_VERIFY = "VERIFY"; // Read/Verify
     public static final String OPERATION_SAVE = "SAVE"; // Create/Update
     public static final String OPERATION_REVOKE = "REVOKE"; // Deactivate
+    public static final String OPERATION_GET_DID_BY_FINGERPRINT = "GET_DID_BY_FINGERPRINT"; // Read by key
+    public static final String OPERATION_RESOLVE = "RESOLVE"; // Read at version
+    public static final String OPERATION_EXPORT = "EXPORT"; // Read all to archive
+    public static final String OPERATION_IMPORT = "IMPORT"; // Create/Update from archive
 
     public static final String OPERATION_AUTHENTICATE = "AUTHENTICATE";
     public static final String OPERATION_AUTHENTICATE_CREATE = "AUTHENTICATE_CREATE";
+    public static final String OPERATION_VALIDATE_TOKEN = "VALIDATE_TOKEN";
+    public static final String OPERATION_REVOKE_TOKEN = "REVOKE_TOKEN";
+
+    public static final String OPERATION_BATCH_VERIFY = "BATCH_VERIFY";
+    public static final String OPERATION_BATCH_AUTHENTICATE = "BATCH_AUTHENTICATE";
 
     public static final String OPERATION_HASH = "HASH";
     public static final String OPERATION_VERIFY_HASH = "VERIFY_HASH";
 
     public static final String OPERATION_VOUCH = "VOUCH";
+    public static final String OPERATION_REVOKE_VOUCH = "REVOKE_VOUCH";
+    public static final String OPERATION_BATCH_VERIFY_VOUCHES = "BATCH_VERIFY_VOUCHES";
+    public static final String OPERATION_GET_TRUST = "GET_TRUST";
+    public static final String OPERATION_ADD_TRUST_ANCHOR = "ADD_TRUST_ANCHOR";
+    public static final String OPERATION_REMOVE_TRUST_ANCHOR = "REMOVE_TRUST_ANCHOR";
 
     public static final String OPERATION_ADD_CONTACT = "ADD_CONTACT";
     public static final String OPERATION_GET_CONTACT = "GET_CONTACT";
 
-    private static final Pattern layout = Pattern.compile("\\$31\\$(\\d\\d?)\\$(.{43})");
+    public static final String OPERATION_GET_METRICS = "GET_METRICS";
+
+    public static final String METRICS_OBJECT_NAME = "io.onemfive.did:type=DIDService,name=Metrics";
+
+    public static final String PROP_CACHE_MAX_SIZE = "1m5.did.cache.maxSize";
+    public static final String PROP_CACHE_TTL_SECONDS = "1m5.did.cache.ttlSeconds";
+    public static final String PROP_DISPATCH_SHARDS = "1m5.did.dispatch.shards";
+    public static final String PROP_DISPATCH_QUEUE_SIZE = "1m5.did.dispatch.queueSize";
+    public static final String PROP_DISPATCH_ON_FULL = "1m5.did.dispatch.onFull";
+    public static final String PROP_DISPATCH_BLOCK_TIMEOUT_MS = "1m5.did.dispatch.blockTimeoutMs";
+    public static final String PROP_HASH_TREE_PARALLELISM = "1m5.did.hash.treeParallelism";
+    public static final String PROP_HASH_ALGORITHM = "1m5.did.hash.algorithm";
+    public static final String PROP_STORE_FORMAT = "1m5.did.store.format";
+    public static final String PROP_STORE_MIGRATE = "1m5.did.store.migrate";
+    public static final String PROP_STORE_BACKEND = "1m5.did.store.backend";
+    public static final String PROP_STORE_LOG_DIR = "1m5.did.store.log.dir";
+    public static final String PROP_STORE_LOG_SEGMENT_SIZE = "1m5.did.store.log.segmentSize";
+    public static final String PROP_STORE_LOG_COMPACTION_RATIO = "1m5.did.store.log.compactionRatio";
+    public static final String PROP_STORE_LOG_MAINTENANCE_SECONDS = "1m5.did.store.log.maintenanceSeconds";
+    public static final String PROP_STORE_LOG_SYNC_ON_WRITE = "1m5.did.store.log.syncOnWrite";
+    public static final String PROP_STORE_VERSIONED_DIR = "1m5.did.store.versioned.dir";
+    public static final String PROP_STORE_VERSIONED_CHECKPOINT_INTERVAL = "1m5.did.store.versioned.checkpointInterval";
+    public static final String PROP_STORE_VERSIONED_MAX_CACHED = "1m5.did.store.versioned.maxCached";
+    public static final String PROP_STORE_VERSIONED_SYNC_ON_WRITE = "1m5.did.store.versioned.syncOnWrite";
+    public static final String PROP_STORE_WRITE_BEHIND = "1m5.did.store.writeBehind";
+    public static final String PROP_STORE_WRITE_BEHIND_BATCH_SIZE = "1m5.did.store.writeBehind.batchSize";
+    public static final String PROP_STORE_WRITE_BEHIND_FLUSH_MS = "1m5.did.store.writeBehind.flushMs";
+    public static final String PROP_METRICS_JMX = "1m5.did.metrics.jmx";
+    public static final String PROP_PASSWORD_HASH_COST = "1m5.did.passwordHash.cost";
+    public static final String PROP_PASSWORD_HASH_TARGET_MILLIS = "1m5.did.passwordHash.targetMillis";
+    public static final String PROP_PASSWORD_HASH_REHASH = "1m5.did.passwordHash.rehash";
+    public static final String PROP_PASSWORD_HASH_CALIBRATION_BUDGET_MILLIS = "1m5.did.passwordHash.calibrationBudgetMillis";
+    public static final String PROP_PASSWORD_HASH_COST_FILE = "1m5.did.passwordHash.costFile";
+    public static final String PROP_AUTHN_THROTTLE_ENABLED = "1m5.did.authn.throttle.enabled";
+    public static final String PROP_AUTHN_THROTTLE_USERNAME_FAILURES_PER_MINUTE = "1m5.did.authn.throttle.username.failuresPerMinute";
+    public static final String PROP_AUTHN_THROTTLE_USERNAME_BURST = "1m5.did.authn.throttle.username.burst";
+    public static final String PROP_AUTHN_THROTTLE_ORIGIN_FAILURES_PER_MINUTE = "1m5.did.authn.throttle.origin.failuresPerMinute";
+    public static final String PROP_AUTHN_THROTTLE_ORIGIN_BURST = "1m5.did.authn.throttle.origin.burst";
+    public static final String PROP_AUTHN_THROTTLE_GLOBAL_FAILURES_PER_SECOND = "1m5.did.authn.throttle.global.failuresPerSecond";
+    public static final String PROP_AUTHN_THROTTLE_GLOBAL_BURST = "1m5.did.authn.throttle.global.burst";
+    public static final String PROP_AUTHN_THROTTLE_BACKOFF_BASE_MS = "1m5.did.authn.throttle.backoffBaseMs";
+    public static final String PROP_AUTHN_THROTTLE_BACKOFF_MAX_MS = "1m5.did.authn.throttle.backoffMaxMs";
+    public static final String PROP_AUTHN_THROTTLE_MAX_KEYS = "1m5.did.authn.throttle.maxKeys";
+    public static final String PROP_VOUCH_KEY_DIR = "1m5.did.vouch.keyDir";
+    public static final String PROP_VOUCH_CACHE_SIZE = "1m5.did.vouch.cacheSize";
+    public static final String PROP_TRUST_MAX_DEPTH = "1m5.did.trust.maxDepth";
+    public static final String PROP_TRUST_DECAY = "1m5.did.trust.decay";
+    public static final String PROP_TRUST_FILE = "1m5.did.trust.file";
+    public static final String PROP_TRUST_ANCHORS = "1m5.did.trust.anchors";
+    public static final String PROP_REVOCATION_FILE = "1m5.did.revocation.file";
+    public static final String PROP_CONTACT_DIR = "1m5.did.contact.dir";
+    public static final String PROP_FINGERPRINT_INDEX_FILE = "1m5.did.fingerprintIndex.file";
+    public static final String PROP_SNAPSHOT_ENABLED = "1m5.did.snapshot.enabled";
+    public static final String PROP_SNAPSHOT_FILE = "1m5.did.snapshot.file";
+    public static final String PROP_SNAPSHOT_MAX_CACHED = "1m5.did.snapshot.maxCached";
+    public static final String PROP_ARCHIVE_DIR = "1m5.did.archive.dir";
+    public static final String PROP_ARCHIVE_CHUNK_SIZE = "1m5.did.archive.chunkSize";
+    public static final String PROP_ARCHIVE_COMPRESSION_LEVEL = "1m5.did.archive.compressionLevel";
+    public static final String PROP_ARCHIVE_IMPORT_PARALLELISM = "1m5.did.archive.importParallelism";
+    public static final String PROP_TOKEN_ENABLED = "1m5.did.token.enabled";
+    public static final String PROP_TOKEN_TTL_SECONDS = "1m5.did.token.ttlSeconds";
+    public static final String PROP_TOKEN_KEY = "1m5.did.token.key";
+    public static final String PROP_TOKEN_REVOCATION_FILE = "1m5.did.token.revocationFile";
+    public static final String PROP_USERNAME_FILTER_ENABLED = "1m5.did.usernameFilter.enabled";
+    public static final String PROP_USERNAME_FILTER_EXPECTED_USERNAMES = "1m5.did.usernameFilter.expectedUsernames";
+    public static final String PROP_USERNAME_FILTER_FALSE_POSITIVE_RATE = "1m5.did.usernameFilter.falsePositiveRate";
+    public static final String PROP_USERNAME_FILTER_FILE = "1m5.did.usernameFilter.file";
+    public static final String PROP_USERNAME_FILTER_ASSUME_EMPTY = "1m5.did.usernameFilter.assumeEmpty";
+    public static final String PROP_AUTHN_ASYNC = "1m5.did.authn.async";
+    public static final String PROP_AUTHN_THREADS = "1m5.did.authn.threads";
+    public static final String PROP_AUTHN_QUEUE_SIZE = "1m5.did.authn.queueSize";
+    public static final String PROP_AUTHN_MAX_CONCURRENT_HASHES = "1m5.did.authn.maxConcurrentHashes";
 
     private static SecureRandom random = new SecureRandom();
 
-    private DID nodeDID;
-    private Map<String,DID> localUserDIDs = new HashMap<>();
+    private static final List<String> AUTHN_FIELDS = Arrays.asList(
+            DIDRecordCodec.FIELD_USERNAME,
+            DIDRecordCodec.FIELD_PASSPHRASE_HASH);
+
+    private final LocalDIDRegistry localDIDs = new LocalDIDRegistry();
+    private final UsernameLocks usernameLocks = new UsernameLocks();
+    private volatile ShardedDispatcher dispatcher;
+    private volatile boolean asyncAuthN = false;
+    private volatile ForkJoinPool treeHashPool = new ForkJoinPool();
+    private volatile String hashAlgorithm = DigestEngine.SHA256;
+    private volatile boolean binaryRecords = true;
+    private volatile boolean migrateRecords = true;
+    private final Set<String> pendingMigrations = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final AtomicLong migratedRecords = new AtomicLong();
+    private ThreadPoolExecutor migrationExecutor;
+    private volatile DIDStore didStore;
+    private volatile VersionedDIDStore versionedStore;
+    private volatile UsernameFilter usernameFilter;
+    private Path usernameFilterFile;
+    private volatile UsernameJournal usernameJournal;
+    private Path snapshotFile;
+    private volatile Path archiveDir;
+    private volatile Thread warmUp;
+    // usernames whose DIDs changed while a snapshot is restored; null once restored
+    private volatile Set<String> warmUpChanged;
+    private volatile SessionTokens sessionTokens;
+    private volatile RevocationIndex revocations = new RevocationIndex();
+    private volatile FingerprintIndex fingerprints = new FingerprintIndex();
+    private volatile AuthNThrottle authNThrottle;
+    private volatile VerifiedVouchCache verifiedVouches = new VerifiedVouchCache(VerifiedVouchCache.DEFAULT_MAX_SIZE);
+    private volatile VouchSigner vouchSigner = new VouchSigner(verifiedVouches);
+    private volatile VouchKeys vouchKeys;
+    private volatile TrustGraph trustGraph = new TrustGraph();
+    private volatile TrustLog trustLog;
+    private volatile ContactStore contactStore;
+    private final ConcurrentMap<String,ContactBook> contactBooks = new ConcurrentHashMap<>();
+    private volatile PasswordHasher passwordHasher = new PasswordHasher(PasswordHasher.DEFAULT_COST);
+    private volatile boolean rehashOutdated = true;
+    // usernames whose vouching key is known to be on their stored record since start
+    private final Set<String> publishedVouchKeys = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final Set<String> pendingRehashes = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final AtomicLong rehashedPassphrases = new AtomicLong();
+    private ThreadPoolExecutor rehashExecutor;
+    private DIDCache didCache = new DIDCache();
+    private final DIDMetrics metrics = new DIDMetrics(
+            Arrays.asList(OPERATION_GET_LOCAL_DID, OPERATION_VERIFY, OPERATION_SAVE, OPERATION_REVOKE,
+                    OPERATION_GET_DID_BY_FINGERPRINT, OPERATION_RESOLVE, OPERATION_EXPORT, OPERATION_IMPORT,
+                    OPERATION_AUTHENTICATE, OPERATION_AUTHENTICATE_CREATE, OPERATION_VALIDATE_TOKEN,
+                    OPERATION_REVOKE_TOKEN, OPERATION_BATCH_VERIFY,
+                    OPERATION_BATCH_AUTHENTICATE, OPERATION_HASH, OPERATION_VERIFY_HASH, OPERATION_VOUCH,
+                    OPERATION_REVOKE_VOUCH, OPERATION_BATCH_VERIFY_VOUCHES, OPERATION_GET_TRUST, OPERATION_ADD_TRUST_ANCHOR,
+                    OPERATION_REMOVE_TRUST_ANCHOR, OPERATION_ADD_CONTACT, OPERATION_GET_CONTACT, OPERATION_GET_METRICS),
+            Arrays.<Class<?>>asList(GetLocalDIDRequest.class, AuthenticateDIDRequest.class, BatchVerifyRequest.class,
+                    BatchAuthenticateRequest.class, HashRequest.class, VerifyHashRequest.class, VouchRequest.class,
+                    BatchVerifyVouchesRequest.class, GetTrustRequest.class, TrustAnchorRequest.class, AddContactRequest.class, GetContactRequest.class,
+                    RevokeRequest.class, GetDIDByFingerprintRequest.class, ResolveDIDRequest.class, ExportDIDsRequest.class,
+                    ImportDIDsRequest.class, GetMetricsRequest.class));
+    private volatile PasswordHashPool passwordHashPool = new PasswordHashPool(0, 256, 0, metrics.timer(DIDMetrics.TIMER_PASSWORD_HASH_VERIFY));
+    private Properties config;
 
     public DIDService() {}
 
@@ -62,20 +270,244 @@ public class DIDService extends BaseService {
 
     @Override
     public void handleDocument(Envelope e) {
-        handleAll(e);
+        dispatch(e);
     }
 
     @Override
     public void handleEvent(Envelope e) {
-        handleAll(e);
+        dispatch(e);
     }
 
     @Override
     public void handleHeaders(Envelope e) {
-        handleAll(e);
+        dispatch(e);
+    }
+
+    /**
+     * Handles the envelope inline on the caller's thread unless sharded dispatch is configured,
+     * in which case it is queued on the shard owning its username and sent on through the
+     * producer once handled.
+     */
+    private void dispatch(final Envelope e) {
+        ShardedDispatcher d = dispatcher;
+        if(d == null) {
+            handle(e, null);
+            return;
+        }
+        boolean accepted = d.dispatch(usernameOf(e), new Runnable() {
+            @Override
+            public void run() {
+                CountDownLatch deferred = new CountDownLatch(1);
+                boolean handled = true;
+                try {
+                    handled = handle(e, deferred);
+                } catch (Exception ex) {
+                    LOG.warning("Exception handling DID operation: "+ex.getLocalizedMessage());
+                }
+                if(handled) {
+                    complete(e);
+                    return;
+                }
+                // hold the shard so the DID's next operation waits for this one to complete
+                try {
+                    deferred.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        if(!accepted) {
+            LOG.warning("DID operation queue full; dead-lettering envelope.");
+            deadLetter(e);
+        }
+    }
+
+    /**
+     * Sends an envelope handled off the caller's thread on through the producer.
+     */
+    private void complete(Envelope e) {
+        if(producer == null) {
+            LOG.warning("No producer to complete asynchronously handled envelope.");
+        } else if(!producer.send(e)) {
+            LOG.warning("Producer did not accept completed envelope.");
+        }
+    }
+
+    /**
+     * Username whose shard handles the envelope so operations on one DID run in the order sent.
+     * Batches are keyed by their first DID, so are only ordered against operations on it;
+     * operations naming no DID (HASH, EXPORT, IMPORT...) are spread round-robin.
+     * Every operation naming a DID must be keyed here.
+     */
+    private String usernameOf(Envelope e) {
+        DID did = null;
+        switch(e.getRoute().getOperation()) {
+            case OPERATION_GET_LOCAL_DID: {
+                GetLocalDIDRequest r = (GetLocalDIDRequest)DLC.getData(GetLocalDIDRequest.class,e);
+                if(r != null) did = r.did;
+                break;
+            }
+            case OPERATION_AUTHENTICATE:
+            case OPERATION_AUTHENTICATE_CREATE: {
+                AuthenticateDIDRequest r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class,e);
+                if(r != null) did = r.did;
+                break;
+            }
+            case OPERATION_VALIDATE_TOKEN:
+            case OPERATION_REVOKE_TOKEN: {
+                AuthenticateDIDRequest r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class,e);
+                SessionTokens tokens = sessionTokens;
+                if(r != null && r.did != null)
+                    did = r.did;
+                else if(r != null && tokens != null)
+                    return tokens.username(r.token);
+                break;
+            }
+            case OPERATION_SAVE: {
+                did = (DID)DLC.getData(DID.class,e);
+                break;
+            }
+            case OPERATION_VERIFY: {
+                did = e.getDID();
+                break;
+            }
+            case OPERATION_REVOKE: {
+                RevokeRequest r = (RevokeRequest)DLC.getData(RevokeRequest.class,e);
+                if(r != null) did = r.did != null ? r.did : first(r.dids);
+                break;
+            }
+            case OPERATION_GET_DID_BY_FINGERPRINT: {
+                GetDIDByFingerprintRequest r = (GetDIDByFingerprintRequest)DLC.getData(GetDIDByFingerprintRequest.class,e);
+                return r == null ? null : fingerprints.owner(r.fingerprint);
+            }
+            case OPERATION_RESOLVE: {
+                ResolveDIDRequest r = (ResolveDIDRequest)DLC.getData(ResolveDIDRequest.class,e);
+                if(r != null) did = r.did;
+                break;
+            }
+            case OPERATION_BATCH_VERIFY: {
+                BatchVerifyRequest r = (BatchVerifyRequest)DLC.getData(BatchVerifyRequest.class,e);
+                if(r != null) did = first(r.dids);
+                break;
+            }
+            case OPERATION_BATCH_AUTHENTICATE: {
+                BatchAuthenticateRequest r = (BatchAuthenticateRequest)DLC.getData(BatchAuthenticateRequest.class,e);
+                if(r != null) did = first(r.dids);
+                break;
+            }
+            case OPERATION_VOUCH:
+            case OPERATION_REVOKE_VOUCH: {
+                VouchRequest r = (VouchRequest)DLC.getData(VouchRequest.class,e);
+                if(r != null) did = r.signer;
+                break;
+            }
+            case OPERATION_BATCH_VERIFY_VOUCHES: {
+                BatchVerifyVouchesRequest r = (BatchVerifyVouchesRequest)DLC.getData(BatchVerifyVouchesRequest.class,e);
+                if(r != null && r.vouches != null && !r.vouches.isEmpty() && r.vouches.get(0) != null)
+                    return r.vouches.get(0).getSigner();
+                break;
+            }
+            case OPERATION_GET_TRUST: {
+                GetTrustRequest r = (GetTrustRequest)DLC.getData(GetTrustRequest.class,e);
+                if(r != null) did = r.to;
+                break;
+            }
+            case OPERATION_ADD_TRUST_ANCHOR:
+            case OPERATION_REMOVE_TRUST_ANCHOR: {
+                TrustAnchorRequest r = (TrustAnchorRequest)DLC.getData(TrustAnchorRequest.class,e);
+                if(r != null) did = r.did;
+                break;
+            }
+            case OPERATION_ADD_CONTACT: {
+                AddContactRequest r = (AddContactRequest)DLC.getData(AddContactRequest.class,e);
+                if(r != null) did = r.owner;
+                break;
+            }
+            case OPERATION_GET_CONTACT: {
+                GetContactRequest r = (GetContactRequest)DLC.getData(GetContactRequest.class,e);
+                if(r != null) did = r.owner;
+                break;
+            }
+        }
+        return did == null ? null : did.getUsername();
+    }
+
+    private static DID first(List<DID> dids) {
+        return dids == null || dids.isEmpty() ? null : dids.get(0);
+    }
+
+    /**
+     * Handles the envelope recording the operation's latency and any error code set on its request.
+     * @param deferred counted down once a deferred completion is done; may be null
+     * @return false if completion was deferred, in which case it is recorded on completion
+     */
+    private boolean handle(Envelope e, CountDownLatch deferred) {
+        long start = System.nanoTime();
+        boolean handled = handleAll(e, start, deferred);
+        if(handled)
+            recordOperation(e, start);
+        return handled;
+    }
+
+    private void recordOperation(Envelope e, long startNanos) {
+        String operation = e.getRoute().getOperation();
+        metrics.operation(operation).recordSince(startNanos);
+        Class<?> requestClass = requestClassOf(operation);
+        if(requestClass == null)
+            return;
+        ServiceRequest r = (ServiceRequest)DLC.getData(requestClass,e);
+        if(r == null)
+            return;
+        metrics.error(requestClass, r.errorCode);
+        int[] itemErrorCodes = null;
+        if(r instanceof BatchAuthenticateRequest)
+            itemErrorCodes = ((BatchAuthenticateRequest)r).errorCodes;
+        else if(r instanceof BatchVerifyRequest)
+            itemErrorCodes = ((BatchVerifyRequest)r).errorCodes;
+        if(itemErrorCodes != null) {
+            for(int code : itemErrorCodes) {
+                if(code != BatchAuthenticateRequest.ITEM_OK)
+                    metrics.error(AuthenticateDIDRequest.class, code);
+            }
+        }
+    }
+
+    private static Class<?> requestClassOf(String operation) {
+        switch(operation) {
+            case OPERATION_GET_LOCAL_DID: return GetLocalDIDRequest.class;
+            case OPERATION_AUTHENTICATE:
+            case OPERATION_AUTHENTICATE_CREATE:
+            case OPERATION_VALIDATE_TOKEN:
+            case OPERATION_REVOKE_TOKEN: return AuthenticateDIDRequest.class;
+            case OPERATION_BATCH_VERIFY: return BatchVerifyRequest.class;
+            case OPERATION_BATCH_AUTHENTICATE: return BatchAuthenticateRequest.class;
+            case OPERATION_HASH: return HashRequest.class;
+            case OPERATION_VERIFY_HASH: return VerifyHashRequest.class;
+            case OPERATION_VOUCH:
+            case OPERATION_REVOKE_VOUCH: return VouchRequest.class;
+            case OPERATION_BATCH_VERIFY_VOUCHES: return BatchVerifyVouchesRequest.class;
+            case OPERATION_ADD_CONTACT: return AddContactRequest.class;
+            case OPERATION_GET_CONTACT: return GetContactRequest.class;
+            case OPERATION_GET_TRUST: return GetTrustRequest.class;
+            case OPERATION_ADD_TRUST_ANCHOR:
+            case OPERATION_REMOVE_TRUST_ANCHOR: return TrustAnchorRequest.class;
+            case OPERATION_REVOKE: return RevokeRequest.class;
+            case OPERATION_GET_DID_BY_FINGERPRINT: return GetDIDByFingerprintRequest.class;
+            case OPERATION_RESOLVE: return ResolveDIDRequest.class;
+            case OPERATION_EXPORT: return ExportDIDsRequest.class;
+            case OPERATION_IMPORT: return ImportDIDsRequest.class;
+            case OPERATION_GET_METRICS: return GetMetricsRequest.class;
+            default: return null;
+        }
+    }
+
+    @Override
+    protected void deadLetter(Envelope e) {
+        metrics.deadLetter();
+        super.deadLetter(e);
     }
 
-    private void handleAll(Envelope e) {
+    private boolean handleAll(Envelope e, long startNanos, CountDownLatch deferred) {
         Route route = e.getRoute();
         String operation = route.getOperation();
         switch(operation) {
@@ -96,7 +528,17 @@ public class DIDService extends BaseService {
                     r.errorCode = GetLocalDIDRequest.DID_USERNAME_REQUIRED;
                     break;
                 }
-                r.did = getLocalDID(r);
+                if(revocations.isRevoked(r.did.getUsername())) {
+                    r.errorCode = GetLocalDIDRequest.DID_REVOKED;
+                    break;
+                }
+                Lock lock = usernameLocks.lockFor(r.did.getUsername());
+                lock.lock();
+                try {
+                    r.did = getLocalDID(r);
+                } finally {
+                    lock.unlock();
+                }
                 break;
             }
             case OPERATION_ADD_CONTACT: {
@@ -136,74 +578,250 @@ public class DIDService extends BaseService {
                     r.errorCode = AuthenticateDIDRequest.DID_PASSPHRASE_REQUIRED;
                     break;
                 }
+                if(revoked(r) || throttled(r))
+                    break;
                 AuthNRequest ar = (AuthNRequest)DLC.getData(AuthNRequest.class,e);
                 GenerateKeyRingCollectionsRequest gkr = (GenerateKeyRingCollectionsRequest) DLC.getData(GenerateKeyRingCollectionsRequest.class,e);
                 if(ar!=null && ar.identityPublicKey!=null)
                     r.did.addPublicKey(ar.identityPublicKey);
                 else if(gkr!=null && gkr.identityPublicKey!=null)
                     r.did.addPublicKey(gkr.identityPublicKey);
-                authenticate(r);
-                if(r.did.getAuthenticated()) {
-                    LOG.info("DID Authenticated, setting DID in header.");
-                    e.setDID(r.did);
-                    if(nodeDID==null || nodeDID.equals(r.did)) {
-                        // first authentication is the node itself
-                        LOG.info("First authn is node or this is node authn - caching.");
-                        nodeDID = r.did;
-                    } else if(!nodeDID.equals(r.did))
-                        LOG.info("Local user DID cached.");
-                        localUserDIDs.put(r.did.getUsername(),r.did);
-                    break;
-                } else if(r.errorCode == AuthenticateDIDRequest.DID_USERNAME_UNKNOWN && r.autogenerate) {
-                    LOG.info("Username unknown and autogenerate is true so save DID as authenticated...");
-                    r.did.setAuthenticated(true); // true because we're going to create it
-                    save(r.did, r.autogenerate);
-                    if(nodeDID==null || nodeDID.equals(r.did)) {
-                        // first authentication is the node itself
-                        LOG.info("First authn is node or this is node authn - caching.");
-                        nodeDID = r.did;
-                    } else
-                        LOG.info("Local user DID cached.");
-                        localUserDIDs.put(r.did.getUsername(),r.did);
+                AuthNLoad loaded = null;
+                if(asyncAuthN) {
+                    loaded = loadForAuthN(r.did);
+                    if(authenticateAsync(e, r, loaded, startNanos, deferred))
+                        return false;
+                    if(r.errorCode == AuthenticateDIDRequest.DID_AUTHN_CAPACITY_EXCEEDED)
+                        break;
+                }
+                Lock lock = usernameLocks.lockFor(r.did.getUsername());
+                lock.lock();
+                try {
+                    authenticate(r, loaded);
+                    authenticationResult(e, r);
+                } finally {
+                    lock.unlock();
+                }
+                break;
+            }
+            case OPERATION_VALIDATE_TOKEN:
+            case OPERATION_REVOKE_TOKEN: {
+                AuthenticateDIDRequest r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class,e);
+                if(r == null) {
+                    r = new AuthenticateDIDRequest();
+                    r.errorCode = AuthenticateDIDRequest.REQUEST_REQUIRED;
+                    DLC.addData(AuthenticateDIDRequest.class,r,e);
+                    break;
+                }
+                if(r.token == null) {
+                    r.errorCode = AuthenticateDIDRequest.DID_TOKEN_REQUIRED;
+                    break;
+                }
+                if(OPERATION_VALIDATE_TOKEN.equals(operation))
+                    validateToken(e, r);
+                else
+                    revokeToken(r);
+                break;
+            }
+            case OPERATION_BATCH_VERIFY: {
+                LOG.info("Received batch verify DID request.");
+                BatchVerifyRequest r = (BatchVerifyRequest)DLC.getData(BatchVerifyRequest.class,e);
+                if(r == null) {
+                    r = new BatchVerifyRequest();
+                    r.errorCode = BatchVerifyRequest.REQUEST_REQUIRED;
+                    DLC.addData(BatchVerifyRequest.class,r,e);
+                    break;
+                }
+                if(r.dids == null || r.dids.isEmpty()) {
+                    r.errorCode = BatchVerifyRequest.DIDS_REQUIRED;
+                    break;
+                }
+                batchVerify(r);
+                break;
+            }
+            case OPERATION_BATCH_AUTHENTICATE: {
+                LOG.info("Received batch authn DID request.");
+                BatchAuthenticateRequest r = (BatchAuthenticateRequest)DLC.getData(BatchAuthenticateRequest.class,e);
+                if(r == null) {
+                    r = new BatchAuthenticateRequest();
+                    r.errorCode = BatchAuthenticateRequest.REQUEST_REQUIRED;
+                    DLC.addData(BatchAuthenticateRequest.class,r,e);
+                    break;
+                }
+                if(r.dids == null || r.dids.isEmpty()) {
+                    r.errorCode = BatchAuthenticateRequest.DIDS_REQUIRED;
                     break;
                 }
+                if(!batchAuthenticate(e, r, startNanos, deferred))
+                    return false;
                 break;
             }
             case OPERATION_SAVE: {
                 LOG.info("Received save DID request.");
                 DID did = (DID)DLC.getData(DID.class,e);
-                e.setDID(save(did, true));
+                if(revocations.isRevoked(did.getUsername())) {
+                    LOG.warning("DID revoked; not saved.");
+                    break;
+                }
+                Lock lock = usernameLocks.lockFor(did.getUsername());
+                lock.lock();
+                try {
+                    e.setDID(save(did, true));
+                } finally {
+                    lock.unlock();
+                }
                 break;
             }
             case OPERATION_AUTHENTICATE_CREATE: {
                 AuthenticateDIDRequest r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class,e);
-                authenticateOrCreate(r);
+                if(revoked(r) || throttled(r))
+                    break;
+                Lock lock = usernameLocks.lockFor(r.did.getUsername());
+                lock.lock();
+                try {
+                    authenticateOrCreate(r);
+                } finally {
+                    lock.unlock();
+                }
                 break;
             }
             case OPERATION_REVOKE: {
-                LOG.warning("REVOKE not implemented.");
+                RevokeRequest r = (RevokeRequest)DLC.getData(RevokeRequest.class,e);
+                if(r == null) {
+                    r = new RevokeRequest();
+                    r.errorCode = RevokeRequest.REQUEST_REQUIRED;
+                    DLC.addData(RevokeRequest.class,r,e);
+                    break;
+                }
+                if(r.since >= 0) {
+                    r.revocations = revocations.since(r.since, RevokeRequest.MAX_REVOCATIONS_RETURNED);
+                    r.sequence = Math.min(r.since, revocations.getSequence()) + r.revocations.size();
+                    break;
+                }
+                revoke(r);
+                break;
+            }
+            case OPERATION_GET_DID_BY_FINGERPRINT: {
+                GetDIDByFingerprintRequest r = (GetDIDByFingerprintRequest)DLC.getData(GetDIDByFingerprintRequest.class,e);
+                if(r == null) {
+                    r = new GetDIDByFingerprintRequest();
+                    r.errorCode = GetDIDByFingerprintRequest.REQUEST_REQUIRED;
+                    DLC.addData(GetDIDByFingerprintRequest.class,r,e);
+                    break;
+                }
+                if(r.fingerprint == null) {
+                    r.errorCode = GetDIDByFingerprintRequest.FINGERPRINT_REQUIRED;
+                    break;
+                }
+                getDIDByFingerprint(r);
+                break;
+            }
+            case OPERATION_RESOLVE: {
+                ResolveDIDRequest r = (ResolveDIDRequest)DLC.getData(ResolveDIDRequest.class,e);
+                if(r == null) {
+                    r = new ResolveDIDRequest();
+                    r.errorCode = ResolveDIDRequest.REQUEST_REQUIRED;
+                    DLC.addData(ResolveDIDRequest.class,r,e);
+                    break;
+                }
+                if(r.did == null || r.did.getUsername() == null) {
+                    r.errorCode = ResolveDIDRequest.DID_REQUIRED;
+                    break;
+                }
+                resolve(r);
+                break;
+            }
+            case OPERATION_EXPORT: {
+                LOG.info("Received export DIDs request.");
+                ExportDIDsRequest r = (ExportDIDsRequest)DLC.getData(ExportDIDsRequest.class,e);
+                if(r == null) {
+                    r = new ExportDIDsRequest();
+                    r.errorCode = ExportDIDsRequest.REQUEST_REQUIRED;
+                    DLC.addData(ExportDIDsRequest.class,r,e);
+                    break;
+                }
+                if(r.path == null) {
+                    r.errorCode = ExportDIDsRequest.PATH_REQUIRED;
+                    break;
+                }
+                if(!provenNode(r.node, r.token)) {
+                    r.errorCode = ExportDIDsRequest.NODE_NOT_AUTHENTICATED;
+                    break;
+                }
+                export(r);
+                break;
+            }
+            case OPERATION_IMPORT: {
+                LOG.info("Received import DIDs request.");
+                ImportDIDsRequest r = (ImportDIDsRequest)DLC.getData(ImportDIDsRequest.class,e);
+                if(r == null) {
+                    r = new ImportDIDsRequest();
+                    r.errorCode = ImportDIDsRequest.REQUEST_REQUIRED;
+                    DLC.addData(ImportDIDsRequest.class,r,e);
+                    break;
+                }
+                if(r.path == null) {
+                    r.errorCode = ImportDIDsRequest.PATH_REQUIRED;
+                    break;
+                }
+                if(!provenNode(r.node, r.token)) {
+                    r.errorCode = ImportDIDsRequest.NODE_NOT_AUTHENTICATED;
+                    break;
+                }
+                importDIDs(r);
                 break;
             }
             case OPERATION_HASH: {
                 HashRequest r = (HashRequest)DLC.getData(HashRequest.class,e);
                 try {
-                    if(r.generateHash)
-                        r.hash = HashUtil.generateHash(r.contentToHash, Hash.Algorithm.SHA256);
-                    if(r.generateFingerprint && r.hash != null) {
-                        r.fingerprint = HashUtil.generateHash(r.hash.getHash(), Hash.Algorithm.SHA1);
+                    if(r.generateTreeHash) {
+                        treeHash(r);
+                        if(r.generateFingerprint && r.treeHash != null) {
+                            r.fingerprint = fingerprint(r.treeHash.getHash());
+                        }
+                    } else {
+                        if(r.generateHash)
+                            r.digest = digest(r);
+                        if(r.digest != null) {
+                            String encoded = r.encodeHash || r.generateFingerprint ? Base64.encode(r.digest) : null;
+                            if(r.encodeHash)
+                                r.hash = new Hash(encoded, hashAlgorithm(r.algorithm));
+                            if(r.generateFingerprint)
+                                r.fingerprint = fingerprint(encoded);
+                        }
                     }
                 } catch (NoSuchAlgorithmException e1) {
                     r.errorCode = UNKNOWN_HASH_ALGORITHM;
+                } catch (IOException e1) {
+                    LOG.warning("Unable to read content to hash: "+e1.getLocalizedMessage());
+                    r.errorCode = HashRequest.CONTENT_UNREADABLE;
                 }
                 break;
             }
             case OPERATION_VERIFY_HASH:{
                 VerifyHashRequest r = (VerifyHashRequest)DLC.getData(VerifyHashRequest.class,e);
                 try {
-                    r.isAMatch = HashUtil.verifyHash(r.content, r.hashToVerify);
+                    r.isAMatch = verifyHash(r);
                 } catch (NoSuchAlgorithmException e1) {
                     r.errorCode = UNKNOWN_HASH_ALGORITHM;
+                } catch (IOException e1) {
+                    LOG.warning("Unable to read content to verify: "+e1.getLocalizedMessage());
+                    r.errorCode = VerifyHashRequest.CONTENT_UNREADABLE;
+                }
+                break;
+            }
+            case OPERATION_GET_METRICS: {
+                GetMetricsRequest r = (GetMetricsRequest)DLC.getData(GetMetricsRequest.class,e);
+                if(r == null) {
+                    r = new GetMetricsRequest();
+                    DLC.addData(GetMetricsRequest.class,r,e);
                 }
+                r.metrics = getMetrics().toMap();
+                AuthNThrottle throttle = authNThrottle;
+                if(throttle != null)
+                    r.metrics.put("authnThrottle", throttle.toMap());
+                if(r.reset)
+                    metrics.reset();
                 break;
             }
             case OPERATION_VOUCH:{
@@ -220,120 +838,1883 @@ public class DIDService extends BaseService {
                     r.errorCode = VouchRequest.ATTRIBUTES_REQUIRED;
                     break;
                 }
-
+                vouch(r);
+                break;
+            }
+            case OPERATION_REVOKE_VOUCH: {
+                VouchRequest r = (VouchRequest)DLC.getData(VouchRequest.class,e);
+                if(r == null) {
+                    r = new VouchRequest();
+                    r.errorCode = VouchRequest.REQUEST_REQUIRED;
+                    DLC.addData(VouchRequest.class,r,e);
+                    break;
+                }
+                if(r.signer == null) {
+                    r.errorCode = VouchRequest.SIGNER_REQUIRED;
+                    break;
+                }
+                if(r.signee == null || r.signee.getUsername() == null) {
+                    r.errorCode = VouchRequest.SIGNEE_REQUIRED;
+                    break;
+                }
+                revokeVouch(r);
+                break;
+            }
+            case OPERATION_BATCH_VERIFY_VOUCHES: {
+                BatchVerifyVouchesRequest r = (BatchVerifyVouchesRequest)DLC.getData(BatchVerifyVouchesRequest.class,e);
+                if(r == null) {
+                    r = new BatchVerifyVouchesRequest();
+                    r.errorCode = BatchVerifyVouchesRequest.REQUEST_REQUIRED;
+                    DLC.addData(BatchVerifyVouchesRequest.class,r,e);
+                    break;
+                }
+                if(r.vouches == null || r.vouches.isEmpty()) {
+                    r.errorCode = BatchVerifyVouchesRequest.VOUCHES_REQUIRED;
+                    break;
+                }
+                batchVerifyVouches(r);
+                break;
+            }
+            case OPERATION_GET_TRUST: {
+                GetTrustRequest r = (GetTrustRequest)DLC.getData(GetTrustRequest.class,e);
+                if(r == null) {
+                    r = new GetTrustRequest();
+                    r.errorCode = GetTrustRequest.REQUEST_REQUIRED;
+                    DLC.addData(GetTrustRequest.class,r,e);
+                    break;
+                }
+                if(r.to == null || r.to.getUsername() == null
+                        || (r.from != null && r.from.getUsername() == null)) {
+                    r.errorCode = GetTrustRequest.DID_REQUIRED;
+                    break;
+                }
+                getTrust(r);
+                break;
+            }
+            case OPERATION_ADD_TRUST_ANCHOR:
+            case OPERATION_REMOVE_TRUST_ANCHOR: {
+                TrustAnchorRequest r = (TrustAnchorRequest)DLC.getData(TrustAnchorRequest.class,e);
+                if(r == null) {
+                    r = new TrustAnchorRequest();
+                    r.errorCode = TrustAnchorRequest.REQUEST_REQUIRED;
+                    DLC.addData(TrustAnchorRequest.class,r,e);
+                    break;
+                }
+                if(r.did == null || r.did.getUsername() == null) {
+                    r.errorCode = TrustAnchorRequest.DID_REQUIRED;
+                    break;
+                }
+                trustAnchor(r, OPERATION_ADD_TRUST_ANCHOR.equals(operation));
+                break;
             }
             default: deadLetter(e); // Operation not supported
         }
+        return true;
     }
 
-    private void vouch(VouchRequest request) {
-        // TODO: complete signing attributes
+    private void authenticationResult(Envelope e, AuthenticateDIDRequest r) {
+        if(r.did.getAuthenticated()) {
+            LOG.info("DID Authenticated, setting DID in header.");
+            e.setDID(r.did);
+            // the node DID is trusted outright; other local DIDs only once anchored explicitly
+            if(localDIDs.cacheAuthenticated(r.did))
+                anchor(r.did.getUsername());
+            indexKey(r.did);
+            issueToken(r);
+        } else if(r.errorCode == AuthenticateDIDRequest.DID_USERNAME_UNKNOWN && r.autogenerate) {
+            LOG.info("Username unknown and autogenerate is true so save DID as authenticated...");
+            r.did.setAuthenticated(true); // true because we're going to create it
+            save(r.did, r.autogenerate);
+            if(localDIDs.cacheAuthenticated(r.did))
+                anchor(r.did.getUsername());
+            issueToken(r);
+        }
     }
 
-    private DID getLocalDID(GetLocalDIDRequest r) {
-        if(nodeDID!=null)
-            return nodeDID;
-        if(localUserDIDs.containsKey(r.did.getUsername()))
-            return localUserDIDs.get(r.did.getUsername());
-        if(r.did.getPassphrase() == null) {
-            r.errorCode = GetLocalDIDRequest.DID_PASSPHRASE_REQUIRED;
-            return r.did;
-        }
-        if(r.did.getPassphraseHashAlgorithm() == null) {
-            r.errorCode = GetLocalDIDRequest.DID_PASSPHRASE_HASH_ALGORITHM_UNKNOWN;
-            return r.did;
+    private void issueToken(AuthenticateDIDRequest r) {
+        SessionTokens tokens = sessionTokens;
+        if(tokens != null && r.did.getUsername() != null)
+            r.token = tokens.issue(r.did.getUsername());
+    }
+
+    /**
+     * Authenticates the stored DID the token was issued for instead of by its passphrase; the
+     * request's DID, if any, is only used to require its username be that one.
+     */
+    private void validateToken(Envelope e, AuthenticateDIDRequest r) {
+        SessionTokens tokens = sessionTokens;
+        String username = r.did == null ? null : r.did.getUsername();
+        SessionTokens.Result result = tokens == null ? SessionTokens.Result.MALFORMED : tokens.validate(r.token, username);
+        switch(result) {
+            case VALID: {
+                DID query = new DID();
+                query.setUsername(tokens.username(r.token));
+                if(r.did == null)
+                    r.did = query;
+                if(revocations.isRevoked(query.getUsername())) {
+                    r.errorCode = AuthenticateDIDRequest.DID_REVOKED;
+                    r.did.setAuthenticated(false);
+                    return;
+                }
+                DID stored = load(query);
+                if(stored.getUsername() == null) {
+                    // deleted or replaced since the token was issued
+                    r.errorCode = AuthenticateDIDRequest.DID_USERNAME_UNKNOWN;
+                    r.did.setAuthenticated(false);
+                    return;
+                }
+                stored.setAuthenticated(true);
+                r.did = stored;
+                e.setDID(r.did);
+                break;
+            }
+            case EXPIRED: r.errorCode = AuthenticateDIDRequest.DID_TOKEN_EXPIRED; break;
+            case REVOKED: r.errorCode = AuthenticateDIDRequest.DID_TOKEN_REVOKED; break;
+            default: r.errorCode = AuthenticateDIDRequest.DID_TOKEN_FORMAT_MISMATCH;
         }
-        return save(r.did, true);
+        if(r.did != null && result != SessionTokens.Result.VALID)
+            r.did.setAuthenticated(false);
     }
 
-    private void addContact(Envelope e) {
+    private void revokeToken(AuthenticateDIDRequest r) {
+        SessionTokens tokens = sessionTokens;
+        if(tokens == null || !tokens.revoke(r.token))
+            r.errorCode = AuthenticateDIDRequest.DID_TOKEN_FORMAT_MISMATCH;
+    }
 
+    /**
+     * Digest of the request's content in the requested algorithm, or the configured one, with the
+     * thread's pooled digest; streams it when given as a stream, buffer or file.
+     */
+    private byte[] digest(HashRequest r) throws NoSuchAlgorithmException, IOException {
+        String algorithm = DigestEngine.algorithm(r.algorithm == null ? hashAlgorithm : r.algorithm);
+        byte[] digest;
+        if(r.contentBytes != null)
+            digest = DigestEngine.digest(algorithm, r.contentBytes);
+        else if(r.contentToHash != null)
+            digest = DigestEngine.digest(algorithm, r.contentToHash.getBytes(StandardCharsets.UTF_8));
+        else if(r.contentStream != null)
+            digest = DigestEngine.digest(algorithm, r.contentStream);
+        else if(r.contentBuffer != null)
+            digest = DigestEngine.digest(algorithm, r.contentBuffer);
+        else if(r.contentPath != null)
+            digest = DigestEngine.digest(algorithm, Paths.get(r.contentPath));
+        else {
+            r.errorCode = HashRequest.CONTENT_REQUIRED;
+            return null;
+        }
+        r.algorithm = algorithm;
+        return digest;
     }
 
-    private void getContact(Envelope e) {
+    /**
+     * Verifies a hash by the digest algorithm named on the request, as HASH names it, so those
+     * {@link Hash.Algorithm} has no name for verify too.
+     */
+    private boolean verifyDigest(VerifyHashRequest r) throws NoSuchAlgorithmException, IOException {
+        String algorithm = DigestEngine.algorithm(r.algorithm);
+        if(r.hashToVerify == null)
+            return false;
+        if(r.hashToVerify.getAlgorithm() != null && r.hashToVerify.getAlgorithm() != hashAlgorithm(algorithm))
+            return false;
+        byte[] digest;
+        if(r.content != null)
+            digest = DigestEngine.digest(algorithm, r.content.getBytes(StandardCharsets.UTF_8));
+        else if(r.contentStream != null)
+            digest = DigestEngine.digest(algorithm, r.contentStream);
+        else if(r.contentBuffer != null)
+            digest = DigestEngine.digest(algorithm, r.contentBuffer);
+        else if(r.contentPath != null)
+            digest = DigestEngine.digest(algorithm, Paths.get(r.contentPath));
+        else {
+            r.errorCode = VerifyHashRequest.CONTENT_REQUIRED;
+            return false;
+        }
+        return ContentHasher.matches(ContentHasher.toHash(digest, r.hashToVerify.getAlgorithm()), r.hashToVerify);
+    }
 
+    /**
+     * @return the Hash algorithm naming the digest algorithm, null for those it has no name for
+     */
+    private static Hash.Algorithm hashAlgorithm(String algorithm) {
+        if(DigestEngine.SHA256.equals(algorithm)) return Hash.Algorithm.SHA256;
+        if(DigestEngine.SHA1.equals(algorithm)) return Hash.Algorithm.SHA1;
+        return null;
     }
 
-    private DID verify(DID did) {
-        LOG.info("Received verify DID request.");
-        LoadDIDDAO dao = new LoadDIDDAO(infoVaultDB, did);
-        dao.execute();
-        DID didLoaded = dao.getLoadedDID();
-        if(didLoaded != null && did.getUsername() != null && did.getUsername().equals(didLoaded.getUsername())) {
-            didLoaded.setVerified(true);
-            LOG.info("DID verification successful.");
-            return didLoaded;
-        } else {
-            did.setVerified(false);
-            LOG.info("DID verification unsuccessful.");
-            return did;
+    /**
+     * SHA1 over a hash's Base64 text as {@link HashUtil#generateHash(String, Hash.Algorithm)} takes it.
+     */
+    private static Hash fingerprint(String hash) throws NoSuchAlgorithmException {
+        return ContentHasher.toHash(DigestEngine.digest(DigestEngine.SHA1, hash.getBytes(StandardCharsets.UTF_8)), Hash.Algorithm.SHA1);
+    }
+
+    /**
+     * Merkle tree hash of the request's content with its chunks hashed on the fork-join pool.
+     */
+    private void treeHash(HashRequest r) throws IOException {
+        MerkleHasher hasher = new MerkleHasher(treeHashPool, r.treeChunkSize);
+        MerkleHasher.Tree tree;
+        if(r.contentBytes != null)
+            tree = hasher.hash(ByteBuffer.wrap(r.contentBytes));
+        else if(r.contentToHash != null)
+            tree = hasher.hash(ByteBuffer.wrap(r.contentToHash.getBytes(StandardCharsets.UTF_8)));
+        else if(r.contentStream != null)
+            tree = hasher.hash(r.contentStream);
+        else if(r.contentBuffer != null)
+            tree = hasher.hash(r.contentBuffer);
+        else if(r.contentPath != null)
+            tree = hasher.hash(Paths.get(r.contentPath));
+        else {
+            r.errorCode = HashRequest.CONTENT_REQUIRED;
+            return;
+        }
+        r.treeHash = ContentHasher.toHash(tree.root, Hash.Algorithm.SHA256);
+        if(r.returnChunkHashes) {
+            r.chunkHashes = new ArrayList<>(tree.leaves.length);
+            for(byte[] leaf : tree.leaves) {
+                r.chunkHashes.add(ContentHasher.toHash(leaf, Hash.Algorithm.SHA256));
+            }
         }
     }
 
     /**
-     * Saves and returns DID generating passphrase hash if none exists.
-     * @param did DID
+     * Verifies a Merkle tree hash. When the chunk hashes and an index are given only that
+     * chunk is re-hashed: it must match its leaf and the leaves must produce the tree hash.
      */
-    private DID save(DID did, boolean autocreate) {
+    private boolean verifyTreeHash(VerifyHashRequest r) throws IOException {
+        MerkleHasher hasher = new MerkleHasher(treeHashPool, r.treeChunkSize);
+        if(r.chunkHashes != null && !r.chunkHashes.isEmpty() && r.chunkIndex >= 0 && r.contentStream == null) {
+            ByteBuffer content;
+            long size;
+            if(r.content != null) {
+                content = ByteBuffer.wrap(r.content.getBytes(StandardCharsets.UTF_8));
+                size = content.remaining();
+            } else if(r.contentBuffer != null) {
+                content = r.contentBuffer;
+                size = content.remaining();
+            } else if(r.contentPath != null) {
+                content = null;
+                size = Files.size(Paths.get(r.contentPath));
+            } else {
+                r.errorCode = VerifyHashRequest.CONTENT_REQUIRED;
+                return false;
+            }
+            if(r.chunkIndex >= r.chunkHashes.size() || r.chunkIndex >= hasher.chunkCount(size)) {
+                r.errorCode = VerifyHashRequest.CHUNK_INDEX_OUT_OF_RANGE;
+                return false;
+            }
+            byte[] leaf = content != null ? hasher.hashChunk(content, r.chunkIndex)
+                    : hasher.hashChunk(Paths.get(r.contentPath), r.chunkIndex);
+            byte[][] leaves = new byte[r.chunkHashes.size()][];
+            for(int i=0; i<leaves.length; i++) {
+                leaves[i] = Base64.decode(r.chunkHashes.get(i).getHash());
+            }
+            return MessageDigest.isEqual(leaf, leaves[r.chunkIndex])
+                    && ContentHasher.matches(ContentHasher.toHash(MerkleHasher.root(leaves), Hash.Algorithm.SHA256), r.hashToVerify);
+        }
+        MerkleHasher.Tree tree;
+        if(r.content != null)
+            tree = hasher.hash(ByteBuffer.wrap(r.content.getBytes(StandardCharsets.UTF_8)));
+        else if(r.contentStream != null)
+            tree = hasher.hash(r.contentStream);
+        else if(r.contentBuffer != null)
+            tree = hasher.hash(r.contentBuffer);
+        else if(r.contentPath != null)
+            tree = hasher.hash(Paths.get(r.contentPath));
+        else {
+            r.errorCode = VerifyHashRequest.CONTENT_REQUIRED;
+            return false;
+        }
+        return ContentHasher.matches(ContentHasher.toHash(tree.root, Hash.Algorithm.SHA256), r.hashToVerify);
+    }
+
+    private boolean verifyHash(VerifyHashRequest r) throws NoSuchAlgorithmException, IOException {
+        if(r.isTreeHash)
+            return verifyTreeHash(r);
+        if(r.algorithm != null)
+            return verifyDigest(r);
+        if(r.content != null)
+            return HashUtil.verifyHash(r.content, r.hashToVerify);
+        if(r.hashToVerify == null)
+            return false;
+        Hash.Algorithm algorithm = r.hashToVerify.getAlgorithm();
+        Hash computed;
+        if(r.contentStream != null)
+            computed = ContentHasher.hash(r.contentStream, algorithm);
+        else if(r.contentBuffer != null)
+            computed = ContentHasher.hash(r.contentBuffer, algorithm);
+        else if(r.contentPath != null)
+            computed = ContentHasher.hash(r.contentPath, algorithm);
+        else {
+            r.errorCode = VerifyHashRequest.CONTENT_REQUIRED;
+            return false;
+        }
+        return ContentHasher.matches(computed, r.hashToVerify);
+    }
+
+    /**
+     * Signs the attributes for the signee with the vouching key of the signer, which the request
+     * must prove it acts for.
+     */
+    private void vouch(VouchRequest r) {
+        DID signer = r.signer;
+        if(!proven(signer, r.token)) {
+            r.errorCode = VouchRequest.SIGNER_NOT_AUTHENTICATED;
+            return;
+        }
+        if(r.signee.getUsername() == null) {
+            r.errorCode = VouchRequest.SIGNEE_REQUIRED;
+            return;
+        }
+        if(revocations.isRevoked(r.signee.getUsername())) {
+            r.errorCode = VouchRequest.SIGNEE_REVOKED;
+            return;
+        }
+        VouchKeys keys = vouchKeys;
+        if(keys == null) {
+            LOG.warning("No vouching key store; unable to vouch.");
+            r.errorCode = VouchRequest.SIGNING_FAILED;
+            return;
+        }
+        try {
+            Ed25519PrivateKeyParameters key = keys.keyFor(signer.getUsername());
+            publishVouchKey(signer.getUsername(), key.generatePublicKey().getEncoded());
+            r.vouch = vouchSigner.sign(signer.getUsername(), r.signee.getUsername(), r.attributesToSign, trustWeight(r.attributesToSign), key);
+        } catch (IOException | RuntimeException ex) {
+            LOG.warning("Unable to sign vouch: "+ex.getLocalizedMessage());
+            r.errorCode = VouchRequest.SIGNING_FAILED;
+            return;
+        }
+        trusted(signer.getUsername(), r.signee.getUsername(), r.vouch.getWeight());
+    }
+
+    /**
+     * Puts the vouching public key on the signer's stored record, once per start, so nodes it
+     * is exported to verify its vouches too.
+     */
+    private void publishVouchKey(String username, byte[] publicKey) throws IOException {
+        if(publishedVouchKeys.contains(username))
+            return;
+        String encoded = Base64.encode(publicKey);
+        DIDStore store = store();
+        Lock lock = usernameLocks.lockFor(username);
+        lock.lock();
+        try {
+            byte[] record = store.load(username);
+            if(record == null)
+                return;
+            Map<String,Object> m = DIDRecordCodec.toMap(record);
+            if(!encoded.equals(m.get(DIDRecordCodec.FIELD_VOUCH_KEY))) {
+                m.put(DIDRecordCodec.FIELD_VOUCH_KEY, encoded);
+                store.save(username, binaryRecords ? DIDRecordCodec.encode(m) : JSONParser.toString(m).getBytes(), false);
+                invalidate(username);
+            }
+            publishedVouchKeys.add(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Withdraws the signer's vouches for the signee made until now from the web of trust; the
+     * signer must be proven as for VOUCH.
+     */
+    private void revokeVouch(VouchRequest r) {
+        if(!proven(r.signer, r.token)) {
+            r.errorCode = VouchRequest.SIGNER_NOT_AUTHENTICATED;
+            return;
+        }
+        String signer = r.signer.getUsername();
+        String signee = r.signee.getUsername();
+        long revokedAt = System.currentTimeMillis();
+        r.removed = trustGraph.revokeEdge(signer, signee, revokedAt);
+        TrustLog log = trustLog;
+        if(log != null) {
+            try {
+                log.removed(signer, signee, revokedAt);
+            } catch (IOException ex) {
+                LOG.warning("Unable to log withdrawn vouch in web of trust: "+ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Anchors or unanchors the DID in the web of trust for the node DID the request proves it acts for.
+     */
+    private void trustAnchor(TrustAnchorRequest r, boolean add) {
+        if(!provenNode(r.node, r.token)) {
+            r.errorCode = TrustAnchorRequest.NODE_NOT_AUTHENTICATED;
+            return;
+        }
+        if(add && revocations.isRevoked(r.did.getUsername())) {
+            r.errorCode = TrustAnchorRequest.DID_REVOKED;
+            return;
+        }
+        r.changed = add ? anchor(r.did.getUsername()) : unanchor(r.did.getUsername());
+    }
+
+    /**
+     * @return true if the DID is the node DID and the token or its passphrase proves the request acts for it
+     */
+    private boolean provenNode(DID did, String token) {
+        DID nodeDID = localDIDs.getNodeDID();
+        return nodeDID != null && did != null && nodeDID.getUsername().equals(did.getUsername()) && proven(did, token);
+    }
+
+    /**
+     * Trusts the DID outright in the web of trust unless it is revoked.
+     * @return false if it is revoked or already an anchor
+     */
+    private boolean anchor(String username) {
+        if(revocations.isRevoked(username) || trustGraph.isAnchor(username))
+            return false;
+        trustGraph.addAnchor(username);
+        TrustLog log = trustLog;
+        if(log != null) {
+            try {
+                log.anchor(username);
+            } catch (IOException ex) {
+                LOG.warning("Unable to log trust anchor: "+ex.getLocalizedMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the DID was not an anchor
+     */
+    private boolean unanchor(String username) {
+        if(!trustGraph.removeAnchor(username))
+            return false;
+        TrustLog log = trustLog;
+        if(log != null) {
+            try {
+                log.unanchored(username);
+            } catch (IOException ex) {
+                LOG.warning("Unable to log trust anchor removed: "+ex.getLocalizedMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the vouch to the web of trust unless its signer is revoked.
+     */
+    private void trusted(String signer, String signee, float weight) {
+        if(revocations.isRevoked(signer))
+            return;
+        trustGraph.addEdge(signer, signee, weight);
+        TrustLog log = trustLog;
+        if(log != null) {
+            try {
+                log.added(signer, signee, weight);
+            } catch (IOException ex) {
+                LOG.warning("Unable to log vouch in web of trust: "+ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Adds a verified vouch to the web of trust with the weight its signer signed unless the
+     * signer is revoked or already vouches for the signee.
+     */
+    private void trustedOnce(Vouch v) {
+        if(revocations.isRevoked(v.getSigner())
+                || !trustGraph.addEdgeIfAbsent(v.getSigner(), v.getSignee(), v.getWeight()))
+            return;
+        TrustLog log = trustLog;
+        if(log != null) {
+            try {
+                log.added(v.getSigner(), v.getSignee(), v.getWeight());
+            } catch (IOException ex) {
+                LOG.warning("Unable to log vouch in web of trust: "+ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the trust attribute of a vouch if it is a number in (0,1], otherwise full trust
+     */
+    private static float trustWeight(Map<String,Object> attributes) {
+        Object t = attributes.get("trust");
+        if(t == null)
+            return 1;
+        try {
+            float w = t instanceof Number ? ((Number)t).floatValue() : Float.parseFloat(t.toString());
+            return w > 0 && w <= 1 ? w : 1;
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+
+    private void getTrust(GetTrustRequest r) {
+        TrustGraph graph = trustGraph;
+        if(revocations.isRevoked(r.to.getUsername())
+                || (r.from != null && revocations.isRevoked(r.from.getUsername()))) {
+            r.trust = 0;
+            r.path = Collections.emptyList();
+            return;
+        }
+        if(r.from == null) {
+            r.trust = graph.trust(r.to.getUsername());
+            r.path = graph.trustPath(r.to.getUsername());
+        } else {
+            TrustGraph.Result result = graph.trust(r.from.getUsername(), r.to.getUsername());
+            r.trust = result.trust;
+            r.path = result.path;
+        }
+    }
+
+    /**
+     * Verifies vouches not verified before on the fork-join pool against their signers' known keys.
+     */
+    private void batchVerifyVouches(BatchVerifyVouchesRequest r) {
+        final Map<String,byte[]> signerKeys = new HashMap<>();
+        for(Vouch v : r.vouches) {
+            if(v != null && v.getSigner() != null && !signerKeys.containsKey(v.getSigner()))
+                signerKeys.put(v.getSigner(), vouchPublicKeyOf(v.getSigner()));
+        }
+        boolean[] valid = vouchSigner.verifyAll(r.vouches, new VouchSigner.SignerKeys() {
+            @Override
+            public byte[] publicKeyOf(String signer) {
+                return signerKeys.get(signer);
+            }
+        }, treeHashPool);
+        r.errorCodes = new int[r.vouches.size()];
+        for(int i=0; i<valid.length; i++) {
+            if(r.vouches.get(i) == null)
+                r.errorCodes[i] = BatchVerifyVouchesRequest.ITEM_VOUCH_REQUIRED;
+            else if(!valid[i] && signerKeys.get(r.vouches.get(i).getSigner()) == null)
+                r.errorCodes[i] = BatchVerifyVouchesRequest.ITEM_SIGNER_KEY_UNKNOWN;
+            else if(!valid[i])
+                r.errorCodes[i] = BatchVerifyVouchesRequest.ITEM_SIGNATURE_INVALID;
+            else if(revocations.isRevoked(r.vouches.get(i).getSigner()))
+                r.errorCodes[i] = BatchVerifyVouchesRequest.ITEM_SIGNER_REVOKED;
+            else if(r.vouches.get(i).getSignedAt() <= trustGraph.revokedAt(r.vouches.get(i).getSigner(), r.vouches.get(i).getSignee()))
+                r.errorCodes[i] = BatchVerifyVouchesRequest.ITEM_VOUCH_REVOKED;
+            else
+                trustedOnce(r.vouches.get(i));
+        }
+        LOG.info("Batch verified "+r.vouches.size()+" vouches.");
+    }
+
+    /**
+     * @return the signer's vouching key if it is local, otherwise the one published on its
+     * stored record; null if neither is known
+     */
+    private byte[] vouchPublicKeyOf(String signer) {
+        VouchKeys keys = vouchKeys;
+        if(keys != null) {
+            try {
+                byte[] key = keys.publicKeyOf(signer);
+                if(key != null)
+                    return key;
+            } catch (IOException ex) {
+                LOG.warning("Unable to read vouching key of "+signer+": "+ex.getLocalizedMessage());
+            }
+        }
+        if(definitelyUnknown(signer))
+            return null;
+        try {
+            byte[] record = store().load(signer);
+            if(record == null)
+                return null;
+            Object published = DIDRecordCodec.isBinary(record) ?
+                    DIDRecordCodec.readField(record, DIDRecordCodec.FIELD_VOUCH_KEY) :
+                    DIDRecordCodec.toMap(record).get(DIDRecordCodec.FIELD_VOUCH_KEY);
+            if(!(published instanceof String))
+                return null;
+            byte[] key = Base64.decode((String)published);
+            return key != null && key.length == Ed25519PublicKeyParameters.KEY_SIZE ? key : null;
+        } catch (IOException | RuntimeException ex) {
+            LOG.warning("Unable to read published vouching key of "+signer+": "+ex.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private DID getLocalDID(GetLocalDIDRequest r) {
+        DID nodeDID = localDIDs.getNodeDID();
+        if(nodeDID!=null)
+            return nodeDID;
+        DID localUserDID = localDIDs.getLocalUserDID(r.did.getUsername());
+        if(localUserDID!=null)
+            return localUserDID;
+        if(r.did.getPassphrase() == null) {
+            r.errorCode = GetLocalDIDRequest.DID_PASSPHRASE_REQUIRED;
+            return r.did;
+        }
+        if(r.did.getPassphraseHashAlgorithm() == null) {
+            r.errorCode = GetLocalDIDRequest.DID_PASSPHRASE_HASH_ALGORITHM_UNKNOWN;
+            return r.did;
+        }
+        return save(r.did, true);
+    }
+
+    private void addContact(Envelope e) {
+        AddContactRequest r = (AddContactRequest)DLC.getData(AddContactRequest.class,e);
+        if(r == null) {
+            r = new AddContactRequest();
+            r.errorCode = AddContactRequest.REQUEST_REQUIRED;
+            DLC.addData(AddContactRequest.class,r,e);
+            return;
+        }
+        if(r.owner == null || r.owner.getUsername() == null) {
+            r.errorCode = AddContactRequest.OWNER_REQUIRED;
+            return;
+        }
+        if(r.contact == null || r.contact.getUsername() == null) {
+            r.errorCode = AddContactRequest.CONTACT_REQUIRED;
+            return;
+        }
+        if(!proven(r.owner, r.token)) {
+            r.errorCode = AddContactRequest.OWNER_NOT_AUTHENTICATED;
+            return;
+        }
+        Lock lock = usernameLocks.lockFor(r.owner.getUsername());
+        lock.lock();
+        try {
+            ContactBook book = contactBook(r.owner.getUsername());
+            if(book == null) {
+                r.errorCode = AddContactRequest.CONTACT_NOT_PERSISTED;
+                return;
+            }
+            if(r.contact.getAddedAt() == 0)
+                r.contact.setAddedAt(System.currentTimeMillis());
+            SaveContactDAO dao = new SaveContactDAO(infoVaultDB, contactStore, r.owner.getUsername(), r.contact);
+            dao.execute();
+            if(dao.getException() != null) {
+                LOG.warning("Unable to save contact: "+dao.getException().getLocalizedMessage());
+                r.errorCode = AddContactRequest.CONTACT_NOT_PERSISTED;
+                return;
+            }
+            book.add(r.contact);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void getContact(Envelope e) {
+        GetContactRequest r = (GetContactRequest)DLC.getData(GetContactRequest.class,e);
+        if(r == null) {
+            r = new GetContactRequest();
+            r.errorCode = GetContactRequest.REQUEST_REQUIRED;
+            DLC.addData(GetContactRequest.class,r,e);
+            return;
+        }
+        if(r.owner == null || r.owner.getUsername() == null) {
+            r.errorCode = GetContactRequest.OWNER_REQUIRED;
+            return;
+        }
+        if(!proven(r.owner, r.token)) {
+            r.errorCode = GetContactRequest.OWNER_NOT_AUTHENTICATED;
+            return;
+        }
+        ContactBook book = contactBooks.get(r.owner.getUsername());
+        if(book == null) {
+            Lock lock = usernameLocks.lockFor(r.owner.getUsername());
+            lock.lock();
+            try {
+                book = contactBook(r.owner.getUsername());
+            } finally {
+                lock.unlock();
+            }
+            if(book == null) {
+                r.errorCode = GetContactRequest.CONTACTS_NOT_LOADED;
+                return;
+            }
+        }
+        if(r.username != null || r.fingerprint != null) {
+            Contact c = r.username != null ? book.get(r.username) : book.getByFingerprint(r.fingerprint);
+            r.contacts = c == null ? Collections.<Contact>emptyList() : Collections.singletonList(c);
+            r.total = r.contacts.size();
+        } else {
+            ContactBook.Page page = book.search(r.prefix, Math.max(0, r.offset),
+                    Math.max(0, Math.min(r.limit, GetContactRequest.MAX_LIMIT)), r.countTotal);
+            r.contacts = page.contacts;
+            r.total = page.total;
+            r.more = page.more;
+        }
+    }
+
+    /**
+     * Whether the request proves it acts for the DID stored on this node: by a valid session token
+     * issued to it or else by its passphrase, throttled like an authentication. Nothing is taken
+     * from an earlier authentication so each request proves itself.
+     */
+    private boolean proven(DID did, String token) {
+        String username = did.getUsername();
+        if(username == null || revocations.isRevoked(username))
+            return false;
+        if(token != null) {
+            SessionTokens tokens = sessionTokens;
+            return tokens != null && tokens.validate(token, username) == SessionTokens.Result.VALID;
+        }
+        if(did.getPassphrase() == null)
+            return false;
+        AuthNThrottle throttle = authNThrottle;
+        if(throttle != null && throttle.check(username, null) != AuthNThrottle.Result.ALLOWED)
+            return false;
+        DID stored = loadForAuthN(did).did;
+        if(stored.getPassphraseHash() == null)
+            return false;
+        Boolean authN = passwordHashPool.verify(did.getPassphrase(), stored.getPassphraseHash());
+        if(throttle != null && authN != null) {
+            if(authN)
+                throttle.succeeded(username);
+            else
+                throttle.failed(username, null);
+        }
+        return authN != null && authN;
+    }
+
+    /**
+     * Contact book of the local DID, loaded from the contact store on first use.
+     * Called holding the owner's username lock.
+     * @return null if it could not be loaded
+     */
+    private ContactBook contactBook(String owner) {
+        ContactBook book = contactBooks.get(owner);
+        if(book != null)
+            return book;
+        ContactStore store = contactStore;
+        if(store == null)
+            return null;
+        LoadContactsDAO dao = new LoadContactsDAO(infoVaultDB, store, owner);
+        dao.execute();
+        if(dao.getException() != null) {
+            LOG.warning("Unable to load contacts: "+dao.getException().getLocalizedMessage());
+            return null;
+        }
+        book = new ContactBook();
+        for(Contact c : dao.getContacts()) {
+            book.add(c);
+        }
+        contactBooks.put(owner, book);
+        return book;
+    }
+
+    private DID verify(DID did) {
+        LOG.info("Received verify DID request.");
+        if(revocations.isRevoked(did.getUsername())) {
+            LOG.info("DID revoked.");
+            did.setVerified(false);
+            return did;
+        }
+        DID didLoaded = load(did);
+        if(didLoaded != null && did.getUsername() != null && did.getUsername().equals(didLoaded.getUsername())) {
+            didLoaded.setVerified(true);
+            LOG.info("DID verification successful.");
+            return didLoaded;
+        } else {
+            did.setVerified(false);
+            LOG.info("DID verification unsuccessful.");
+            return did;
+        }
+    }
+
+    private void batchVerify(BatchVerifyRequest r) {
+        Map<String,DID> loaded = loadAll(r.dids);
+        r.results = new ArrayList<>(r.dids.size());
+        r.errorCodes = new int[r.dids.size()];
+        for(int i=0; i<r.dids.size(); i++) {
+            DID did = r.dids.get(i);
+            if(did == null) {
+                r.results.add(null);
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_REQUIRED;
+                continue;
+            }
+            if(revocations.isRevoked(did.getUsername())) {
+                did.setVerified(false);
+                r.results.add(did);
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_REVOKED;
+                continue;
+            }
+            DID didLoaded = did.getUsername() == null ? null : loaded.get(did.getUsername());
+            if(didLoaded == null) {
+                did.setVerified(false);
+                r.results.add(did);
+                r.errorCodes[i] = did.getUsername() == null ?
+                        AuthenticateDIDRequest.DID_USERNAME_REQUIRED : AuthenticateDIDRequest.DID_USERNAME_UNKNOWN;
+            } else {
+                didLoaded.setVerified(true);
+                r.results.add(didLoaded);
+                r.errorCodes[i] = BatchVerifyRequest.ITEM_OK;
+            }
+        }
+        LOG.info("Batch verified "+r.dids.size()+" DIDs.");
+    }
+
+    /**
+     * Authenticates the batch verifying every passphrase hash on the password hash pool in parallel.
+     * With asynchronous authentication the envelope is completed once the last hash is verified;
+     * otherwise the caller's thread waits for them, verifying inline any the pool has no room for.
+     * @return false if completion was deferred
+     */
+    private boolean batchAuthenticate(final Envelope e, final BatchAuthenticateRequest r, final long startNanos,
+                                      final CountDownLatch deferred) {
+        AuthNThrottle throttle = authNThrottle;
+        boolean[] throttled = new boolean[r.dids.size()];
+        List<DID> toLoad = r.dids;
+        if(throttle != null) {
+            // throttled usernames are neither loaded nor hashed
+            toLoad = new ArrayList<>(r.dids.size());
+            for(int i=0; i<r.dids.size(); i++) {
+                DID did = r.dids.get(i);
+                if(did != null && did.getUsername() != null && did.getPassphrase() != null)
+                    throttled[i] = throttle.check(did.getUsername(), r.origin) != AuthNThrottle.Result.ALLOWED;
+                if(!throttled[i])
+                    toLoad.add(did);
+            }
+        }
+        Map<String,DID> loaded = loadAll(toLoad);
+        // sized up front so verifications completing on pool threads only ever set their own slot
+        r.results = new ArrayList<>(r.dids);
+        r.errorCodes = new int[r.dids.size()];
+        final boolean async = asyncAuthN;
+        final CountDownLatch verified = new CountDownLatch(1);
+        final AtomicInteger remaining = new AtomicInteger(1);
+        for(int i=0; i<r.dids.size(); i++) {
+            final DID did = r.dids.get(i);
+            if(did == null) {
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_REQUIRED;
+                continue;
+            }
+            did.setAuthenticated(false);
+            if(did.getUsername() == null) {
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_USERNAME_REQUIRED;
+                continue;
+            }
+            if(did.getPassphrase() == null) {
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_PASSPHRASE_REQUIRED;
+                continue;
+            }
+            if(revocations.isRevoked(did.getUsername())) {
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_REVOKED;
+                continue;
+            }
+            if(throttled[i]) {
+                r.errorCodes[i] = AuthenticateDIDRequest.DID_AUTHN_THROTTLED;
+                continue;
+            }
+            DID didLoaded = loaded.get(did.getUsername());
+            if(didLoaded == null || didLoaded.getPassphraseHash() == null) {
+                Lock lock = usernameLocks.lockFor(did.getUsername());
+                lock.lock();
+                try {
+                    if(r.autogenerate) {
+                        did.setVerified(true);
+                        did.setAuthenticated(true);
+                        save(did, true);
+                        localDIDs.cacheLocalUser(did);
+                        r.errorCodes[i] = BatchAuthenticateRequest.ITEM_OK;
+                    } else {
+                        r.errorCodes[i] = AuthenticateDIDRequest.DID_USERNAME_UNKNOWN;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                continue;
+            }
+            // items repeating a username each get their own copy to mark authenticated or not
+            final DID itemLoaded = copyOf(didLoaded);
+            final int index = i;
+            remaining.incrementAndGet();
+            boolean queued = passwordHashPool.submit(did.getPassphrase(), itemLoaded.getPassphraseHash(), new PasswordHashPool.Callback() {
+                @Override
+                public void verified(Boolean authN) {
+                    try {
+                        batchItemVerified(r, index, did, itemLoaded, authN);
+                    } finally {
+                        if(remaining.decrementAndGet() == 0) {
+                            if(async)
+                                batchAuthenticated(e, r, startNanos, deferred);
+                            else
+                                verified.countDown();
+                        }
+                    }
+                }
+            });
+            if(!queued) {
+                remaining.decrementAndGet();
+                if(async)
+                    r.errorCodes[i] = AuthenticateDIDRequest.DID_AUTHN_CAPACITY_EXCEEDED;
+                else
+                    batchItemVerified(r, i, did, itemLoaded, passwordHashPool.verify(did.getPassphrase(), itemLoaded.getPassphraseHash()));
+            }
+        }
+        if(remaining.decrementAndGet() > 0) {
+            if(async)
+                return false;
+            boolean interrupted = false;
+            while(verified.getCount() > 0) {
+                try {
+                    verified.await();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+        LOG.info("Batch authenticated "+r.dids.size()+" DIDs.");
+        return true;
+    }
+
+    private void batchItemVerified(BatchAuthenticateRequest r, int index, DID did, DID didLoaded, Boolean authN) {
+        AuthNThrottle throttle = authNThrottle;
+        Lock lock = usernameLocks.lockFor(did.getUsername());
+        lock.lock();
+        try {
+            if(authN == null) {
+                r.errorCodes[index] = AuthenticateDIDRequest.DID_PASSPHRASE_HASH_ALGORITHM_UNKNOWN;
+            } else if(!authN) {
+                r.errorCodes[index] = AuthenticateDIDRequest.DID_PASSPHRASE_MISMATCH;
+                if(throttle != null)
+                    throttle.failed(did.getUsername(), r.origin);
+            } else {
+                if(throttle != null)
+                    throttle.succeeded(did.getUsername());
+                rehashIfOutdated(did.getUsername(), did.getPassphrase(), didLoaded.getPassphraseHash());
+                didLoaded.setAuthenticated(true);
+                localDIDs.cacheLocalUser(didLoaded);
+                r.results.set(index, didLoaded);
+                r.errorCodes[index] = BatchAuthenticateRequest.ITEM_OK;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes a batch whose last passphrase hash was verified on a pool thread.
+     */
+    private void batchAuthenticated(Envelope e, BatchAuthenticateRequest r, long startNanos, CountDownLatch deferred) {
+        try {
+            LOG.info("Batch authenticated "+r.dids.size()+" DIDs.");
+            recordOperation(e, startNanos);
+            complete(e);
+        } finally {
+            if(deferred != null)
+                deferred.countDown();
+        }
+    }
+
+    private static DID copyOf(DID did) {
+        DID copy = new DID();
+        copy.fromMap(did.toMap());
+        return copy;
+    }
+
+    /**
+     * Saves and returns DID generating passphrase hash if none exists.
+     * @param did DID
+     */
+    private DID save(DID did, boolean autocreate) {
         LOG.info("Saving DID...");
         if(did.getPassphraseHash() == null) {
             LOG.info("Hashing passphrase...");
+            long start = System.nanoTime();
+            try {
+                did.setPassphraseHash(passwordHasher.hash(did.getPassphrase()));
+                metrics.timer(DIDMetrics.TIMER_PASSWORD_HASH_GENERATE).recordSince(start);
+                // a new passphrase ends every session of the old one
+                SessionTokens tokens = sessionTokens;
+                if(tokens != null && did.getUsername() != null)
+                    tokens.revokeAll(did.getUsername());
+                // ensure passphrase is cleared
+                did.setPassphrase(null);
+            } catch (NoSuchAlgorithmException ex) {
+                LOG.warning("Hashing Algorithm not supported while saving DID\n" + ex.getLocalizedMessage());
+                return did;
+            }
+        }
+        if(did.getUsername() != null)
+            addUsername(did.getUsername()); // before the save so a concurrent lookup never misses it
+        SaveDIDDAO dao = new SaveDIDDAO(infoVaultDB, store(), did, autocreate, binaryRecords);
+        long start = System.nanoTime();
+        dao.execute();
+        metrics.timer(DIDMetrics.TIMER_STORE_SAVE).recordSince(start);
+        invalidate(did.getUsername());
+        if(dao.getException() != null) {
+            LOG.warning("Create DID threw exception: "+dao.getException().getLocalizedMessage());
+        } else {
+            indexKey(did);
+        }
+        LOG.info("DID saved.");
+        return did;
+    }
+
+    /**
+     * Authenticates passphrase
+     * @param r AuthenticateDIDRequest
+     */
+    private void authenticate(AuthenticateDIDRequest r) {
+        authenticate(r, null);
+    }
+
+    /**
+     * Authenticates passphrase, called holding the username's lock.
+     * @param loaded DID already loaded for the request, reused unless saved since; may be null
+     */
+    private void authenticate(AuthenticateDIDRequest r, AuthNLoad loaded) {
+        if(loaded == null || loaded.generation != didCache.generation(r.did.getUsername()))
+            loaded = loadForAuthN(r.did);
+        long generation = loaded.generation;
+        DID loadedDID = loaded.did;
+        LoadDIDDAO dao = loaded.dao;
+        if(loadedDID.getPassphraseHash()==null) {
+            if(r.autogenerate) {
+                r.did.setVerified(true);
+                r.did.setAuthenticated(true);
+                loadedDID = save(r.did, true);
+                LOG.info("Saved DID: " + loadedDID);
+            } else {
+                LOG.warning("Unable to load DID and autogenerate=false. Authentication failed.");
+                r.errorCode = AuthenticateDIDRequest.DID_USERNAME_UNKNOWN;
+                return;
+            }
+        } else {
+            LOG.info("Loaded DID: "+loadedDID);
+            LOG.info("Verifying password hash...");
+            Boolean authN = passwordHashPool.verify(r.did.getPassphrase(), loadedDID.getPassphraseHash());
+            LOG.info("AuthN: "+(authN != null && authN));
+            r.did.setAuthenticated(authN != null && authN);
+            recordVerification(r, authN);
+            if(r.did.getAuthenticated())
+                rehashIfOutdated(r.did.getUsername(), r.did.getPassphrase(), loadedDID.getPassphraseHash());
+            if(r.did.getAuthenticated() && dao != null)
+                loadedDID = fullDID(dao, generation);
+        }
+        authenticated(r, loadedDID);
+    }
+
+    /**
+     * Loads the DID from the cache, falling back to the fields authentication needs from the store.
+     */
+    private AuthNLoad loadForAuthN(DID did) {
+        long generation = didCache.generation(did.getUsername());
+        DID cached = didCache.get(did.getUsername());
+        if(cached != null)
+            return new AuthNLoad(generation, cached, null);
+        if(definitelyUnknown(did.getUsername()))
+            return new AuthNLoad(generation, new DID(), null);
+        LoadDIDDAO dao = loadAuthNFields(did);
+        return new AuthNLoad(generation, dao.getLoadedDID(), dao);
+    }
+
+    /**
+     * DID loaded for authentication and the cache generation of its username taken before loading.
+     */
+    private static final class AuthNLoad {
+        private final long generation;
+        private final DID did;
+        // set if read from the store rather than the cache
+        private final LoadDIDDAO dao;
+
+        private AuthNLoad(long generation, DID did, LoadDIDDAO dao) {
+            this.generation = generation;
+            this.did = did;
+            this.dao = dao;
+        }
+    }
+
+    /**
+     * Loads only the fields authentication needs so failed attempts never decode the full record.
+     */
+    private LoadDIDDAO loadAuthNFields(DID did) {
+        LoadDIDDAO dao = new LoadDIDDAO(infoVaultDB, store(), did, AUTHN_FIELDS);
+        execute(dao);
+        migrateIfLegacy(dao, did);
+        return dao;
+    }
+
+    private void execute(LoadDIDDAO dao) {
+        long start = System.nanoTime();
+        dao.execute();
+        metrics.timer(DIDMetrics.TIMER_STORE_LOAD).recordSince(start);
+    }
+
+    /**
+     * @param generation cache generation of the username taken before the record was read
+     */
+    private DID fullDID(LoadDIDDAO dao, long generation) {
+        DID loadedDID = dao.getFullDID();
+        if(dao.getException() == null && loadedDID.getUsername() != null)
+            didCache.put(loadedDID, generation);
+        return loadedDID;
+    }
+
+    private void authenticated(AuthenticateDIDRequest r, DID loadedDID) {
+        if(r.did.getAuthenticated()) {
+            // keep the identity key attached from the key ring for the loaded DID
+            if(r.did.getPublicKey() != null && loadedDID.getPublicKey() == null)
+                loadedDID.addPublicKey(r.did.getPublicKey());
+            // the stored record need not have been saved authenticated
+            loadedDID.setAuthenticated(true);
+            r.did = loadedDID;
+            localDIDs.cacheLocalUser(r.did);
+        }
+    }
+
+    /**
+     * Verifies the passphrase on the password hash pool instead of the caller's thread,
+     * completing the envelope through the producer once verified.
+     * @return true if completion was deferred to the pool; false if the request was handled
+     * here as there was no stored hash to verify or the pool is saturated
+     */
+    private boolean authenticateAsync(final Envelope e, final AuthenticateDIDRequest r, AuthNLoad loaded,
+                                      final long startNanos, final CountDownLatch deferred) {
+        final long generation = loaded.generation;
+        final LoadDIDDAO dao = loaded.dao;
+        final DID loadedDID = loaded.did;
+        if(loadedDID.getPassphraseHash() == null)
+            return false; // nothing to verify; unknown usernames are handled inline
+        LOG.info("Loaded DID: "+loadedDID);
+        LOG.info("Queueing password hash verification...");
+        boolean queued = passwordHashPool.submit(r.did.getPassphrase(), loadedDID.getPassphraseHash(), new PasswordHashPool.Callback() {
+            @Override
+            public void verified(Boolean authN) {
+                try {
+                    LOG.info("AuthN: "+(authN != null && authN));
+                    Lock lock = usernameLocks.lockFor(r.did.getUsername());
+                    lock.lock();
+                    try {
+                        r.did.setAuthenticated(authN != null && authN);
+                        recordVerification(r, authN);
+                        if(r.did.getAuthenticated())
+                            rehashIfOutdated(r.did.getUsername(), r.did.getPassphrase(), loadedDID.getPassphraseHash());
+                        authenticated(r, r.did.getAuthenticated() && dao != null ? fullDID(dao, generation) : loadedDID);
+                        authenticationResult(e, r);
+                    } finally {
+                        lock.unlock();
+                    }
+                    recordOperation(e, startNanos);
+                    complete(e);
+                } finally {
+                    if(deferred != null)
+                        deferred.countDown();
+                }
+            }
+        });
+        if(!queued) {
+            LOG.warning("Password hash pool saturated; authentication rejected.");
+            r.errorCode = AuthenticateDIDRequest.DID_AUTHN_CAPACITY_EXCEEDED;
+            r.did.setAuthenticated(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a passphrase hash made at a lower cost than the current one on a background thread
+     * using the passphrase just verified. The hash is only replaced if it has not changed since.
+     */
+    private void rehashIfOutdated(final String username, final String passphrase, final Hash current) {
+        ThreadPoolExecutor executor = rehashExecutor;
+        final PasswordHasher hasher = passwordHasher;
+        if(executor == null || !rehashOutdated || passphrase == null || current == null || !hasher.isOutdated(current))
+            return;
+        if(!pendingRehashes.add(username))
+            return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long start = System.nanoTime();
+                        Hash upgraded = hasher.hash(passphrase);
+                        metrics.timer(DIDMetrics.TIMER_PASSWORD_HASH_GENERATE).recordSince(start);
+                        Lock lock = usernameLocks.lockFor(username);
+                        lock.lock();
+                        try {
+                            DID did = new DID();
+                            did.setUsername(username);
+                            LoadDIDDAO reload = new LoadDIDDAO(infoVaultDB, store(), did, null);
+                            reload.execute();
+                            DID stored = reload.getLoadedDID();
+                            if(reload.getException() != null || stored.getPassphraseHash() == null
+                                    || !current.getHash().equals(stored.getPassphraseHash().getHash()))
+                                return; // changed since verified
+                            stored.setPassphraseHash(upgraded);
+                            SaveDIDDAO save = new SaveDIDDAO(infoVaultDB, store(), stored, false, binaryRecords);
+                            save.execute();
+                            invalidate(username);
+                            if(save.getException() == null)
+                                rehashedPassphrases.incrementAndGet();
+                            else
+                                LOG.warning("Unable to save rehashed passphrase: "+save.getException().getLocalizedMessage());
+                        } finally {
+                            lock.unlock();
+                        }
+                    } catch (NoSuchAlgorithmException e) {
+                        LOG.warning("Unable to rehash passphrase: "+e.getLocalizedMessage());
+                    } finally {
+                        pendingRehashes.remove(username);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // rehash queue full; rehashed on a later authentication
+            pendingRehashes.remove(username);
+        }
+    }
+
+    public long getRehashedPassphrases() {
+        return rehashedPassphrases.get();
+    }
+
+    /**
+     * Records the DID as the owner of its public key in the fingerprint index.
+     */
+    private void indexKey(DID did) {
+        PublicKey key = did.getPublicKey();
+        if(key == null || key.getFingerprint() == null || did.getUsername() == null)
+            return;
+        try {
+            String previous = fingerprints.put(key.getFingerprint(), did.getUsername());
+            if(previous != null)
+                LOG.warning("Key "+key.getFingerprint()+" moved from DID "+previous+" to "+did.getUsername()+".");
+        } catch (IOException ex) {
+            LOG.warning("Unable to persist key fingerprint: "+ex.getLocalizedMessage());
+        }
+    }
+
+    private void getDIDByFingerprint(GetDIDByFingerprintRequest r) {
+        String username = fingerprints.owner(r.fingerprint);
+        if(username == null) {
+            r.errorCode = GetDIDByFingerprintRequest.FINGERPRINT_UNKNOWN;
+            return;
+        }
+        if(revocations.isRevoked(username)) {
+            r.errorCode = GetDIDByFingerprintRequest.DID_REVOKED;
+            return;
+        }
+        DID did = new DID();
+        did.setUsername(username);
+        r.did = load(did);
+        if(r.did.getUsername() == null)
+            r.errorCode = GetDIDByFingerprintRequest.FINGERPRINT_UNKNOWN;
+    }
+
+    /**
+     * Resolves a version of a DID from the versioned store; versions still queued for
+     * write-behind are resolvable once written.
+     */
+    private void resolve(ResolveDIDRequest r) {
+        VersionedDIDStore store = versionedStore;
+        if(store == null) {
+            r.errorCode = ResolveDIDRequest.VERSIONS_NOT_KEPT;
+            return;
+        }
+        String username = r.did.getUsername();
+        if(revocations.isRevoked(username)) {
+            r.errorCode = ResolveDIDRequest.DID_REVOKED;
+            return;
+        }
+        try {
+            VersionedDIDStore.Version v = store.resolve(username, r.version);
+            r.latestVersion = store.latestVersion(username);
+            if(v == null) {
+                r.errorCode = r.latestVersion == 0 ? ResolveDIDRequest.DID_UNKNOWN : ResolveDIDRequest.VERSION_UNKNOWN;
+                return;
+            }
+            v.document.remove(DIDRecordCodec.FIELD_PASSPHRASE_HASH);
+            v.document.remove("passphrase");
+            DID did = new DID();
+            did.fromMap(v.document);
+            r.did = did;
+            r.version = v.version;
+            r.updatedAt = v.updatedAt;
+        } catch (IOException | RuntimeException ex) {
+            LOG.warning("Unable to resolve versions of "+username+": "+ex.getLocalizedMessage());
+            r.errorCode = ResolveDIDRequest.VERSIONS_UNREADABLE;
+        }
+    }
+
+    /**
+     * Writes every stored DID, then the revocations and web of trust, to an archive that is
+     * moved to the request's path, readable by the owner only, once it is complete.
+     */
+    private void export(ExportDIDsRequest r) {
+        Path file = archivePath(r.path);
+        if(file == null) {
+            r.errorCode = ExportDIDsRequest.PATH_NOT_ALLOWED;
+            return;
+        }
+        if(!r.overwrite && Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+            r.errorCode = ExportDIDsRequest.ARCHIVE_EXISTS;
+            return;
+        }
+        DIDStore store = store();
+        Collection<String> usernames;
+        try {
+            usernames = store.usernames();
+        } catch (IOException ex) {
+            LOG.warning("Unable to list DIDs to export: "+ex.getLocalizedMessage());
+            r.errorCode = ExportDIDsRequest.EXPORT_FAILED;
+            return;
+        }
+        if(usernames == null) {
+            r.errorCode = ExportDIDsRequest.STORE_NOT_LISTABLE;
+            return;
+        }
+        int chunkSize = r.chunkSize > 0 ? r.chunkSize : intProperty(config, PROP_ARCHIVE_CHUNK_SIZE, DIDArchive.DEFAULT_CHUNK_SIZE);
+        int level = intProperty(config, PROP_ARCHIVE_COMPRESSION_LEVEL, Deflater.BEST_SPEED);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            Files.deleteIfExists(tmp);
+            Files.createFile(tmp);
+            try {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ex) {
+                // not a POSIX file system
+            }
+            try (DIDArchive.Writer w = new DIDArchive.Writer(new BufferedOutputStream(Files.newOutputStream(tmp)), chunkSize, level)) {
+                for(String username : usernames) {
+                    byte[] record = store.load(username);
+                    if(record == null)
+                        continue;
+                    w.did(username, record);
+                    r.didCount++;
+                }
+                if(r.includeRevocations) {
+                    RevocationIndex index = revocations;
+                    List<String> page;
+                    while(!(page = index.since(r.revocationCount, RevokeRequest.MAX_REVOCATIONS_RETURNED)).isEmpty()) {
+                        for(String username : page) {
+                            w.revocation(username);
+                        }
+                        r.revocationCount += page.size();
+                    }
+                }
+                if(r.includeTrust)
+                    r.trustEdgeCount = exportTrust(w);
+                w.close();
+                r.chunkCount = w.getChunkCount();
+            }
+            if(r.overwrite)
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            else
+                Files.move(tmp, file); // fails if an archive was written there meanwhile
+            r.bytes = Files.size(file);
+            LOG.info(r.didCount+" DIDs exported to "+file+" in "+r.chunkCount+" chunks.");
+        } catch (IOException | RuntimeException ex) {
+            LOG.warning("Unable to export DIDs to "+file+": "+ex.getLocalizedMessage());
+            r.errorCode = ExportDIDsRequest.EXPORT_FAILED;
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ex2) {
+                LOG.warning("Unable to delete partial export "+tmp+": "+ex2.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the path resolved against the archive directory, null if it is not a file inside it
+     * or is a symbolic link
+     */
+    private Path archivePath(String path) {
+        Path dir = archiveDir;
+        if(dir == null)
+            return null;
+        Path file;
+        try {
+            file = dir.resolve(path).normalize();
+        } catch (InvalidPathException ex) {
+            return null;
+        }
+        if(!file.startsWith(dir) || file.equals(dir) || Files.isSymbolicLink(file))
+            return null;
+        return file;
+    }
+
+    /**
+     * @return number of vouches written
+     */
+    private long exportTrust(final DIDArchive.Writer w) throws IOException {
+        TrustGraph graph = trustGraph;
+        for(String anchor : graph.getAnchors()) {
+            w.trustAnchor(anchor);
+        }
+        final long[] edges = new long[1];
+        final IOException[] failure = new IOException[1];
+        graph.forEachEdge(new TrustGraph.EdgeVisitor() {
+            @Override
+            public void edge(String signer, String signee, float weight) {
+                if(failure[0] != null)
+                    return;
+                try {
+                    w.trustEdge(signer, signee, weight);
+                    edges[0]++;
+                } catch (IOException ex) {
+                    failure[0] = ex;
+                }
+            }
+        });
+        if(failure[0] != null)
+            throw failure[0];
+        return edges[0];
+    }
+
+    /**
+     * Applies an archive's chunks a window at a time, committing the window's progress once
+     * the store has synced it so a stopped import resumes after the last committed chunk.
+     */
+    private void importDIDs(ImportDIDsRequest r) {
+        Path file = archivePath(r.path);
+        if(file == null) {
+            r.errorCode = ImportDIDsRequest.PATH_NOT_ALLOWED;
+            return;
+        }
+        Path progressFile = file.resolveSibling(file.getFileName() + ".progress");
+        DIDArchive.Reader reader;
+        try {
+            reader = new DIDArchive.Reader(new BufferedInputStream(Files.newInputStream(file)));
+        } catch (IOException ex) {
+            LOG.warning("Unable to read DID archive "+file+": "+ex.getLocalizedMessage());
+            r.errorCode = ImportDIDsRequest.ARCHIVE_UNREADABLE;
+            return;
+        }
+        int committed = r.resume ? readImportProgress(progressFile) : -1;
+        r.lastCommittedChunk = committed;
+        int parallelism = r.parallelism > 0 ? r.parallelism
+                : intProperty(config, PROP_ARCHIVE_IMPORT_PARALLELISM, Runtime.getRuntime().availableProcessors());
+        DIDStore store = store();
+        Importer importer = new Importer(store, r.overwrite);
+        ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread t = new Thread(task, "DIDService-Import");
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+        boolean damaged = false;
+        try (DIDArchive.Reader in = reader) {
+            List<DIDArchive.Chunk> window = new ArrayList<>();
+            DIDArchive.Chunk chunk;
+            do {
+                try {
+                    chunk = in.next();
+                } catch (IOException ex) {
+                    LOG.warning("DID archive "+file+" is damaged: "+ex.getLocalizedMessage());
+                    damaged = true;
+                    chunk = null;
+                }
+                if(chunk != null && chunk.sequence <= committed)
+                    continue;
+                if(chunk != null)
+                    window.add(chunk);
+                if(window.isEmpty() || (chunk != null && window.size() < 2 * Math.max(1, parallelism)))
+                    continue;
+                int applied = applyImportWindow(window, importer, pool);
+                window.clear();
+                if(applied > committed) {
+                    store.sync();
+                    writeImportProgress(progressFile, applied);
+                    r.chunkCount += applied - committed;
+                    committed = applied;
+                    r.lastCommittedChunk = committed;
+                }
+                if(importer.failure != null) {
+                    LOG.warning("Import of "+file+" failed after chunk "+committed+": "+importer.failure.getLocalizedMessage());
+                    r.errorCode = ImportDIDsRequest.IMPORT_FAILED;
+                    break;
+                }
+            } while(chunk != null);
+            if(importer.failure == null) {
+                if(damaged) {
+                    r.errorCode = ImportDIDsRequest.ARCHIVE_DAMAGED;
+                } else if(!in.isComplete()) {
+                    r.errorCode = ImportDIDsRequest.ARCHIVE_INCOMPLETE;
+                } else {
+                    r.complete = true;
+                    Files.deleteIfExists(progressFile);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warning("Unable to import DIDs from "+file+": "+ex.getLocalizedMessage());
+            r.errorCode = ImportDIDsRequest.IMPORT_FAILED;
+        } finally {
+            if(pool != null)
+                pool.shutdownNow();
+        }
+        r.didCount = importer.didCount.get();
+        r.skippedCount = importer.skippedCount.get();
+        r.revocationCount = importer.revocationCount.get();
+        r.trustEdgeCount = importer.edgeCount.get();
+        LOG.info(r.didCount+" DIDs imported from "+file+" through chunk "+r.lastCommittedChunk
+                +(r.complete ? "; import complete." : "; import incomplete."));
+    }
+
+    /**
+     * Applies DID chunks on the pool, then the window's other chunks in archive order,
+     * stopping at the first failure.
+     * @return sequence of the last chunk of the unbroken run applied from the window's start
+     */
+    private int applyImportWindow(List<DIDArchive.Chunk> window, Importer importer, ExecutorService pool) {
+        List<ImportTask> dids = new ArrayList<>();
+        List<ImportTask> rest = new ArrayList<>();
+        List<ImportTask> all = new ArrayList<>();
+        for(DIDArchive.Chunk chunk : window) {
+            ImportTask task = new ImportTask(chunk, importer);
+            all.add(task);
+            if(chunk.type == DIDArchive.DIDS)
+                dids.add(task);
+            else
+                rest.add(task);
+        }
+        if(pool != null && dids.size() > 1) {
+            try {
+                pool.invokeAll(dids);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                importer.failed(ex);
+            }
+        } else {
+            for(ImportTask task : dids) {
+                task.call();
+            }
+        }
+        for(ImportTask task : rest) {
+            if(importer.failure != null)
+                break;
+            task.call();
+        }
+        int last = window.get(0).sequence - 1;
+        for(ImportTask task : all) {
+            if(!task.applied)
+                break;
+            last = task.chunk.sequence;
+        }
+        return last;
+    }
+
+    /**
+     * @return the last chunk committed by an earlier import of the archive, -1 if none
+     */
+    private static int readImportProgress(Path progressFile) {
+        if(!Files.exists(progressFile))
+            return -1;
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(progressFile), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException ex) {
+            LOG.warning("Unable to read import progress "+progressFile+"; importing from the first chunk: "+ex.getLocalizedMessage());
+            return -1;
+        }
+    }
+
+    private static void writeImportProgress(Path progressFile, int chunk) throws IOException {
+        Path tmp = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+        Files.write(tmp, String.valueOf(chunk).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Applies one chunk of an archive.
+     */
+    private final class ImportTask implements Callable<Void> {
+        private final DIDArchive.Chunk chunk;
+        private final Importer importer;
+        private volatile boolean applied;
+
+        private ImportTask(DIDArchive.Chunk chunk, Importer importer) {
+            this.chunk = chunk;
+            this.importer = importer;
+        }
+
+        @Override
+        public Void call() {
+            try {
+                chunk.accept(importer);
+                applied = true;
+            } catch (IOException | RuntimeException ex) {
+                importer.failed(ex);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Saves, revokes and trusts the entries of an archive's chunks, counting them.
+     */
+    private final class Importer implements DIDArchive.Visitor {
+        private final DIDStore store;
+        private final boolean overwrite;
+        private final AtomicLong didCount = new AtomicLong();
+        private final AtomicLong skippedCount = new AtomicLong();
+        private final AtomicLong revocationCount = new AtomicLong();
+        private final AtomicLong edgeCount = new AtomicLong();
+        private volatile Exception failure;
+
+        private Importer(DIDStore store, boolean overwrite) {
+            this.store = store;
+            this.overwrite = overwrite;
+        }
+
+        @Override
+        public void did(String username, byte[] record) throws IOException {
+            Lock lock = usernameLocks.lockFor(username);
+            lock.lock();
             try {
-                did.setPassphraseHash(HashUtil.generatePasswordHash(did.getPassphrase()));
-                // ensure passphrase is cleared
-                did.setPassphrase(null);
-            } catch (NoSuchAlgorithmException ex) {
-                LOG.warning("Hashing Algorithm not supported while saving DID\n" + ex.getLocalizedMessage());
-                return did;
+                if(!overwrite && !definitelyUnknown(username) && store.load(username) != null) {
+                    skippedCount.incrementAndGet();
+                    return;
+                }
+                addUsername(username); // before the save so a concurrent lookup never misses it
+                store.save(username, record, true);
+                invalidate(username);
+                // and another vouching key, published again on the next vouch if local
+                publishedVouchKeys.remove(username);
+                // a replaced record may carry another passphrase, ending the sessions of the old one
+                SessionTokens tokens = sessionTokens;
+                if(overwrite && tokens != null)
+                    tokens.revokeAll(username);
+            } finally {
+                lock.unlock();
             }
+            indexKey(DIDRecordCodec.toDID(record));
+            didCount.incrementAndGet();
         }
-        SaveDIDDAO dao = new SaveDIDDAO(infoVaultDB, did, autocreate);
-        dao.execute();
-        if(dao.getException() != null) {
-            LOG.warning("Create DID threw exception: "+dao.getException().getLocalizedMessage());
+
+        @Override
+        public void revocation(String username) throws IOException {
+            revocationCount.addAndGet(revokeAll(Collections.singletonList(username)));
+        }
+
+        @Override
+        public void trustAnchor(String username) {
+            anchor(username);
+        }
+
+        @Override
+        public void trustEdge(String signer, String signee, float weight) {
+            trusted(signer, signee, weight);
+            edgeCount.incrementAndGet();
+        }
+
+        private synchronized void failed(Exception ex) {
+            if(failure == null)
+                failure = ex;
         }
-        LOG.info("DID saved.");
-        return did;
     }
 
     /**
-     * Authenticates passphrase
-     * @param r AuthenticateDIDRequest
+     * Indexes the keys of every stored DID on a background thread a batch at a time,
+     * for a fingerprint index started empty over a store that can list its usernames.
      */
-    private void authenticate(AuthenticateDIDRequest r) {
-        LoadDIDDAO dao = new LoadDIDDAO(infoVaultDB, r.did);
-        dao.execute();
-        DID loadedDID = dao.getLoadedDID();
-        if(loadedDID.getPassphraseHash()==null) {
-            if(r.autogenerate) {
-                r.did.setVerified(true);
-                r.did.setAuthenticated(true);
-                loadedDID = save(r.did, true);
-                LOG.info("Saved DID: " + loadedDID);
-            } else {
-                LOG.warning("Unable to load DID and autogenerate=false. Authentication failed.");
-                r.errorCode = AuthenticateDIDRequest.DID_USERNAME_UNKNOWN;
+    private void rebuildFingerprintIndex() {
+        final DIDStore store = store();
+        final List<String> usernames;
+        try {
+            Collection<String> all = store.usernames();
+            if(all == null || all.isEmpty())
                 return;
+            usernames = new ArrayList<>(all);
+        } catch (IOException ex) {
+            LOG.warning("Unable to list DIDs to index their keys: "+ex.getLocalizedMessage());
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for(int i=0; i<usernames.size(); i+=256) {
+                    LoadDIDsDAO dao = new LoadDIDsDAO(infoVaultDB, store, usernames.subList(i, Math.min(usernames.size(), i + 256)));
+                    dao.execute();
+                    for(DID did : dao.getLoadedDIDs().values()) {
+                        indexKey(did);
+                    }
+                    if(dao.getException() != null) {
+                        LOG.info("DID store closed; fingerprint index rebuild stopped.");
+                        return;
+                    }
+                }
+                LOG.info("Fingerprint index rebuilt: "+fingerprints);
             }
-        } else {
-            LOG.info("Loaded DID: "+loadedDID);
-            Boolean authN = null;
-            LOG.info("Verifying password hash...");
+        }, "DIDService-FingerprintRebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Rejects the attempt before any load or hash work if its DID is revoked.
+     * @return true if rejected
+     */
+    private boolean revoked(AuthenticateDIDRequest r) {
+        if(r == null || r.did == null || !revocations.isRevoked(r.did.getUsername()))
+            return false;
+        LOG.info("DID revoked; authentication rejected.");
+        r.errorCode = AuthenticateDIDRequest.DID_REVOKED;
+        r.did.setAuthenticated(false);
+        return true;
+    }
+
+    /**
+     * Revokes the request's DIDs, dropping them from the cache and local DIDs and ending their sessions,
+     * if the request proves it acts for the DID revoking itself or for the node DID, which is never revoked.
+     */
+    private void revoke(RevokeRequest r) {
+        List<String> usernames = new ArrayList<>();
+        if(r.did != null && r.did.getUsername() != null)
+            usernames.add(r.did.getUsername());
+        if(r.dids != null) {
+            for(DID did : r.dids) {
+                if(did != null && did.getUsername() != null)
+                    usernames.add(did.getUsername());
+            }
+        }
+        if(usernames.isEmpty()) {
+            r.errorCode = RevokeRequest.DID_REQUIRED;
+            return;
+        }
+        DID nodeDID = localDIDs.getNodeDID();
+        String nodeUsername = nodeDID == null ? null : nodeDID.getUsername();
+        if(nodeUsername != null && usernames.contains(nodeUsername)) {
+            r.errorCode = RevokeRequest.NODE_DID_NOT_REVOCABLE;
+            return;
+        }
+        DID revoker = r.revoker != null ? r.revoker : r.did;
+        String revokerUsername = revoker == null ? null : revoker.getUsername();
+        boolean itself = usernames.size() == 1 && usernames.get(0).equals(revokerUsername);
+        if(revokerUsername == null || !(itself || revokerUsername.equals(nodeUsername)) || !proven(revoker, r.token)) {
+            r.errorCode = RevokeRequest.REVOKER_NOT_AUTHENTICATED;
+            return;
+        }
+        RevocationIndex index = revocations;
+        try {
+            r.revokedCount = revokeAll(usernames);
+        } catch (IOException ex) {
+            // rejected from now on but not after a restart
+            LOG.warning("Unable to persist revocations: "+ex.getLocalizedMessage());
+            r.errorCode = RevokeRequest.REVOCATION_NOT_PERSISTED;
+        }
+        r.sequence = index.getSequence();
+        LOG.info(r.revokedCount+" DIDs revoked.");
+    }
+
+    /**
+     * Revokes the DIDs, dropping them from the cache and local DIDs and ending their sessions
+     * even if the revocations could not be persisted.
+     * @return number of DIDs not already revoked
+     */
+    private int revokeAll(List<String> usernames) throws IOException {
+        DID nodeDID = localDIDs.getNodeDID();
+        if(nodeDID != null && usernames.contains(nodeDID.getUsername())) {
+            LOG.warning("The node DID is never revoked.");
+            usernames = new ArrayList<>(usernames);
+            usernames.removeAll(Collections.singleton(nodeDID.getUsername()));
+        }
+        IOException persistFailure = null;
+        int revoked = 0;
+        try {
+            revoked = revocations.revoke(usernames);
+        } catch (IOException ex) {
+            persistFailure = ex;
+        }
+        SessionTokens tokens = sessionTokens;
+        for(String username : usernames) {
+            // after any authentication in progress so it is not cached again
+            Lock lock = usernameLocks.lockFor(username);
+            lock.lock();
             try {
-                authN = HashUtil.verifyPasswordHash(r.did.getPassphrase(), loadedDID.getPassphraseHash());
-            } catch (NoSuchAlgorithmException e) {
-                e.printStackTrace();
-                LOG.warning(e.getLocalizedMessage());
+                invalidate(username);
+                localDIDs.remove(username);
+                contactBooks.remove(username);
+                if(tokens != null)
+                    tokens.revokeAll(username);
+            } finally {
+                lock.unlock();
             }
-            LOG.info("AuthN: "+(authN != null && authN));
-            r.did.setAuthenticated(authN != null && authN);
+            distrust(username);
         }
-        if(r.did.getAuthenticated()) {
-            r.did = loadedDID;
-            localUserDIDs.put(r.did.getUsername(),r.did);
+        if(persistFailure != null)
+            throw persistFailure;
+        return revoked;
+    }
+
+    /**
+     * Drops the DID as an anchor and every vouch it made from the web of trust so no trust passes
+     * through it.
+     */
+    private void distrust(String username) {
+        TrustGraph graph = trustGraph;
+        TrustLog log = trustLog;
+        try {
+            if(graph.removeAnchor(username) && log != null)
+                log.unanchored(username);
+            for(String signee : graph.removeEdgesFrom(username)) {
+                if(log != null)
+                    log.removed(username, signee);
+            }
+        } catch (IOException ex) {
+            LOG.warning("Unable to log revoked DID's trust removed from web of trust: "+ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Drops from the web of trust any revoked DID still in it, e.g. revoked before revoking
+     * also removed its trust.
+     */
+    private void distrustRevoked() {
+        final Set<String> revoked = new HashSet<>();
+        for(String anchor : trustGraph.getAnchors()) {
+            if(revocations.isRevoked(anchor))
+                revoked.add(anchor);
+        }
+        trustGraph.forEachEdge(new TrustGraph.EdgeVisitor() {
+            @Override
+            public void edge(String signer, String signee, float weight) {
+                if(revocations.isRevoked(signer))
+                    revoked.add(signer);
+            }
+        });
+        for(String username : revoked) {
+            distrust(username);
+        }
+        if(!revoked.isEmpty())
+            LOG.info("Dropped "+revoked.size()+" revoked DIDs from the web of trust.");
+    }
+
+    /**
+     * Rejects the attempt before any load or hash work if failures for its username, origin
+     * or across all attempts are being throttled.
+     * @return true if rejected
+     */
+    private boolean throttled(AuthenticateDIDRequest r) {
+        AuthNThrottle throttle = authNThrottle;
+        if(throttle == null || r == null || r.did == null || r.did.getUsername() == null)
+            return false;
+        AuthNThrottle.Result result = throttle.check(r.did.getUsername(), r.origin);
+        if(result == AuthNThrottle.Result.ALLOWED)
+            return false;
+        LOG.warning("Authentication throttled ("+result+").");
+        r.errorCode = AuthenticateDIDRequest.DID_AUTHN_THROTTLED;
+        r.did.setAuthenticated(false);
+        return true;
+    }
+
+    /**
+     * Sets the error code for a failed verification and records the outcome for throttling.
+     */
+    private void recordVerification(AuthenticateDIDRequest r, Boolean authN) {
+        AuthNThrottle throttle = authNThrottle;
+        if(authN == null) {
+            r.errorCode = AuthenticateDIDRequest.DID_PASSPHRASE_HASH_ALGORITHM_UNKNOWN;
+        } else if(!authN) {
+            r.errorCode = AuthenticateDIDRequest.DID_PASSPHRASE_MISMATCH;
+            if(throttle != null)
+                throttle.failed(r.did.getUsername(), r.origin);
+        } else if(throttle != null) {
+            throttle.succeeded(r.did.getUsername());
         }
     }
 
+    PasswordHashPool getPasswordHashPool() {
+        return passwordHashPool;
+    }
+
     private void authenticateOrCreate(AuthenticateDIDRequest r) {
         r.did = verify(r.did);
         if(!r.did.getVerified()) {
@@ -344,34 +2725,831 @@ public class DIDService extends BaseService {
     }
 
     private boolean isNew(DID didToLoad) {
-        LoadDIDDAO dao = new LoadDIDDAO(infoVaultDB, didToLoad);
-        dao.execute();
+        if(didCache.get(didToLoad.getUsername()) != null)
+            return false;
+        if(definitelyUnknown(didToLoad.getUsername()))
+            return true;
+        LoadDIDDAO dao = new LoadDIDDAO(infoVaultDB, store(), didToLoad, Collections.singletonList(DIDRecordCodec.FIELD_USERNAME));
+        execute(dao);
         DID loadedDID = dao.getLoadedDID();
         return loadedDID == null || loadedDID.getUsername() == null || loadedDID.getUsername().isEmpty();
     }
 
+    /**
+     * Loads DID by username from the cache falling back to the store.
+     * Returns an empty DID if none is persisted or it is revoked, the same as {@link LoadDIDDAO}.
+     * @param did DID with username
+     */
+    private DID load(DID did) {
+        if(revocations.isRevoked(did.getUsername()))
+            return new DID();
+        // taken before the read so a save under the username lock meanwhile is not undone
+        long generation = didCache.generation(did.getUsername());
+        DID cached = didCache.get(did.getUsername());
+        if(cached != null)
+            return cached;
+        if(definitelyUnknown(did.getUsername()))
+            return new DID();
+        LoadDIDDAO dao = new LoadDIDDAO(infoVaultDB, store(), did, null);
+        execute(dao);
+        migrateIfLegacy(dao, did);
+        DID loadedDID = dao.getLoadedDID();
+        if(dao.getException() == null && loadedDID.getUsername() != null) {
+            didCache.put(loadedDID, generation);
+        }
+        return loadedDID;
+    }
+
+    /**
+     * Rewrites a record still persisted as JSON in the binary format on a background thread
+     * as it is read; the record is reloaded under its username lock so a save in the meantime
+     * is never overwritten with stale content.
+     */
+    private void migrateIfLegacy(LoadDIDDAO dao, final DID did) {
+        ThreadPoolExecutor executor = migrationExecutor;
+        if(executor == null || dao.getException() != null || !dao.isLegacyFormat() || !binaryRecords || !migrateRecords)
+            return;
+        final String username = did.getUsername();
+        if(!pendingMigrations.add(username))
+            return;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        migrateRecord(username);
+                    } finally {
+                        pendingMigrations.remove(username);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // migration queue full; record will be migrated on a later read or sweep
+            pendingMigrations.remove(username);
+        }
+    }
+
+    /**
+     * Migrates every JSON record of a store that can list its usernames on the migration thread,
+     * so records never read are migrated too. Stores that cannot list theirs migrate on read only.
+     */
+    private void sweepLegacyRecords() {
+        final ThreadPoolExecutor executor = migrationExecutor;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Collection<String> usernames;
+                    try {
+                        usernames = store().usernames();
+                    } catch (IOException ex) {
+                        LOG.warning("Unable to list DIDs to migrate their records: "+ex.getLocalizedMessage());
+                        return;
+                    }
+                    if(usernames == null)
+                        return;
+                    long before = migratedRecords.get();
+                    for(String username : new ArrayList<>(usernames)) {
+                        if(executor.isShutdown())
+                            return;
+                        if(pendingMigrations.add(username)) {
+                            try {
+                                migrateRecord(username);
+                            } finally {
+                                pendingMigrations.remove(username);
+                            }
+                        }
+                    }
+                    LOG.info("DID record migration sweep done; "+(migratedRecords.get() - before)+" records migrated.");
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warning("Unable to queue DID record migration sweep.");
+        }
+    }
+
+    /**
+     * Rewrites the username's record as binary if still JSON, reloading it under its lock.
+     */
+    private void migrateRecord(String username) {
+        Lock lock = usernameLocks.lockFor(username);
+        lock.lock();
+        try {
+            DID did = new DID();
+            did.setUsername(username);
+            LoadDIDDAO reload = new LoadDIDDAO(infoVaultDB, store(), did, null);
+            reload.execute();
+            if(reload.getException() == null && reload.isLegacyFormat()) {
+                SaveDIDDAO save = new SaveDIDDAO(infoVaultDB, store(), reload.getLoadedDID(), false, true);
+                save.execute();
+                if(save.getException() == null)
+                    migratedRecords.incrementAndGet();
+                else
+                    LOG.warning("Unable to migrate DID record: "+save.getException().getLocalizedMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMigratedRecords() {
+        return migratedRecords.get();
+    }
+
+    /**
+     * Loads DIDs by username from the cache reading all misses from the store with one DAO,
+     * which still reads them one username at a time.
+     * Usernames not persisted or revoked are absent from the returned map.
+     * @param dids DIDs with usernames; null entries are skipped
+     */
+    private Map<String,DID> loadAll(List<DID> dids) {
+        Map<String,DID> loaded = new HashMap<>(dids.size() * 2);
+        List<String> misses = new ArrayList<>();
+        for(DID did : dids) {
+            if(did == null || did.getUsername() == null || loaded.containsKey(did.getUsername())
+                    || revocations.isRevoked(did.getUsername()))
+                continue;
+            DID cached = didCache.get(did.getUsername());
+            if(cached != null)
+                loaded.put(did.getUsername(), cached);
+            else if(!definitelyUnknown(did.getUsername()))
+                misses.add(did.getUsername());
+        }
+        if(!misses.isEmpty()) {
+            Map<String,Long> generations = new HashMap<>(misses.size() * 2);
+            for(String username : misses) {
+                generations.put(username, didCache.generation(username));
+            }
+            LoadDIDsDAO dao = new LoadDIDsDAO(infoVaultDB, store(), misses);
+            long start = System.nanoTime();
+            dao.execute();
+            metrics.timer(DIDMetrics.TIMER_STORE_LOAD).recordSince(start);
+            for(DID didLoaded : dao.getLoadedDIDs().values()) {
+                Long generation = generations.get(didLoaded.getUsername());
+                if(generation != null)
+                    didCache.put(didLoaded, generation);
+            }
+            loaded.putAll(dao.getLoadedDIDs());
+        }
+        return loaded;
+    }
+
+    /**
+     * Adds the username to the username filter and journals it if new to the filter so the
+     * filter saved at start plus the journal still hold it after a crash.
+     */
+    private void addUsername(String username) {
+        UsernameFilter filter = usernameFilter;
+        if(filter == null || !filter.add(username))
+            return;
+        UsernameJournal journal = usernameJournal;
+        if(journal == null)
+            return;
+        try {
+            journal.append(username);
+        } catch (IOException ex) {
+            // without it a crash would leave a filter missing the username
+            LOG.warning("Unable to journal username; the saved username filter is discarded: "+ex.getLocalizedMessage());
+            usernameJournal = null;
+            journal.close();
+            try {
+                Files.deleteIfExists(usernameFilterFile);
+            } catch (IOException e) {
+                LOG.severe("Unable to delete saved username filter "+usernameFilterFile+": "+e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return true if the username filter shows no DID was ever saved for the username
+     */
+    private boolean definitelyUnknown(String username) {
+        UsernameFilter filter = usernameFilter;
+        return filter != null && username != null && !filter.mightContain(username);
+    }
+
+    public DIDMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DIDCache getDIDCache() {
+        return didCache;
+    }
+
+    private Properties loadConfig(Properties properties) {
+        Properties p = new Properties();
+        InputStream in = DIDService.class.getClassLoader().getResourceAsStream("did.config");
+        if(in != null) {
+            try {
+                p.load(in);
+            } catch (IOException e) {
+                LOG.warning("Unable to load did.config: "+e.getLocalizedMessage());
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        if(properties != null)
+            p.putAll(properties);
+        return p;
+    }
+
+    private static int intProperty(Properties p, String name, int defaultValue) {
+        String value = p.getProperty(name);
+        if(value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warning("Invalid value for "+name+": "+value+"; using "+defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static long longProperty(Properties p, String name, long defaultValue) {
+        String value = p.getProperty(name);
+        if(value == null || value.trim().isEmpty()) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warning("Invalid value for "+name+": "+value+"; using "+defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The cost calibrated for the configured target, reusing the one saved by an earlier start
+     * so restarts neither spend the calibration time again nor drift between costs.
+     */
+    private static int calibratedPasswordHashCost(Properties config) {
+        long targetMillis = longProperty(config, PROP_PASSWORD_HASH_TARGET_MILLIS, 100);
+        String costFile = config.getProperty(PROP_PASSWORD_HASH_COST_FILE);
+        if(costFile == null || costFile.isEmpty())
+            costFile = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/passwordHash.cost";
+        Path path = Paths.get(costFile);
+        if(Files.exists(path)) {
+            try {
+                // <cost> <targetMillis>
+                String[] saved = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split(" ");
+                int cost = Integer.parseInt(saved[0]);
+                if(saved.length == 2 && Long.parseLong(saved[1]) == targetMillis
+                        && cost >= PasswordHasher.MIN_COST && cost <= PasswordHasher.MAX_COST) {
+                    LOG.info("Password hash cost "+cost+" calibrated for a target of "+targetMillis+" ms loaded from "+costFile);
+                    return cost;
+                }
+            } catch (IOException | NumberFormatException ex) {
+                LOG.warning("Ignoring password hash cost file "+costFile+": "+ex.getLocalizedMessage());
+            }
+        }
+        int cost;
+        try {
+            cost = PasswordHasher.calibrate(targetMillis, longProperty(config,
+                    PROP_PASSWORD_HASH_CALIBRATION_BUDGET_MILLIS, PasswordHasher.DEFAULT_CALIBRATION_BUDGET_MILLIS));
+        } catch (NoSuchAlgorithmException ex) {
+            LOG.warning("Unable to calibrate password hash cost: "+ex.getLocalizedMessage());
+            return PasswordHasher.DEFAULT_COST;
+        }
+        try {
+            if(path.getParent() != null)
+                Files.createDirectories(path.getParent());
+            Files.write(path, (cost+" "+targetMillis).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            LOG.warning("Unable to save password hash cost to "+costFile+": "+ex.getLocalizedMessage());
+        }
+        return cost;
+    }
+
     @Override
     public boolean start(Properties properties) {
         super.start(properties);
         LOG.info("Starting....");
         updateStatus(ServiceStatus.STARTING);
+        config = loadConfig(properties);
+        try {
+            didStore = openStore(config);
+        } catch (IOException | RuntimeException ex) {
+            LOG.severe("Unable to open DID store: "+ex.getLocalizedMessage());
+            updateStatus(ServiceStatus.ERROR);
+            return false;
+        }
+        usernameFilter = openUsernameFilter(config);
+        String revocationFile = config.getProperty(PROP_REVOCATION_FILE);
+        if(revocationFile == null || revocationFile.isEmpty())
+            revocationFile = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/revocations.log";
+        try {
+            revocations = RevocationIndex.open(Paths.get(revocationFile));
+            LOG.info("Revocations loaded: "+revocations);
+        } catch (IOException ex) {
+            // starting without them would accept revoked DIDs
+            LOG.severe("Unable to open revocations "+revocationFile+": "+ex.getLocalizedMessage());
+            return startFailed();
+        }
+        String fingerprintFile = config.getProperty(PROP_FINGERPRINT_INDEX_FILE);
+        if(fingerprintFile == null || fingerprintFile.isEmpty())
+            fingerprintFile = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/fingerprints.idx";
+        try {
+            fingerprints = FingerprintIndex.open(Paths.get(fingerprintFile));
+            LOG.info("Key fingerprints loaded: "+fingerprints);
+        } catch (IOException ex) {
+            LOG.warning("Unable to open fingerprint index "+fingerprintFile+"; keys indexed in memory only: "+ex.getLocalizedMessage());
+            fingerprints = new FingerprintIndex();
+        }
+        if(fingerprints.size() == 0)
+            rebuildFingerprintIndex();
+        verifiedVouches = new VerifiedVouchCache(intProperty(config, PROP_VOUCH_CACHE_SIZE, VerifiedVouchCache.DEFAULT_MAX_SIZE));
+        vouchSigner = new VouchSigner(verifiedVouches);
+        String vouchKeyDir = config.getProperty(PROP_VOUCH_KEY_DIR);
+        if(vouchKeyDir == null || vouchKeyDir.isEmpty())
+            vouchKeyDir = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/keys";
+        try {
+            vouchKeys = new VouchKeys(Paths.get(vouchKeyDir));
+        } catch (IOException ex) {
+            LOG.warning("Unable to open vouching keys in "+vouchKeyDir+"; VOUCH disabled: "+ex.getLocalizedMessage());
+            vouchKeys = null;
+        }
+        String archives = config.getProperty(PROP_ARCHIVE_DIR);
+        if(archives == null || archives.isEmpty())
+            archives = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/archives";
+        archiveDir = Paths.get(archives).toAbsolutePath().normalize();
+        String contactDir = config.getProperty(PROP_CONTACT_DIR);
+        if(contactDir == null || contactDir.isEmpty())
+            contactDir = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/contacts";
+        try {
+            contactStore = new ContactStore(Paths.get(contactDir));
+        } catch (IOException ex) {
+            LOG.warning("Unable to open contacts in "+contactDir+"; contacts disabled: "+ex.getLocalizedMessage());
+            contactStore = null;
+        }
+        contactBooks.clear();
+        trustGraph = new TrustGraph(intProperty(config, PROP_TRUST_MAX_DEPTH, TrustGraph.DEFAULT_MAX_DEPTH),
+                Float.parseFloat(config.getProperty(PROP_TRUST_DECAY, String.valueOf(TrustGraph.DEFAULT_DECAY))));
+        String trustFile = config.getProperty(PROP_TRUST_FILE);
+        if(trustFile == null || trustFile.isEmpty())
+            trustFile = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/trust.log";
+        try {
+            trustLog = TrustLog.open(Paths.get(trustFile), trustGraph);
+            LOG.info("Web of trust loaded: "+trustGraph);
+        } catch (IOException ex) {
+            LOG.warning("Unable to open trust log "+trustFile+"; web of trust kept in memory only: "+ex.getLocalizedMessage());
+            trustLog = null;
+        }
+        distrustRevoked();
+        for(String anchor : config.getProperty(PROP_TRUST_ANCHORS, "").split(",")) {
+            if(!anchor.trim().isEmpty())
+                anchor(anchor.trim());
+        }
+        if(Boolean.parseBoolean(config.getProperty(PROP_AUTHN_THROTTLE_ENABLED, "true"))) {
+            authNThrottle = new AuthNThrottle(
+                    Double.parseDouble(config.getProperty(PROP_AUTHN_THROTTLE_USERNAME_FAILURES_PER_MINUTE, "10")),
+                    intProperty(config, PROP_AUTHN_THROTTLE_USERNAME_BURST, 5),
+                    Double.parseDouble(config.getProperty(PROP_AUTHN_THROTTLE_ORIGIN_FAILURES_PER_MINUTE, "30")),
+                    intProperty(config, PROP_AUTHN_THROTTLE_ORIGIN_BURST, 10),
+                    Double.parseDouble(config.getProperty(PROP_AUTHN_THROTTLE_GLOBAL_FAILURES_PER_SECOND, "100")),
+                    intProperty(config, PROP_AUTHN_THROTTLE_GLOBAL_BURST, 200),
+                    longProperty(config, PROP_AUTHN_THROTTLE_BACKOFF_BASE_MS, 1000),
+                    longProperty(config, PROP_AUTHN_THROTTLE_BACKOFF_MAX_MS, 300000),
+                    intProperty(config, PROP_AUTHN_THROTTLE_MAX_KEYS, AuthNThrottle.DEFAULT_MAX_KEYS));
+        } else {
+            authNThrottle = null;
+        }
+        if(Boolean.parseBoolean(config.getProperty(PROP_TOKEN_ENABLED, "true"))) {
+            String key = config.getProperty(PROP_TOKEN_KEY);
+            long ttlSeconds = longProperty(config, PROP_TOKEN_TTL_SECONDS, SessionTokens.DEFAULT_TTL_SECONDS);
+            if(key == null || key.trim().isEmpty()) {
+                // tokens die with the random key so revocations need not outlive a restart
+                sessionTokens = new SessionTokens(null, ttlSeconds);
+            } else {
+                String tokenRevocationFile = config.getProperty(PROP_TOKEN_REVOCATION_FILE);
+                if(tokenRevocationFile == null || tokenRevocationFile.isEmpty())
+                    tokenRevocationFile = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/token-revocations.log";
+                try {
+                    sessionTokens = SessionTokens.open(Base64.decode(key.trim()), ttlSeconds, Paths.get(tokenRevocationFile));
+                } catch (IOException ex) {
+                    // starting without them would accept revoked tokens
+                    LOG.severe("Unable to open token revocations "+tokenRevocationFile+": "+ex.getLocalizedMessage());
+                    return startFailed();
+                }
+            }
+        } else {
+            sessionTokens = null;
+        }
+        didCache = new DIDCache(
+                intProperty(config, PROP_CACHE_MAX_SIZE, DIDCache.DEFAULT_MAX_SIZE),
+                longProperty(config, PROP_CACHE_TTL_SECONDS, DIDCache.DEFAULT_TTL_SECONDS));
+        PasswordHashPool previousPasswordHashPool = passwordHashPool;
+        passwordHashPool = new PasswordHashPool(
+                intProperty(config, PROP_AUTHN_THREADS, 0),
+                intProperty(config, PROP_AUTHN_QUEUE_SIZE, 256),
+                intProperty(config, PROP_AUTHN_MAX_CONCURRENT_HASHES, 0),
+                metrics.timer(DIDMetrics.TIMER_PASSWORD_HASH_VERIFY));
+        previousPasswordHashPool.shutdown(5000);
+        asyncAuthN = Boolean.parseBoolean(config.getProperty(PROP_AUTHN_ASYNC, "false"));
+        int cost = intProperty(config, PROP_PASSWORD_HASH_COST, 0);
+        if(cost <= 0)
+            cost = calibratedPasswordHashCost(config);
+        passwordHasher = new PasswordHasher(cost);
+        rehashOutdated = Boolean.parseBoolean(config.getProperty(PROP_PASSWORD_HASH_REHASH, "true"));
+        rehashExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1024),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "DIDService-PassphraseRehash");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        binaryRecords = !"json".equalsIgnoreCase(config.getProperty(PROP_STORE_FORMAT, "binary"));
+        migrateRecords = Boolean.parseBoolean(config.getProperty(PROP_STORE_MIGRATE, "true"));
+        migrationExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1024),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "DIDService-RecordMigration");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        if(binaryRecords && migrateRecords)
+            sweepLegacyRecords();
+        int treeParallelism = intProperty(config, PROP_HASH_TREE_PARALLELISM, 0);
+        ForkJoinPool previousTreeHashPool = treeHashPool;
+        treeHashPool = treeParallelism > 0 ? new ForkJoinPool(treeParallelism) : new ForkJoinPool();
+        previousTreeHashPool.shutdown();
+        String configuredHashAlgorithm = config.getProperty(PROP_HASH_ALGORITHM, DigestEngine.SHA256);
+        try {
+            hashAlgorithm = DigestEngine.algorithm(configuredHashAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            LOG.warning(e.getLocalizedMessage()+"; hashing with "+DigestEngine.SHA256);
+            hashAlgorithm = DigestEngine.SHA256;
+        }
+        int shards = intProperty(config, PROP_DISPATCH_SHARDS, 0);
+        if(shards > 0) {
+            ShardedDispatcher.OnFull onFull = "deadletter".equalsIgnoreCase(config.getProperty(PROP_DISPATCH_ON_FULL))
+                    ? ShardedDispatcher.OnFull.DEAD_LETTER : ShardedDispatcher.OnFull.BLOCK;
+            dispatcher = new ShardedDispatcher(shards,
+                    intProperty(config, PROP_DISPATCH_QUEUE_SIZE, 1024),
+                    onFull,
+                    longProperty(config, PROP_DISPATCH_BLOCK_TIMEOUT_MS, 1000));
+            LOG.info("Sharded dispatch enabled with "+shards+" shards, "+onFull+" when full.");
+        }
+
+        if(Boolean.parseBoolean(config.getProperty(PROP_METRICS_JMX, "true")))
+            metrics.registerMBean(METRICS_OBJECT_NAME);
+
+        if(Boolean.parseBoolean(config.getProperty(PROP_SNAPSHOT_ENABLED, "true"))) {
+            String file = config.getProperty(PROP_SNAPSHOT_FILE);
+            if(file == null || file.isEmpty())
+                file = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/snapshot.bin";
+            snapshotFile = Paths.get(file);
+            warmUp();
+        } else {
+            snapshotFile = null;
+        }
 
         updateStatus(ServiceStatus.RUNNING);
         LOG.info("Started.");
         return true;
     }
 
+    /**
+     * Maps the snapshot saved at the last clean shutdown and restores it in the background so
+     * the service runs at once and warms within milliseconds. The snapshot is deleted once mapped
+     * so a crash never leaves one older than the store.
+     */
+    private void warmUp() {
+        if(!Files.exists(snapshotFile))
+            return;
+        final DIDSnapshot snapshot;
+        try {
+            snapshot = DIDSnapshot.open(snapshotFile);
+        } catch (IOException ex) {
+            LOG.warning("Unable to open DID snapshot "+snapshotFile+"; starting cold: "+ex.getLocalizedMessage());
+            deleteSnapshot();
+            return;
+        }
+        deleteSnapshot();
+        warmUpChanged = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    int restored = snapshot.restore(new DIDSnapshot.Restorer() {
+                        @Override
+                        public boolean restore(byte kind, DID did, long ageMillis) {
+                            if(Thread.currentThread().isInterrupted())
+                                return false;
+                            restoreSnapshotDID(kind, did, ageMillis);
+                            return true;
+                        }
+                    });
+                    LOG.info(restored+" of "+snapshot.size()+" snapshot DIDs restored in "
+                            +TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)+" ms.");
+                } catch (RuntimeException ex) {
+                    LOG.warning("Unable to restore DID snapshot: "+ex.getLocalizedMessage());
+                } finally {
+                    warmUpChanged = null;
+                }
+            }
+        }, "DIDService-WarmUp");
+        t.setDaemon(true);
+        warmUp = t;
+        t.start();
+    }
+
+    /**
+     * Restores a snapshot DID unless it has been revoked, changed or cached since start.
+     */
+    private void restoreSnapshotDID(byte kind, DID did, long ageMillis) {
+        String username = did.getUsername();
+        if(username == null)
+            return;
+        Lock lock = usernameLocks.lockFor(username);
+        lock.lock();
+        try {
+            Set<String> changed = warmUpChanged;
+            if(revocations.isRevoked(username) || (changed != null && changed.contains(username)))
+                return;
+            if(kind == DIDSnapshot.CACHED)
+                didCache.restore(did, ageMillis);
+            else
+                localDIDs.restore(did, kind == DIDSnapshot.NODE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the username's cached DID so a snapshot being restored cannot cache it again.
+     * Called holding the username's lock.
+     */
+    private void invalidate(String username) {
+        Set<String> changed = warmUpChanged;
+        if(changed != null && username != null)
+            changed.add(username);
+        didCache.invalidate(username);
+    }
+
+    private void saveSnapshot() {
+        Thread t = warmUp;
+        if(t != null) {
+            t.interrupt();
+            try {
+                t.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            warmUp = null;
+        }
+        if(snapshotFile == null)
+            return;
+        try {
+            int saved = DIDSnapshot.write(snapshotFile, localDIDs.getNodeDID(), localDIDs.getLocalUserDIDs(),
+                    didCache.hottest(intProperty(config, PROP_SNAPSHOT_MAX_CACHED, 1000)));
+            LOG.info(saved+" DIDs saved to snapshot "+snapshotFile+" at shutdown.");
+        } catch (IOException ex) {
+            LOG.warning("Unable to save DID snapshot: "+ex.getLocalizedMessage());
+        }
+    }
+
+    private void deleteSnapshot() {
+        try {
+            Files.deleteIfExists(snapshotFile);
+        } catch (IOException ex) {
+            LOG.warning("Unable to delete DID snapshot "+snapshotFile+": "+ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Replaces the store opened at start; used to run against an in-memory store in benchmarks.
+     */
+    void setDIDStore(DIDStore store) {
+        didStore = store;
+        versionedStore = store instanceof VersionedDIDStore ? (VersionedDIDStore)store : null;
+        // the username filter describes the store opened at start
+        usernameFilter = null;
+    }
+
+    private DIDStore store() {
+        DIDStore store = didStore;
+        return store == null ? new InfoVaultDIDStore(infoVaultDB) : store;
+    }
+
+    private DIDStore openStore(Properties config) throws IOException {
+        String backend = config.getProperty(PROP_STORE_BACKEND, "infovault");
+        versionedStore = null;
+        DIDStore store;
+        if("log".equalsIgnoreCase(backend)) {
+            store = openLogStore(config);
+        } else if("versioned".equalsIgnoreCase(backend)) {
+            versionedStore = openVersionedStore(config);
+            store = versionedStore;
+        } else {
+            store = new InfoVaultDIDStore(infoVaultDB);
+        }
+        if(Boolean.parseBoolean(config.getProperty(PROP_STORE_WRITE_BEHIND, "false"))) {
+            int batchSize = intProperty(config, PROP_STORE_WRITE_BEHIND_BATCH_SIZE, 256);
+            long flushMs = longProperty(config, PROP_STORE_WRITE_BEHIND_FLUSH_MS, 100);
+            store = new WriteBehindDIDStore(store, batchSize, flushMs);
+            LOG.info("DID write-behind enabled flushing every "+batchSize+" saves or "+flushMs+" ms.");
+        }
+        return store;
+    }
+
+    private VersionedDIDStore openVersionedStore(Properties config) throws IOException {
+        String dir = config.getProperty(PROP_STORE_VERSIONED_DIR);
+        if(dir == null || dir.isEmpty())
+            dir = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/versions";
+        VersionedDIDStore store = new VersionedDIDStore(Paths.get(dir),
+                intProperty(config, PROP_STORE_VERSIONED_CHECKPOINT_INTERVAL, VersionedDIDStore.DEFAULT_CHECKPOINT_INTERVAL),
+                intProperty(config, PROP_STORE_VERSIONED_MAX_CACHED, VersionedDIDStore.DEFAULT_MAX_CACHED),
+                Boolean.parseBoolean(config.getProperty(PROP_STORE_VERSIONED_SYNC_ON_WRITE, "false")));
+        LOG.info("DID versioned store opened in "+dir+".");
+        return store;
+    }
+
+    private LogDIDStore openLogStore(Properties config) throws IOException {
+        String dir = config.getProperty(PROP_STORE_LOG_DIR);
+        if(dir == null || dir.isEmpty())
+            dir = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/store";
+        LogDIDStore store = new LogDIDStore(Paths.get(dir),
+                intProperty(config, PROP_STORE_LOG_SEGMENT_SIZE, LogDIDStore.DEFAULT_SEGMENT_SIZE),
+                Double.parseDouble(config.getProperty(PROP_STORE_LOG_COMPACTION_RATIO, String.valueOf(LogDIDStore.DEFAULT_COMPACTION_RATIO))),
+                Boolean.parseBoolean(config.getProperty(PROP_STORE_LOG_SYNC_ON_WRITE, "false")));
+        store.startMaintenance(longProperty(config, PROP_STORE_LOG_MAINTENANCE_SECONDS, 60));
+        LOG.info("DID log store opened in "+dir+" with "+store.size()+" records.");
+        return store;
+    }
+
+    /**
+     * Reads the filter saved at start or shutdown and replays the usernames journaled since onto it.
+     * Without one the filter is built from the store when it can list its usernames, otherwise it is
+     * started unseeded, answering every lookup positively, unless the store is assumed empty. The
+     * filter is then saved and its journal emptied so a crash from here on loses no username.
+     * @return null if disabled or the filter cannot be saved
+     */
+    private UsernameFilter openUsernameFilter(Properties config) {
+        if(!Boolean.parseBoolean(config.getProperty(PROP_USERNAME_FILTER_ENABLED, "true")))
+            return null;
+        String file = config.getProperty(PROP_USERNAME_FILTER_FILE);
+        if(file == null || file.isEmpty())
+            file = config.getProperty("1m5.dir.base", System.getProperty("user.dir")) + "/did/usernames.filter";
+        usernameFilterFile = Paths.get(file);
+        Path journalFile = usernameFilterFile.resolveSibling(usernameFilterFile.getFileName()+".log");
+        long expectedUsernames = longProperty(config, PROP_USERNAME_FILTER_EXPECTED_USERNAMES, 1000000);
+        double falsePositiveRate = Double.parseDouble(config.getProperty(PROP_USERNAME_FILTER_FALSE_POSITIVE_RATE, "0.01"));
+        UsernameFilter filter = null;
+        if(Files.exists(usernameFilterFile)) {
+            try {
+                filter = UsernameFilter.load(usernameFilterFile);
+                int replayed = UsernameJournal.replay(journalFile, filter);
+                LOG.info("Username filter loaded with "+replayed+" journaled usernames: "+filter);
+            } catch (IOException | RuntimeException ex) {
+                LOG.warning("Unable to load username filter; starting without it: "+ex.getLocalizedMessage());
+                filter = null;
+            }
+        }
+        try {
+            if(filter == null) {
+                Collection<String> usernames = store().usernames();
+                if(usernames != null) {
+                    filter = new UsernameFilter(Math.max(usernames.size() * 2L, expectedUsernames), falsePositiveRate);
+                    for(String username : usernames) {
+                        filter.add(username);
+                    }
+                    LOG.info("Username filter built from "+usernames.size()+" stored usernames.");
+                } else {
+                    boolean seeded = Boolean.parseBoolean(config.getProperty(PROP_USERNAME_FILTER_ASSUME_EMPTY, "false"));
+                    filter = new UsernameFilter(expectedUsernames, falsePositiveRate, seeded);
+                    if(!seeded)
+                        LOG.info("No saved username filter and the DID store cannot list usernames; username filter unseeded.");
+                }
+            }
+            Path dir = usernameFilterFile.toAbsolutePath().getParent();
+            if(dir != null)
+                Files.createDirectories(dir);
+            filter.save(usernameFilterFile);
+            usernameJournal = UsernameJournal.open(journalFile);
+        } catch (IOException | RuntimeException ex) {
+            LOG.warning("Unable to open username filter; disabled: "+ex.getLocalizedMessage());
+            return null;
+        }
+        return filter;
+    }
+
+    /**
+     * Closes the store and files start opened before it failed, leaving the service in error.
+     * @return false
+     */
+    private boolean startFailed() {
+        if(trustLog != null) {
+            trustLog.close();
+            trustLog = null;
+        }
+        fingerprints.close();
+        revocations.close();
+        UsernameJournal journal = usernameJournal;
+        usernameJournal = null;
+        if(journal != null)
+            journal.close();
+        DIDStore store = didStore;
+        didStore = null;
+        versionedStore = null;
+        if(store != null)
+            store.close();
+        updateStatus(ServiceStatus.ERROR);
+        return false;
+    }
+
+    private void saveUsernameFilter() {
+        UsernameFilter filter = usernameFilter;
+        UsernameJournal journal = usernameJournal;
+        usernameJournal = null;
+        if(filter == null || journal == null)
+            return;
+        LOG.info("Username filter at shutdown: "+filter);
+        try {
+            filter.save(usernameFilterFile);
+            // the saved filter now holds every journaled username
+            journal.reset();
+        } catch (IOException ex) {
+            LOG.warning("Unable to save username filter; the journal is kept: "+ex.getLocalizedMessage());
+        } finally {
+            journal.close();
+        }
+    }
+
     @Override
     public boolean shutdown() {
         super.shutdown();
         LOG.info("Shutting down....");
         updateStatus(ServiceStatus.SHUTTING_DOWN);
+        ShardedDispatcher d = dispatcher;
+        if(d != null) {
+            dispatcher = null;
+            d.shutdown(5000);
+        }
+        LOG.info("Password hash pool stats at shutdown: "+passwordHashPool);
+        passwordHashPool.shutdown(5000);
+        treeHashPool.shutdown();
+        if(migrationExecutor != null) {
+            migrationExecutor.shutdown();
+            LOG.info(migratedRecords.get()+" DID records migrated to the binary format.");
+        }
+        if(rehashExecutor != null) {
+            rehashExecutor.shutdown();
+            LOG.info(rehashedPassphrases.get()+" passphrases rehashed at cost "+passwordHasher.getCost()+".");
+        }
+        // let migrations and rehashes under way reach the store before it closes
+        awaitTermination(migrationExecutor);
+        awaitTermination(rehashExecutor);
+        LOG.info("DID cache stats at shutdown: "+didCache);
+        if(sessionTokens != null) {
+            LOG.info("Session token stats at shutdown: "+sessionTokens);
+            sessionTokens.close();
+        }
+        if(authNThrottle != null)
+            LOG.info("Authentication throttle stats at shutdown: "+authNThrottle);
+        LOG.info("Verified vouch cache stats at shutdown: "+verifiedVouches);
+        if(trustLog != null)
+            trustLog.close();
+        revocations.close();
+        fingerprints.close();
+        LOG.info("Revocations at shutdown: "+revocations);
+        LOG.info("Web of trust at shutdown: "+trustGraph);
+        LOG.info("DID metrics at shutdown: "+metrics);
+        metrics.unregisterMBean();
+        saveSnapshot();
+        didCache.clear();
+        if(didStore != null) {
+            // flushes any saves still queued for write-behind
+            didStore.close();
+            if(didStore instanceof WriteBehindDIDStore)
+                LOG.info("DID write-behind stats at shutdown: "+didStore);
+        }
+        // saved only once every save has reached the store
+        saveUsernameFilter();
 
         updateStatus(ServiceStatus.SHUTDOWN);
         LOG.info("Shutdown.");
         return true;
     }
 
+    private static void awaitTermination(ExecutorService executor) {
+        if(executor == null)
+            return;
+        try {
+            if(!executor.awaitTermination(5, TimeUnit.SECONDS))
+                LOG.warning("Background DID work still running at shutdown.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public boolean gracefulShutdown() {
         return shutdown();
@@ -0,0 +1,84 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.Map;
+
+/**
+ * Export every DID record, and the revocations and web of trust, to an archive file for
+ * moving them to another node with {@link ImportDIDsRequest}.
+ *
+ * Records saved while the export runs may or may not be in the archive. The store backend
+ * must list its usernames, which infovault cannot: it fails with STORE_NOT_LISTABLE.
+ *
+ * The archive holds passphrase hashes so the request must prove it acts for the node DID, with
+ * a session token issued to it or with its passphrase, and the path must be inside the
+ * configured archive directory.
+ *
+ * @author objectorange
+ */
+public class ExportDIDsRequest extends ServiceRequest {
+
+    public static final int PATH_REQUIRED = 1;
+    public static final int STORE_NOT_LISTABLE = 2;
+    public static final int EXPORT_FAILED = 3;
+    public static final int NODE_NOT_AUTHENTICATED = 4;
+    public static final int PATH_NOT_ALLOWED = 5;
+    public static final int ARCHIVE_EXISTS = 6;
+
+    // Request
+    public String path; // archive written here, relative to 1m5.did.archive.dir
+    public boolean overwrite = false; // false fails with ARCHIVE_EXISTS if there is an archive at the path
+    // Node DID the request acts for
+    public DID node;
+    // Session token issued to the node DID; otherwise its passphrase is verified
+    public String token;
+    public int chunkSize = 0; // entries per chunk; 0 uses 1m5.did.archive.chunkSize
+    public boolean includeRevocations = true;
+    public boolean includeTrust = true;
+    // Result
+    public long didCount;
+    public long revocationCount;
+    public long trustEdgeCount;
+    public int chunkCount;
+    public long bytes;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(path!=null) m.put("path",path);
+        m.put("overwrite",overwrite);
+        if(node!=null) m.put("node",node.toMap());
+        if(token!=null) m.put("token",token);
+        m.put("chunkSize",chunkSize);
+        m.put("includeRevocations",includeRevocations);
+        m.put("includeTrust",includeTrust);
+        m.put("didCount",didCount);
+        m.put("revocationCount",revocationCount);
+        m.put("trustEdgeCount",trustEdgeCount);
+        m.put("chunkCount",chunkCount);
+        m.put("bytes",bytes);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("path")!=null) path = (String)m.get("path");
+        if(m.get("overwrite")!=null) overwrite = Boolean.parseBoolean(m.get("overwrite").toString());
+        if(m.get("node")!=null) {
+            node = new DID();
+            node.fromMap((Map<String, Object>)m.get("node"));
+        }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("chunkSize")!=null) chunkSize = ((Number)m.get("chunkSize")).intValue();
+        if(m.get("includeRevocations")!=null) includeRevocations = Boolean.parseBoolean(m.get("includeRevocations").toString());
+        if(m.get("includeTrust")!=null) includeTrust = Boolean.parseBoolean(m.get("includeTrust").toString());
+        if(m.get("didCount")!=null) didCount = ((Number)m.get("didCount")).longValue();
+        if(m.get("revocationCount")!=null) revocationCount = ((Number)m.get("revocationCount")).longValue();
+        if(m.get("trustEdgeCount")!=null) trustEdgeCount = ((Number)m.get("trustEdgeCount")).longValue();
+        if(m.get("chunkCount")!=null) chunkCount = ((Number)m.get("chunkCount")).intValue();
+        if(m.get("bytes")!=null) bytes = ((Number)m.get("bytes")).longValue();
+    }
+}
@@ -0,0 +1,93 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+import io.onemfive.did.contact.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Look up contacts of the owner, a DID on this node proven by a session token issued to it or
+ * its passphrase: by username, by public key fingerprint, or else a page of those whose alias
+ * or username starts with the prefix, all of them if it is empty. Matches are only all
+ * counted for the total if asked to.
+ *
+ * @author objectorange
+ */
+public class GetContactRequest extends ServiceRequest {
+
+    public static final int OWNER_REQUIRED = 1;
+    public static final int OWNER_NOT_AUTHENTICATED = 2;
+    public static final int CONTACTS_NOT_LOADED = 3;
+
+    public static final int MAX_LIMIT = 1000;
+
+    // Request
+    public DID owner;
+    // Session token issued to the owner; otherwise the owner's passphrase is verified
+    public String token;
+    public String username;
+    public String fingerprint;
+    public String prefix;
+    public int offset = 0;
+    public int limit = 20;
+    public boolean countTotal = false;
+    // Result
+    public List<Contact> contacts;
+    // Contacts matching in all, of which contacts is the requested page; -1 unless countTotal
+    public int total;
+    // Whether more contacts match after the page
+    public boolean more;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(owner!=null) m.put("owner",owner.toMap());
+        if(token!=null) m.put("token",token);
+        if(username!=null) m.put("username",username);
+        if(fingerprint!=null) m.put("fingerprint",fingerprint);
+        if(prefix!=null) m.put("prefix",prefix);
+        m.put("offset",offset);
+        m.put("limit",limit);
+        m.put("countTotal",countTotal);
+        if(contacts!=null) {
+            List<Map<String,Object>> l = new ArrayList<>(contacts.size());
+            for(Contact c : contacts) {
+                l.add(c.toMap());
+            }
+            m.put("contacts",l);
+        }
+        m.put("total",total);
+        m.put("more",more);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("owner")!=null) {
+            owner = new DID();
+            owner.fromMap((Map<String, Object>)m.get("owner"));
+        }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("username")!=null) username = (String)m.get("username");
+        if(m.get("fingerprint")!=null) fingerprint = (String)m.get("fingerprint");
+        if(m.get("prefix")!=null) prefix = (String)m.get("prefix");
+        if(m.get("offset")!=null) offset = ((Number)m.get("offset")).intValue();
+        if(m.get("limit")!=null) limit = ((Number)m.get("limit")).intValue();
+        if(m.get("countTotal")!=null) countTotal = Boolean.parseBoolean(m.get("countTotal").toString());
+        if(m.get("contacts")!=null) {
+            List<Map<String,Object>> l = (List<Map<String,Object>>)m.get("contacts");
+            contacts = new ArrayList<>(l.size());
+            for(Map<String,Object> cm : l) {
+                Contact c = new Contact();
+                c.fromMap(cm);
+                contacts.add(c);
+            }
+        }
+        if(m.get("total")!=null) total = ((Number)m.get("total")).intValue();
+        if(m.get("more")!=null) more = Boolean.parseBoolean(m.get("more").toString());
+    }
+}
@@ -0,0 +1,41 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.Map;
+
+/**
+ * Find the DID owning a public key by the key's fingerprint, e.g. to attribute a signed message.
+ *
+ * @author objectorange
+ */
+public class GetDIDByFingerprintRequest extends ServiceRequest {
+
+    public static final int FINGERPRINT_REQUIRED = 1;
+    public static final int FINGERPRINT_UNKNOWN = 2;
+    public static final int DID_REVOKED = 3;
+
+    // Request
+    public String fingerprint;
+    // Result
+    public DID did;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(fingerprint!=null) m.put("fingerprint",fingerprint);
+        if(did!=null) m.put("did",did.toMap());
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("fingerprint")!=null) fingerprint = (String)m.get("fingerprint");
+        if(m.get("did")!=null) {
+            did = new DID();
+            did.fromMap((Map<String, Object>)m.get("did"));
+        }
+    }
+}
@@ -8,6 +8,7 @@ public class GetLocalDIDRequest extends ServiceRequest {
     public static final int DID_USERNAME_REQUIRED = 2;
     public static final int DID_PASSPHRASE_REQUIRED = 3;
     public static final int DID_PASSPHRASE_HASH_ALGORITHM_UNKNOWN = 4;
+    public static final int DID_REVOKED = 5;
 
     public DID did;
 }
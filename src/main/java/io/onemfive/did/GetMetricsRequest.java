@@ -0,0 +1,34 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+
+import java.util.Map;
+
+/**
+ * Latency histograms per operation and for store and password hash work, error code counts
+ * and dead letters recorded since start or the last reset.
+ *
+ * @author objectorange
+ */
+public class GetMetricsRequest extends ServiceRequest {
+
+    // Request
+    public boolean reset = false; // clear after reading
+    // Result
+    public Map<String,Object> metrics;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        m.put("reset",reset);
+        if(metrics!=null) m.put("metrics",metrics);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("reset")!=null) reset = Boolean.parseBoolean(m.get("reset").toString());
+        if(m.get("metrics")!=null) metrics = (Map<String,Object>)m.get("metrics");
+    }
+}
@@ -0,0 +1,52 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trust one DID places in another through the web of vouches, and the path carrying it.
+ *
+ * Without a from DID the trust is that of this node, from its trust anchors: the node DID,
+ * those configured and those added with ADD_TRUST_ANCHOR.
+ *
+ * @author objectorange
+ */
+public class GetTrustRequest extends ServiceRequest {
+
+    public static final int DID_REQUIRED = 1;
+
+    // Request
+    public DID from;
+    public DID to;
+    // Result
+    public double trust;
+    public List<String> path;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(from!=null) m.put("from",from.toMap());
+        if(to!=null) m.put("to",to.toMap());
+        m.put("trust",trust);
+        if(path!=null) m.put("path",path);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("from")!=null) {
+            from = new DID();
+            from.fromMap((Map<String, Object>)m.get("from"));
+        }
+        if(m.get("to")!=null) {
+            to = new DID();
+            to.fromMap((Map<String, Object>)m.get("to"));
+        }
+        if(m.get("trust")!=null) trust = ((Number)m.get("trust")).doubleValue();
+        if(m.get("path")!=null) path = (List<String>)m.get("path");
+    }
+}
@@ -2,16 +2,40 @@ package io.onemfive.did;
 
 import io.onemfive.core.ServiceRequest;
 import io.onemfive.data.Hash;
+import io.onemfive.did.hash.MerkleHasher;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 public class HashRequest extends ServiceRequest {
 
     public static int UNKNOWN_HASH_ALGORITHM = 1;
     public static int INVALID_KEY_SPEC = 2;
+    public static int CONTENT_REQUIRED = 3;
+    public static int CONTENT_UNREADABLE = 4;
     // Request
     public String contentToHash;
+    public byte[] contentBytes; // hashed as is, used before contentToHash
+    // Request - streamed content for large payloads used when contentToHash is null, first one set wins
+    public InputStream contentStream; // read to end, not closed
+    public ByteBuffer contentBuffer; // read from position to limit, position unchanged
+    public String contentPath; // file hashed through memory-mapped windows
     public boolean generateHash = true; // default
     public boolean generateFingerprint = true; // default
+    // Request - SHA-256, SHA-1, SHA-512, SHA-512/256, BLAKE2b-256, BLAKE2b-512 or FAST (SHA-512/256 on 64-bit hosts);
+    // null uses 1m5.did.hash.algorithm, SHA-256 by default. Set to the algorithm used in the result.
+    public String algorithm;
+    public boolean encodeHash = true; // false returns only the raw digest
+    // Request - Merkle tree hash over fixed-size chunks hashed in parallel instead of a single SHA256 pass;
+    // when set the fingerprint is taken over the tree hash
+    public boolean generateTreeHash = false;
+    public int treeChunkSize = MerkleHasher.DEFAULT_CHUNK_SIZE;
+    public boolean returnChunkHashes = false;
     // Result
-    public Hash hash;
+    public byte[] digest;
+    public Hash hash; // Base64 of digest; algorithm null when Hash.Algorithm has no name for it, verify with VerifyHashRequest.algorithm
     public Hash fingerprint;
+    public Hash treeHash; // Merkle root
+    public List<Hash> chunkHashes; // leaves in content order when returnChunkHashes
 }
@@ -0,0 +1,88 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.Map;
+
+/**
+ * Import an archive written by {@link ExportDIDsRequest}, its chunks applied in parallel.
+ *
+ * Progress is committed after every group of chunks, once the store has synced them, to a
+ * file beside the archive; an import stopped by a failure, a damaged chunk or an archive cut
+ * short resumes after the last committed chunk. Chunks applied but not committed are
+ * applied again on resume, which changes nothing.
+ *
+ * The request must prove it acts for the node DID, with a session token issued to it or with
+ * its passphrase, and the path must be inside the configured archive directory.
+ *
+ * @author objectorange
+ */
+public class ImportDIDsRequest extends ServiceRequest {
+
+    public static final int PATH_REQUIRED = 1;
+    public static final int ARCHIVE_UNREADABLE = 2;
+    public static final int ARCHIVE_DAMAGED = 3;
+    public static final int ARCHIVE_INCOMPLETE = 4;
+    public static final int IMPORT_FAILED = 5;
+    public static final int NODE_NOT_AUTHENTICATED = 6;
+    public static final int PATH_NOT_ALLOWED = 7;
+
+    // Request
+    public String path; // relative to 1m5.did.archive.dir
+    // Node DID the request acts for
+    public DID node;
+    // Session token issued to the node DID; otherwise its passphrase is verified
+    public String token;
+    public boolean resume = true; // false starts from the first chunk
+    public boolean overwrite = false; // false keeps DIDs already stored here
+    public int parallelism = 0; // chunks applied at once; 0 uses 1m5.did.archive.importParallelism
+    // Result
+    public long didCount; // DIDs saved by this request
+    public long skippedCount; // DIDs kept as already stored
+    public long revocationCount;
+    public long trustEdgeCount;
+    public int chunkCount; // chunks committed by this request
+    public int lastCommittedChunk = -1;
+    public boolean complete; // the whole archive is imported
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(path!=null) m.put("path",path);
+        if(node!=null) m.put("node",node.toMap());
+        if(token!=null) m.put("token",token);
+        m.put("resume",resume);
+        m.put("overwrite",overwrite);
+        m.put("parallelism",parallelism);
+        m.put("didCount",didCount);
+        m.put("skippedCount",skippedCount);
+        m.put("revocationCount",revocationCount);
+        m.put("trustEdgeCount",trustEdgeCount);
+        m.put("chunkCount",chunkCount);
+        m.put("lastCommittedChunk",lastCommittedChunk);
+        m.put("complete",complete);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("path")!=null) path = (String)m.get("path");
+        if(m.get("node")!=null) {
+            node = new DID();
+            node.fromMap((Map<String, Object>)m.get("node"));
+        }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("resume")!=null) resume = Boolean.parseBoolean(m.get("resume").toString());
+        if(m.get("overwrite")!=null) overwrite = Boolean.parseBoolean(m.get("overwrite").toString());
+        if(m.get("parallelism")!=null) parallelism = ((Number)m.get("parallelism")).intValue();
+        if(m.get("didCount")!=null) didCount = ((Number)m.get("didCount")).longValue();
+        if(m.get("skippedCount")!=null) skippedCount = ((Number)m.get("skippedCount")).longValue();
+        if(m.get("revocationCount")!=null) revocationCount = ((Number)m.get("revocationCount")).longValue();
+        if(m.get("trustEdgeCount")!=null) trustEdgeCount = ((Number)m.get("trustEdgeCount")).longValue();
+        if(m.get("chunkCount")!=null) chunkCount = ((Number)m.get("chunkCount")).intValue();
+        if(m.get("lastCommittedChunk")!=null) lastCommittedChunk = ((Number)m.get("lastCommittedChunk")).intValue();
+        if(m.get("complete")!=null) complete = Boolean.parseBoolean(m.get("complete").toString());
+    }
+}
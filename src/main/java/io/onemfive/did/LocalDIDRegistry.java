@@ -0,0 +1,103 @@
+package io.onemfive.did;
+
+import io.onemfive.data.DID;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Authenticated DIDs local to this node: the node's own DID, elected exactly once
+ * by the first successful authentication, and the local users authenticated since.
+ *
+ * Safe for concurrent use.
+ *
+ * @author objectorange
+ */
+final class LocalDIDRegistry {
+
+    private static final Logger LOG = Logger.getLogger(LocalDIDRegistry.class.getName());
+
+    private final AtomicReference<DID> nodeDID = new AtomicReference<>();
+    private final ConcurrentMap<String,DID> localUserDIDs = new ConcurrentHashMap<>();
+
+    /**
+     * Caches an authenticated DID electing it as the node DID if none has been elected yet.
+     * @return true if the DID is the node DID
+     */
+    boolean cacheAuthenticated(DID did) {
+        boolean isNode;
+        DID current = nodeDID.get();
+        if(current == null) {
+            // first authentication is the node itself; only one caller wins the election
+            isNode = nodeDID.compareAndSet(null, did) || did.equals(nodeDID.get());
+        } else {
+            isNode = current.equals(did);
+            if(isNode) nodeDID.compareAndSet(current, did);
+        }
+        if(isNode)
+            LOG.info("First authn is node or this is node authn - caching.");
+        else
+            LOG.info("Local user DID cached.");
+        if(did.getUsername() != null)
+            localUserDIDs.put(did.getUsername(), did);
+        return isNode;
+    }
+
+    void cacheLocalUser(DID did) {
+        if(did.getUsername() != null)
+            localUserDIDs.put(did.getUsername(), did);
+    }
+
+    /**
+     * Restores a DID authenticated before a restart unless one has been cached for it since.
+     * @param node true to restore it as the node DID, if none has been elected yet
+     */
+    void restore(DID did, boolean node) {
+        if(node)
+            nodeDID.compareAndSet(null, did);
+        if(did.getUsername() != null)
+            localUserDIDs.putIfAbsent(did.getUsername(), did);
+    }
+
+    /**
+     * Forgets a revoked DID, as the node DID too if it was elected.
+     */
+    void remove(String username) {
+        if(username == null)
+            return;
+        localUserDIDs.remove(username);
+        DID current = nodeDID.get();
+        if(current != null && username.equals(current.getUsername()))
+            nodeDID.compareAndSet(current, null);
+    }
+
+    DID getNodeDID() {
+        return nodeDID.get();
+    }
+
+    DID getLocalUserDID(String username) {
+        return username == null ? null : localUserDIDs.get(username);
+    }
+
+    /**
+     * @return local users other than the node
+     */
+    List<DID> getLocalUserDIDs() {
+        DID node = nodeDID.get();
+        String nodeUsername = node == null ? null : node.getUsername();
+        List<DID> users = new ArrayList<>(localUserDIDs.size());
+        for(DID did : localUserDIDs.values()) {
+            if(!did.getUsername().equals(nodeUsername))
+                users.add(did);
+        }
+        return users;
+    }
+
+    int localUserCount() {
+        return localUserDIDs.size();
+    }
+}
@@ -0,0 +1,187 @@
+package io.onemfive.did;
+
+import io.onemfive.data.Hash;
+import io.onemfive.did.metrics.LatencyHistogram;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded worker pool for password hash verification, a deliberately slow key-stretching
+ * computation that should not run on the bus thread handling the envelope.
+ *
+ * The number of hashes computed at once is capped by a semaphore so a login storm cannot
+ * take every core from other operations; work beyond the queue's capacity is rejected.
+ *
+ * @author objectorange
+ */
+final class PasswordHashPool {
+
+    private static final Logger LOG = Logger.getLogger(PasswordHashPool.class.getName());
+
+    interface Callback {
+        /**
+         * @param authN true if the passphrase matched, null if the hash algorithm is unsupported
+         */
+        void verified(Boolean authN);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore hashPermits;
+    private final int maxConcurrentHashes;
+    private final LatencyHistogram verifyTimer;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param threads worker threads; 0 or less sizes the pool to the available processors
+     * @param queueSize verifications allowed to wait for a worker
+     * @param maxConcurrentHashes hashes computed at once; 0 or less matches the thread count
+     */
+    PasswordHashPool(int threads, int queueSize, int maxConcurrentHashes) {
+        this(threads, queueSize, maxConcurrentHashes, new LatencyHistogram());
+    }
+
+    /**
+     * @param verifyTimer records the time each hash takes to compute, excluding waits for a worker or permit
+     */
+    PasswordHashPool(int threads, int queueSize, int maxConcurrentHashes, LatencyHistogram verifyTimer) {
+        this.verifyTimer = verifyTimer;
+        if(threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+        if(maxConcurrentHashes <= 0) maxConcurrentHashes = threads;
+        this.maxConcurrentHashes = maxConcurrentHashes;
+        hashPermits = new Semaphore(maxConcurrentHashes, true);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "DIDService-PasswordHash-"+threadNumber.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queues verification of the passphrase against the hash, calling back on a pool thread.
+     * @return false if the pool is saturated and the verification was not queued
+     */
+    boolean submit(final String passphrase, final Hash hash, final Callback callback) {
+        final long queuedAt = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recordWait(System.nanoTime() - queuedAt);
+                    Boolean authN = null;
+                    try {
+                        authN = verify(passphrase, hash);
+                    } finally {
+                        callback.verified(authN);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Verifies on the calling thread, waiting for a hash permit.
+     * @return true if the passphrase matched, null if the hash algorithm is unsupported
+     */
+    Boolean verify(String passphrase, Hash hash) {
+        hashPermits.acquireUninterruptibly();
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return PasswordHasher.verify(passphrase, hash);
+        } catch (NoSuchAlgorithmException e) {
+            LOG.warning(e.getLocalizedMessage());
+            return null;
+        } finally {
+            verifyTimer.recordSince(start);
+            inFlight.decrementAndGet();
+            hashPermits.release();
+            completed.incrementAndGet();
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        long max = maxWaitNanos.get();
+        while(waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getMaxConcurrentHashes() {
+        return maxConcurrentHashes;
+    }
+
+    long getSubmitted() {
+        return submitted.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    double getAverageWaitMillis() {
+        long n = submitted.get();
+        return n == 0 ? 0.0 : totalWaitNanos.get() / (n * 1000000.0);
+    }
+
+    double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordHashPool{queueDepth="+getQueueDepth()+", inFlight="+getInFlight()
+                +", submitted="+getSubmitted()+", rejected="+getRejected()+", completed="+getCompleted()
+                +", avgWaitMs="+getAverageWaitMillis()+", maxWaitMs="+getMaxWaitMillis()+"}";
+    }
+
+    void shutdown(long timeoutMs) {
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS))
+                executor.shutdownNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+}
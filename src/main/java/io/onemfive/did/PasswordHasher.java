@@ -0,0 +1,191 @@
+package io.onemfive.did;
+
+import io.onemfive.data.Hash;
+import io.onemfive.data.util.HashUtil;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PBKDF2 password hashes with an adjustable cost in the layout <code>$31$&lt;cost&gt;$&lt;salt and hash&gt;</code>
+ * where the iterations are 2^cost and the salt and hash are Base64 without padding.
+ *
+ * The cost is part of each hash so hashes made at different costs all verify; hashes
+ * made by {@link HashUtil} before costs were adjustable verify through it. The cost for new
+ * hashes can be calibrated to take a target time on this host.
+ *
+ * @author objectorange
+ */
+final class PasswordHasher {
+
+    private static final Logger LOG = Logger.getLogger(PasswordHasher.class.getName());
+
+    static final String ID = "$31$";
+    static final int MIN_COST = 10;
+    static final int MAX_COST = 30;
+    static final int DEFAULT_COST = 16;
+    static final long DEFAULT_CALIBRATION_BUDGET_MILLIS = 2000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int SIZE = 128;
+    private static final Pattern layout = Pattern.compile("\\$31\\$(\\d\\d?)\\$(.{43})");
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final int cost;
+
+    PasswordHasher(int cost) {
+        this.cost = Math.max(MIN_COST, Math.min(MAX_COST, cost));
+    }
+
+    int getCost() {
+        return cost;
+    }
+
+    Hash hash(String passphrase) throws NoSuchAlgorithmException {
+        byte[] salt = new byte[SIZE / 8];
+        random.nextBytes(salt);
+        byte[] dk = pbkdf2(passphrase.toCharArray(), salt, 1 << cost);
+        byte[] saltAndHash = new byte[salt.length + dk.length];
+        System.arraycopy(salt, 0, saltAndHash, 0, salt.length);
+        System.arraycopy(dk, 0, saltAndHash, salt.length, dk.length);
+        return new Hash(ID + cost + '$' + encode(saltAndHash), Hash.Algorithm.PBKDF2WithHmacSHA1);
+    }
+
+    /**
+     * @return true if the hash should be replaced with one of this hasher's cost
+     */
+    boolean isOutdated(Hash hash) {
+        int hashCost = cost(hash);
+        return hashCost < cost;
+    }
+
+    /**
+     * @return the cost of a hash in the layout, -1 for hashes made by {@link HashUtil}
+     * and for costs above {@link #MAX_COST}
+     */
+    static int cost(Hash hash) {
+        Matcher m = hash.getHash() == null ? null : layout.matcher(hash.getHash());
+        if(m == null || !m.matches())
+            return -1;
+        int cost = Integer.parseInt(m.group(1));
+        return cost <= MAX_COST ? cost : -1;
+    }
+
+    /**
+     * @return true if the passphrase matches the hash, null if the hash algorithm is unsupported;
+     * false for costs above {@link #MAX_COST} as 2^cost would overflow or never finish
+     */
+    static Boolean verify(String passphrase, Hash hash) throws NoSuchAlgorithmException {
+        Matcher m = hash.getHash() == null ? null : layout.matcher(hash.getHash());
+        if(m == null || !m.matches())
+            return HashUtil.verifyPasswordHash(passphrase, hash);
+        int hashCost = Integer.parseInt(m.group(1));
+        if(hashCost > MAX_COST)
+            return false;
+        int iterations = 1 << hashCost;
+        byte[] saltAndHash = decode(m.group(2));
+        if(saltAndHash == null)
+            return false;
+        byte[] salt = new byte[SIZE / 8];
+        byte[] expected = new byte[saltAndHash.length - salt.length];
+        System.arraycopy(saltAndHash, 0, salt, 0, salt.length);
+        System.arraycopy(saltAndHash, salt.length, expected, 0, expected.length);
+        return MessageDigest.isEqual(expected, pbkdf2(passphrase.toCharArray(), salt, iterations));
+    }
+
+    static int calibrate(long targetMillis) throws NoSuchAlgorithmException {
+        return calibrate(targetMillis, DEFAULT_CALIBRATION_BUDGET_MILLIS);
+    }
+
+    /**
+     * Finds the highest cost whose hash takes no longer than the target on this host,
+     * timing hashes from {@link #MIN_COST} up. Each cost doubles the time of the last so
+     * calibration stops before a hash that would take the time spent past the budget.
+     */
+    static int calibrate(long targetMillis, long budgetMillis) throws NoSuchAlgorithmException {
+        byte[] salt = new byte[SIZE / 8];
+        char[] passphrase = "calibration".toCharArray();
+        // warm up so the first timing is not of the interpreter
+        pbkdf2(passphrase, salt, 1 << MIN_COST);
+        long targetNanos = targetMillis * 1000000L;
+        long budgetNanos = budgetMillis * 1000000L;
+        int cost = MIN_COST;
+        long start = System.nanoTime();
+        pbkdf2(passphrase, salt, 1 << cost);
+        long elapsed = System.nanoTime() - start;
+        long spent = elapsed;
+        while(cost < MAX_COST && elapsed * 2 <= targetNanos && spent + elapsed * 2 <= budgetNanos) {
+            cost++;
+            start = System.nanoTime();
+            pbkdf2(passphrase, salt, 1 << cost);
+            elapsed = System.nanoTime() - start;
+            spent += elapsed;
+        }
+        if(elapsed > targetNanos && cost > MIN_COST)
+            cost--;
+        LOG.info("Password hash cost calibrated to "+cost+" for a target of "+targetMillis+" ms in "
+                + (spent / 1000000L) + " ms (budget "+budgetMillis+" ms).");
+        return cost;
+    }
+
+    private static byte[] pbkdf2(char[] passphrase, byte[] salt, int iterations) throws NoSuchAlgorithmException {
+        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, SIZE);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            throw new IllegalStateException("Invalid PBKDF2 key spec", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String encode(byte[] b) {
+        StringBuilder sb = new StringBuilder((b.length * 4 + 2) / 3);
+        for(int i=0; i<b.length; i+=3) {
+            int n = (b[i] & 0xFF) << 16;
+            if(i+1 < b.length) n |= (b[i+1] & 0xFF) << 8;
+            if(i+2 < b.length) n |= b[i+2] & 0xFF;
+            int chars = Math.min(4, (b.length - i) * 4 / 3 + 1);
+            for(int j=0; j<chars; j++) {
+                sb.append(BASE64[(n >>> (18 - 6 * j)) & 0x3F]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] decode(String s) {
+        byte[] b = new byte[s.length() * 3 / 4];
+        int bits = 0;
+        int buffer = 0;
+        int o = 0;
+        for(int i=0; i<s.length(); i++) {
+            int v = indexOf(s.charAt(i));
+            if(v < 0) return null;
+            buffer = (buffer << 6) | v;
+            bits += 6;
+            if(bits >= 8) {
+                bits -= 8;
+                b[o++] = (byte)(buffer >>> bits);
+            }
+        }
+        return b;
+    }
+
+    private static int indexOf(char c) {
+        if(c >= 'A' && c <= 'Z') return c - 'A';
+        if(c >= 'a' && c <= 'z') return c - 'a' + 26;
+        if(c >= '0' && c <= '9') return c - '0' + 52;
+        if(c == '-') return 62;
+        if(c == '_') return 63;
+        return -1;
+    }
+}
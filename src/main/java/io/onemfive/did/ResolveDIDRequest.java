@@ -0,0 +1,51 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.Map;
+
+/**
+ * Resolve a DID document as of one of its versions, or its latest, when DIDs are kept
+ * in the versioned store. Passphrase hashes are never returned.
+ *
+ * @author objectorange
+ */
+public class ResolveDIDRequest extends ServiceRequest {
+
+    public static final int DID_REQUIRED = 1;
+    public static final int VERSIONS_NOT_KEPT = 2;
+    public static final int DID_UNKNOWN = 3;
+    public static final int VERSION_UNKNOWN = 4;
+    public static final int DID_REVOKED = 5;
+    public static final int VERSIONS_UNREADABLE = 6;
+
+    // Request - did with username; replaced by the resolved document
+    public DID did;
+    public int version = 0; // 0 for the latest
+    // Result
+    public int latestVersion;
+    public long updatedAt; // when the resolved version was saved
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(did!=null) m.put("did",did.toMap());
+        m.put("version",version);
+        m.put("latestVersion",latestVersion);
+        m.put("updatedAt",updatedAt);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("did")!=null) {
+            did = new DID();
+            did.fromMap((Map<String, Object>)m.get("did"));
+        }
+        if(m.get("version")!=null) version = ((Number)m.get("version")).intValue();
+        if(m.get("latestVersion")!=null) latestVersion = ((Number)m.get("latestVersion")).intValue();
+        if(m.get("updatedAt")!=null) updatedAt = ((Number)m.get("updatedAt")).longValue();
+    }
+}
@@ -3,14 +3,74 @@ package io.onemfive.did;
 import io.onemfive.core.ServiceRequest;
 import io.onemfive.data.DID;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Revoke Identity.
  *
+ * Revokes the DID, or every DID of a revocation feed, permanently. With since set instead,
+ * returns the usernames revoked after that sequence so a peer can sync incrementally.
+ *
+ * The request must prove it acts for the revoker, with a session token issued to it or with
+ * its passphrase: a DID may revoke itself, and only the node DID may revoke other DIDs or a
+ * feed. The node DID itself is never revoked.
+ *
  * @author objectorange
  */
 public class RevokeRequest extends ServiceRequest {
 
     public static final int DID_REQUIRED = 1;
+    public static final int REVOCATION_NOT_PERSISTED = 2;
+    public static final int REVOKER_NOT_AUTHENTICATED = 3;
+    public static final int NODE_DID_NOT_REVOCABLE = 4;
 
+    public static final int MAX_REVOCATIONS_RETURNED = 10000;
+
+    // Request
     public DID did;
+    public List<DID> dids;
+    public long since = -1;
+    // DID revoking: did itself if null, otherwise the node DID
+    public DID revoker;
+    // Session token issued to the revoker; otherwise the revoker's passphrase is verified
+    public String token;
+    // Result
+    public int revokedCount;
+    public List<String> revocations;
+    // Sequence of the latest revocation; revocations after it are returned for since = sequence
+    public long sequence;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(did!=null) m.put("did",did.toMap());
+        if(dids!=null) m.put("dids",BatchAuthenticateRequest.toMaps(dids));
+        m.put("since",since);
+        if(revoker!=null) m.put("revoker",revoker.toMap());
+        if(token!=null) m.put("token",token);
+        m.put("revokedCount",revokedCount);
+        if(revocations!=null) m.put("revocations",revocations);
+        m.put("sequence",sequence);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("did")!=null) {
+            did = new DID();
+            did.fromMap((Map<String, Object>)m.get("did"));
+        }
+        if(m.get("dids")!=null) dids = BatchAuthenticateRequest.fromMaps((List<Map<String,Object>>)m.get("dids"));
+        if(m.get("since")!=null) since = ((Number)m.get("since")).longValue();
+        if(m.get("revoker")!=null) {
+            revoker = new DID();
+            revoker.fromMap((Map<String, Object>)m.get("revoker"));
+        }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("revokedCount")!=null) revokedCount = ((Number)m.get("revokedCount")).intValue();
+        if(m.get("revocations")!=null) revocations = (List<String>)m.get("revocations");
+        if(m.get("sequence")!=null) sequence = ((Number)m.get("sequence")).longValue();
+    }
 }
@@ -0,0 +1,341 @@
+package io.onemfive.did;
+
+import io.onemfive.data.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Expiring session tokens issued after a successful authentication so clients can prove
+ * they authenticated without the password hash being verified again.
+ *
+ * A token is the Base64 of version, issued and expiry times in milliseconds, username and
+ * an HMAC-SHA256 of all of those. Validation recomputes the MAC, compares it in constant
+ * time and looks the token and username up in the in-memory revocations; nothing is stored
+ * per token issued. Tokens are only valid for the key they were issued with so a key
+ * generated at start invalidates every token at restart. With a configured key tokens outlive
+ * a restart, so revocations are also appended to a file, replayed and rewritten without those
+ * no longer needed when opened.
+ *
+ * @author objectorange
+ */
+final class SessionTokens {
+
+    private static final Logger LOG = Logger.getLogger(SessionTokens.class.getName());
+
+    static final long DEFAULT_TTL_SECONDS = 3600;
+
+    enum Result { VALID, MALFORMED, EXPIRED, REVOKED }
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION_1 = 1;
+    private static final int MAC_LENGTH = 32;
+    private static final int HEADER_LENGTH = 1 + 8 + 8 + 2;
+    private static final int MAX_USERNAME_LENGTH = 0xFFFF;
+    // revocation file entries
+    private static final byte REVOKED_TOKEN = 1;
+    private static final byte REVOKED_BEFORE = 2;
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    // Mac instances are not thread safe
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(MAC_ALGORITHM+" unavailable", e);
+            }
+        }
+    };
+    // MACs of revoked tokens by expiry
+    private final Map<ByteBuffer,Long> revokedTokens = new ConcurrentHashMap<>();
+    // tokens issued for a username at or before this time are revoked
+    private final Map<String,Long> revokedBefore = new ConcurrentHashMap<>();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private DataOutputStream revocationLog;
+
+    /**
+     * @param key HMAC key; null generates a random one
+     * @param ttlSeconds lifetime of issued tokens
+     */
+    SessionTokens(byte[] key, long ttlSeconds) {
+        if(key == null || key.length == 0) {
+            key = new byte[MAC_LENGTH];
+            new SecureRandom().nextBytes(key);
+        }
+        this.key = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.ttlMillis = Math.max(1, ttlSeconds) * 1000;
+    }
+
+    /**
+     * Tokens whose revocations are persisted in the file, for a key that outlives a restart.
+     */
+    static SessionTokens open(byte[] key, long ttlSeconds, Path revocationFile) throws IOException {
+        SessionTokens tokens = new SessionTokens(key, ttlSeconds);
+        if(revocationFile.getParent() != null)
+            Files.createDirectories(revocationFile.getParent());
+        if(Files.exists(revocationFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(revocationFile)))) {
+                while(true) {
+                    byte type = in.readByte();
+                    if(type == REVOKED_TOKEN) {
+                        byte[] mac = new byte[MAC_LENGTH];
+                        in.readFully(mac);
+                        tokens.revokedTokens.put(ByteBuffer.wrap(mac), in.readLong());
+                    } else if(type == REVOKED_BEFORE) {
+                        String username = in.readUTF();
+                        long before = in.readLong();
+                        Long previous = tokens.revokedBefore.get(username);
+                        if(previous == null || previous < before)
+                            tokens.revokedBefore.put(username, before);
+                    } else {
+                        throw new IOException("Corrupt token revocations: "+revocationFile);
+                    }
+                }
+            } catch (EOFException e) {
+                // end of file or a partial entry a crash left, dropped by the rewrite
+            }
+        }
+        tokens.purgeExpired();
+        // rewritten with only the revocations still needed
+        Path tmp = revocationFile.resolveSibling(revocationFile.getFileName()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for(Map.Entry<ByteBuffer,Long> entry : tokens.revokedTokens.entrySet()) {
+                writeToken(out, entry.getKey(), entry.getValue());
+            }
+            for(Map.Entry<String,Long> entry : tokens.revokedBefore.entrySet()) {
+                writeBefore(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(tmp, revocationFile, StandardCopyOption.REPLACE_EXISTING);
+        tokens.revocationLog = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(revocationFile, StandardOpenOption.APPEND)));
+        return tokens;
+    }
+
+    /**
+     * @return token for the username expiring after the configured time to live
+     */
+    String issue(String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if(name.length > MAX_USERNAME_LENGTH)
+            throw new IllegalArgumentException("Username too long for a session token");
+        long now = System.currentTimeMillis();
+        Long before = revokedBefore.get(username);
+        if(before != null && now <= before)
+            now = before + 1; // never revoked by a revocation in the same millisecond
+        ByteBuffer token = ByteBuffer.allocate(HEADER_LENGTH + name.length + MAC_LENGTH);
+        token.put(VERSION_1);
+        token.putLong(now);
+        token.putLong(now + ttlMillis);
+        token.putShort((short)name.length);
+        token.put(name);
+        token.put(mac(token.array(), token.position()));
+        issued.incrementAndGet();
+        return Base64.encode(token.array());
+    }
+
+    /**
+     * @return username the token claims to be for, not yet validated, or null if malformed
+     */
+    String username(String token) {
+        byte[] t = token == null ? null : Base64.decode(token);
+        if(t == null || !wellFormed(t))
+            return null;
+        int nameLength = ByteBuffer.wrap(t, 17, 2).getShort() & 0xFFFF;
+        return new String(t, HEADER_LENGTH, nameLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param username username the token must be for or null for any
+     */
+    Result validate(String token, String username) {
+        byte[] t = decode(token);
+        if(t == null)
+            return rejected(Result.MALFORMED);
+        ByteBuffer b = ByteBuffer.wrap(t);
+        b.get();
+        long issuedAt = b.getLong();
+        long expires = b.getLong();
+        int nameLength = b.getShort() & 0xFFFF;
+        String tokenUsername = new String(t, HEADER_LENGTH, nameLength, StandardCharsets.UTF_8);
+        if(username != null && !username.equals(tokenUsername))
+            return rejected(Result.MALFORMED);
+        if(System.currentTimeMillis() >= expires)
+            return rejected(Result.EXPIRED);
+        Long before = revokedBefore.get(tokenUsername);
+        if((before != null && issuedAt <= before)
+                || revokedTokens.containsKey(ByteBuffer.wrap(t, t.length - MAC_LENGTH, MAC_LENGTH).slice()))
+            return rejected(Result.REVOKED);
+        validated.incrementAndGet();
+        return Result.VALID;
+    }
+
+    /**
+     * Revokes the token until it expires.
+     * @return false if the token is not one of ours
+     */
+    boolean revoke(String token) {
+        byte[] t = decode(token);
+        if(t == null)
+            return false;
+        long expires = ByteBuffer.wrap(t, 9, 8).getLong();
+        purgeExpired();
+        ByteBuffer mac = ByteBuffer.wrap(t, t.length - MAC_LENGTH, MAC_LENGTH).slice();
+        revokedTokens.put(mac, expires);
+        synchronized (this) {
+            if(revocationLog != null) {
+                try {
+                    writeToken(revocationLog, mac, expires);
+                    revocationLog.flush();
+                } catch (IOException e) {
+                    LOG.warning("Unable to persist token revocation; it holds until restart: "+e.getLocalizedMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Revokes every token issued for the username until now, e.g. when its passphrase changes.
+     */
+    void revokeAll(String username) {
+        long now = System.currentTimeMillis();
+        purgeExpired();
+        revokedBefore.put(username, now);
+        synchronized (this) {
+            if(revocationLog != null) {
+                try {
+                    writeBefore(revocationLog, username, now);
+                    revocationLog.flush();
+                } catch (IOException e) {
+                    LOG.warning("Unable to persist revocation of "+username+"'s tokens; it holds until restart: "+e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    synchronized void close() {
+        if(revocationLog == null)
+            return;
+        try {
+            revocationLog.close();
+        } catch (IOException e) {
+            LOG.warning("Unable to close token revocations: "+e.getLocalizedMessage());
+        }
+        revocationLog = null;
+    }
+
+    long getIssued() {
+        return issued.get();
+    }
+
+    long getValidated() {
+        return validated.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    int getRevoked() {
+        return revokedTokens.size();
+    }
+
+    int getRevokedUsernames() {
+        return revokedBefore.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionTokens{issued="+getIssued()+", validated="+getValidated()
+                +", rejected="+getRejected()+", revoked="+getRevoked()+"}";
+    }
+
+    private Result rejected(Result result) {
+        rejected.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * @return the token's bytes or null if malformed or the MAC does not match
+     */
+    private byte[] decode(String token) {
+        if(token == null)
+            return null;
+        byte[] t = Base64.decode(token);
+        if(t == null || !wellFormed(t))
+            return null;
+        byte[] expected = mac(t, t.length - MAC_LENGTH);
+        byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(t, t.length - MAC_LENGTH, actual, 0, MAC_LENGTH);
+        // constant time comparison
+        return MessageDigest.isEqual(expected, actual) ? t : null;
+    }
+
+    private static boolean wellFormed(byte[] t) {
+        if(t.length < HEADER_LENGTH + MAC_LENGTH || t[0] != VERSION_1)
+            return false;
+        int nameLength = ByteBuffer.wrap(t, 17, 2).getShort() & 0xFFFF;
+        return t.length == HEADER_LENGTH + nameLength + MAC_LENGTH;
+    }
+
+    private byte[] mac(byte[] content, int length) {
+        Mac mac = macs.get();
+        mac.update(content, 0, length);
+        return mac.doFinal();
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Long> i = revokedTokens.values().iterator();
+        while(i.hasNext()) {
+            if(i.next() <= now)
+                i.remove();
+        }
+        // every token issued by then has expired
+        i = revokedBefore.values().iterator();
+        while(i.hasNext()) {
+            if(i.next() + ttlMillis <= now)
+                i.remove();
+        }
+    }
+
+    private static void writeToken(DataOutputStream out, ByteBuffer mac, long expires) throws IOException {
+        out.writeByte(REVOKED_TOKEN);
+        out.write(mac.array(), mac.arrayOffset() + mac.position(), MAC_LENGTH);
+        out.writeLong(expires);
+    }
+
+    private static void writeBefore(DataOutputStream out, String username, long before) throws IOException {
+        out.writeByte(REVOKED_BEFORE);
+        out.writeUTF(username);
+        out.writeLong(before);
+    }
+}
@@ -0,0 +1,141 @@
+package io.onemfive.did;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks on one of N single-threaded shards chosen by hashing a key (the username)
+ * so tasks sharing a key execute in submission order while different keys run in parallel.
+ *
+ * Each shard has a bounded queue. When a shard's queue is full the submitter either
+ * waits up to the configured timeout (back-pressure) or is told immediately that the
+ * task was rejected so it can dead-letter the envelope.
+ *
+ * @author objectorange
+ */
+final class ShardedDispatcher {
+
+    private static final Logger LOG = Logger.getLogger(ShardedDispatcher.class.getName());
+
+    enum OnFull { BLOCK, DEAD_LETTER }
+
+    private final ThreadPoolExecutor[] shards;
+    private final OnFull onFull;
+    private final long blockTimeoutMs;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    ShardedDispatcher(int shardCount, int queueSize, OnFull onFull, long blockTimeoutMs) {
+        if(shardCount < 1) throw new IllegalArgumentException("shardCount must be at least 1");
+        if(queueSize < 1) throw new IllegalArgumentException("queueSize must be at least 1");
+        this.onFull = onFull;
+        this.blockTimeoutMs = blockTimeoutMs;
+        shards = new ThreadPoolExecutor[shardCount];
+        for(int i=0; i<shardCount; i++) {
+            final String name = "DIDService-Shard-"+i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, name);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            shards[i].prestartAllCoreThreads();
+        }
+    }
+
+    /**
+     * Queues the task on the shard owning the key.
+     * @param key ordering key; null keys are spread round-robin as they need no ordering
+     * @return false if the shard is saturated or shut down and the task was not accepted
+     */
+    boolean dispatch(String key, Runnable task) {
+        ThreadPoolExecutor shard = shardFor(key);
+        try {
+            if(onFull == OnFull.BLOCK) {
+                // shard threads are prestarted so offering directly to the queue is sufficient
+                if(shard.isShutdown() || !shard.getQueue().offer(task, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+            } else {
+                shard.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            return false;
+        }
+        dispatched.incrementAndGet();
+        return true;
+    }
+
+    private ThreadPoolExecutor shardFor(String key) {
+        if(key == null)
+            return shards[(roundRobin.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards[(h & Integer.MAX_VALUE) % shards.length];
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    int queueDepth() {
+        int depth = 0;
+        for(ThreadPoolExecutor shard : shards) {
+            depth += shard.getQueue().size();
+        }
+        return depth;
+    }
+
+    long getDispatched() {
+        return dispatched.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting tasks and waits for queued tasks to finish.
+     * @return true if all shards drained within the timeout
+     */
+    boolean shutdown(long timeoutMs) {
+        for(ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean drained = true;
+        for(ThreadPoolExecutor shard : shards) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if(!shard.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    drained = false;
+                    LOG.warning("Shard did not drain in time; "+shard.getQueue().size()+" operations abandoned.");
+                    shard.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shard.shutdownNow();
+                drained = false;
+            }
+        }
+        return drained;
+    }
+}
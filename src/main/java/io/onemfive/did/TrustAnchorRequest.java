@@ -0,0 +1,55 @@
+package io.onemfive.did;
+
+import io.onemfive.core.ServiceRequest;
+import io.onemfive.data.DID;
+
+import java.util.Map;
+
+/**
+ * Makes the DID a trust anchor of this node's web of trust, trusted outright, or with
+ * REMOVE_TRUST_ANCHOR no longer one.
+ * The request must prove it acts for the node DID, with a session token issued to it or
+ * with its passphrase.
+ *
+ * @author objectorange
+ */
+public class TrustAnchorRequest extends ServiceRequest {
+
+    public static final int DID_REQUIRED = 1;
+    public static final int NODE_NOT_AUTHENTICATED = 2;
+    public static final int DID_REVOKED = 3;
+
+    // Request
+    public DID did;
+    // Node DID the request acts for
+    public DID node;
+    // Session token issued to the node DID; otherwise its passphrase is verified
+    public String token;
+    // Result - whether the DID's anchoring changed
+    public boolean changed;
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = super.toMap();
+        if(did!=null) m.put("did",did.toMap());
+        if(node!=null) m.put("node",node.toMap());
+        if(token!=null) m.put("token",token);
+        m.put("changed",changed);
+        return m;
+    }
+
+    @Override
+    public void fromMap(Map<String, Object> m) {
+        super.fromMap(m);
+        if(m.get("did")!=null) {
+            did = new DID();
+            did.fromMap((Map<String, Object>)m.get("did"));
+        }
+        if(m.get("node")!=null) {
+            node = new DID();
+            node.fromMap((Map<String, Object>)m.get("node"));
+        }
+        if(m.get("token")!=null) token = (String)m.get("token");
+        if(m.get("changed")!=null) changed = Boolean.parseBoolean(m.get("changed").toString());
+    }
+}
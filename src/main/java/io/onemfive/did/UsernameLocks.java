@@ -0,0 +1,42 @@
+package io.onemfive.did;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks striped by username so operations on the same identity
+ * are serialized while different identities proceed in parallel.
+ *
+ * @author objectorange
+ */
+final class UsernameLocks {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    private final Lock[] locks;
+    private final Lock nullUsernameLock = new ReentrantLock();
+
+    UsernameLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    UsernameLocks(int stripes) {
+        int size = 1;
+        while(size < stripes) size <<= 1;
+        locks = new Lock[size];
+        for(int i=0; i<size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    Lock lockFor(String username) {
+        if(username == null) return nullUsernameLock;
+        int h = username.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (locks.length - 1)];
+    }
+
+    int stripes() {
+        return locks.length;
+    }
+}
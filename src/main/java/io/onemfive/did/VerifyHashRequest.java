@@ -2,16 +2,37 @@ package io.onemfive.did;
 
 import io.onemfive.core.ServiceRequest;
 import io.onemfive.data.Hash;
+import io.onemfive.did.hash.MerkleHasher;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 public class VerifyHashRequest extends ServiceRequest {
 
     public static int UNKNOWN_HASH_ALGORITHM = 1;
     public static int INVALID_KEY_SPEC = 2;
+    public static int CONTENT_REQUIRED = 3;
+    public static int CONTENT_UNREADABLE = 4;
+    public static int CHUNK_INDEX_OUT_OF_RANGE = 5;
 
     // Request
     public String content;
+    // Request - streamed content for large payloads used when content is null, first one set wins
+    public InputStream contentStream; // read to end, not closed
+    public ByteBuffer contentBuffer; // read from position to limit, position unchanged
+    public String contentPath; // file hashed through memory-mapped windows
     public Hash hashToVerify;
+    // Request - digest algorithm as HashRequest.algorithm returned it, e.g. BLAKE2b-256, needed when
+    // hashToVerify has no Hash.Algorithm for it; when both are set they must agree
+    public String algorithm;
     public boolean isShort = false; // full is default
+    // Request - hashToVerify is a Merkle tree hash from HashRequest.treeHash
+    public boolean isTreeHash = false;
+    public int treeChunkSize = MerkleHasher.DEFAULT_CHUNK_SIZE;
+    // Request - with the chunk hashes returned by HASH and chunkIndex set only that chunk is re-hashed
+    public List<Hash> chunkHashes;
+    public int chunkIndex = -1;
     // Result
     public boolean isAMatch;
 }
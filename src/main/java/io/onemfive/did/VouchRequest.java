@@ -2,25 +2,47 @@ package io.onemfive.did;
 
 import io.onemfive.core.ServiceRequest;
 import io.onemfive.data.DID;
+import io.onemfive.did.vouch.Vouch;
 
 import java.util.Map;
 
+/**
+ * Signer vouches for attributes of the signee with its vouching key, or with REVOKE_VOUCH
+ * withdraws its vouches for the signee made until now.
+ * The request must prove it acts for the signer, a DID on this node, with a session token
+ * issued to it or with its passphrase.
+ *
+ * @author objectorange
+ */
 public class VouchRequest extends ServiceRequest {
 
     public static final int SIGNER_REQUIRED = 1;
     public static final int SIGNEE_REQUIRED = 2;
     public static final int ATTRIBUTES_REQUIRED = 3;
+    public static final int SIGNER_NOT_AUTHENTICATED = 4;
+    public static final int SIGNING_FAILED = 5;
+    public static final int SIGNEE_REVOKED = 6;
 
+    // Request
     public DID signer;
+    // Session token issued to the signer; otherwise the signer's passphrase is verified
+    public String token;
     public DID signee;
     public Map<String,Object> attributesToSign;
+    // Result
+    public Vouch vouch;
+    // Result - REVOKE_VOUCH: whether a vouch was in the web of trust
+    public boolean removed;
 
     @Override
     public Map<String, Object> toMap() {
         Map<String, Object> m = super.toMap();
         if(signer!=null) m.put("signer",signer.toMap());
+        if(token!=null) m.put("token",token);
         if(signee!=null) m.put("signee",signee.toMap());
         if(attributesToSign!=null) m.put("attributesToSign", attributesToSign);
+        if(vouch!=null) m.put("vouch", vouch.toMap());
+        m.put("removed", removed);
         return m;
     }
 
@@ -31,6 +53,7 @@ public class VouchRequest extends ServiceRequest {
             signer = new DID();
             signer.fromMap((Map<String, Object>)m.get("signer"));
         }
+        if(m.get("token")!=null) token = (String)m.get("token");
         if(m.get("signee")!=null) {
             signee = new DID();
             signee.fromMap((Map<String, Object>)m.get("signee"));
@@ -38,6 +61,11 @@ public class VouchRequest extends ServiceRequest {
         if(m.get("attributesToSign")!=null) {
             attributesToSign = (Map<String, Object>)m.get("attributesToSign");
         }
+        if(m.get("vouch")!=null) {
+            vouch = new Vouch();
+            vouch.fromMap((Map<String, Object>)m.get("vouch"));
+        }
+        if(m.get("removed")!=null) removed = Boolean.parseBoolean(m.get("removed").toString());
     }
 
 }
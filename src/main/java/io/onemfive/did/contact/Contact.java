@@ -0,0 +1,91 @@
+package io.onemfive.did.contact;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entry in a local DID's contact book: another DID by username with the alias the owner
+ * knows it by and the fingerprint and address of its public key.
+ *
+ * @author objectorange
+ */
+public class Contact {
+
+    private String username;
+    private String alias;
+    private String fingerprint;
+    private String address;
+    private long addedAt;
+
+    public Contact() {}
+
+    public Contact(String username, String alias, String fingerprint, String address) {
+        this.username = username;
+        this.alias = alias;
+        this.fingerprint = fingerprint;
+        this.address = address;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public long getAddedAt() {
+        return addedAt;
+    }
+
+    public void setAddedAt(long addedAt) {
+        this.addedAt = addedAt;
+    }
+
+    public Map<String,Object> toMap() {
+        Map<String,Object> m = new HashMap<>();
+        if(username!=null) m.put("username",username);
+        if(alias!=null) m.put("alias",alias);
+        if(fingerprint!=null) m.put("fingerprint",fingerprint);
+        if(address!=null) m.put("address",address);
+        m.put("addedAt",addedAt);
+        return m;
+    }
+
+    public void fromMap(Map<String,Object> m) {
+        if(m.get("username")!=null) username = (String)m.get("username");
+        if(m.get("alias")!=null) alias = (String)m.get("alias");
+        if(m.get("fingerprint")!=null) fingerprint = (String)m.get("fingerprint");
+        if(m.get("address")!=null) address = (String)m.get("address");
+        if(m.get("addedAt")!=null) addedAt = ((Number)m.get("addedAt")).longValue();
+    }
+
+    @Override
+    public String toString() {
+        return "Contact{username="+username+", alias="+alias+"}";
+    }
+}
@@ -0,0 +1,158 @@
+package io.onemfive.did.contact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Contacts of one local DID indexed for type-ahead: a sorted map from the lower-cased alias
+ * and username of every contact finds all contacts matching a prefix as one range, in order,
+ * and a map by fingerprint finds a contact by its public key.
+ *
+ * A contact added again under the same username replaces the earlier one.
+ *
+ * Safe for concurrent use: lookups share a read lock and adds take the write lock.
+ *
+ * @author objectorange
+ */
+public final class ContactBook {
+
+    // separates the term from the username so contacts sharing a term have distinct keys
+    private static final char SEPARATOR = '\u0000';
+
+    private final Map<String,Contact> byUsername = new HashMap<>();
+    private final Map<String,String> byFingerprint = new HashMap<>();
+    private final NavigableMap<String,String> byTerm = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @return the contact replaced, or null if there was none for the username
+     */
+    public Contact add(Contact contact) {
+        lock.writeLock().lock();
+        try {
+            Contact previous = byUsername.put(contact.getUsername(), contact);
+            if(previous != null)
+                unindex(previous);
+            byTerm.put(key(contact.getUsername(), contact.getUsername()), contact.getUsername());
+            if(contact.getAlias() != null)
+                byTerm.put(key(contact.getAlias(), contact.getUsername()), contact.getUsername());
+            if(contact.getFingerprint() != null)
+                byFingerprint.put(contact.getFingerprint(), contact.getUsername());
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Contact get(String username) {
+        lock.readLock().lock();
+        try {
+            return byUsername.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Contact getByFingerprint(String fingerprint) {
+        lock.readLock().lock();
+        try {
+            String username = byFingerprint.get(fingerprint);
+            return username == null ? null : byUsername.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Contacts whose alias or username starts with the prefix, ignoring case, ordered by
+     * the matching term; a contact matching on both is listed once, at the first.
+     * Without counting the total the search stops at the first match past the page.
+     * @param offset matching contacts to skip
+     * @param limit most contacts to return
+     * @param countTotal whether to walk every match to count them
+     */
+    public Page search(String prefix, int offset, int limit, boolean countTotal) {
+        String from = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            Collection<Map.Entry<String,String>> matches = from.isEmpty() ? byTerm.entrySet()
+                    : byTerm.subMap(from, true, from + Character.MAX_VALUE, false).entrySet();
+            List<Contact> contacts = new ArrayList<>(Math.max(0, Math.min(limit, 64)));
+            int count = 0;
+            boolean more = false;
+            for(Map.Entry<String,String> match : matches) {
+                Contact c = byUsername.get(match.getValue());
+                if(listedEarlier(c, match.getKey(), from))
+                    continue;
+                if(count >= offset && contacts.size() < limit) {
+                    contacts.add(c);
+                } else if(count >= offset) {
+                    more = true;
+                    if(!countTotal)
+                        break;
+                }
+                count++;
+            }
+            return new Page(contacts, countTotal ? count : -1, more);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byUsername.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Contacts in a page of search results, the number matching in all if counted, otherwise -1,
+     * and whether any match follows the page.
+     */
+    public static final class Page {
+        public final List<Contact> contacts;
+        public final int total;
+        public final boolean more;
+
+        Page(List<Contact> contacts, int total, boolean more) {
+            this.contacts = contacts;
+            this.total = total;
+            this.more = more;
+        }
+    }
+
+    /**
+     * @return true if the contact's other term also matches and sorts before this one
+     */
+    private static boolean listedEarlier(Contact contact, String key, String from) {
+        if(contact.getAlias() == null)
+            return false;
+        String other = key(contact.getUsername(), contact.getUsername());
+        if(other.equals(key))
+            other = key(contact.getAlias(), contact.getUsername());
+        return other.startsWith(from) && other.compareTo(key) < 0;
+    }
+
+    private void unindex(Contact contact) {
+        byTerm.remove(key(contact.getUsername(), contact.getUsername()));
+        if(contact.getAlias() != null)
+            byTerm.remove(key(contact.getAlias(), contact.getUsername()));
+        if(contact.getFingerprint() != null && contact.getUsername().equals(byFingerprint.get(contact.getFingerprint())))
+            byFingerprint.remove(contact.getFingerprint());
+    }
+
+    private static String key(String term, String username) {
+        return term.toLowerCase(Locale.ROOT) + SEPARATOR + username;
+    }
+}
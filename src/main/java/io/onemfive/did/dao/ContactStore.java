@@ -0,0 +1,119 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.did.contact.Contact;
+import io.onemfive.did.hash.ContentHasher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Contact books kept as an append-only file per local DID, named by the SHA-256 of its
+ * username, behind {@link LoadContactsDAO} and {@link SaveContactDAO}.
+ *
+ * Adding a contact appends just that contact; on load the latest record for each username
+ * wins and the file is rewritten without superseded records once they outnumber the rest.
+ * Each record is:
+ * <pre>
+ *   username alias fingerprint address addedAt(8)
+ * </pre>
+ * with strings in modified UTF-8 and an empty string for none.
+ *
+ * @author objectorange
+ */
+public class ContactStore {
+
+    private static final Logger LOG = Logger.getLogger(ContactStore.class.getName());
+
+    private final Path directory;
+
+    public ContactStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @return the owner's contacts in the order first added
+     */
+    public synchronized List<Contact> load(String owner) throws IOException {
+        Path file = fileFor(owner);
+        Map<String,Contact> contacts = new LinkedHashMap<>();
+        int records = 0;
+        boolean partial = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while(true) {
+                String username;
+                try {
+                    username = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    Contact c = new Contact(username, emptyToNull(in.readUTF()), emptyToNull(in.readUTF()), emptyToNull(in.readUTF()));
+                    c.setAddedAt(in.readLong());
+                    contacts.put(username, c);
+                    records++;
+                } catch (EOFException e) {
+                    LOG.warning("Contacts "+file+" end in a partial record; dropping it.");
+                    partial = true;
+                    break;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        }
+        if(partial || records > 2 * contacts.size())
+            rewrite(file, contacts.values());
+        return new ArrayList<>(contacts.values());
+    }
+
+    public synchronized void append(String owner, Contact contact) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(fileFor(owner), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            write(out, contact);
+        }
+    }
+
+    private void rewrite(Path file, Iterable<Contact> contacts) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for(Contact c : contacts) {
+                write(out, c);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void write(DataOutputStream out, Contact c) throws IOException {
+        out.writeUTF(c.getUsername());
+        out.writeUTF(nullToEmpty(c.getAlias()));
+        out.writeUTF(nullToEmpty(c.getFingerprint()));
+        out.writeUTF(nullToEmpty(c.getAddress()));
+        out.writeLong(c.getAddedAt());
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    private Path fileFor(String owner) {
+        return directory.resolve(ContentHasher.hexSha256(owner) + ".contacts");
+    }
+}
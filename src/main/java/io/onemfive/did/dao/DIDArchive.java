@@ -0,0 +1,350 @@
+package io.onemfive.did.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Streamed archive of a node's DID records, revocations and web of trust for moving them
+ * to another node, written and read a chunk at a time so neither side holds more than a
+ * chunk in memory.
+ *
+ * An archive is:
+ * <pre>
+ *   magic(4) version(1) createdAt(8) { chunk }* end
+ *   chunk: CHUNK_MAGIC(4) sequence(4) type(1) count(4) rawLength(4) length(4) crc32(4) deflated
+ *   end:   CHUNK_MAGIC(4) sequence(4) END(1) chunks(4)
+ * </pre>
+ * with chunks numbered from 0 and each holding count entries of one type, deflated and
+ * checksummed on their compressed bytes so a damaged chunk is found before it is inflated.
+ * Chunks decode independently so they can be imported in parallel and an import can resume
+ * after the last chunk it committed. An archive without its end was cut short.
+ *
+ * @author objectorange
+ */
+public final class DIDArchive {
+
+    public static final int MAGIC = 0x44494441; // DIDA
+    public static final byte VERSION_1 = 1;
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    public static final byte DIDS = 1; // username recordLength(4) record
+    public static final byte REVOCATIONS = 2; // username
+    public static final byte TRUST_ANCHORS = 3; // username
+    public static final byte TRUST_EDGES = 4; // signer signee weight(4)
+    public static final byte END = 0;
+
+    private static final int CHUNK_MAGIC = 0xD1DAC400;
+    // a chunk's entries never exceed this many bytes, however few there are
+    private static final int MAX_RAW_CHUNK_LENGTH = 4 * 1024 * 1024;
+    // most bytes deflating MAX_RAW_CHUNK_LENGTH can take
+    private static final int MAX_CHUNK_LENGTH = deflateBound(MAX_RAW_CHUNK_LENGTH);
+
+    private DIDArchive() {}
+
+    /**
+     * @return most bytes deflating rawLength bytes into a zlib stream can take, zlib's
+     * conservative deflateBound for any level plus the stream's header and trailer
+     */
+    static int deflateBound(int rawLength) {
+        return rawLength + ((rawLength + 7) >> 3) + ((rawLength + 63) >> 6) + 5 + 6;
+    }
+
+    /**
+     * @return most bytes {@link DataOutputStream#writeUTF(String)} writes for the string
+     */
+    private static int utfLength(String s) {
+        return 2 + s.length() * 3;
+    }
+
+    /**
+     * Receives the entries of a chunk.
+     */
+    public interface Visitor {
+        void did(String username, byte[] record) throws IOException;
+        void revocation(String username) throws IOException;
+        void trustAnchor(String username) throws IOException;
+        void trustEdge(String signer, String signee, float weight) throws IOException;
+    }
+
+    /**
+     * Writes entries grouped into chunks of up to chunkSize entries of one type.
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final DataOutputStream out;
+        private final int chunkSize;
+        private final Deflater deflater;
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream(64 * 1024);
+        private final DataOutputStream entries = new DataOutputStream(raw);
+        private byte[] compressed = new byte[64 * 1024];
+        private byte type;
+        private int count;
+        private int sequence;
+        private long entryCount;
+        private boolean closed;
+
+        public Writer(OutputStream out, int chunkSize, int compressionLevel) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.chunkSize = Math.max(1, chunkSize);
+            this.deflater = new Deflater(compressionLevel);
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION_1);
+            this.out.writeLong(System.currentTimeMillis());
+        }
+
+        public void did(String username, byte[] record) throws IOException {
+            start(DIDS, utfLength(username) + 4 + record.length);
+            entries.writeUTF(username);
+            entries.writeInt(record.length);
+            entries.write(record);
+            added();
+        }
+
+        public void revocation(String username) throws IOException {
+            start(REVOCATIONS, utfLength(username));
+            entries.writeUTF(username);
+            added();
+        }
+
+        public void trustAnchor(String username) throws IOException {
+            start(TRUST_ANCHORS, utfLength(username));
+            entries.writeUTF(username);
+            added();
+        }
+
+        public void trustEdge(String signer, String signee, float weight) throws IOException {
+            start(TRUST_EDGES, utfLength(signer) + utfLength(signee) + 4);
+            entries.writeUTF(signer);
+            entries.writeUTF(signee);
+            entries.writeFloat(weight);
+            added();
+        }
+
+        public int getChunkCount() {
+            return sequence;
+        }
+
+        public long getEntryCount() {
+            return entryCount;
+        }
+
+        /**
+         * Writes the last chunk and the end of the archive, then closes the stream.
+         */
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+            closed = true;
+            try {
+                flush();
+                out.writeInt(CHUNK_MAGIC);
+                out.writeInt(sequence);
+                out.writeByte(END);
+                out.writeInt(sequence);
+                out.close();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /**
+         * Flushes the chunk if the entry is of another type or would take it past the maximum length.
+         * @param length most bytes the entry takes
+         */
+        private void start(byte t, int length) throws IOException {
+            if(length > MAX_RAW_CHUNK_LENGTH)
+                throw new IOException("DID archive entry of "+length+" bytes exceeds the chunk maximum");
+            if(count > 0 && (t != type || raw.size() + length > MAX_RAW_CHUNK_LENGTH))
+                flush();
+            type = t;
+        }
+
+        private void added() throws IOException {
+            count++;
+            entryCount++;
+            if(count >= chunkSize || raw.size() >= MAX_RAW_CHUNK_LENGTH)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            if(count == 0)
+                return;
+            byte[] input = raw.toByteArray();
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            int length = 0;
+            while(!deflater.finished()) {
+                if(length == compressed.length) {
+                    byte[] larger = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, larger, 0, length);
+                    compressed = larger;
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(compressed, 0, length);
+            out.writeInt(CHUNK_MAGIC);
+            out.writeInt(sequence++);
+            out.writeByte(type);
+            out.writeInt(count);
+            out.writeInt(input.length);
+            out.writeInt(length);
+            out.writeInt((int)crc.getValue());
+            out.write(compressed, 0, length);
+            raw.reset();
+            count = 0;
+        }
+    }
+
+    /**
+     * Reads chunks in order without inflating them so they can be decoded elsewhere.
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final DataInputStream in;
+        private final long createdAt;
+        private boolean complete;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            try {
+                if(this.in.readInt() != MAGIC)
+                    throw new IOException("Not a DID archive");
+                byte version = this.in.readByte();
+                if(version != VERSION_1)
+                    throw new IOException("Unsupported DID archive version: "+version);
+                this.createdAt = this.in.readLong();
+            } catch (EOFException e) {
+                throw new IOException("Not a DID archive", e);
+            }
+        }
+
+        /**
+         * @return the next chunk, or null at the end of the archive or where it was cut short
+         * @throws IOException if the next chunk is damaged
+         */
+        public Chunk next() throws IOException {
+            if(complete)
+                return null;
+            try {
+                if(in.readInt() != CHUNK_MAGIC)
+                    throw new IOException("DID archive chunk expected");
+                int sequence = in.readInt();
+                byte type = in.readByte();
+                if(type == END) {
+                    in.readInt();
+                    complete = true;
+                    return null;
+                }
+                int count = in.readInt();
+                int rawLength = in.readInt();
+                int length = in.readInt();
+                int crc = in.readInt();
+                // checked before allocating so a damaged or hostile header cannot exhaust memory
+                if(count < 0 || rawLength < 0 || length < 0 || rawLength > MAX_RAW_CHUNK_LENGTH
+                        || length > MAX_CHUNK_LENGTH || length > deflateBound(rawLength))
+                    throw new IOException("DID archive chunk "+sequence+" is damaged");
+                byte[] compressed = new byte[length];
+                in.readFully(compressed);
+                return new Chunk(sequence, type, count, rawLength, compressed, crc);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return true once the end of the archive has been read
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    public static final class Chunk {
+
+        public final int sequence;
+        public final byte type;
+        public final int count;
+        private final int rawLength;
+        private final byte[] compressed;
+        private final int crc;
+
+        private Chunk(int sequence, byte type, int count, int rawLength, byte[] compressed, int crc) {
+            this.sequence = sequence;
+            this.type = type;
+            this.count = count;
+            this.rawLength = rawLength;
+            this.compressed = compressed;
+            this.crc = crc;
+        }
+
+        /**
+         * Checks and inflates the chunk, then gives its entries to the visitor in order.
+         * @throws IOException if the chunk is damaged or the visitor fails
+         */
+        public void accept(Visitor visitor) throws IOException {
+            CRC32 c = new CRC32();
+            c.update(compressed);
+            if((int)c.getValue() != crc)
+                throw new IOException("DID archive chunk "+sequence+" is damaged");
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int n = 0;
+                while(n < rawLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, n, rawLength - n);
+                    if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += inflated;
+                }
+                if(n != rawLength)
+                    throw new IOException("DID archive chunk "+sequence+" is damaged");
+            } catch (DataFormatException e) {
+                throw new IOException("DID archive chunk "+sequence+" is damaged", e);
+            } finally {
+                inflater.end();
+            }
+            DataInputStream entries = new DataInputStream(new ByteArrayInputStream(raw));
+            for(int i=0; i<count; i++) {
+                switch(type) {
+                    case DIDS: {
+                        String username = entries.readUTF();
+                        int recordLength = entries.readInt();
+                        if(recordLength < 0 || recordLength > entries.available())
+                            throw new IOException("DID archive chunk "+sequence+" is damaged");
+                        byte[] record = new byte[recordLength];
+                        entries.readFully(record);
+                        visitor.did(username, record);
+                        break;
+                    }
+                    case REVOCATIONS: visitor.revocation(entries.readUTF()); break;
+                    case TRUST_ANCHORS: visitor.trustAnchor(entries.readUTF()); break;
+                    case TRUST_EDGES: visitor.trustEdge(entries.readUTF(), entries.readUTF(), entries.readFloat()); break;
+                    default: throw new IOException("Unknown DID archive chunk type "+type+" in chunk "+sequence);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.data.DID;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded, expiring cache of loaded {@link DID} records keyed by username.
+ *
+ * The cache is split into segments, each an access-ordered {@link LinkedHashMap}
+ * guarded by its own monitor, so lookups for different usernames rarely contend
+ * and each segment evicts its least recently used entry once full.
+ *
+ * Records are held as their map form and a fresh {@link DID} is built on every hit
+ * so callers may freely set verified/authenticated flags on what they get back.
+ *
+ * A DID read from the store without holding its username's lock is cached with
+ * {@link #put(DID, long)} and the generation taken before the read, so a save and
+ * invalidation in between is never undone by caching what was read before it.
+ *
+ * @author objectorange
+ */
+public class DIDCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    private final Segment[] segments;
+    private final long ttlNanos;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public DIDCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * @param maxSize maximum number of records held; 0 disables caching
+     * @param ttlSeconds seconds a record stays valid after being cached; 0 or less never expires
+     */
+    public DIDCache(int maxSize, long ttlSeconds) {
+        int segmentCount = 1;
+        while(segmentCount < 16 && segmentCount * 64 < maxSize) segmentCount <<= 1;
+        segments = new Segment[segmentCount];
+        int perSegment = maxSize / segmentCount;
+        int remainder = maxSize % segmentCount;
+        for(int i=0; i<segmentCount; i++) {
+            segments[i] = new Segment(perSegment + (i < remainder ? 1 : 0));
+        }
+        ttlNanos = ttlSeconds > 0 ? TimeUnit.SECONDS.toNanos(ttlSeconds) : 0;
+    }
+
+    /**
+     * Returns a copy of the cached DID for the username or null if absent or expired.
+     */
+    public DID get(String username) {
+        if(username == null) return null;
+        Segment s = segmentFor(username);
+        Map<String,Object> m;
+        synchronized (s) {
+            CachedDID entry = s.map.get(username);
+            if(entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if(ttlNanos > 0 && System.nanoTime() - entry.cachedAt > ttlNanos) {
+                s.map.remove(username);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            m = entry.didMap;
+        }
+        hits.incrementAndGet();
+        DID did = new DID();
+        did.fromMap(m);
+        return did;
+    }
+
+    public void put(DID did) {
+        if(did == null || did.getUsername() == null) return;
+        Segment s = segmentFor(did.getUsername());
+        if(s.maxSize == 0) return;
+        CachedDID entry = new CachedDID(did.toMap(), System.nanoTime());
+        synchronized (s) {
+            s.map.put(did.getUsername(), entry);
+        }
+    }
+
+    /**
+     * @return the generation of the username's entry, advanced by every invalidation of it
+     * (or of a username sharing its segment)
+     */
+    public long generation(String username) {
+        if(username == null) return 0;
+        Segment s = segmentFor(username);
+        synchronized (s) {
+            return s.generation;
+        }
+    }
+
+    /**
+     * Caches the DID only if its username has not been invalidated since the generation was taken.
+     * @return true if cached
+     */
+    public boolean put(DID did, long generation) {
+        if(did == null || did.getUsername() == null) return false;
+        Segment s = segmentFor(did.getUsername());
+        if(s.maxSize == 0) return false;
+        CachedDID entry = new CachedDID(did.toMap(), System.nanoTime());
+        synchronized (s) {
+            if(s.generation != generation) return false;
+            s.map.put(did.getUsername(), entry);
+        }
+        return true;
+    }
+
+    /**
+     * Caches a DID restored from a snapshot unless one is already cached for its username.
+     * @param ageMillis how long the DID has been cached, counted against its time to live
+     * @return true if cached
+     */
+    public boolean restore(DID did, long ageMillis) {
+        if(did == null || did.getUsername() == null) return false;
+        long ageNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ageMillis));
+        if(ttlNanos > 0 && ageNanos > ttlNanos) return false;
+        Segment s = segmentFor(did.getUsername());
+        if(s.maxSize == 0) return false;
+        CachedDID entry = new CachedDID(did.toMap(), System.nanoTime() - ageNanos);
+        synchronized (s) {
+            if(s.map.containsKey(did.getUsername())) return false;
+            s.map.put(did.getUsername(), entry);
+        }
+        return true;
+    }
+
+    /**
+     * Unexpired DIDs, most recently used first within each segment, taking from the segments in
+     * turn so the first entries are the hottest of every segment. Does not count as use.
+     */
+    public List<Entry> hottest(int max) {
+        long now = System.nanoTime();
+        List<List<Entry>> bySegment = new ArrayList<>(segments.length);
+        for(Segment s : segments) {
+            List<Entry> entries = new ArrayList<>();
+            synchronized (s) {
+                for(Map.Entry<String,CachedDID> e : s.map.entrySet()) {
+                    long age = now - e.getValue().cachedAt;
+                    if(ttlNanos > 0 && age > ttlNanos) continue;
+                    DID did = new DID();
+                    did.fromMap(e.getValue().didMap);
+                    entries.add(new Entry(did, TimeUnit.NANOSECONDS.toMillis(age)));
+                }
+            }
+            bySegment.add(entries);
+        }
+        List<Entry> hottest = new ArrayList<>(Math.min(max, size()));
+        for(int i=1; hottest.size() < max; i++) {
+            boolean any = false;
+            for(List<Entry> entries : bySegment) {
+                // access order puts the most recently used last
+                if(entries.size() >= i) {
+                    any = true;
+                    hottest.add(entries.get(entries.size() - i));
+                    if(hottest.size() == max) break;
+                }
+            }
+            if(!any) break;
+        }
+        return hottest;
+    }
+
+    public void invalidate(String username) {
+        if(username == null) return;
+        Segment s = segmentFor(username);
+        synchronized (s) {
+            s.generation++;
+            if(s.map.remove(username) != null)
+                invalidations.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        for(Segment s : segments) {
+            synchronized (s) {
+                s.generation++;
+                s.map.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for(Segment s : segments) {
+            synchronized (s) {
+                size += s.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double)h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "DIDCache{size="+size()+", hits="+hits.get()+", misses="+misses.get()
+                +", evictions="+evictions.get()+", expirations="+expirations.get()
+                +", invalidations="+invalidations.get()+"}";
+    }
+
+    private Segment segmentFor(String username) {
+        int h = username.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    public static final class Entry {
+        public final DID did;
+        public final long ageMillis;
+
+        public Entry(DID did, long ageMillis) {
+            this.did = did;
+            this.ageMillis = ageMillis;
+        }
+    }
+
+    private static class CachedDID {
+        private final Map<String,Object> didMap;
+        private final long cachedAt;
+
+        private CachedDID(Map<String,Object> didMap, long cachedAt) {
+            this.didMap = didMap;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    private class Segment {
+        private final int maxSize;
+        private final LinkedHashMap<String,CachedDID> map;
+        private long generation;
+
+        private Segment(final int maxSize) {
+            this.maxSize = maxSize;
+            this.map = new LinkedHashMap<String,CachedDID>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,CachedDID> eldest) {
+                    if(size() > Segment.this.maxSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.data.DID;
+import io.onemfive.data.util.JSONParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary encoding of persisted {@link DID} records.
+ *
+ * A record is the DID's map form written as length-prefixed fields:
+ * <pre>
+ *   magic(2) version(1) fieldCount(4) { keyLength(2) key(utf8) type(1) valueLength(4) value }*
+ * </pre>
+ * Every value carries its length so a reader can skip to the fields it needs and decode
+ * only those straight from the record's bytes. Records written before this format are
+ * JSON text and remain readable through {@link #toDID(byte[])}.
+ *
+ * @author objectorange
+ */
+public final class DIDRecordCodec {
+
+    public static final byte MAGIC_0 = (byte)0xD1;
+    public static final byte MAGIC_1 = (byte)0xD0;
+    public static final byte VERSION_1 = 1;
+
+    /**
+     * Keys of DID's map form read on hot paths.
+     */
+    public static final String FIELD_USERNAME = "username";
+    public static final String FIELD_PASSPHRASE_HASH = "passphraseHash";
+    /**
+     * Base64 Ed25519 public key the DID vouches with; kept in the record beside DID's map form.
+     */
+    public static final String FIELD_VOUCH_KEY = "vouchKey";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_MAP = 6;
+    private static final byte TYPE_LIST = 7;
+    private static final byte TYPE_BYTES = 8;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private DIDRecordCodec() {}
+
+    public static boolean isBinary(byte[] record) {
+        return record != null && record.length >= HEADER_LENGTH && record[0] == MAGIC_0 && record[1] == MAGIC_1;
+    }
+
+    public static byte[] encode(DID did) {
+        return encode(did.toMap());
+    }
+
+    public static byte[] encode(Map<String,Object> m) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(MAGIC_0);
+            out.writeByte(MAGIC_1);
+            out.writeByte(VERSION_1);
+            writeEntries(out, m);
+            out.flush();
+        } catch (IOException e) {
+            // writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a persisted record in either the binary or legacy JSON format.
+     */
+    public static DID toDID(byte[] record) {
+        DID did = new DID();
+        did.fromMap(toMap(record));
+        return did;
+    }
+
+    /**
+     * Decodes only the named fields into a partial DID, leaving the rest of a binary record untouched.
+     */
+    public static DID toDID(byte[] record, Collection<String> fields) {
+        Map<String,Object> m;
+        if(isBinary(record)) {
+            m = new HashMap<>(fields.size() * 2);
+            for(String field : fields) {
+                Object value = readField(record, field);
+                if(value != null) m.put(field, value);
+            }
+        } else {
+            m = toMap(record);
+        }
+        DID did = new DID();
+        did.fromMap(m);
+        return did;
+    }
+
+    public static Map<String,Object> toMap(byte[] record) {
+        if(isBinary(record)) {
+            return toMap(ByteBuffer.wrap(record));
+        }
+        return (Map<String,Object>)JSONParser.parse(new String(record));
+    }
+
+    /**
+     * Decodes a binary record from the buffer's position without changing it.
+     */
+    public static Map<String,Object> toMap(ByteBuffer record) {
+        ByteBuffer in = record.duplicate();
+        checkHeader(in);
+        return readEntries(in);
+    }
+
+    /**
+     * Decodes a single top-level field of a binary record, skipping all others without decoding them.
+     * @return the field's value or null if absent
+     */
+    public static Object readField(byte[] record, String field) {
+        return readField(ByteBuffer.wrap(record), field);
+    }
+
+    public static Object readField(ByteBuffer record, String field) {
+        ByteBuffer in = record.duplicate();
+        checkHeader(in);
+        byte[] key = field.getBytes(UTF8);
+        int count = in.getInt();
+        for(int i=0; i<count; i++) {
+            int keyLength = in.getShort() & 0xFFFF;
+            boolean match = keyLength == key.length && keyEquals(in, key);
+            in.position(in.position() + keyLength);
+            byte type = in.get();
+            int valueLength = in.getInt();
+            if(match) {
+                ByteBuffer value = in.slice();
+                value.limit(valueLength);
+                return readValue(value, type);
+            }
+            in.position(in.position() + valueLength);
+        }
+        return null;
+    }
+
+    private static boolean keyEquals(ByteBuffer in, byte[] key) {
+        int start = in.position();
+        for(int i=0; i<key.length; i++) {
+            if(in.get(start + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    private static void checkHeader(ByteBuffer in) {
+        if(in.remaining() < HEADER_LENGTH || in.get() != MAGIC_0 || in.get() != MAGIC_1)
+            throw new IllegalArgumentException("Not a binary DID record");
+        byte version = in.get();
+        if(version != VERSION_1)
+            throw new IllegalArgumentException("Unsupported DID record version: "+version);
+    }
+
+    private static void writeEntries(DataOutputStream out, Map<String,Object> m) throws IOException {
+        out.writeInt(m.size());
+        for(Map.Entry<String,Object> entry : m.entrySet()) {
+            byte[] key = entry.getKey().getBytes(UTF8);
+            if(key.length > 0xFFFF) throw new IllegalArgumentException("Key too long: "+entry.getKey());
+            out.writeShort(key.length);
+            out.write(key);
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if(value == null) {
+            out.writeByte(TYPE_NULL);
+            out.writeInt(0);
+        } else if(value instanceof String) {
+            byte[] b = ((String)value).getBytes(UTF8);
+            out.writeByte(TYPE_STRING);
+            out.writeInt(b.length);
+            out.write(b);
+        } else if(value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeInt(1);
+            out.writeBoolean((Boolean)value);
+        } else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TYPE_INT);
+            out.writeInt(4);
+            out.writeInt(((Number)value).intValue());
+        } else if(value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeInt(8);
+            out.writeLong((Long)value);
+        } else if(value instanceof Double || value instanceof Float) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeInt(8);
+            out.writeDouble(((Number)value).doubleValue());
+        } else if(value instanceof byte[]) {
+            byte[] b = (byte[])value;
+            out.writeByte(TYPE_BYTES);
+            out.writeInt(b.length);
+            out.write(b);
+        } else if(value instanceof Map) {
+            ByteArrayOutputStream nested = new ByteArrayOutputStream();
+            writeEntries(new DataOutputStream(nested), (Map<String,Object>)value);
+            out.writeByte(TYPE_MAP);
+            out.writeInt(nested.size());
+            nested.writeTo(out);
+        } else if(value instanceof Collection) {
+            Collection<Object> c = (Collection<Object>)value;
+            ByteArrayOutputStream nested = new ByteArrayOutputStream();
+            DataOutputStream n = new DataOutputStream(nested);
+            n.writeInt(c.size());
+            for(Object o : c) {
+                writeValue(n, o);
+            }
+            out.writeByte(TYPE_LIST);
+            out.writeInt(nested.size());
+            nested.writeTo(out);
+        } else if(value instanceof Enum) {
+            writeValue(out, ((Enum<?>)value).name());
+        } else {
+            // anything else would not read back as what was written
+            throw new IllegalArgumentException("Unsupported DID record value type: "+value.getClass().getName());
+        }
+    }
+
+    private static Map<String,Object> readEntries(ByteBuffer in) {
+        int count = in.getInt();
+        Map<String,Object> m = new HashMap<>(Math.max(4, count * 2));
+        for(int i=0; i<count; i++) {
+            int keyLength = in.getShort() & 0xFFFF;
+            String key = string(in, keyLength);
+            byte type = in.get();
+            int valueLength = in.getInt();
+            ByteBuffer value = in.slice();
+            value.limit(valueLength);
+            m.put(key, readValue(value, type));
+            in.position(in.position() + valueLength);
+        }
+        return m;
+    }
+
+    /**
+     * Reads a UTF-8 string of the given length advancing the buffer past it.
+     */
+    private static String string(ByteBuffer in, int length) {
+        String s;
+        if(in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF8);
+            in.position(in.position() + length);
+        } else {
+            byte[] b = new byte[length];
+            in.get(b);
+            s = new String(b, UTF8);
+        }
+        return s;
+    }
+
+    private static Object readValue(ByteBuffer value, byte type) {
+        switch (type) {
+            case TYPE_NULL: return null;
+            case TYPE_STRING: return string(value, value.remaining());
+            case TYPE_BOOLEAN: return value.get() != 0;
+            case TYPE_INT: return value.getInt();
+            case TYPE_LONG: return value.getLong();
+            case TYPE_DOUBLE: return value.getDouble();
+            case TYPE_BYTES: {
+                byte[] b = new byte[value.remaining()];
+                value.get(b);
+                return b;
+            }
+            case TYPE_MAP: return readEntries(value);
+            case TYPE_LIST: {
+                int count = value.getInt();
+                List<Object> l = new ArrayList<>(count);
+                for(int i=0; i<count; i++) {
+                    byte t = value.get();
+                    int length = value.getInt();
+                    ByteBuffer v = value.slice();
+                    v.limit(length);
+                    l.add(readValue(v, t));
+                    value.position(value.position() + length);
+                }
+                return l;
+            }
+            default: throw new IllegalArgumentException("Unknown DID record value type: "+type);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.data.DID;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Node DID, local user DIDs and hottest cached DIDs saved at shutdown so a restarted service
+ * starts warm instead of sending its first requests all to the store.
+ *
+ * The file is:
+ * <pre>
+ *   magic(4) version(1) createdAt(8) count(4) { kind(1) ageMillis(8) length(4) record }* crc32(8)
+ * </pre>
+ * with records in {@link DIDRecordCodec}'s binary form, node first, then local users, then
+ * cached DIDs hottest first so the DIDs most likely needed are restored first. Passphrases
+ * are never written.
+ *
+ * Opening maps the file into memory and checks it without decoding any record; records are
+ * decoded one at a time as they are restored.
+ *
+ * @author objectorange
+ */
+public final class DIDSnapshot {
+
+    public static final int MAGIC = 0x44494453; // DIDS
+    public static final byte VERSION_1 = 1;
+
+    public static final byte NODE = 0;
+    public static final byte LOCAL_USER = 1;
+    public static final byte CACHED = 2;
+
+    private static final String FIELD_PASSPHRASE = "passphrase";
+    private static final int HEADER_LENGTH = 4 + 1 + 8 + 4;
+
+    /**
+     * Receives restored DIDs.
+     */
+    public interface Restorer {
+        /**
+         * @param ageMillis how long a cached DID had been cached when the snapshot was taken
+         * @return false to stop restoring
+         */
+        boolean restore(byte kind, DID did, long ageMillis);
+    }
+
+    private final ByteBuffer records;
+    private final long createdAt;
+    private final int count;
+
+    private DIDSnapshot(ByteBuffer records, long createdAt, int count) {
+        this.records = records;
+        this.createdAt = createdAt;
+        this.count = count;
+    }
+
+    /**
+     * Writes the snapshot through a temporary file so a crash never leaves a partial one.
+     * @return number of DIDs written
+     */
+    public static int write(Path file, DID node, Collection<DID> localUsers, Collection<DIDCache.Entry> cached) throws IOException {
+        if(file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = (node == null ? 0 : 1) + localUsers.size() + cached.size();
+        CRC32 crc = new CRC32();
+        try (CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), crc)) {
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION_1);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(count);
+            if(node != null)
+                write(out, NODE, node, 0);
+            for(DID did : localUsers) {
+                write(out, LOCAL_USER, did, 0);
+            }
+            for(DIDCache.Entry e : cached) {
+                write(out, CACHED, e.did, e.ageMillis);
+            }
+            out.writeLong(crc.getValue());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Maps the snapshot into memory and checks it.
+     * @throws IOException if it cannot be read or is not a complete snapshot
+     */
+    public static DIDSnapshot open(Path file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(mapped.remaining() < HEADER_LENGTH + 8 || mapped.getInt(0) != MAGIC)
+            throw new IOException("Not a DID snapshot: "+file);
+        if(mapped.get(4) != VERSION_1)
+            throw new IOException("Unsupported DID snapshot version "+mapped.get(4)+": "+file);
+        int end = mapped.limit() - 8;
+        if(crc(mapped, end) != mapped.getLong(end))
+            throw new IOException("DID snapshot is corrupt: "+file);
+        ByteBuffer records = mapped.duplicate();
+        records.position(HEADER_LENGTH);
+        records.limit(end);
+        return new DIDSnapshot(records.slice(), mapped.getLong(5), mapped.getInt(13));
+    }
+
+    /**
+     * Decodes the records in order, ages of cached DIDs including the time since the snapshot was taken.
+     * @return number of DIDs the restorer was given
+     */
+    public int restore(Restorer restorer) {
+        ByteBuffer in = records.duplicate();
+        long sinceSnapshot = Math.max(0, System.currentTimeMillis() - createdAt);
+        int restored = 0;
+        for(int i=0; i<count; i++) {
+            byte kind = in.get();
+            long ageMillis = in.getLong();
+            int length = in.getInt();
+            ByteBuffer record = in.slice();
+            record.limit(length);
+            in.position(in.position() + length);
+            DID did = new DID();
+            did.fromMap(DIDRecordCodec.toMap(record));
+            restored++;
+            if(!restorer.restore(kind, did, kind == CACHED ? ageMillis + sinceSnapshot : 0))
+                break;
+        }
+        return restored;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    private static long crc(ByteBuffer mapped, int end) {
+        CRC32 crc = new CRC32();
+        ByteBuffer in = mapped.duplicate();
+        in.limit(end);
+        byte[] chunk = new byte[(int)Math.min(64 * 1024, end)];
+        while(in.hasRemaining()) {
+            int n = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    private static void write(DataOutputStream out, byte kind, DID did, long ageMillis) throws IOException {
+        Map<String,Object> m = did.toMap();
+        m.remove(FIELD_PASSPHRASE);
+        byte[] record = DIDRecordCodec.encode(m);
+        out.writeByte(kind);
+        out.writeLong(ageMillis);
+        out.writeInt(record.length);
+        out.write(record);
+    }
+}
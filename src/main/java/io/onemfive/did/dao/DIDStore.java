@@ -0,0 +1,34 @@
+package io.onemfive.did.dao;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Storage of persisted DID records keyed by username, behind {@link LoadDIDDAO} and {@link SaveDIDDAO}.
+ *
+ * @author objectorange
+ */
+public interface DIDStore {
+
+    /**
+     * @return the record persisted for the username or null if there is none
+     */
+    byte[] load(String username) throws IOException;
+
+    /**
+     * @param autoCreate false to fail with {@link java.io.FileNotFoundException} if no record exists yet
+     */
+    void save(String username, byte[] record, boolean autoCreate) throws IOException;
+
+    /**
+     * @return every username with a record or null if the store cannot list them
+     */
+    Collection<String> usernames() throws IOException;
+
+    /**
+     * Forces saved records to durable storage.
+     */
+    void sync() throws IOException;
+
+    void close();
+}
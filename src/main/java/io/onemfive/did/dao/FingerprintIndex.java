@@ -0,0 +1,135 @@
+package io.onemfive.did.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Username of the DID owning each public key, by key fingerprint, so the DID that signed a
+ * message can be found without scanning every record.
+ *
+ * Kept in an append-only file of fingerprint and username pairs, the latest pair for a
+ * fingerprint winning. Opening the file replays it, rewriting it without superseded pairs
+ * once they outnumber the rest, and a pair is appended only when it changes the index, so
+ * the file grows with new keys rather than with saves.
+ *
+ * Lookups are lock-free; updates are serialized.
+ *
+ * @author objectorange
+ */
+public final class FingerprintIndex {
+
+    private static final Logger LOG = Logger.getLogger(FingerprintIndex.class.getName());
+
+    private final Map<String,String> owners = new ConcurrentHashMap<>();
+    private final Path file;
+    private DataOutputStream out;
+
+    /**
+     * Index held in memory only.
+     */
+    public FingerprintIndex() {
+        this.file = null;
+    }
+
+    private FingerprintIndex(Path file) {
+        this.file = file;
+    }
+
+    public static FingerprintIndex open(Path file) throws IOException {
+        if(file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        FingerprintIndex index = new FingerprintIndex(file);
+        int records = 0;
+        boolean partial = false;
+        if(Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while(true) {
+                    String fingerprint;
+                    try {
+                        fingerprint = in.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    try {
+                        index.owners.put(fingerprint, in.readUTF());
+                        records++;
+                    } catch (EOFException e) {
+                        LOG.warning("Fingerprint index "+file+" ends in a partial record; dropping it.");
+                        partial = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if(partial || records > 2 * index.owners.size())
+            index.rewrite();
+        index.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        return index;
+    }
+
+    /**
+     * @return username of the DID owning the key, or null if unknown
+     */
+    public String owner(String fingerprint) {
+        return fingerprint == null ? null : owners.get(fingerprint);
+    }
+
+    /**
+     * Records the DID as the key's owner.
+     * @return the previous owner if the key was recorded for another DID, otherwise null
+     */
+    public synchronized String put(String fingerprint, String username) throws IOException {
+        String previous = owners.put(fingerprint, username);
+        if(username.equals(previous))
+            return null;
+        if(out != null) {
+            out.writeUTF(fingerprint);
+            out.writeUTF(username);
+            out.flush();
+        }
+        return previous;
+    }
+
+    public int size() {
+        return owners.size();
+    }
+
+    public synchronized void close() {
+        if(out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.warning("Unable to close fingerprint index "+file+": "+e.getLocalizedMessage());
+        }
+        out = null;
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintIndex{keys="+size()+"}";
+    }
+
+    private void rewrite() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for(Map.Entry<String,String> e : owners.entrySet()) {
+                o.writeUTF(e.getKey());
+                o.writeUTF(e.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
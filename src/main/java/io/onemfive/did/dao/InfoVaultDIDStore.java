@@ -0,0 +1,52 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.core.infovault.InfoVaultDB;
+import io.onemfive.data.DID;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Records saved one per DID in the {@link InfoVaultDB} under the DID class name.
+ *
+ * @author objectorange
+ */
+public class InfoVaultDIDStore implements DIDStore {
+
+    private final InfoVaultDB infoVaultDB;
+
+    public InfoVaultDIDStore(InfoVaultDB infoVaultDB) {
+        this.infoVaultDB = infoVaultDB;
+    }
+
+    @Override
+    public byte[] load(String username) throws IOException {
+        try {
+            return infoVaultDB.load(DID.class.getName(), username);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String username, byte[] record, boolean autoCreate) throws IOException {
+        infoVaultDB.save(DID.class.getName(), username, record, autoCreate);
+    }
+
+    @Override
+    public Collection<String> usernames() {
+        // InfoVaultDB cannot list the keys under a label
+        return null;
+    }
+
+    @Override
+    public void sync() {
+        // each save is written through by InfoVaultDB
+    }
+
+    @Override
+    public void close() {
+        // InfoVaultDB lifecycle belongs to the core
+    }
+}
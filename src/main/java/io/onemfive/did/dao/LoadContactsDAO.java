@@ -0,0 +1,40 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.core.infovault.InfoVaultDB;
+import io.onemfive.core.infovault.LocalFSDAO;
+import io.onemfive.did.contact.Contact;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the contact book of a local DID.
+ *
+ * @author objectorange
+ */
+public class LoadContactsDAO extends LocalFSDAO {
+
+    private ContactStore store;
+    private String owner;
+    private List<Contact> contacts = new ArrayList<>();
+
+    public LoadContactsDAO(InfoVaultDB infoVaultDB, ContactStore store, String owner) {
+        super(infoVaultDB);
+        this.store = store;
+        this.owner = owner;
+    }
+
+    @Override
+    public void execute() {
+        try {
+            contacts = store.load(owner);
+        } catch (IOException e) {
+            exception = e;
+        }
+    }
+
+    public List<Contact> getContacts() {
+        return contacts;
+    }
+}
@@ -3,40 +3,82 @@ package io.onemfive.did.dao;
 import io.onemfive.core.infovault.InfoVaultDB;
 import io.onemfive.core.infovault.LocalFSDAO;
 import io.onemfive.data.DID;
-import io.onemfive.data.util.JSONParser;
 
 import java.io.FileNotFoundException;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.logging.Logger;
 
 public class LoadDIDDAO extends LocalFSDAO {
 
     private Logger LOG = Logger.getLogger(LoadDIDDAO.class.getName());
 
+    private DIDStore store;
     private DID providedDID;
     private DID loadedDID = new DID();
+    private Collection<String> fields;
+    private boolean legacyFormat = false;
+    private byte[] content;
 
     public LoadDIDDAO(InfoVaultDB infoVaultDB, DID did) {
+        this(infoVaultDB, new InfoVaultDIDStore(infoVaultDB), did, null);
+    }
+
+    /**
+     * Loads only the named fields of DID's map form; binary records skip decoding the rest.
+     */
+    public LoadDIDDAO(InfoVaultDB infoVaultDB, DID did, Collection<String> fields) {
+        this(infoVaultDB, new InfoVaultDIDStore(infoVaultDB), did, fields);
+    }
+
+    /**
+     * @param fields fields to decode or null for all
+     */
+    public LoadDIDDAO(InfoVaultDB infoVaultDB, DIDStore store, DID did, Collection<String> fields) {
         super(infoVaultDB);
+        this.store = store;
         this.providedDID = did;
+        this.fields = fields;
     }
 
     @Override
     public void execute() {
-        byte[] content;
         try {
-            content = infoVaultDB.load(DID.class.getName(), providedDID.getUsername());
-        } catch (FileNotFoundException e) {
+            content = store.load(providedDID.getUsername());
+        } catch (IOException e) {
             exception = e;
             return;
         }
-        String jsonBody = new String(content);
-        LOG.info("JSON loaded: "+jsonBody);
-        loadedDID.fromMap((Map<String,Object>)JSONParser.parse(jsonBody));
+        if(content == null) {
+            exception = new FileNotFoundException("No DID persisted for "+providedDID.getUsername());
+            return;
+        }
+        legacyFormat = !DIDRecordCodec.isBinary(content);
+        if(legacyFormat)
+            LOG.info("JSON loaded: "+new String(content));
+        loadedDID = fields == null ? DIDRecordCodec.toDID(content) : DIDRecordCodec.toDID(content, fields);
         LOG.info("DID Loaded from map.");
     }
 
     public DID getLoadedDID() {
         return loadedDID;
     }
+
+    /**
+     * Decodes every field of the loaded record; the same as {@link #getLoadedDID()} unless only some fields were loaded.
+     */
+    public DID getFullDID() {
+        if(fields == null || content == null)
+            return loadedDID;
+        loadedDID = DIDRecordCodec.toDID(content);
+        fields = null;
+        return loadedDID;
+    }
+
+    /**
+     * @return true if the record loaded was persisted as JSON before the binary record format
+     */
+    public boolean isLegacyFormat() {
+        return legacyFormat;
+    }
 }
@@ -0,0 +1,64 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.core.infovault.InfoVaultDB;
+import io.onemfive.core.infovault.LocalFSDAO;
+import io.onemfive.data.DID;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Loads many DIDs by username, reading each from the store in turn as {@link DIDStore} has no
+ * multi-get. Usernames not persisted are absent from the result. Loading stops if the store is
+ * closed, leaving the exception set.
+ *
+ * @author objectorange
+ */
+public class LoadDIDsDAO extends LocalFSDAO {
+
+    private Logger LOG = Logger.getLogger(LoadDIDsDAO.class.getName());
+
+    private DIDStore store;
+    private Collection<String> usernames;
+    private Map<String,DID> loadedDIDs;
+
+    public LoadDIDsDAO(InfoVaultDB infoVaultDB, Collection<String> usernames) {
+        this(infoVaultDB, new InfoVaultDIDStore(infoVaultDB), usernames);
+    }
+
+    public LoadDIDsDAO(InfoVaultDB infoVaultDB, DIDStore store, Collection<String> usernames) {
+        super(infoVaultDB);
+        this.store = store;
+        this.usernames = usernames;
+        this.loadedDIDs = new HashMap<>(usernames.size() * 2);
+    }
+
+    @Override
+    public void execute() {
+        for(String username : usernames) {
+            if(username == null || loadedDIDs.containsKey(username)) continue;
+            byte[] content;
+            try {
+                content = store.load(username);
+            } catch (ClosedChannelException e) {
+                LOG.info("DID store closed; "+loadedDIDs.size()+" DIDs loaded.");
+                exception = e;
+                return;
+            } catch (IOException e) {
+                LOG.warning("Unable to load DID "+username+": "+e.getLocalizedMessage());
+                continue;
+            }
+            if(content == null) continue;
+            loadedDIDs.put(username, DIDRecordCodec.toDID(content));
+        }
+        LOG.info(loadedDIDs.size()+" of "+usernames.size()+" DIDs loaded.");
+    }
+
+    public Map<String,DID> getLoadedDIDs() {
+        return loadedDIDs;
+    }
+}
@@ -0,0 +1,554 @@
+package io.onemfive.did.dao;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of DID records in fixed-size, memory-mapped segment files with an
+ * in-memory username to location index, instead of one file per DID.
+ *
+ * Each record is written as:
+ * <pre>
+ *   magic(4) crc32(4) usernameLength(2) recordLength(4) username record
+ * </pre>
+ * A record length of -1 is a tombstone. Segments are preallocated and zero-filled so the
+ * log ends at the first position without a record magic. On open every segment is scanned
+ * in order to rebuild the index, stopping at the first record whose checksum fails, so a
+ * record torn by a crash is discarded rather than read.
+ *
+ * Superseded records are reclaimed by compaction once they make up more than the configured
+ * share of the log: live records are copied into new segments before the old ones are
+ * deleted oldest first, so a crash at any point leaves a log that replays to the same state.
+ * Writes go on while the records are copied: the write lock is held only to start a new active
+ * segment numbered after those reserved for the copies, and to swap the copies into the index
+ * where their records were not updated in the meantime.
+ *
+ * @author objectorange
+ */
+public class LogDIDStore implements DIDStore {
+
+    private static final Logger LOG = Logger.getLogger(LogDIDStore.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    private static final int RECORD_MAGIC = 0xD1D0106;
+    private static final int HEADER_LENGTH = 14;
+    private static final int TOMBSTONE = -1;
+    private static final String SEGMENT_PREFIX = "did-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Path directory;
+    private final int segmentSize;
+    private final double compactionRatio;
+    private final boolean syncOnWrite;
+
+    private final Map<String,Long> index = new ConcurrentHashMap<>();
+    private final Map<Integer,Segment> segments = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock compaction = new ReentrantLock();
+
+    private Segment active;
+    private long totalBytes;
+    private long deadBytes;
+    // while compacting, the last segment being compacted and bytes superseded in those segments since
+    private int compactingThrough = -1;
+    private long deadInCompacting;
+    private volatile boolean closed;
+    private ScheduledExecutorService maintenance;
+
+    /**
+     * Opens the log in the directory, creating it if needed, and recovers its index.
+     */
+    public LogDIDStore(Path directory, int segmentSize, double compactionRatio, boolean syncOnWrite) throws IOException {
+        if(segmentSize < 1024) throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionRatio = compactionRatio;
+        this.syncOnWrite = syncOnWrite;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Compacts and syncs the log in the background at the given interval.
+     */
+    public void startMaintenance(long intervalSeconds) {
+        if(intervalSeconds <= 0 || maintenance != null) return;
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LogDIDStore-Maintenance");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compactIfNeeded();
+                    sync();
+                } catch (Exception e) {
+                    LOG.warning("DID log maintenance failed: "+e.getLocalizedMessage());
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public byte[] load(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            if(closed) throw new ClosedChannelException();
+            Long location = index.get(username);
+            if(location == null) return null;
+            Segment segment = segments.get(segmentId(location));
+            return readRecord(segment.buffer, offset(location));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(String username, byte[] record, boolean autoCreate) throws IOException {
+        if(record == null) throw new IllegalArgumentException("record required");
+        lock.writeLock().lock();
+        try {
+            if(closed) throw new ClosedChannelException();
+            if(!autoCreate && !index.containsKey(username))
+                throw new FileNotFoundException("No DID record for "+username);
+            append(username, record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(String username) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if(closed) throw new ClosedChannelException();
+            if(index.containsKey(username))
+                append(username, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String username) {
+        return index.containsKey(username);
+    }
+
+    /**
+     * @return a snapshot of the usernames with a live record
+     */
+    @Override
+    public List<String> usernames() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public void sync() {
+        lock.readLock().lock();
+        try {
+            if(active != null) active.buffer.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live records into new segments if superseded records exceed the compaction ratio.
+     * @return true if the log was compacted
+     */
+    public boolean compactIfNeeded() throws IOException {
+        if(!compaction.tryLock())
+            return false; // already compacting
+        try {
+            Compaction c;
+            lock.writeLock().lock();
+            try {
+                if(closed || segments.size() < 2 || deadBytes <= totalBytes * compactionRatio)
+                    return false;
+                c = startCompaction();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            boolean swapped = false;
+            try {
+                c.copy();
+                lock.writeLock().lock();
+                try {
+                    if(closed)
+                        return false;
+                    finishCompaction(c);
+                    swapped = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                if(!swapped)
+                    abandon(c);
+            }
+            for(Segment old : c.oldSegments) {
+                old.close();
+                Files.deleteIfExists(old.path);
+            }
+            LOG.info("DID log compacted from "+c.totalAtStart+" to "+c.copiedBytes+" bytes.");
+            return true;
+        } finally {
+            compaction.unlock();
+        }
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getDeadBytes() {
+        return deadBytes;
+    }
+
+    @Override
+    public void close() {
+        if(maintenance != null) {
+            maintenance.shutdownNow();
+            maintenance = null;
+        }
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            for(Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            index.clear();
+            active = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(String username, byte[] record) throws IOException {
+        byte[] key = username.getBytes(UTF8);
+        if(key.length > 0xFFFF) throw new IllegalArgumentException("Username too long");
+        int length = HEADER_LENGTH + key.length + (record == null ? 0 : record.length);
+        if(length > segmentSize) throw new IOException("DID record of "+length+" bytes exceeds segment size "+segmentSize);
+        if(active.end + length > segmentSize) {
+            active.buffer.force();
+            active = createSegment(active.id + 1);
+        }
+        int offset = active.end;
+        write(active.buffer, offset, key, record);
+        active.end += length;
+        if(syncOnWrite) active.buffer.force();
+        totalBytes += length;
+        Long previous = record == null ? index.remove(username) : index.put(username, location(active.id, offset));
+        if(previous != null) {
+            int previousLength = recordLength(previous);
+            deadBytes += previousLength;
+            if(segmentId(previous) <= compactingThrough) deadInCompacting += previousLength;
+        }
+        if(record == null) deadBytes += length;
+    }
+
+    private static void write(MappedByteBuffer buffer, int offset, byte[] key, byte[] record) {
+        ByteBuffer b = buffer.duplicate();
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        if(record != null) crc.update(record);
+        b.position(offset + 4);
+        b.putInt((int)crc.getValue());
+        b.putShort((short)key.length);
+        b.putInt(record == null ? TOMBSTONE : record.length);
+        b.put(key);
+        if(record != null) b.put(record);
+        // the next record slot must not look like a record
+        if(b.remaining() >= 4) b.putInt(b.position(), 0);
+        // magic last so a record is only recognised once fully written
+        b.putInt(offset, RECORD_MAGIC);
+    }
+
+    private static byte[] readRecord(MappedByteBuffer buffer, int offset) {
+        ByteBuffer b = buffer.duplicate();
+        int keyLength = b.getShort(offset + 8) & 0xFFFF;
+        byte[] record = new byte[b.getInt(offset + 10)];
+        b.position(offset + HEADER_LENGTH + keyLength);
+        b.get(record);
+        return record;
+    }
+
+    private int recordLength(long location) {
+        ByteBuffer b = segments.get(segmentId(location)).buffer;
+        int offset = offset(location);
+        int keyLength = b.getShort(offset + 8) & 0xFFFF;
+        int recordLength = b.getInt(offset + 10);
+        return HEADER_LENGTH + keyLength + (recordLength == TOMBSTONE ? 0 : recordLength);
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Integer,Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX+"*"+SEGMENT_SUFFIX)) {
+            for(Path p : stream) {
+                String name = p.getFileName().toString();
+                try {
+                    files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), p);
+                } catch (NumberFormatException e) {
+                    LOG.warning("Ignoring unexpected file in DID log: "+name);
+                }
+            }
+        }
+        Map<String,Integer> lengths = new HashMap<>();
+        for(Map.Entry<Integer,Path> f : files.entrySet()) {
+            Segment segment = openSegment(f.getKey(), f.getValue());
+            segments.put(segment.id, segment);
+            scan(segment, lengths);
+            active = segment;
+        }
+        if(active == null)
+            active = createSegment(0);
+        LOG.info("DID log recovered "+index.size()+" records from "+segments.size()+" segments.");
+    }
+
+    private void scan(Segment segment, Map<String,Integer> lengths) {
+        ByteBuffer b = segment.buffer.duplicate();
+        int position = 0;
+        while(position + HEADER_LENGTH <= b.limit() && b.getInt(position) == RECORD_MAGIC) {
+            int crcValue = b.getInt(position + 4);
+            int keyLength = b.getShort(position + 8) & 0xFFFF;
+            int recordLength = b.getInt(position + 10);
+            int valueLength = recordLength == TOMBSTONE ? 0 : recordLength;
+            int length = HEADER_LENGTH + keyLength + valueLength;
+            if(valueLength < 0 || position + length > b.limit())
+                break;
+            byte[] key = new byte[keyLength];
+            b.position(position + HEADER_LENGTH);
+            b.get(key);
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            if(valueLength > 0) {
+                byte[] value = new byte[valueLength];
+                b.get(value);
+                crc.update(value);
+            }
+            if((int)crc.getValue() != crcValue) {
+                LOG.warning("Discarding torn DID record in segment "+segment.id+" at "+position);
+                break;
+            }
+            String username = new String(key, UTF8);
+            Integer previous = lengths.remove(username);
+            if(previous != null) deadBytes += previous;
+            totalBytes += length;
+            if(recordLength == TOMBSTONE) {
+                index.remove(username);
+                deadBytes += length;
+            } else {
+                index.put(username, location(segment.id, position));
+                lengths.put(username, length);
+            }
+            position += length;
+        }
+        segment.end = position;
+    }
+
+    /**
+     * Starts writing to a new active segment numbered after as many segments as are being
+     * compacted, which are reserved for the copies so they replay before any later write.
+     */
+    private Compaction startCompaction() throws IOException {
+        List<Integer> oldIds = new ArrayList<>(segments.keySet());
+        Collections.sort(oldIds);
+        int lastOld = oldIds.get(oldIds.size() - 1);
+        Compaction c = new Compaction(new HashMap<>(index), lastOld + 1, lastOld + oldIds.size(), totalBytes, deadBytes);
+        for(Integer id : oldIds) {
+            c.oldSegments.add(segments.get(id));
+        }
+        active.buffer.force();
+        active = createSegment(c.lastCopyId + 1);
+        compactingThrough = lastOld;
+        deadInCompacting = 0;
+        return c;
+    }
+
+    /**
+     * Points the index at the copies of records not written since they were copied and
+     * replaces the compacted segments with the copies.
+     */
+    private void finishCompaction(Compaction c) {
+        long superseded = 0;
+        for(Map.Entry<String,Long> entry : c.copies.entrySet()) {
+            Long current = index.get(entry.getKey());
+            if(current != null && current.longValue() == c.snapshot.get(entry.getKey()).longValue())
+                index.put(entry.getKey(), entry.getValue());
+            else
+                superseded += c.copyLengths.get(entry.getKey());
+        }
+        for(Segment copy : c.copySegments) {
+            segments.put(copy.id, copy);
+        }
+        for(Segment old : c.oldSegments) {
+            segments.remove(old.id);
+        }
+        if(active.end == 0 && !c.copySegments.isEmpty()) {
+            // nothing written meanwhile so keep appending after the copies
+            Segment unused = segments.remove(active.id);
+            active = c.copySegments.get(c.copySegments.size() - 1);
+            c.oldSegments.add(unused);
+        }
+        // what was written since the copy started stays; what it superseded in compacted segments goes with them
+        totalBytes = c.copiedBytes + (totalBytes - c.totalAtStart);
+        deadBytes = superseded + (deadBytes - c.deadAtStart - deadInCompacting);
+        compactingThrough = -1;
+        deadInCompacting = 0;
+    }
+
+    private void abandon(Compaction c) {
+        lock.writeLock().lock();
+        try {
+            compactingThrough = -1;
+            deadInCompacting = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for(Segment copy : c.copySegments) {
+            copy.close();
+            try {
+                Files.deleteIfExists(copy.path);
+            } catch (IOException e) {
+                LOG.warning("Unable to delete abandoned DID log segment "+copy.id+": "+e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = openSegment(id, directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Segment openSegment(int id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // mapping past the end of the file extends it with zeros
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, channel.size()));
+        return new Segment(id, path, channel, buffer);
+    }
+
+    private static long location(int segmentId, int offset) {
+        return ((long)segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long location) {
+        return (int)(location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int)location;
+    }
+
+    /**
+     * Live records of the compacted segments as of the start of a compaction and their copies.
+     * The compacted segments are no longer written so are copied from without the lock.
+     */
+    private final class Compaction {
+        private final Map<String,Long> snapshot;
+        private final int firstCopyId;
+        private final int lastCopyId;
+        private final long totalAtStart;
+        private final long deadAtStart;
+        private final List<Segment> oldSegments = new ArrayList<>();
+        private final List<Segment> copySegments = new ArrayList<>();
+        private final Map<String,Long> copies = new HashMap<>();
+        private final Map<String,Integer> copyLengths = new HashMap<>();
+        private long copiedBytes;
+
+        private Compaction(Map<String,Long> snapshot, int firstCopyId, int lastCopyId, long totalAtStart, long deadAtStart) {
+            this.snapshot = snapshot;
+            this.firstCopyId = firstCopyId;
+            this.lastCopyId = lastCopyId;
+            this.totalAtStart = totalAtStart;
+            this.deadAtStart = deadAtStart;
+        }
+
+        private void copy() throws IOException {
+            Map<Integer,Segment> old = new HashMap<>();
+            for(Segment segment : oldSegments) {
+                old.put(segment.id, segment);
+            }
+            Segment target = null;
+            for(Map.Entry<String,Long> entry : snapshot.entrySet()) {
+                if(closed) throw new ClosedChannelException();
+                Long location = entry.getValue();
+                byte[] key = entry.getKey().getBytes(UTF8);
+                byte[] record = readRecord(old.get(segmentId(location)).buffer, offset(location));
+                int length = HEADER_LENGTH + key.length + record.length;
+                if(target == null || target.end + length > segmentSize) {
+                    int id = target == null ? firstCopyId : target.id + 1;
+                    if(target != null) target.buffer.force();
+                    // live records never need more segments than they were copied from
+                    if(id > lastCopyId) throw new IOException("DID log compaction exceeded its reserved segments");
+                    target = openSegment(id, directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+                    copySegments.add(target);
+                }
+                write(target.buffer, target.end, key, record);
+                copies.put(entry.getKey(), location(target.id, target.end));
+                copyLengths.put(entry.getKey(), length);
+                target.end += length;
+                copiedBytes += length;
+            }
+            if(target != null) target.buffer.force();
+        }
+    }
+
+    private static class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int end;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                LOG.warning("Unable to close DID log segment "+id+": "+e.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package io.onemfive.did.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Usernames of revoked DIDs, checked before any record is loaded so a revoked DID is rejected
+ * without reading the store.
+ *
+ * Revocations are permanent and numbered in the order made; the sequence of the last one
+ * lets a peer that has applied a feed up to it fetch just the revocations after it. They are
+ * kept in an append-only file of username and time revoked, replayed on open.
+ *
+ * Lookups are lock-free; revocations are serialized.
+ *
+ * @author objectorange
+ */
+public final class RevocationIndex {
+
+    private static final Logger LOG = Logger.getLogger(RevocationIndex.class.getName());
+
+    private final Set<String> revoked = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    // revoked usernames in sequence order
+    private final List<String> order = new ArrayList<>();
+    private final Path file;
+    private DataOutputStream out;
+
+    /**
+     * Index held in memory only.
+     */
+    public RevocationIndex() {
+        this.file = null;
+    }
+
+    private RevocationIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the revocations in the file and opens it for appending, dropping any partial
+     * record a crash left at its end.
+     */
+    public static RevocationIndex open(Path file) throws IOException {
+        if(file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        RevocationIndex index = new RevocationIndex(file);
+        long valid = 0;
+        if(Files.exists(file)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+                 DataInputStream in = new DataInputStream(counting)) {
+                while(true) {
+                    try {
+                        String username = in.readUTF();
+                        in.readLong();
+                        if(index.revoked.add(username))
+                            index.order.add(username);
+                        valid = counting.count;
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+            }
+            if(valid < Files.size(file)) {
+                LOG.warning("Revocation index "+file+" ends in a partial record; dropping it.");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+        }
+        index.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        return index;
+    }
+
+    public boolean isRevoked(String username) {
+        return username != null && revoked.contains(username);
+    }
+
+    /**
+     * Revokes the usernames not already revoked, persisting them with one write.
+     * They are rejected from the moment this is called even if persisting them fails.
+     * @return number newly revoked
+     */
+    public synchronized int revoke(Collection<String> usernames) throws IOException {
+        List<String> added = new ArrayList<>();
+        for(String username : usernames) {
+            if(username != null && revoked.add(username))
+                added.add(username);
+        }
+        if(added.isEmpty())
+            return 0;
+        order.addAll(added);
+        if(out != null) {
+            long now = System.currentTimeMillis();
+            for(String username : added) {
+                out.writeUTF(username);
+                out.writeLong(now);
+            }
+            out.flush();
+        }
+        return added.size();
+    }
+
+    /**
+     * @return sequence of the latest revocation, 0 if there are none
+     */
+    public synchronized long getSequence() {
+        return order.size();
+    }
+
+    /**
+     * @return up to max usernames revoked after the sequence, in order
+     */
+    public synchronized List<String> since(long sequence, int max) {
+        int from = (int)Math.max(0, Math.min(order.size(), sequence));
+        int to = (int)Math.min(order.size(), (long)from + Math.max(0, max));
+        return new ArrayList<>(order.subList(from, to));
+    }
+
+    public int size() {
+        return revoked.size();
+    }
+
+    public synchronized void close() {
+        if(out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.warning("Unable to close revocation index "+file+": "+e.getLocalizedMessage());
+        }
+        out = null;
+    }
+
+    @Override
+    public String toString() {
+        return "RevocationIndex{revoked="+size()+"}";
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0) count += n;
+            return n;
+        }
+    }
+}
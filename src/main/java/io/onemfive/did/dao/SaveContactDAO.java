@@ -0,0 +1,35 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.core.infovault.InfoVaultDB;
+import io.onemfive.core.infovault.LocalFSDAO;
+import io.onemfive.did.contact.Contact;
+
+import java.io.IOException;
+
+/**
+ * Appends a contact to the contact book of a local DID.
+ *
+ * @author objectorange
+ */
+public class SaveContactDAO extends LocalFSDAO {
+
+    private ContactStore store;
+    private String owner;
+    private Contact contact;
+
+    public SaveContactDAO(InfoVaultDB infoVaultDB, ContactStore store, String owner, Contact contact) {
+        super(infoVaultDB);
+        this.store = store;
+        this.owner = owner;
+        this.contact = contact;
+    }
+
+    @Override
+    public void execute() {
+        try {
+            store.append(owner, contact);
+        } catch (IOException e) {
+            exception = e;
+        }
+    }
+}
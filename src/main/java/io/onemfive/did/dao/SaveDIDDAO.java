@@ -5,28 +5,56 @@ import io.onemfive.core.infovault.LocalFSDAO;
 import io.onemfive.data.DID;
 import io.onemfive.data.util.JSONParser;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
 
 public class SaveDIDDAO extends LocalFSDAO {
 
+    private DIDStore store;
     private DID didToSave;
     private Boolean autoCreate = true;
+    private boolean binary = false;
 
     public SaveDIDDAO(InfoVaultDB infoVaultDB, DID did, Boolean autoCreate) {
+        this(infoVaultDB, new InfoVaultDIDStore(infoVaultDB), did, autoCreate, false);
+    }
+
+    /**
+     * @param binary true to persist in the {@link DIDRecordCodec} binary format, false for JSON
+     */
+    public SaveDIDDAO(InfoVaultDB infoVaultDB, DID did, Boolean autoCreate, boolean binary) {
+        this(infoVaultDB, new InfoVaultDIDStore(infoVaultDB), did, autoCreate, binary);
+    }
+
+    public SaveDIDDAO(InfoVaultDB infoVaultDB, DIDStore store, DID did, Boolean autoCreate, boolean binary) {
         super(infoVaultDB);
+        this.store = store;
         this.didToSave = did;
         if(autoCreate != null) this.autoCreate = autoCreate;
+        this.binary = binary;
     }
 
+    /**
+     * Saves the DID keeping the vouching key published on the record it replaces, which the DID
+     * itself does not carry.
+     */
     @Override
     public void execute() {
         try {
-            infoVaultDB.save(
-                    DID.class.getName(),
+            Map<String,Object> m = didToSave.toMap();
+            byte[] stored = store.load(didToSave.getUsername());
+            if(stored != null) {
+                Object vouchKey = DIDRecordCodec.isBinary(stored) ?
+                        DIDRecordCodec.readField(stored, DIDRecordCodec.FIELD_VOUCH_KEY) :
+                        DIDRecordCodec.toMap(stored).get(DIDRecordCodec.FIELD_VOUCH_KEY);
+                if(vouchKey != null)
+                    m.put(DIDRecordCodec.FIELD_VOUCH_KEY, vouchKey);
+            }
+            store.save(
                     didToSave.getUsername(),
-                    JSONParser.toString(didToSave.toMap()).getBytes(),
+                    binary ? DIDRecordCodec.encode(m) : JSONParser.toString(m).getBytes(),
                     autoCreate);
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             exception = e;
         }
     }
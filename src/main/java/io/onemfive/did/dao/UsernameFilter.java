@@ -0,0 +1,209 @@
+package io.onemfive.did.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of persisted usernames so most lookups of usernames that do not exist can be
+ * answered without reading the store.
+ *
+ * {@link #mightContain(String)} never returns false for a username that was added, so a
+ * negative answer is certain; a positive one is wrong at about the configured false positive
+ * rate while no more than the expected number of usernames have been added. Usernames must be
+ * added before their record is saved so a concurrent lookup never misses a saved record.
+ *
+ * A filter that is not seeded, i.e. was started over a store whose usernames could not all be
+ * added, answers every lookup positively while still recording the usernames added to it.
+ *
+ * @author objectorange
+ */
+public final class UsernameFilter {
+
+    private static final int MAGIC = 0xD1DB100F;
+    private static final int VERSION_1 = 1;
+    private static final int VERSION_2 = 2; // adds seeded
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashes;
+    private final boolean seeded;
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong negatives = new AtomicLong();
+    private final AtomicLong positives = new AtomicLong();
+
+    /**
+     * @param expectedUsernames usernames the filter is sized for
+     * @param falsePositiveRate wrong positive answers wanted at that size, e.g. 0.01
+     */
+    public UsernameFilter(long expectedUsernames, double falsePositiveRate) {
+        this(expectedUsernames, falsePositiveRate, true);
+    }
+
+    /**
+     * @param seeded false if usernames already saved will not all be added, so no answer can be negative
+     */
+    public UsernameFilter(long expectedUsernames, double falsePositiveRate, boolean seeded) {
+        this.seeded = seeded;
+        long n = Math.max(1, expectedUsernames);
+        double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long m = (long)Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int words = (int)Math.min(Integer.MAX_VALUE, (Math.max(64, m) + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = words * 64L;
+        this.hashes = Math.max(1, (int)Math.round((double)bitCount / n * Math.log(2)));
+    }
+
+    private UsernameFilter(int words, int hashes, long added, boolean seeded) {
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = words * 64L;
+        this.hashes = hashes;
+        this.seeded = seeded;
+        this.added.set(added);
+    }
+
+    /**
+     * @return true if any of the username's bits was not yet set
+     */
+    public boolean add(String username) {
+        long h1 = hash(username);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        boolean changed = false;
+        for(int i=0; i<hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int word = (int)(bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while((current & mask) == 0) {
+                if(bits.compareAndSet(word, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+                current = bits.get(word);
+            }
+        }
+        added.incrementAndGet();
+        return changed;
+    }
+
+    /**
+     * @return false only if the username was never added to a seeded filter
+     */
+    public boolean mightContain(String username) {
+        if(!seeded) {
+            positives.incrementAndGet();
+            return true;
+        }
+        long h1 = hash(username);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for(int i=0; i<hashes; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0) {
+                negatives.incrementAndGet();
+                return false;
+            }
+        }
+        positives.incrementAndGet();
+        return true;
+    }
+
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    public long getAdded() {
+        return added.get();
+    }
+
+    public long getNegatives() {
+        return negatives.get();
+    }
+
+    public long getPositives() {
+        return positives.get();
+    }
+
+    /**
+     * False positive rate expected at the number of usernames added so far.
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashes * (double)added.get() / bitCount), hashes);
+    }
+
+    /**
+     * Writes the filter to the file through a temporary file so a crash never leaves a partial filter.
+     */
+    public void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION_2);
+            out.writeInt(bits.length());
+            out.writeInt(hashes);
+            out.writeLong(added.get());
+            out.writeBoolean(seeded);
+            for(int i=0; i<bits.length(); i++) {
+                out.writeLong(bits.get(i));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the filter saved in the file
+     */
+    public static UsernameFilter load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException("Not a username filter: "+file);
+            int version = in.readInt();
+            if(version != VERSION_1 && version != VERSION_2)
+                throw new IOException("Unsupported username filter version: "+version);
+            int words = in.readInt();
+            int hashes = in.readInt();
+            if(words <= 0 || hashes <= 0)
+                throw new IOException("Corrupt username filter: "+file);
+            long added = in.readLong();
+            // only complete filters were saved before the seeded flag
+            boolean seeded = version == VERSION_1 || in.readBoolean();
+            UsernameFilter filter = new UsernameFilter(words, hashes, added, seeded);
+            for(int i=0; i<words; i++) {
+                filter.bits.set(i, in.readLong());
+            }
+            return filter;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UsernameFilter{seeded="+seeded+", added="+getAdded()+", bits="+bitCount+", hashes="+hashes
+                +", expectedFalsePositiveRate="+getExpectedFalsePositiveRate()
+                +", negatives="+getNegatives()+", positives="+getPositives()+"}";
+    }
+
+    private static long hash(String s) {
+        // FNV-1a over the chars, no encoding needed
+        long h = 0xCBF29CE484222325L;
+        for(int i=0; i<s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,81 @@
+package io.onemfive.did.dao;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Usernames added to a {@link UsernameFilter} since it was last saved, appended before their
+ * records are saved so the saved filter plus the journal replayed onto it is never missing
+ * a username after a crash. Reset once the filter is saved again.
+ *
+ * @author objectorange
+ */
+public final class UsernameJournal {
+
+    private final FileChannel channel;
+
+    private UsernameJournal(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the journal emptied, for a filter just saved.
+     */
+    public static UsernameJournal open(Path file) throws IOException {
+        return new UsernameJournal(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Adds every username in the journal to the filter; an entry torn by a crash ends it.
+     * @return usernames replayed
+     */
+    public static int replay(Path file, UsernameFilter filter) throws IOException {
+        if(!Files.exists(file))
+            return 0;
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while(true) {
+                filter.add(in.readUTF());
+                replayed++;
+            }
+        } catch (EOFException e) {
+            // end of journal
+        }
+        return replayed;
+    }
+
+    public synchronized void append(String username) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(username.length() + 2);
+        new DataOutputStream(bytes).writeUTF(username);
+        ByteBuffer b = ByteBuffer.wrap(bytes.toByteArray());
+        while(b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    /**
+     * Empties the journal once the filter is saved with its usernames.
+     */
+    public synchronized void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.did.hash.ContentHasher;
+
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned DID records, each DID's versions kept in its own append-only log so a save
+ * writes only the fields that changed and any earlier version can be resolved.
+ *
+ * A log, named by the SHA-256 of the username, is:
+ * <pre>
+ *   magic(4) usernameLength(4) username(utf8) { version(4) kind(1) updatedAt(8) crc32(4) length(4) payload }*
+ * </pre>
+ * A checkpoint's payload is the whole document in {@link DIDRecordCodec}'s binary form; a
+ * delta's is the fields set and removed since the version before it. A checkpoint is written
+ * every checkpointInterval versions, or sooner when a delta would be at least half the size
+ * of the document, so resolving a version replays at most that many deltas. Saves changing
+ * nothing add no version.
+ *
+ * Beside each log an index lists the version and offset of every checkpoint:
+ * <pre>
+ *   { version(4) offset(8) }*
+ * </pre>
+ * It is only a hint: appended after its checkpoint without syncing, and rebuilt by reading
+ * the log in full whenever its last checkpoint is not one in the log.
+ *
+ * The latest version of recently used DIDs is served from memory. When a DID is first used
+ * its log is read from the last indexed checkpoint, stopping at the first entry whose
+ * checksum fails and truncating the log there so an entry torn by a crash is discarded;
+ * entries before that checkpoint are checked as {@link #resolve(String, int)} replays them.
+ * A log that cannot be read at all is moved aside, not overwritten, when its DID is saved again.
+ *
+ * @author objectorange
+ */
+public class VersionedDIDStore implements DIDStore {
+
+    private static final Logger LOG = Logger.getLogger(VersionedDIDStore.class.getName());
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+    public static final int DEFAULT_MAX_CACHED = 10000;
+
+    public static final byte CHECKPOINT = 0;
+    public static final byte DELTA = 1;
+
+    private static final int FILE_MAGIC = 0xD1D0DE17;
+    private static final int ENTRY_HEADER_LENGTH = 4 + 1 + 8 + 4 + 4;
+    private static final String LOG_SUFFIX = ".didlog";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String REJECTED_SUFFIX = ".rejected-";
+    private static final int INDEX_ENTRY_LENGTH = 4 + 8;
+    // usernames are short; a longer name length means the header is not a DID log's
+    private static final int MAX_NAME_LENGTH = 64 * 1024;
+    private static final String DELTA_SET = "set";
+    private static final String DELTA_REMOVED = "removed";
+    private static final int STRIPES = 64;
+
+    /**
+     * A DID document as of one of its versions.
+     */
+    public static final class Version {
+        public final int version;
+        public final long updatedAt;
+        public final Map<String,Object> document;
+
+        Version(int version, long updatedAt, Map<String,Object> document) {
+            this.version = version;
+            this.updatedAt = updatedAt;
+            this.document = document;
+        }
+    }
+
+    private final Path directory;
+    private final int checkpointInterval;
+    private final boolean syncOnWrite;
+    private final Map<String,History> histories;
+    private final Object[] stripes = new Object[STRIPES];
+    private final Set<Path> unsynced = Collections.newSetFromMap(new ConcurrentHashMap<Path,Boolean>());
+
+    public VersionedDIDStore(Path directory, int checkpointInterval, final int maxCached, boolean syncOnWrite) throws IOException {
+        if(checkpointInterval < 1) throw new IllegalArgumentException("checkpointInterval must be at least 1");
+        this.directory = directory;
+        this.checkpointInterval = checkpointInterval;
+        this.syncOnWrite = syncOnWrite;
+        this.histories = new LinkedHashMap<String,History>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,History> eldest) {
+                return size() > maxCached;
+            }
+        };
+        for(int i=0; i<STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @return the latest version's record
+     */
+    @Override
+    public byte[] load(String username) throws IOException {
+        synchronized (stripe(username)) {
+            History h = history(username);
+            return h == null ? null : h.record;
+        }
+    }
+
+    @Override
+    public void save(String username, byte[] record, boolean autoCreate) throws IOException {
+        if(record == null) throw new IllegalArgumentException("record required");
+        synchronized (stripe(username)) {
+            History h = history(username);
+            if(h == null && !autoCreate)
+                throw new FileNotFoundException("No DID record for "+username);
+            Map<String,Object> document = DIDRecordCodec.toMap(record);
+            byte[] full = DIDRecordCodec.isBinary(record) ? record : DIDRecordCodec.encode(document);
+            long now = System.currentTimeMillis();
+            if(h == null) {
+                Path file = fileFor(username);
+                if(Files.exists(file))
+                    quarantine(file);
+                Files.deleteIfExists(indexFor(file));
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    byte[] name = username.getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer header = ByteBuffer.allocate(4 + 4 + name.length);
+                    header.putInt(FILE_MAGIC).putInt(name.length).put(name).flip();
+                    write(channel, header);
+                    h = new History(file, header.limit());
+                    append(channel, h, 1, CHECKPOINT, now, full);
+                }
+                cache(username, h);
+            } else {
+                Map<String,Object> delta = delta(h.document, document);
+                if(delta == null)
+                    return;
+                byte[] payload = DIDRecordCodec.encode(delta);
+                boolean checkpoint = h.sinceCheckpoint + 1 >= checkpointInterval || payload.length * 2 >= full.length;
+                try (FileChannel channel = FileChannel.open(h.file, StandardOpenOption.WRITE)) {
+                    channel.position(h.end);
+                    append(channel, h, h.version + 1, checkpoint ? CHECKPOINT : DELTA, now, checkpoint ? full : payload);
+                }
+            }
+            h.document = document;
+            h.record = full;
+        }
+    }
+
+    /**
+     * @param version version to resolve; 0 or less for the latest
+     * @return the document as of the version or null if the DID or version is unknown
+     */
+    public Version resolve(String username, int version) throws IOException {
+        synchronized (stripe(username)) {
+            History h = history(username);
+            if(h == null || version > h.version)
+                return null;
+            if(version <= 0 || version == h.version)
+                return new Version(h.version, h.updatedAt, DIDRecordCodec.toMap(h.record));
+            long from = h.checkpoints.floorEntry(version).getValue();
+            Map.Entry<Integer,Long> next = h.checkpoints.higherEntry(version);
+            ByteBuffer log = ByteBuffer.allocate((int)((next == null ? h.end : next.getValue()) - from));
+            try (FileChannel channel = FileChannel.open(h.file, StandardOpenOption.READ)) {
+                while(log.hasRemaining()) {
+                    if(channel.read(log, from + log.position()) < 0)
+                        throw new IOException("DID log truncated: "+h.file);
+                }
+            }
+            log.flip();
+            Map<String,Object> document = null;
+            int expected = h.checkpoints.floorKey(version);
+            while(log.hasRemaining()) {
+                int v = log.getInt();
+                byte kind = log.get();
+                long updatedAt = log.getLong();
+                int crc = log.getInt();
+                int length = log.getInt();
+                // only the entries from the last checkpoint on were checked when the log was read
+                if(v != expected++ || (document == null && kind != CHECKPOINT) || length < 0 || length > log.remaining())
+                    throw new IOException("DID log corrupt before version "+version+": "+h.file);
+                ByteBuffer payload = payload(log, length);
+                if(crc(payload) != crc)
+                    throw new IOException("DID log corrupt before version "+version+": "+h.file);
+                if(kind == CHECKPOINT)
+                    document = DIDRecordCodec.toMap(payload);
+                else
+                    apply(document, DIDRecordCodec.toMap(payload));
+                if(v == version)
+                    return new Version(v, updatedAt, document);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the latest version of the DID or 0 if it has none
+     */
+    public int latestVersion(String username) throws IOException {
+        synchronized (stripe(username)) {
+            History h = history(username);
+            return h == null ? 0 : h.version;
+        }
+    }
+
+    @Override
+    public Collection<String> usernames() throws IOException {
+        List<String> usernames = new ArrayList<>();
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "*" + LOG_SUFFIX)) {
+            for(Path file : logs) {
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                    if(in.readInt() != FILE_MAGIC)
+                        continue;
+                    int nameLength = in.readInt();
+                    if(nameLength < 0 || nameLength > MAX_NAME_LENGTH || nameLength > Files.size(file) - 8) {
+                        LOG.warning("Not a DID log: "+file);
+                        continue;
+                    }
+                    byte[] name = new byte[nameLength];
+                    in.readFully(name);
+                    usernames.add(new String(name, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    LOG.warning("Unable to read DID log "+file+": "+e.getLocalizedMessage());
+                }
+            }
+        }
+        return usernames;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for(Path file : new ArrayList<>(unsynced)) {
+            unsynced.remove(file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            sync();
+        } catch (IOException e) {
+            LOG.warning("Unable to sync DID logs: "+e.getLocalizedMessage());
+        }
+        synchronized (histories) {
+            histories.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (histories) {
+            return "VersionedDIDStore{cached="+histories.size()+", checkpointInterval="+checkpointInterval+"}";
+        }
+    }
+
+    /**
+     * @return fields set and removed going from one document to the next or null if they are the same
+     */
+    static Map<String,Object> delta(Map<String,Object> from, Map<String,Object> to) {
+        Map<String,Object> set = new HashMap<>();
+        for(Map.Entry<String,Object> e : to.entrySet()) {
+            if(!from.containsKey(e.getKey()) || !same(from.get(e.getKey()), e.getValue()))
+                set.put(e.getKey(), e.getValue());
+        }
+        List<String> removed = new ArrayList<>();
+        for(String key : from.keySet()) {
+            if(!to.containsKey(key))
+                removed.add(key);
+        }
+        if(set.isEmpty() && removed.isEmpty())
+            return null;
+        Map<String,Object> delta = new HashMap<>(4);
+        delta.put(DELTA_SET, set);
+        delta.put(DELTA_REMOVED, removed);
+        return delta;
+    }
+
+    static void apply(Map<String,Object> document, Map<String,Object> delta) {
+        document.putAll((Map<String,Object>)delta.get(DELTA_SET));
+        for(Object key : (List<Object>)delta.get(DELTA_REMOVED)) {
+            document.remove(key);
+        }
+    }
+
+    private static boolean same(Object a, Object b) {
+        if(a instanceof byte[] && b instanceof byte[])
+            return Arrays.equals((byte[])a, (byte[])b);
+        return Objects.equals(a, b);
+    }
+
+    private History history(String username) throws IOException {
+        History h;
+        synchronized (histories) {
+            h = histories.get(username);
+        }
+        if(h != null)
+            return h;
+        Path file = fileFor(username);
+        if(!Files.exists(file))
+            return null;
+        h = read(file);
+        if(h != null)
+            cache(username, h);
+        return h;
+    }
+
+    private void cache(String username, History h) {
+        synchronized (histories) {
+            histories.put(username, h);
+        }
+    }
+
+    /**
+     * Reads the log through its latest version from its last indexed checkpoint, reading it
+     * all and rebuilding the index if it has none or it does not match the log.
+     */
+    private History read(Path file) throws IOException {
+        TreeMap<Integer,Long> indexed = readIndex(file);
+        if(indexed != null) {
+            int listed = indexed.size();
+            History h = read(file, indexed);
+            // checkpoints whose index entries were lost are listed again
+            if(h != null && h.checkpoints.size() > listed)
+                writeIndex(h);
+            if(h != null)
+                return h;
+            LOG.warning("DID log index of "+file+" does not match the log; rebuilding it.");
+        }
+        History h = read(file, null);
+        if(h != null)
+            writeIndex(h);
+        return h;
+    }
+
+    /**
+     * Reads the log from the last of the indexed checkpoints, or from its first entry if none are given.
+     * @return null if it is not a DID log, has no complete version or the index does not match it
+     */
+    private History read(Path file, TreeMap<Integer,Long> indexed) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(8);
+            if(size < 8 || !readFully(channel, header, 0) || header.getInt(0) != FILE_MAGIC
+                    || header.getInt(4) < 0 || header.getInt(4) > size - 8) {
+                LOG.warning("Not a DID log: "+file);
+                return null;
+            }
+            long from = 8L + header.getInt(4);
+            History h = new History(file, from);
+            if(indexed != null) {
+                from = indexed.lastEntry().getValue();
+                if(from < h.end || from > size)
+                    return null;
+                h.checkpoints.putAll(indexed);
+                h.version = indexed.lastKey() - 1;
+            }
+            if(size - from > Integer.MAX_VALUE)
+                throw new IOException("DID log too large to read: "+file);
+            ByteBuffer log = ByteBuffer.allocate((int)(size - from));
+            readFully(channel, log, from);
+            log.flip();
+            int lastCheckpoint = -1;
+            while(log.remaining() >= ENTRY_HEADER_LENGTH) {
+                int start = log.position();
+                int version = log.getInt();
+                byte kind = log.get();
+                long updatedAt = log.getLong();
+                int crc = log.getInt();
+                int length = log.getInt();
+                if(version != h.version + 1 || (kind != CHECKPOINT && kind != DELTA) || (start == 0 && kind != CHECKPOINT)
+                        || length < 0 || length > log.remaining())
+                    break;
+                ByteBuffer payload = payload(log, length);
+                if(crc(payload) != crc)
+                    break;
+                if(kind == CHECKPOINT) {
+                    h.checkpoints.put(version, from + start);
+                    lastCheckpoint = start;
+                    h.sinceCheckpoint = 0;
+                } else {
+                    h.sinceCheckpoint++;
+                }
+                h.version = version;
+                h.updatedAt = updatedAt;
+                h.end = from + log.position();
+            }
+            if(lastCheckpoint < 0) {
+                if(indexed == null)
+                    LOG.warning("DID log has no complete version: "+file);
+                return null;
+            }
+            if(h.end < size) {
+                LOG.warning("DID log "+file+" ends in a partial or corrupt entry; dropping it.");
+                channel.truncate(h.end);
+            }
+            log.position(lastCheckpoint);
+            log.limit((int)(h.end - from));
+            while(log.hasRemaining()) {
+                log.position(log.position() + 4);
+                byte kind = log.get();
+                log.position(log.position() + 8 + 4);
+                ByteBuffer payload = payload(log, log.getInt());
+                if(kind == CHECKPOINT)
+                    h.document = DIDRecordCodec.toMap(payload);
+                else
+                    apply(h.document, DIDRecordCodec.toMap(payload));
+            }
+            h.record = DIDRecordCodec.encode(h.document);
+            return h;
+        }
+    }
+
+    /**
+     * @return the checkpoints listed in the log's index, null if it has none or they are out of order
+     */
+    private static TreeMap<Integer,Long> readIndex(Path file) throws IOException {
+        Path index = indexFor(file);
+        if(!Files.exists(index))
+            return null;
+        // a torn last entry is ignored
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(index));
+        TreeMap<Integer,Long> checkpoints = new TreeMap<>();
+        int lastVersion = 0;
+        long lastOffset = -1;
+        while(b.remaining() >= INDEX_ENTRY_LENGTH) {
+            int version = b.getInt();
+            long offset = b.getLong();
+            if(version <= lastVersion || offset <= lastOffset)
+                return null;
+            checkpoints.put(version, offset);
+            lastVersion = version;
+            lastOffset = offset;
+        }
+        return checkpoints.isEmpty() ? null : checkpoints;
+    }
+
+    private void writeIndex(History h) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(h.checkpoints.size() * INDEX_ENTRY_LENGTH);
+        for(Map.Entry<Integer,Long> e : h.checkpoints.entrySet()) {
+            b.putInt(e.getKey()).putLong(e.getValue());
+        }
+        Path index = indexFor(h.file);
+        Path tmp = Files.createTempFile(directory, "didlog", ".tmp");
+        try {
+            Files.write(tmp, b.array());
+            Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Moves a log that could not be read aside so saving its DID again does not destroy it.
+     */
+    private static void quarantine(Path file) throws IOException {
+        Path rejected = file.resolveSibling(file.getFileName() + REJECTED_SUFFIX + System.currentTimeMillis());
+        Files.move(file, rejected);
+        LOG.warning("Unreadable DID log "+file+" moved to "+rejected+".");
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer b, long position) throws IOException {
+        while(b.hasRemaining()) {
+            if(channel.read(b, position + b.position()) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void append(FileChannel channel, History h, int version, byte kind, long updatedAt, byte[] payload) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + payload.length);
+        entry.putInt(version).put(kind).putLong(updatedAt).putInt(crc(ByteBuffer.wrap(payload))).putInt(payload.length).put(payload).flip();
+        long start = h.end;
+        write(channel, entry);
+        if(syncOnWrite)
+            channel.force(false);
+        else
+            unsynced.add(h.file);
+        if(kind == CHECKPOINT) {
+            h.checkpoints.put(version, start);
+            h.sinceCheckpoint = 0;
+        } else {
+            h.sinceCheckpoint++;
+        }
+        h.version = version;
+        h.updatedAt = updatedAt;
+        h.end = start + entry.limit();
+        if(kind == CHECKPOINT) {
+            ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+            indexEntry.putInt(version).putLong(start);
+            Files.write(indexFor(h.file), indexEntry.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer b) throws IOException {
+        while(b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    private static ByteBuffer payload(ByteBuffer log, int length) {
+        ByteBuffer payload = log.slice();
+        payload.limit(length);
+        log.position(log.position() + length);
+        return payload;
+    }
+
+    private static int crc(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        ByteBuffer in = payload.duplicate();
+        byte[] chunk = new byte[Math.min(8192, Math.max(1, in.remaining()))];
+        while(in.hasRemaining()) {
+            int n = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int)crc.getValue();
+    }
+
+    private Object stripe(String username) {
+        int h = username.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    private Path fileFor(String username) {
+        return directory.resolve(ContentHasher.hexSha256(username) + LOG_SUFFIX);
+    }
+
+    private static Path indexFor(Path file) {
+        return file.resolveSibling(file.getFileName() + INDEX_SUFFIX);
+    }
+
+    private static final class History {
+        private final Path file;
+        private final TreeMap<Integer,Long> checkpoints = new TreeMap<>();
+        private long end;
+        private int version;
+        private long updatedAt;
+        private int sinceCheckpoint;
+        private Map<String,Object> document;
+        private byte[] record;
+
+        private History(Path file, long end) {
+            this.file = file;
+            this.end = end;
+        }
+    }
+}
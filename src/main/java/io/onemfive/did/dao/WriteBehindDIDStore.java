@@ -0,0 +1,289 @@
+package io.onemfive.did.dao;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Queues saves in memory and writes them to another {@link DIDStore} in groups, syncing
+ * it once per group instead of once per save.
+ *
+ * Durability: a save is acknowledged once queued, so up to flushIntervalMs of saves can be
+ * lost if the process dies. Queued saves are written when batchSize usernames are waiting,
+ * when the interval elapses, on {@link #flush()} and on {@link #close()}. Repeated saves of
+ * a username before a flush are written once. Loads return queued records so callers always
+ * read their own writes. A group that fails to be written or synced stays queued to be written
+ * again, and saves waiting for room in a full queue fail with the flush's exception.
+ *
+ * @author objectorange
+ */
+public class WriteBehindDIDStore implements DIDStore {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindDIDStore.class.getName());
+
+    private final DIDStore delegate;
+    private final int batchSize;
+    private final long flushIntervalMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushWanted = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private Map<String,byte[]> pending = new LinkedHashMap<>();
+    private Map<String,byte[]> flushing = new LinkedHashMap<>();
+    private volatile boolean closed = false;
+    // flushes ended and why the last one failed, for saves waiting on a full queue
+    private long flushes;
+    private IOException flushFailure;
+    private final Thread flusher;
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param batchSize queued usernames that trigger a flush; saves block once four times as many are queued
+     * @param flushIntervalMs longest a save stays queued
+     */
+    public WriteBehindDIDStore(DIDStore delegate, int batchSize, long flushIntervalMs) {
+        this.delegate = delegate;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "WriteBehindDIDStore-Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public byte[] load(String username) throws IOException {
+        lock.lock();
+        try {
+            byte[] record = pending.get(username);
+            if(record == null) record = flushing.get(username);
+            if(record != null) return record;
+        } finally {
+            lock.unlock();
+        }
+        return delegate.load(username);
+    }
+
+    @Override
+    public void save(String username, byte[] record, boolean autoCreate) throws IOException {
+        if(closed) throw new IOException("DID store closed");
+        if(!autoCreate && load(username) == null)
+            throw new FileNotFoundException("No DID record for "+username);
+        lock.lock();
+        try {
+            while(pending.size() >= batchSize * 4 && !pending.containsKey(username) && !closed) {
+                long waitedFor = flushes;
+                flushWanted.signal();
+                flushed.awaitUninterruptibly();
+                if(flushes != waitedFor && flushFailure != null)
+                    throw new IOException("DID write-behind queue full and flushing failed: "+flushFailure.getLocalizedMessage(), flushFailure);
+            }
+            pending.put(username, record);
+            saves.incrementAndGet();
+            if(pending.size() >= batchSize)
+                flushWanted.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<String> usernames() throws IOException {
+        Collection<String> persisted = delegate.usernames();
+        if(persisted == null)
+            return null;
+        HashSet<String> usernames = new HashSet<>(persisted);
+        lock.lock();
+        try {
+            usernames.addAll(flushing.keySet());
+            usernames.addAll(pending.keySet());
+        } finally {
+            lock.unlock();
+        }
+        return usernames;
+    }
+
+    /**
+     * Writes every queued save and syncs the underlying store.
+     */
+    @Override
+    public void sync() throws IOException {
+        flush();
+    }
+
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            lock.lock();
+            try {
+                if(pending.isEmpty()) return;
+                flushing = pending;
+                pending = new LinkedHashMap<>();
+            } finally {
+                lock.unlock();
+            }
+            IOException failure = null;
+            boolean synced = false;
+            try {
+                for(Map.Entry<String,byte[]> write : flushing.entrySet()) {
+                    try {
+                        delegate.save(write.getKey(), write.getValue(), true);
+                        writes.incrementAndGet();
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                        failure = e;
+                        requeue(write.getKey(), write.getValue());
+                    }
+                }
+                delegate.sync();
+                synced = true;
+                groups.incrementAndGet();
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                failure = e;
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                failure = new IOException(e);
+            } finally {
+                lock.lock();
+                try {
+                    if(!synced) {
+                        // none of the group is known to be durable so all of it is written again
+                        for(Map.Entry<String,byte[]> write : flushing.entrySet()) {
+                            if(!pending.containsKey(write.getKey()))
+                                pending.put(write.getKey(), write.getValue());
+                        }
+                    }
+                    flushing = new LinkedHashMap<>();
+                    flushes++;
+                    flushFailure = failure;
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if(failure != null) throw failure;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void requeue(String username, byte[] record) {
+        lock.lock();
+        try {
+            // a newer save queued since this flush began wins
+            if(!pending.containsKey(username))
+                pending.put(username, record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while(!closed) {
+            lock.lock();
+            try {
+                if(pending.size() < batchSize && !closed)
+                    flushWanted.await(flushIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                LOG.severe("DID write-behind flush failed, will retry: "+e.getLocalizedMessage());
+                // retry after the interval unless a save is waiting for room
+                lock.lock();
+                try {
+                    if(!closed)
+                        flushWanted.await(flushIntervalMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    break;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSaves() {
+        return saves.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getGroups() {
+        return groups.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindDIDStore{queued="+getQueued()+", saves="+getSaves()+", writes="+getWrites()
+                +", groups="+getGroups()+", failures="+getFailures()+"}";
+    }
+
+    /**
+     * Stops the flusher, writes every queued save and closes the underlying store.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            flushWanted.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            LOG.severe("Unable to flush "+getQueued()+" queued DID saves at close: "+e.getLocalizedMessage());
+        }
+        lock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        delegate.close();
+    }
+}
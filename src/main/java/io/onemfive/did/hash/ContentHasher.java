@@ -0,0 +1,92 @@
+package io.onemfive.did.hash;
+
+import io.onemfive.data.Hash;
+import io.onemfive.data.util.Base64;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes content from streams, buffers and files in constant memory.
+ *
+ * Digests are encoded the same way as {@link io.onemfive.data.util.HashUtil#generateHash(String, Hash.Algorithm)}
+ * so a stream hashed here equals the same bytes hashed as a String and fingerprints
+ * (SHA1 over the SHA256 hash) remain compatible.
+ *
+ * @author objectorange
+ */
+public final class ContentHasher {
+
+    /**
+     * Bytes read per stream read.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Bytes of a file mapped into memory at once; files larger than this are mapped window by window.
+     */
+    public static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private ContentHasher() {}
+
+    public static Hash hash(InputStream in, Hash.Algorithm algorithm) throws NoSuchAlgorithmException, IOException {
+        return toHash(DigestEngine.digest(engineName(algorithm), in), algorithm);
+    }
+
+    public static Hash hash(ByteBuffer buffer, Hash.Algorithm algorithm) throws NoSuchAlgorithmException {
+        return toHash(DigestEngine.digest(engineName(algorithm), buffer), algorithm);
+    }
+
+    public static Hash hash(Path path, Hash.Algorithm algorithm) throws NoSuchAlgorithmException, IOException {
+        return toHash(DigestEngine.digest(engineName(algorithm), path), algorithm);
+    }
+
+    public static Hash hash(String path, Hash.Algorithm algorithm) throws NoSuchAlgorithmException, IOException {
+        return hash(Paths.get(path), algorithm);
+    }
+
+    /**
+     * Compares the computed hash to the expected one in time independent of where they differ.
+     */
+    public static boolean matches(Hash computed, Hash expected) {
+        if(computed == null || expected == null || computed.getHash() == null || expected.getHash() == null)
+            return false;
+        return MessageDigest.isEqual(computed.getHash().getBytes(), expected.getHash().getBytes());
+    }
+
+    /**
+     * Lower-case hex SHA-256 of the name in UTF-8, naming a file per username whatever characters it holds.
+     */
+    public static String hexSha256(String name) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(h.length * 2);
+            for(byte b : h) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Hash toHash(byte[] digest, Hash.Algorithm algorithm) {
+        return new Hash(Base64.encode(digest), algorithm);
+    }
+
+    private static String engineName(Hash.Algorithm algorithm) throws NoSuchAlgorithmException {
+        if(algorithm == null) throw new NoSuchAlgorithmException("Hash algorithm required");
+        return jcaName(algorithm);
+    }
+
+    public static String jcaName(Hash.Algorithm algorithm) {
+        if(algorithm == Hash.Algorithm.SHA1) return "SHA-1";
+        if(algorithm == Hash.Algorithm.SHA256) return "SHA-256";
+        return algorithm.name();
+    }
+}
@@ -0,0 +1,279 @@
+package io.onemfive.did.hash;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.digests.SHA512tDigest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Digests content with an algorithm chosen by name, reusing one digest instance per
+ * algorithm per thread so hashing many small payloads costs no provider lookups and no
+ * allocation beyond the result.
+ *
+ * SHA-1 and the SHA-2 family come from the JCA, whose implementations the JVM accelerates;
+ * BLAKE2b comes from the BouncyCastle lightweight API, as does SHA-512/256 on runtimes whose
+ * JCA lacks it. {@link #FAST} picks SHA-512/256 on 64-bit hosts, where its 64-bit words make
+ * it faster than SHA-256 on long input, and SHA-256 elsewhere.
+ *
+ * A thread must finish one digest before starting another of the same algorithm. Each digest
+ * resets its pooled instance when done, even if it fails, so a failure never leaks into the next.
+ *
+ * @author objectorange
+ */
+public final class DigestEngine {
+
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA512 = "SHA-512";
+    public static final String SHA512_256 = "SHA-512/256";
+    public static final String BLAKE2B_256 = "BLAKE2b-256";
+    public static final String BLAKE2B_512 = "BLAKE2b-512";
+    public static final String FAST = "FAST";
+
+    private static final String FAST_ALGORITHM = System.getProperty("os.arch", "").contains("64") ? SHA512_256 : SHA256;
+
+    // names without case or dashes to algorithm
+    private static final Map<String,String> ALIASES;
+    private static final Map<String,ThreadLocal<Digester>> POOLS;
+    static {
+        Map<String,String> aliases = new HashMap<>();
+        Map<String,ThreadLocal<Digester>> pools = new HashMap<>();
+        for(String algorithm : new String[]{SHA1, SHA256, SHA512, SHA512_256, BLAKE2B_256, BLAKE2B_512}) {
+            aliases.put(key(algorithm), algorithm);
+            pools.put(algorithm, pool(algorithm));
+        }
+        aliases.put(key("BLAKE2b"), BLAKE2B_256);
+        aliases.put(key(FAST), FAST_ALGORITHM);
+        ALIASES = Collections.unmodifiableMap(aliases);
+        POOLS = Collections.unmodifiableMap(pools);
+    }
+
+    private static final ThreadLocal<byte[]> READ_BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[ContentHasher.BUFFER_SIZE];
+        }
+    };
+
+    private DigestEngine() {}
+
+    /**
+     * @return the algorithm's standard name, e.g. SHA-256 for sha256
+     * @throws NoSuchAlgorithmException if it is not supported
+     */
+    public static String algorithm(String name) throws NoSuchAlgorithmException {
+        String algorithm = name == null ? null : ALIASES.get(key(name));
+        if(algorithm == null)
+            throw new NoSuchAlgorithmException("Unsupported digest algorithm: "+name);
+        return algorithm;
+    }
+
+    public static boolean isSupported(String name) {
+        return name != null && ALIASES.containsKey(key(name));
+    }
+
+    public static int digestLength(String name) throws NoSuchAlgorithmException {
+        return digester(name).length();
+    }
+
+    public static byte[] digest(String name, byte[] content) throws NoSuchAlgorithmException {
+        return digest(name, content, 0, content.length);
+    }
+
+    public static byte[] digest(String name, byte[] content, int offset, int length) throws NoSuchAlgorithmException {
+        Digester d = digester(name);
+        try {
+            d.update(content, offset, length);
+            return d.finish();
+        } finally {
+            d.reset();
+        }
+    }
+
+    /**
+     * Digests the buffer from its position to its limit, leaving its position unchanged.
+     */
+    public static byte[] digest(String name, ByteBuffer buffer) throws NoSuchAlgorithmException {
+        Digester d = digester(name);
+        try {
+            d.update(buffer.duplicate());
+            return d.finish();
+        } finally {
+            d.reset();
+        }
+    }
+
+    /**
+     * Reads the stream to its end through the thread's read buffer. The stream is not closed.
+     */
+    public static byte[] digest(String name, InputStream in) throws NoSuchAlgorithmException, IOException {
+        Digester d = digester(name);
+        byte[] buffer = READ_BUFFERS.get();
+        int read;
+        try {
+            while((read = in.read(buffer)) != -1) {
+                d.update(buffer, 0, read);
+            }
+            return d.finish();
+        } finally {
+            d.reset();
+        }
+    }
+
+    /**
+     * Digests the file mapping it into memory one window at a time.
+     */
+    public static byte[] digest(String name, Path path) throws NoSuchAlgorithmException, IOException {
+        Digester d = digester(name);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while(position < size) {
+                long length = Math.min(ContentHasher.MAP_WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                d.update(window);
+                position += length;
+            }
+            return d.finish();
+        } finally {
+            d.reset();
+        }
+    }
+
+    private static Digester digester(String name) throws NoSuchAlgorithmException {
+        return POOLS.get(algorithm(name)).get();
+    }
+
+    private static String key(String name) {
+        return name.replace("-", "").toUpperCase(Locale.ROOT);
+    }
+
+    private static ThreadLocal<Digester> pool(final String algorithm) {
+        return new ThreadLocal<Digester>() {
+            @Override
+            protected Digester initialValue() {
+                return newDigester(algorithm);
+            }
+        };
+    }
+
+    private static Digester newDigester(String algorithm) {
+        switch(algorithm) {
+            case BLAKE2B_256: return new BouncyCastleDigester(new Blake2bDigest(256));
+            case BLAKE2B_512: return new BouncyCastleDigester(new Blake2bDigest(512));
+            default: {
+                try {
+                    return new JcaDigester(MessageDigest.getInstance(algorithm));
+                } catch (NoSuchAlgorithmException e) {
+                    if(SHA512_256.equals(algorithm))
+                        return new BouncyCastleDigester(new SHA512tDigest(256));
+                    throw new IllegalStateException(algorithm+" not supported", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A reusable digest; {@link #finish()} returns the digest and resets it.
+     */
+    private interface Digester {
+        void update(byte[] b, int offset, int length);
+        void update(ByteBuffer buffer);
+        byte[] finish();
+        void reset();
+        int length();
+    }
+
+    private static final class JcaDigester implements Digester {
+        private final MessageDigest md;
+
+        private JcaDigester(MessageDigest md) {
+            this.md = md;
+        }
+
+        @Override
+        public void update(byte[] b, int offset, int length) {
+            md.update(b, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            md.update(buffer);
+        }
+
+        @Override
+        public byte[] finish() {
+            return md.digest();
+        }
+
+        @Override
+        public void reset() {
+            md.reset();
+        }
+
+        @Override
+        public int length() {
+            return md.getDigestLength();
+        }
+    }
+
+    private static final class BouncyCastleDigester implements Digester {
+        private final Digest digest;
+        private byte[] chunk;
+
+        private BouncyCastleDigester(Digest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void update(byte[] b, int offset, int length) {
+            digest.update(b, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if(buffer.hasArray()) {
+                digest.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            if(chunk == null)
+                chunk = new byte[ContentHasher.BUFFER_SIZE];
+            while(buffer.hasRemaining()) {
+                int n = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, n);
+                digest.update(chunk, 0, n);
+            }
+        }
+
+        @Override
+        public byte[] finish() {
+            byte[] out = new byte[digest.getDigestSize()];
+            digest.doFinal(out, 0);
+            return out;
+        }
+
+        @Override
+        public void reset() {
+            digest.reset();
+        }
+
+        @Override
+        public int length() {
+            return digest.getDigestSize();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package io.onemfive.did.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * SHA256 Merkle tree hashing of content split into fixed-size chunks, the chunks hashed
+ * in parallel on a fork-join pool.
+ *
+ * Leaves are SHA256(0x00 || chunk) and interior nodes SHA256(0x01 || left || right) so a leaf
+ * can never be mistaken for a node. A node without a sibling is promoted unchanged. Empty
+ * content is a single empty leaf.
+ *
+ * Keeping the leaf hashes lets a single chunk be re-verified by hashing only that chunk and
+ * recomputing the root from the leaves.
+ *
+ * @author objectorange
+ */
+public final class MerkleHasher {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    /**
+     * Chunks hashed per fork-join leaf task; keeps task overhead small for small chunk sizes.
+     */
+    private static final int CHUNKS_PER_TASK = 4;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not supported", e);
+            }
+        }
+    };
+
+    public static final class Tree {
+        public final byte[] root;
+        public final byte[][] leaves;
+
+        private Tree(byte[] root, byte[][] leaves) {
+            this.root = root;
+            this.leaves = leaves;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public MerkleHasher(ForkJoinPool pool, int chunkSize) {
+        if(chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive");
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Hashes the buffer from its position to its limit; the buffer's position is unchanged.
+     */
+    public Tree hash(ByteBuffer content) {
+        final ByteBuffer source = content.slice();
+        final byte[][] leaves = new byte[chunkCount(source.remaining())][];
+        pool.invoke(new LeafTask(0, leaves.length, leaves, new ChunkSource() {
+            @Override
+            public ByteBuffer chunk(int index) {
+                return slice(source, index);
+            }
+        }));
+        return new Tree(root(leaves), leaves);
+    }
+
+    /**
+     * Hashes the file, each chunk mapped into memory by the task hashing it.
+     */
+    public Tree hash(Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final byte[][] leaves = new byte[chunkCount(size)][];
+            try {
+                pool.invoke(new LeafTask(0, leaves.length, leaves, new ChunkSource() {
+                    @Override
+                    public ByteBuffer chunk(int index) throws IOException {
+                        return map(channel, size, index);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                // fork-join may rethrow a copy of the task's exception so search the causes
+                for(Throwable t = e; t != null; t = t.getCause()) {
+                    if(t instanceof IOException) throw (IOException)t;
+                }
+                throw e;
+            }
+            return new Tree(root(leaves), leaves);
+        }
+    }
+
+    /**
+     * Reads the stream chunk by chunk hashing chunks in parallel as they are read.
+     * At most twice the pool's parallelism chunks are held in memory. The stream is not closed.
+     */
+    public Tree hash(InputStream in) throws IOException {
+        int maxOutstanding = pool.getParallelism() * 2;
+        Deque<ForkJoinTask<byte[]>> outstanding = new ArrayDeque<>(maxOutstanding);
+        List<byte[]> leaves = new ArrayList<>();
+        while(true) {
+            final byte[] chunk = readChunk(in);
+            if(chunk == null) break;
+            if(outstanding.size() == maxOutstanding)
+                leaves.add(outstanding.removeFirst().join());
+            outstanding.addLast(pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return leaf(ByteBuffer.wrap(chunk));
+                }
+            }));
+        }
+        while(!outstanding.isEmpty()) {
+            leaves.add(outstanding.removeFirst().join());
+        }
+        if(leaves.isEmpty())
+            leaves.add(leaf(ByteBuffer.allocate(0)));
+        byte[][] l = leaves.toArray(new byte[leaves.size()][]);
+        return new Tree(root(l), l);
+    }
+
+    /**
+     * Hashes a single chunk of the buffer as a leaf.
+     */
+    public byte[] hashChunk(ByteBuffer content, int index) {
+        ByteBuffer source = content.slice();
+        checkIndex(index, chunkCount(source.remaining()));
+        return leaf(slice(source, index));
+    }
+
+    /**
+     * Hashes a single chunk of the file as a leaf.
+     */
+    public byte[] hashChunk(Path path, int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            checkIndex(index, chunkCount(size));
+            return leaf(map(channel, size, index));
+        }
+    }
+
+    /**
+     * Root of the tree over the given leaf hashes.
+     */
+    public static byte[] root(byte[][] leaves) {
+        if(leaves.length == 0)
+            throw new IllegalArgumentException("At least one leaf required");
+        byte[][] level = leaves;
+        MessageDigest md = SHA256.get();
+        while(level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for(int i=0; i<next.length; i++) {
+                int left = i * 2;
+                if(left + 1 < level.length) {
+                    md.update(NODE_PREFIX);
+                    md.update(level[left]);
+                    md.update(level[left + 1]);
+                    next[i] = md.digest();
+                } else {
+                    next[i] = level[left];
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    public static byte[] leaf(ByteBuffer chunk) {
+        MessageDigest md = SHA256.get();
+        md.update(LEAF_PREFIX);
+        md.update(chunk);
+        return md.digest();
+    }
+
+    /**
+     * Number of chunks, and so leaves, in content of the given size; empty content has one.
+     */
+    public int chunkCount(long size) {
+        if(size == 0) return 1;
+        long count = (size + chunkSize - 1) / chunkSize;
+        if(count > Integer.MAX_VALUE) throw new IllegalArgumentException("Content too large for chunk size "+chunkSize);
+        return (int)count;
+    }
+
+    private ByteBuffer slice(ByteBuffer source, int index) {
+        ByteBuffer chunk = source.duplicate();
+        int start = (int)Math.min((long)index * chunkSize, source.limit());
+        chunk.position(start);
+        chunk.limit((int)Math.min((long)start + chunkSize, source.limit()));
+        return chunk;
+    }
+
+    private ByteBuffer map(FileChannel channel, long size, int index) throws IOException {
+        long start = (long)index * chunkSize;
+        long length = Math.min(chunkSize, size - start);
+        if(length <= 0) return ByteBuffer.allocate(0);
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+    }
+
+    private byte[] readChunk(InputStream in) throws IOException {
+        byte[] chunk = new byte[chunkSize];
+        int filled = 0;
+        while(filled < chunkSize) {
+            int read = in.read(chunk, filled, chunkSize - filled);
+            if(read == -1) break;
+            filled += read;
+        }
+        if(filled == 0) return null;
+        if(filled < chunkSize) {
+            byte[] last = new byte[filled];
+            System.arraycopy(chunk, 0, last, 0, filled);
+            return last;
+        }
+        return chunk;
+    }
+
+    private static void checkIndex(int index, int count) {
+        if(index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Chunk "+index+" of "+count);
+    }
+
+    private interface ChunkSource {
+        ByteBuffer chunk(int index) throws IOException;
+    }
+
+    private static class UncheckedIOException extends RuntimeException {
+        private UncheckedIOException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static class LeafTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final byte[][] leaves;
+        private final ChunkSource source;
+
+        private LeafTask(int from, int to, byte[][] leaves, ChunkSource source) {
+            this.from = from;
+            this.to = to;
+            this.leaves = leaves;
+            this.source = source;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= CHUNKS_PER_TASK) {
+                for(int i=from; i<to; i++) {
+                    try {
+                        leaves[i] = leaf(source.chunk(i));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new LeafTask(from, mid, leaves, source), new LeafTask(mid, to, leaves, source));
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package io.onemfive.did.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Latency histograms per service operation and for store and password hash work, plus
+ * counters per request error code and of dead-lettered envelopes.
+ *
+ * Every histogram and counter is created up front for the operations and request classes
+ * given at construction so recording never allocates; operations not known up front are
+ * recorded under {@link #UNKNOWN_OPERATION}.
+ *
+ * @author objectorange
+ */
+public final class DIDMetrics implements DIDMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(DIDMetrics.class.getName());
+
+    public static final String TIMER_STORE_LOAD = "store.load";
+    public static final String TIMER_STORE_SAVE = "store.save";
+    public static final String TIMER_PASSWORD_HASH_VERIFY = "passwordHash.verify";
+    public static final String TIMER_PASSWORD_HASH_GENERATE = "passwordHash.generate";
+    public static final String UNKNOWN_OPERATION = "UNKNOWN";
+
+    private static final int MAX_ERROR_CODE = 63;
+
+    private final Map<String,LatencyHistogram> operations;
+    private final Map<String,LatencyHistogram> timers;
+    private final Map<Class<?>,AtomicLongArray> errors;
+    private final AtomicLong deadLetters = new AtomicLong();
+    private ObjectName objectName;
+
+    /**
+     * @param operations operation names to keep latencies for
+     * @param requestClasses request classes whose public static int fields name their error codes
+     */
+    public DIDMetrics(Collection<String> operations, Collection<? extends Class<?>> requestClasses) {
+        Map<String,LatencyHistogram> ops = new LinkedHashMap<>();
+        for(String operation : operations) {
+            ops.put(operation, new LatencyHistogram());
+        }
+        ops.put(UNKNOWN_OPERATION, new LatencyHistogram());
+        this.operations = Collections.unmodifiableMap(ops);
+        Map<String,LatencyHistogram> t = new LinkedHashMap<>();
+        for(String timer : new String[]{TIMER_STORE_LOAD, TIMER_STORE_SAVE, TIMER_PASSWORD_HASH_VERIFY, TIMER_PASSWORD_HASH_GENERATE}) {
+            t.put(timer, new LatencyHistogram());
+        }
+        this.timers = Collections.unmodifiableMap(t);
+        Map<Class<?>,AtomicLongArray> e = new HashMap<>();
+        for(Class<?> c : requestClasses) {
+            e.put(c, new AtomicLongArray(MAX_ERROR_CODE + 1));
+        }
+        this.errors = Collections.unmodifiableMap(e);
+    }
+
+    public LatencyHistogram operation(String operation) {
+        LatencyHistogram h = operations.get(operation);
+        return h == null ? operations.get(UNKNOWN_OPERATION) : h;
+    }
+
+    /**
+     * @param name one of the TIMER_ constants
+     */
+    public LatencyHistogram timer(String name) {
+        return timers.get(name);
+    }
+
+    /**
+     * Counts an error code set on a request; codes below zero mean no error and are ignored.
+     */
+    public void error(Class<?> requestClass, int errorCode) {
+        if(errorCode < 0 || errorCode > MAX_ERROR_CODE)
+            return;
+        AtomicLongArray counts = errors.get(requestClass);
+        if(counts != null)
+            counts.incrementAndGet(errorCode);
+    }
+
+    public void deadLetter() {
+        deadLetters.incrementAndGet();
+    }
+
+    /**
+     * Everything recorded: latencies in microseconds by operation and timer, error counts and dead letters.
+     */
+    public Map<String,Object> toMap() {
+        Map<String,Object> m = new HashMap<>();
+        Map<String,Object> ops = new TreeMap<>();
+        for(Map.Entry<String,LatencyHistogram> op : operations.entrySet()) {
+            if(op.getValue().getCount() > 0)
+                ops.put(op.getKey(), op.getValue().toMap());
+        }
+        m.put("operations", ops);
+        Map<String,Object> t = new TreeMap<>();
+        for(Map.Entry<String,LatencyHistogram> timer : timers.entrySet()) {
+            t.put(timer.getKey(), timer.getValue().toMap());
+        }
+        m.put("timers", t);
+        m.put("errors", getErrorCounts());
+        m.put("deadLetters", getDeadLetters());
+        return m;
+    }
+
+    @Override
+    public Map<String,Long> getCounts() {
+        Map<String,Long> m = new TreeMap<>();
+        for(Map.Entry<String,LatencyHistogram> h : histograms()) {
+            m.put(h.getKey(), h.getValue().getCount());
+        }
+        return m;
+    }
+
+    @Override
+    public Map<String,Double> getMeanMicros() {
+        Map<String,Double> m = new TreeMap<>();
+        for(Map.Entry<String,LatencyHistogram> h : histograms()) {
+            m.put(h.getKey(), h.getValue().getMeanNanos() / 1000.0);
+        }
+        return m;
+    }
+
+    @Override
+    public Map<String,Double> getP50Micros() {
+        return percentileMicros(50);
+    }
+
+    @Override
+    public Map<String,Double> getP99Micros() {
+        return percentileMicros(99);
+    }
+
+    @Override
+    public Map<String,Double> getMaxMicros() {
+        Map<String,Double> m = new TreeMap<>();
+        for(Map.Entry<String,LatencyHistogram> h : histograms()) {
+            m.put(h.getKey(), h.getValue().getMaxNanos() / 1000.0);
+        }
+        return m;
+    }
+
+    @Override
+    public Map<String,Long> getErrorCounts() {
+        Map<String,Long> m = new TreeMap<>();
+        for(Map.Entry<Class<?>,AtomicLongArray> e : errors.entrySet()) {
+            Map<Integer,String> names = null;
+            AtomicLongArray counts = e.getValue();
+            for(int code=0; code<counts.length(); code++) {
+                long n = counts.get(code);
+                if(n == 0) continue;
+                if(names == null) names = errorNames(e.getKey());
+                String name = names.get(code);
+                m.put(e.getKey().getSimpleName()+"."+(name == null ? String.valueOf(code) : name), n);
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public long getDeadLetters() {
+        return deadLetters.get();
+    }
+
+    @Override
+    public void reset() {
+        for(LatencyHistogram h : operations.values()) {
+            h.reset();
+        }
+        for(LatencyHistogram h : timers.values()) {
+            h.reset();
+        }
+        for(AtomicLongArray counts : errors.values()) {
+            for(int i=0; i<counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+        deadLetters.set(0);
+    }
+
+    /**
+     * Registers with the platform MBean server under the given object name.
+     * @return false if it could not be registered
+     */
+    public synchronized boolean registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(name);
+            if(server.isRegistered(on))
+                server.unregisterMBean(on);
+            server.registerMBean(this, on);
+            objectName = on;
+            return true;
+        } catch (JMException e) {
+            LOG.warning("Unable to register DID metrics MBean: "+e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if(objectName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOG.warning("Unable to unregister DID metrics MBean: "+e.getLocalizedMessage());
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String toString() {
+        return "DIDMetrics"+toMap();
+    }
+
+    private Map<String,Double> percentileMicros(double percentile) {
+        Map<String,Double> m = new TreeMap<>();
+        for(Map.Entry<String,LatencyHistogram> h : histograms()) {
+            m.put(h.getKey(), h.getValue().getValueAtPercentile(percentile) / 1000.0);
+        }
+        return m;
+    }
+
+    private List<Map.Entry<String,LatencyHistogram>> histograms() {
+        List<Map.Entry<String,LatencyHistogram>> l = new ArrayList<>(operations.entrySet());
+        l.addAll(timers.entrySet());
+        return l;
+    }
+
+    /**
+     * Names of the public static int fields of the class and its superclasses by value;
+     * superclass names win so shared codes such as REQUEST_REQUIRED keep their common name.
+     */
+    private static Map<Integer,String> errorNames(Class<?> requestClass) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for(Class<?> c = requestClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        Map<Integer,String> names = new HashMap<>();
+        for(Class<?> c : hierarchy) {
+            for(Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if(!Modifier.isPublic(mod) || !Modifier.isStatic(mod) || f.getType() != int.class)
+                    continue;
+                try {
+                    int code = f.getInt(null);
+                    if(!names.containsKey(code))
+                        names.put(code, f.getName());
+                } catch (IllegalAccessException e) {
+                    // public field
+                }
+            }
+        }
+        return names;
+    }
+}
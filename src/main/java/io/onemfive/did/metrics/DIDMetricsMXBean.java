@@ -0,0 +1,30 @@
+package io.onemfive.did.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link DIDMetrics}. Latency maps are keyed by operation and timer name.
+ *
+ * @author objectorange
+ */
+public interface DIDMetricsMXBean {
+
+    Map<String,Long> getCounts();
+
+    Map<String,Double> getMeanMicros();
+
+    Map<String,Double> getP50Micros();
+
+    Map<String,Double> getP99Micros();
+
+    Map<String,Double> getMaxMicros();
+
+    /**
+     * @return error counts keyed by request class and error code name, e.g. AuthenticateDIDRequest.DID_USERNAME_UNKNOWN
+     */
+    Map<String,Long> getErrorCounts();
+
+    long getDeadLetters();
+
+    void reset();
+}
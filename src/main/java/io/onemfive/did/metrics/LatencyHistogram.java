@@ -0,0 +1,130 @@
+package io.onemfive.did.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram in nanoseconds with log-linear buckets in the style of
+ * HdrHistogram: each power of two is split into {@value #SUB_BUCKETS} linear sub-buckets
+ * so any recorded value is reported within about 3% of its true value, from 1 ns to about
+ * 36 minutes in a fixed 1,184 counters.
+ *
+ * Recording is a few atomic increments into preallocated arrays and allocates nothing, so
+ * it can stay on under full load. Reads are not atomic snapshots; counts recorded while a
+ * percentile is computed may or may not be included.
+ *
+ * @author objectorange
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(Math.min(nanos, MAX_VALUE)));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long m = max.get();
+        while(nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0.0 : (double)total.get() / n;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the highest value equivalent to the bucket the percentile falls in
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for(int i=0; i<BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0) return 0;
+        long target = Math.max(1, (long)Math.ceil(Math.min(100.0, percentile) / 100.0 * n));
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= target)
+                return Math.min(highestEquivalentValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for(int i=0; i<BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Summary in microseconds: count, mean, p50, p90, p99, p999 and max.
+     */
+    public Map<String,Object> toMap() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("count", getCount());
+        m.put("meanMicros", getMeanNanos() / 1000.0);
+        m.put("p50Micros", getValueAtPercentile(50) / 1000.0);
+        m.put("p90Micros", getValueAtPercentile(90) / 1000.0);
+        m.put("p99Micros", getValueAtPercentile(99) / 1000.0);
+        m.put("p999Micros", getValueAtPercentile(99.9) / 1000.0);
+        m.put("maxMicros", getMaxNanos() / 1000.0);
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram"+toMap();
+    }
+
+    static int index(long value) {
+        if(value < 2 * SUB_BUCKETS)
+            return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if(index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,842 @@
+package io.onemfive.did.trust;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Web of trust: who vouched for whom, with bounded-depth transitive trust scores.
+ *
+ * Usernames are mapped to int ids and edges kept in primitive arrays in compressed sparse
+ * row form, outgoing and incoming, plus small per-node lists of edges added since the rows
+ * were last rebuilt; removed edges are zero-weighted in the rows until the next rebuild.
+ *
+ * Trust along a path is the product of its edge weights each decayed once per hop. Trust
+ * of a DID is the best trust over paths of at most the maximum depth from any anchor, the
+ * DIDs trusted outright. It is held per depth: trust within k hops depends only on trust
+ * within k-1 hops, so adding or removing an edge recomputes just the DIDs whose trust may
+ * change, depth by depth, instead of the whole graph. Trust between any two DIDs is found
+ * by searching half the depth forward from one and half backward from the other.
+ *
+ * A withdrawn vouch is removed and the time it was withdrawn remembered, so that vouches the
+ * signer made for the signee until then are known not to count any more.
+ *
+ * Safe for concurrent use: queries share a read lock and updates take the write lock.
+ *
+ * @author objectorange
+ */
+public final class TrustGraph {
+
+    public static final int DEFAULT_MAX_DEPTH = 3;
+    public static final float DEFAULT_DECAY = 0.5f;
+
+    private final int maxDepth;
+    private final float decay;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String,Integer> ids = new HashMap<>();
+    private final List<String> usernames = new ArrayList<>();
+
+    // compressed rows; node ids at or past rowCount have no row yet
+    private int rowCount;
+    private int[] outOffsets = new int[1];
+    private int[] outTargets = new int[0];
+    private float[] outWeights = new float[0];
+    private int[] inOffsets = new int[1];
+    private int[] inSources = new int[0];
+    private float[] inWeights = new float[0];
+    private int removedInRows;
+
+    // edges added since the rows were built
+    private EdgeList[] outAdded = new EdgeList[16];
+    private EdgeList[] inAdded = new EdgeList[16];
+    private int addedCount;
+
+    private boolean[] anchors = new boolean[16];
+    // withdrawn vouches by signer id in the high and signee id in the low half, to when
+    private final Map<Long,Long> revoked = new HashMap<>();
+    // trust[k][id]: best trust over paths of at most k hops from an anchor
+    private float[][] trust;
+    private int edgeCount;
+
+    // marks ids queued at a depth in the current update
+    private int[] queued = new int[16];
+    private int updateStamp;
+
+    public TrustGraph() {
+        this(DEFAULT_MAX_DEPTH, DEFAULT_DECAY);
+    }
+
+    /**
+     * @param maxDepth longest path in hops that carries trust
+     * @param decay factor applied to trust at every hop, in (0,1]
+     */
+    public TrustGraph(int maxDepth, float decay) {
+        this.maxDepth = Math.max(1, maxDepth);
+        this.decay = Math.max(Float.MIN_VALUE, Math.min(1, decay));
+        this.trust = new float[this.maxDepth + 1][16];
+    }
+
+    /**
+     * Trusts the DID outright.
+     */
+    public void addAnchor(String username) {
+        lock.writeLock().lock();
+        try {
+            int a = id(username);
+            if(anchors[a]) return;
+            anchors[a] = true;
+            Update u = new Update();
+            for(int k=0; k<=maxDepth; k++) {
+                trust[k][a] = 1;
+            }
+            queueOut(u, 1, a);
+            u.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops trusting the DID outright; trust reaching it through vouches is kept.
+     * @return false if it was not an anchor
+     */
+    public boolean removeAnchor(String username) {
+        lock.writeLock().lock();
+        try {
+            Integer a = ids.get(username);
+            if(a == null || !anchors[a]) return false;
+            anchors[a] = false;
+            trust[0][a] = 0;
+            Update u = new Update();
+            for(int k=1; k<=maxDepth; k++) {
+                u.queue(k, a);
+            }
+            queueOut(u, 1, a);
+            u.run();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isAnchor(String username) {
+        lock.readLock().lock();
+        try {
+            Integer a = ids.get(username);
+            return a != null && anchors[a];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or reweights the signer's vouch for the signee.
+     * @param weight trust the signer places in the signee, in (0,1]
+     */
+    public void addEdge(String signer, String signee, float weight) {
+        if(signer.equals(signee)) return;
+        float w = Math.max(0, Math.min(1, weight));
+        lock.writeLock().lock();
+        try {
+            int from = id(signer);
+            int to = id(signee);
+            if(!setWeight(from, to, w)) {
+                if(w == 0) return;
+                outList(from).add(to, w);
+                inList(to).add(from, w);
+                addedCount++;
+                edgeCount++;
+            }
+            edgeChanged(to);
+            rebuildIfFragmented();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the signer's vouch for the signee unless it already has one, keeping its weight.
+     * @param weight trust the signer places in the signee, in (0,1]
+     * @return false if there already was such a vouch
+     */
+    public boolean addEdgeIfAbsent(String signer, String signee, float weight) {
+        if(signer.equals(signee)) return false;
+        float w = Math.max(0, Math.min(1, weight));
+        if(w == 0) return false;
+        lock.writeLock().lock();
+        try {
+            int from = id(signer);
+            int to = id(signee);
+            if(weight(from, to) > 0)
+                return false;
+            outList(from).add(to, w);
+            inList(to).add(from, w);
+            addedCount++;
+            edgeCount++;
+            edgeChanged(to);
+            rebuildIfFragmented();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return weight of the signer's vouch for the signee, 0 if there is none
+     */
+    public float weight(String signer, String signee) {
+        lock.readLock().lock();
+        try {
+            Integer from = ids.get(signer);
+            Integer to = ids.get(signee);
+            return from == null || to == null ? 0 : weight(from, to);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the signer's vouch for the signee.
+     * @return false if there was none
+     */
+    public boolean removeEdge(String signer, String signee) {
+        lock.writeLock().lock();
+        try {
+            Integer from = ids.get(signer);
+            Integer to = ids.get(signee);
+            if(from == null || to == null || !setWeight(from, to, 0))
+                return false;
+            edgeChanged(to);
+            rebuildIfFragmented();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the signer's vouch for the signee as withdrawn at the time, remembered even if
+     * there was no such vouch.
+     * @return false if there was none
+     */
+    public boolean revokeEdge(String signer, String signee, long revokedAt) {
+        lock.writeLock().lock();
+        try {
+            int from = id(signer);
+            int to = id(signee);
+            Long key = ((long)from << 32) | to;
+            Long earlier = revoked.get(key);
+            if(earlier == null || earlier < revokedAt)
+                revoked.put(key, revokedAt);
+            if(!setWeight(from, to, 0))
+                return false;
+            edgeChanged(to);
+            rebuildIfFragmented();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return when the signer last withdrew a vouch for the signee, 0 if never
+     */
+    public long revokedAt(String signer, String signee) {
+        lock.readLock().lock();
+        try {
+            Integer from = ids.get(signer);
+            Integer to = ids.get(signee);
+            if(from == null || to == null) return 0;
+            Long at = revoked.get(((long)from << 32) | to);
+            return at == null ? 0 : at;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every vouch the signer made, e.g. once it is revoked, so no trust passes through it.
+     * @return the signees it had vouched for
+     */
+    public List<String> removeEdgesFrom(String signer) {
+        lock.writeLock().lock();
+        try {
+            Integer from = ids.get(signer);
+            if(from == null)
+                return Collections.emptyList();
+            List<Integer> targets = new ArrayList<>();
+            if(from < rowCount) {
+                for(int i=outOffsets[from]; i<outOffsets[from+1]; i++) {
+                    if(outWeights[i] > 0) targets.add(outTargets[i]);
+                }
+            }
+            EdgeList added = outAdded[from];
+            if(added != null) {
+                for(int i=0; i<added.size; i++) {
+                    targets.add(added.nodes[i]);
+                }
+            }
+            List<String> signees = new ArrayList<>(targets.size());
+            for(int to : targets) {
+                setWeight(from, to, 0);
+                edgeChanged(to);
+                signees.add(usernames.get(to));
+            }
+            rebuildIfFragmented();
+            return signees;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return trust of the DID from the anchors, 0 if none within the maximum depth
+     */
+    public float trust(String username) {
+        lock.readLock().lock();
+        try {
+            Integer v = ids.get(username);
+            return v == null ? 0 : trust[maxDepth][v];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return usernames on the path carrying the DID's trust from an anchor, empty if it has none
+     */
+    public List<String> trustPath(String username) {
+        lock.readLock().lock();
+        try {
+            Integer v = ids.get(username);
+            if(v == null || trust[maxDepth][v] == 0)
+                return Collections.emptyList();
+            List<String> path = new ArrayList<>();
+            int node = v;
+            int k = maxDepth;
+            while(true) {
+                while(k > 0 && trust[k-1][node] == trust[k][node]) k--;
+                path.add(usernames.get(node));
+                if(k == 0) break;
+                int parent = bestParent(k, node);
+                if(parent < 0) break;
+                node = parent;
+                k--;
+            }
+            Collections.reverse(path);
+            return path;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Best trust the first DID has in the second over paths of at most the maximum depth.
+     * @return the trust and path, or a result of 0 trust and no path if there is none
+     */
+    public Result trust(String from, String to) {
+        lock.readLock().lock();
+        try {
+            Integer s = ids.get(from);
+            Integer t = ids.get(to);
+            if(s == null || t == null)
+                return new Result(0, Collections.<String>emptyList());
+            if(s.equals(t))
+                return new Result(1, Collections.singletonList(from));
+            Search forward = new Search(s, (maxDepth + 1) / 2, true);
+            Search backward = new Search(t, maxDepth / 2, false);
+            float best = 0;
+            int meet = -1;
+            Map<Integer,Float> smaller = forward.best.size() <= backward.best.size() ? forward.best : backward.best;
+            Map<Integer,Float> larger = smaller == forward.best ? backward.best : forward.best;
+            for(Map.Entry<Integer,Float> e : smaller.entrySet()) {
+                Float other = larger.get(e.getKey());
+                if(other != null && e.getValue() * other > best) {
+                    best = e.getValue() * other;
+                    meet = e.getKey();
+                }
+            }
+            if(meet < 0)
+                return new Result(0, Collections.<String>emptyList());
+            List<String> path = forward.pathTo(meet);
+            List<String> back = backward.pathTo(meet);
+            Collections.reverse(path);
+            for(int i=1; i<back.size(); i++) {
+                path.add(back.get(i));
+            }
+            return new Result(best, path);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every vouch in the graph, e.g. to export it, holding the read lock throughout.
+     */
+    public void forEachEdge(EdgeVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(int from=0; from<usernames.size(); from++) {
+                if(from < rowCount) {
+                    for(int i=outOffsets[from]; i<outOffsets[from+1]; i++) {
+                        if(outWeights[i] > 0)
+                            visitor.edge(usernames.get(from), usernames.get(outTargets[i]), outWeights[i]);
+                    }
+                }
+                EdgeList added = outAdded[from];
+                if(added != null) {
+                    for(int i=0; i<added.size; i++) {
+                        visitor.edge(usernames.get(from), usernames.get(added.nodes[i]), added.weights[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> getAnchors() {
+        lock.readLock().lock();
+        try {
+            List<String> a = new ArrayList<>();
+            for(int i=0; i<usernames.size(); i++) {
+                if(anchors[i]) a.add(usernames.get(i));
+            }
+            return a;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getNodeCount() {
+        lock.readLock().lock();
+        try {
+            return usernames.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getEdgeCount() {
+        lock.readLock().lock();
+        try {
+            return edgeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "TrustGraph{nodes="+getNodeCount()+", edges="+getEdgeCount()+", maxDepth="+maxDepth+", decay="+decay+"}";
+    }
+
+    public interface EdgeVisitor {
+        void edge(String signer, String signee, float weight);
+    }
+
+    /**
+     * Trust and the usernames on the path carrying it.
+     */
+    public static final class Result {
+        public final float trust;
+        public final List<String> path;
+
+        Result(float trust, List<String> path) {
+            this.trust = trust;
+            this.path = path;
+        }
+    }
+
+    private int id(String username) {
+        Integer id = ids.get(username);
+        if(id != null) return id;
+        int n = usernames.size();
+        ids.put(username, n);
+        usernames.add(username);
+        if(n >= anchors.length) {
+            int capacity = anchors.length * 2;
+            anchors = Arrays.copyOf(anchors, capacity);
+            outAdded = Arrays.copyOf(outAdded, capacity);
+            inAdded = Arrays.copyOf(inAdded, capacity);
+            queued = Arrays.copyOf(queued, capacity);
+            for(int k=0; k<=maxDepth; k++) {
+                trust[k] = Arrays.copyOf(trust[k], capacity);
+            }
+        }
+        return n;
+    }
+
+    private float weight(int from, int to) {
+        if(from < rowCount) {
+            for(int i=outOffsets[from]; i<outOffsets[from+1]; i++) {
+                if(outTargets[i] == to && outWeights[i] > 0)
+                    return outWeights[i];
+            }
+        }
+        EdgeList out = outAdded[from];
+        return out == null ? 0 : out.get(to);
+    }
+
+    /**
+     * Sets the weight of an existing edge in both directions.
+     * @return false if there is no such edge
+     */
+    private boolean setWeight(int from, int to, float w) {
+        boolean found = false;
+        if(from < rowCount) {
+            for(int i=outOffsets[from]; i<outOffsets[from+1]; i++) {
+                if(outTargets[i] == to && outWeights[i] > 0) {
+                    outWeights[i] = w;
+                    found = true;
+                    break;
+                }
+            }
+        }
+        if(found) {
+            for(int i=inOffsets[to]; i<inOffsets[to+1]; i++) {
+                if(inSources[i] == from && inWeights[i] > 0) {
+                    inWeights[i] = w;
+                    break;
+                }
+            }
+            if(w == 0) {
+                removedInRows++;
+                edgeCount--;
+            }
+            return true;
+        }
+        EdgeList out = outAdded[from];
+        if(out == null || !out.set(to, w))
+            return false;
+        inAdded[to].set(from, w);
+        if(w == 0) {
+            out.remove(to);
+            inAdded[to].remove(from);
+            addedCount--;
+            edgeCount--;
+        }
+        return true;
+    }
+
+    private EdgeList outList(int id) {
+        if(outAdded[id] == null) outAdded[id] = new EdgeList();
+        return outAdded[id];
+    }
+
+    private EdgeList inList(int id) {
+        if(inAdded[id] == null) inAdded[id] = new EdgeList();
+        return inAdded[id];
+    }
+
+    /**
+     * An edge into the node changed so its trust at every depth may have.
+     */
+    private void edgeChanged(int to) {
+        Update u = new Update();
+        for(int k=1; k<=maxDepth; k++) {
+            u.queue(k, to);
+        }
+        u.run();
+    }
+
+    private void queueOut(Update u, int k, int node) {
+        if(node < rowCount) {
+            for(int i=outOffsets[node]; i<outOffsets[node+1]; i++) {
+                if(outWeights[i] > 0) u.queue(k, outTargets[i]);
+            }
+        }
+        EdgeList added = outAdded[node];
+        if(added != null) {
+            for(int i=0; i<added.size; i++) {
+                u.queue(k, added.nodes[i]);
+            }
+        }
+    }
+
+    /**
+     * Best trust within k hops from the node's trust within k-1 hops and that of its vouchers.
+     */
+    private float recompute(int k, int node) {
+        if(anchors[node]) return 1;
+        float[] prev = trust[k-1];
+        float best = prev[node];
+        if(node < rowCount) {
+            for(int i=inOffsets[node]; i<inOffsets[node+1]; i++) {
+                float t = prev[inSources[i]] * inWeights[i] * decay;
+                if(t > best) best = t;
+            }
+        }
+        EdgeList added = inAdded[node];
+        if(added != null) {
+            for(int i=0; i<added.size; i++) {
+                float t = prev[added.nodes[i]] * added.weights[i] * decay;
+                if(t > best) best = t;
+            }
+        }
+        return best;
+    }
+
+    private int bestParent(int k, int node) {
+        float[] prev = trust[k-1];
+        float target = trust[k][node];
+        if(node < rowCount) {
+            for(int i=inOffsets[node]; i<inOffsets[node+1]; i++) {
+                if(inWeights[i] > 0 && prev[inSources[i]] * inWeights[i] * decay == target) return inSources[i];
+            }
+        }
+        EdgeList added = inAdded[node];
+        if(added != null) {
+            for(int i=0; i<added.size; i++) {
+                if(prev[added.nodes[i]] * added.weights[i] * decay == target) return added.nodes[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Folds added edges into the rows and drops removed ones once either is a quarter of the rows.
+     */
+    private void rebuildIfFragmented() {
+        int rowEdges = outTargets.length;
+        if(addedCount + removedInRows < 64 || (addedCount + removedInRows) * 4 < rowEdges)
+            return;
+        int n = usernames.size();
+        int[] outDegree = new int[n];
+        int[] inDegree = new int[n];
+        for(int u=0; u<n; u++) {
+            if(u < rowCount) {
+                for(int i=outOffsets[u]; i<outOffsets[u+1]; i++) {
+                    if(outWeights[i] > 0) {
+                        outDegree[u]++;
+                        inDegree[outTargets[i]]++;
+                    }
+                }
+            }
+            EdgeList added = outAdded[u];
+            if(added != null) {
+                for(int i=0; i<added.size; i++) {
+                    outDegree[u]++;
+                    inDegree[added.nodes[i]]++;
+                }
+            }
+        }
+        int[] newOutOffsets = new int[n + 1];
+        int[] newInOffsets = new int[n + 1];
+        for(int u=0; u<n; u++) {
+            newOutOffsets[u+1] = newOutOffsets[u] + outDegree[u];
+            newInOffsets[u+1] = newInOffsets[u] + inDegree[u];
+        }
+        int[] newOutTargets = new int[newOutOffsets[n]];
+        float[] newOutWeights = new float[newOutOffsets[n]];
+        int[] newInSources = new int[newInOffsets[n]];
+        float[] newInWeights = new float[newInOffsets[n]];
+        int[] inFill = Arrays.copyOf(newInOffsets, n);
+        for(int u=0; u<n; u++) {
+            int o = newOutOffsets[u];
+            if(u < rowCount) {
+                for(int i=outOffsets[u]; i<outOffsets[u+1]; i++) {
+                    if(outWeights[i] > 0) {
+                        int v = outTargets[i];
+                        newOutTargets[o] = v;
+                        newOutWeights[o++] = outWeights[i];
+                        newInSources[inFill[v]] = u;
+                        newInWeights[inFill[v]++] = outWeights[i];
+                    }
+                }
+            }
+            EdgeList added = outAdded[u];
+            if(added != null) {
+                for(int i=0; i<added.size; i++) {
+                    int v = added.nodes[i];
+                    newOutTargets[o] = v;
+                    newOutWeights[o++] = added.weights[i];
+                    newInSources[inFill[v]] = u;
+                    newInWeights[inFill[v]++] = added.weights[i];
+                }
+            }
+        }
+        outOffsets = newOutOffsets;
+        outTargets = newOutTargets;
+        outWeights = newOutWeights;
+        inOffsets = newInOffsets;
+        inSources = newInSources;
+        inWeights = newInWeights;
+        rowCount = n;
+        Arrays.fill(outAdded, null);
+        Arrays.fill(inAdded, null);
+        addedCount = 0;
+        removedInRows = 0;
+    }
+
+    /**
+     * Recomputes queued nodes depth by depth; a node whose trust changes queues itself and
+     * the nodes it vouched for at the next depth.
+     */
+    private final class Update {
+        private final int[][] pending = new int[maxDepth + 1][];
+        private final int[] pendingSize = new int[maxDepth + 1];
+        private final int stamp;
+
+        private Update() {
+            if(updateStamp > Integer.MAX_VALUE - 2 * (maxDepth + 1)) {
+                Arrays.fill(queued, 0);
+                updateStamp = 0;
+            }
+            stamp = updateStamp;
+            updateStamp += maxDepth + 1;
+        }
+
+        private void queue(int k, int node) {
+            // a node queued again at another depth may be recomputed twice, which is harmless
+            int mark = stamp + k;
+            if(queued[node] == mark) return;
+            int[] p = pending[k];
+            if(p == null) p = pending[k] = new int[8];
+            if(pendingSize[k] == p.length) p = pending[k] = Arrays.copyOf(p, p.length * 2);
+            p[pendingSize[k]++] = node;
+            queued[node] = mark;
+        }
+
+        private void run() {
+            for(int k=1; k<=maxDepth; k++) {
+                int[] p = pending[k];
+                for(int i=0; i<pendingSize[k]; i++) {
+                    int node = p[i];
+                    float t = recompute(k, node);
+                    if(t != trust[k][node]) {
+                        trust[k][node] = t;
+                        if(k < maxDepth) {
+                            queue(k+1, node);
+                            queueOut(this, k+1, node);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bounded search for the best trust within the depth from or to one node.
+     */
+    private final class Search {
+        private final Map<Integer,Float> best = new HashMap<>();
+        private final Map<Integer,Integer> parent = new HashMap<>();
+
+        private Search(int start, int depth, boolean forward) {
+            best.put(start, 1f);
+            Map<Integer,Float> frontier = Collections.singletonMap(start, 1f);
+            for(int d=0; d<depth && !frontier.isEmpty(); d++) {
+                Map<Integer,Float> next = new HashMap<>();
+                for(Map.Entry<Integer,Float> e : frontier.entrySet()) {
+                    int node = e.getKey();
+                    if(forward) {
+                        if(node < rowCount) {
+                            for(int i=outOffsets[node]; i<outOffsets[node+1]; i++) {
+                                relax(next, node, outTargets[i], e.getValue() * outWeights[i] * decay);
+                            }
+                        }
+                        EdgeList added = outAdded[node];
+                        if(added != null) {
+                            for(int i=0; i<added.size; i++) {
+                                relax(next, node, added.nodes[i], e.getValue() * added.weights[i] * decay);
+                            }
+                        }
+                    } else {
+                        if(node < rowCount) {
+                            for(int i=inOffsets[node]; i<inOffsets[node+1]; i++) {
+                                relax(next, node, inSources[i], e.getValue() * inWeights[i] * decay);
+                            }
+                        }
+                        EdgeList added = inAdded[node];
+                        if(added != null) {
+                            for(int i=0; i<added.size; i++) {
+                                relax(next, node, added.nodes[i], e.getValue() * added.weights[i] * decay);
+                            }
+                        }
+                    }
+                }
+                frontier = next;
+            }
+        }
+
+        private void relax(Map<Integer,Float> next, int from, int to, float t) {
+            if(t <= 0) return;
+            Float current = best.get(to);
+            if(current == null || t > current) {
+                best.put(to, t);
+                parent.put(to, from);
+                next.put(to, t);
+            }
+        }
+
+        /**
+         * @return usernames from the node back to the start
+         */
+        private List<String> pathTo(int node) {
+            List<String> path = new ArrayList<>();
+            Integer n = node;
+            while(n != null) {
+                path.add(usernames.get(n));
+                n = parent.get(n);
+            }
+            return path;
+        }
+    }
+
+    /**
+     * Growable primitive list of neighbor ids and edge weights.
+     */
+    private static final class EdgeList {
+        private int[] nodes = new int[4];
+        private float[] weights = new float[4];
+        private int size;
+
+        private void add(int node, float weight) {
+            if(size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            nodes[size] = node;
+            weights[size++] = weight;
+        }
+
+        private float get(int node) {
+            for(int i=0; i<size; i++) {
+                if(nodes[i] == node) return weights[i];
+            }
+            return 0;
+        }
+
+        private boolean set(int node, float weight) {
+            for(int i=0; i<size; i++) {
+                if(nodes[i] == node) {
+                    weights[i] = weight;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void remove(int node) {
+            for(int i=0; i<size; i++) {
+                if(nodes[i] == node) {
+                    size--;
+                    nodes[i] = nodes[size];
+                    weights[i] = weights[size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.onemfive.did.trust;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Append-only file of changes to a {@link TrustGraph} so it survives restarts.
+ *
+ * Records are an anchor, a removed anchor, an edge with its weight, a removed edge or an
+ * edge withdrawn by its signer with when. Opening the log replays it into the graph and
+ * rewrites it with just the live anchors, edges and withdrawals once records of removed or
+ * reweighted ones outnumber them, or if it ends in a partial record.
+ *
+ * @author objectorange
+ */
+public final class TrustLog {
+
+    private static final Logger LOG = Logger.getLogger(TrustLog.class.getName());
+
+    private static final byte ANCHOR = 'A';
+    private static final byte EDGE = 'E';
+    private static final byte REMOVED = 'R';
+    private static final byte UNANCHORED = 'U';
+    private static final byte WITHDRAWN = 'W';
+
+    private final Path file;
+    private DataOutputStream out;
+
+    private TrustLog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the log at the file into the graph and opens it for appending.
+     */
+    public static TrustLog open(Path file, TrustGraph graph) throws IOException {
+        if(file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Set<String> anchors = new LinkedHashSet<>();
+        Map<List<String>,Float> edges = new LinkedHashMap<>();
+        Map<List<String>,Long> withdrawn = new LinkedHashMap<>();
+        int records = 0;
+        boolean partial = false;
+        if(Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while(true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    try {
+                        String signer = in.readUTF();
+                        if(type == ANCHOR) {
+                            anchors.add(signer);
+                        } else if(type == UNANCHORED) {
+                            anchors.remove(signer);
+                        } else {
+                            List<String> edge = edge(signer, in.readUTF());
+                            if(type == EDGE) {
+                                edges.put(edge, in.readFloat());
+                            } else if(type == WITHDRAWN) {
+                                long at = in.readLong();
+                                edges.remove(edge);
+                                Long earlier = withdrawn.get(edge);
+                                withdrawn.put(edge, earlier == null ? at : Math.max(earlier, at));
+                            } else {
+                                edges.remove(edge);
+                            }
+                        }
+                        records++;
+                    } catch (EOFException e) {
+                        LOG.warning("Trust log "+file+" ends in a partial record; dropping it.");
+                        partial = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for(Map.Entry<List<String>,Long> w : withdrawn.entrySet()) {
+            graph.revokeEdge(w.getKey().get(0), w.getKey().get(1), w.getValue());
+        }
+        // edges first so trust spreads from each anchor once rather than on every edge
+        for(Map.Entry<List<String>,Float> e : edges.entrySet()) {
+            graph.addEdge(e.getKey().get(0), e.getKey().get(1), e.getValue());
+        }
+        for(String a : anchors) {
+            graph.addAnchor(a);
+        }
+        TrustLog log = new TrustLog(file);
+        int live = anchors.size() + edges.size() + withdrawn.size();
+        // also rewritten after a partial record so appends do not follow it
+        if(partial || records - live > live) {
+            log.rewrite(anchors, edges, withdrawn);
+            LOG.info("Trust log compacted from "+records+" to "+live+" records.");
+        }
+        log.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        return log;
+    }
+
+    public synchronized void anchor(String username) throws IOException {
+        out.writeByte(ANCHOR);
+        out.writeUTF(username);
+        out.flush();
+    }
+
+    public synchronized void unanchored(String username) throws IOException {
+        out.writeByte(UNANCHORED);
+        out.writeUTF(username);
+        out.flush();
+    }
+
+    public synchronized void added(String signer, String signee, float weight) throws IOException {
+        out.writeByte(EDGE);
+        out.writeUTF(signer);
+        out.writeUTF(signee);
+        out.writeFloat(weight);
+        out.flush();
+    }
+
+    public synchronized void removed(String signer, String signee) throws IOException {
+        out.writeByte(REMOVED);
+        out.writeUTF(signer);
+        out.writeUTF(signee);
+        out.flush();
+    }
+
+    /**
+     * The signer withdrew its vouch for the signee at the time.
+     */
+    public synchronized void removed(String signer, String signee, long withdrawnAt) throws IOException {
+        out.writeByte(WITHDRAWN);
+        out.writeUTF(signer);
+        out.writeUTF(signee);
+        out.writeLong(withdrawnAt);
+        out.flush();
+    }
+
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.warning("Unable to close trust log "+file+": "+e.getLocalizedMessage());
+        }
+    }
+
+    private void rewrite(Set<String> anchors, Map<List<String>,Float> edges, Map<List<String>,Long> withdrawn)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for(String a : anchors) {
+                o.writeByte(ANCHOR);
+                o.writeUTF(a);
+            }
+            // before the edges so a vouch made again after it was withdrawn is kept
+            for(Map.Entry<List<String>,Long> w : withdrawn.entrySet()) {
+                o.writeByte(WITHDRAWN);
+                o.writeUTF(w.getKey().get(0));
+                o.writeUTF(w.getKey().get(1));
+                o.writeLong(w.getValue());
+            }
+            for(Map.Entry<List<String>,Float> e : edges.entrySet()) {
+                o.writeByte(EDGE);
+                o.writeUTF(e.getKey().get(0));
+                o.writeUTF(e.getKey().get(1));
+                o.writeFloat(e.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<String> edge(String signer, String signee) {
+        List<String> edge = new ArrayList<>(2);
+        edge.add(signer);
+        edge.add(signee);
+        return edge;
+    }
+}
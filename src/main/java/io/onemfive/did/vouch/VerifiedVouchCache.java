@@ -0,0 +1,116 @@
+package io.onemfive.did.vouch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of vouches whose signatures have been verified so verifying the same
+ * attestation again is a lookup instead of a signature check.
+ *
+ * Entries are keyed by signature and hold the signer, signer key, signee, attributes digest,
+ * time signed and weight it was verified for; a vouch only hits if all of them are equal. Like
+ * {@link io.onemfive.did.dao.DIDCache} the cache is split into access-ordered segments each
+ * guarded by its own monitor and evicting its least recently used entry once full.
+ *
+ * @author objectorange
+ */
+public class VerifiedVouchCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of vouches held; 0 disables caching
+     */
+    public VerifiedVouchCache(int maxSize) {
+        int segmentCount = 1;
+        while(segmentCount < 16 && segmentCount * 64 < maxSize) segmentCount <<= 1;
+        segments = new Segment[segmentCount];
+        int perSegment = maxSize / segmentCount;
+        int remainder = maxSize % segmentCount;
+        for(int i=0; i<segmentCount; i++) {
+            segments[i] = new Segment(perSegment + (i < remainder ? 1 : 0));
+        }
+    }
+
+    public boolean contains(Vouch vouch) {
+        ByteBuffer key = ByteBuffer.wrap(vouch.getSignature());
+        Segment s = segmentFor(key);
+        Vouch cached;
+        synchronized (s) {
+            cached = s.map.get(key);
+        }
+        boolean hit = cached != null && sameAttestation(cached, vouch);
+        (hit ? hits : misses).incrementAndGet();
+        return hit;
+    }
+
+    void put(Vouch vouch) {
+        ByteBuffer key = ByteBuffer.wrap(vouch.getSignature());
+        Segment s = segmentFor(key);
+        if(s.maxSize == 0) return;
+        synchronized (s) {
+            s.map.put(key, vouch);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for(Segment s : segments) {
+            synchronized (s) {
+                size += s.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "VerifiedVouchCache{size="+size()+", hits="+getHits()+", misses="+getMisses()+"}";
+    }
+
+    private static boolean sameAttestation(Vouch a, Vouch b) {
+        return a.getSignedAt() == b.getSignedAt()
+                && a.getWeight() == b.getWeight()
+                && a.getSigner().equals(b.getSigner())
+                && a.getSignee().equals(b.getSignee())
+                && Arrays.equals(a.getSignerPublicKey(), b.getSignerPublicKey())
+                && Arrays.equals(a.getAttributesDigest(), b.getAttributesDigest());
+    }
+
+    private Segment segmentFor(ByteBuffer key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static final class Segment {
+        private final int maxSize;
+        private final LinkedHashMap<ByteBuffer,Vouch> map;
+
+        private Segment(final int maxSize) {
+            this.maxSize = maxSize;
+            this.map = new LinkedHashMap<ByteBuffer,Vouch>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteBuffer,Vouch> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+    }
+}
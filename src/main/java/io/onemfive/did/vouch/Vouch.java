@@ -0,0 +1,99 @@
+package io.onemfive.did.vouch;
+
+import io.onemfive.data.util.Base64;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Signed attestation by a signer DID of attributes of a signee DID.
+ *
+ * The signature covers the usernames, the digest of the attributes in their canonical
+ * form, the time signed and the trust the signer places in the signee; see {@link VouchSigner}.
+ *
+ * @author objectorange
+ */
+public class Vouch {
+
+    private String signer;
+    private String signee;
+    private byte[] signerPublicKey;
+    private byte[] attributesDigest;
+    private long signedAt;
+    private float weight = 1;
+    private byte[] signature;
+
+    public Vouch() {}
+
+    public Vouch(String signer, String signee, byte[] signerPublicKey, byte[] attributesDigest, long signedAt, byte[] signature) {
+        this.signer = signer;
+        this.signee = signee;
+        this.signerPublicKey = signerPublicKey;
+        this.attributesDigest = attributesDigest;
+        this.signedAt = signedAt;
+        this.signature = signature;
+    }
+
+    public Vouch(String signer, String signee, byte[] signerPublicKey, byte[] attributesDigest, long signedAt, float weight, byte[] signature) {
+        this(signer, signee, signerPublicKey, attributesDigest, signedAt, signature);
+        this.weight = weight;
+    }
+
+    public String getSigner() {
+        return signer;
+    }
+
+    public String getSignee() {
+        return signee;
+    }
+
+    public byte[] getSignerPublicKey() {
+        return signerPublicKey;
+    }
+
+    public byte[] getAttributesDigest() {
+        return attributesDigest;
+    }
+
+    public long getSignedAt() {
+        return signedAt;
+    }
+
+    /**
+     * @return trust the signer places in the signee, in (0,1]
+     */
+    public float getWeight() {
+        return weight;
+    }
+
+    public byte[] getSignature() {
+        return signature;
+    }
+
+    public Map<String,Object> toMap() {
+        Map<String,Object> m = new HashMap<>();
+        if(signer!=null) m.put("signer",signer);
+        if(signee!=null) m.put("signee",signee);
+        if(signerPublicKey!=null) m.put("signerPublicKey",Base64.encode(signerPublicKey));
+        if(attributesDigest!=null) m.put("attributesDigest",Base64.encode(attributesDigest));
+        m.put("signedAt",signedAt);
+        m.put("weight",weight);
+        if(signature!=null) m.put("signature",Base64.encode(signature));
+        return m;
+    }
+
+    public void fromMap(Map<String,Object> m) {
+        if(m.get("signer")!=null) signer = (String)m.get("signer");
+        if(m.get("signee")!=null) signee = (String)m.get("signee");
+        if(m.get("signerPublicKey")!=null) signerPublicKey = Base64.decode((String)m.get("signerPublicKey"));
+        if(m.get("attributesDigest")!=null) attributesDigest = Base64.decode((String)m.get("attributesDigest"));
+        if(m.get("signedAt")!=null) signedAt = ((Number)m.get("signedAt")).longValue();
+        if(m.get("weight")!=null) weight = Float.parseFloat(m.get("weight").toString());
+        if(m.get("signature")!=null) signature = Base64.decode((String)m.get("signature"));
+    }
+
+    @Override
+    public String toString() {
+        return "Vouch{signer="+signer+", signee="+signee+", signedAt="+signedAt+"}";
+    }
+}
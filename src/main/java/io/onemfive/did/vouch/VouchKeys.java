@@ -0,0 +1,81 @@
+package io.onemfive.did.vouch;
+
+import io.onemfive.did.hash.ContentHasher;
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ed25519 vouching keys of local DIDs, generated on first use and kept as their 32 byte
+ * seed in a file per username, named by the SHA-256 of the username, in the key directory.
+ *
+ * @author objectorange
+ */
+public final class VouchKeys {
+
+    private final Path dir;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<String,Ed25519PrivateKeyParameters> keys = new ConcurrentHashMap<>();
+
+    public VouchKeys(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * @return the username's key, generating and saving one if it has none
+     */
+    public Ed25519PrivateKeyParameters keyFor(String username) throws IOException {
+        Ed25519PrivateKeyParameters key = keys.get(username);
+        return key != null ? key : load(username, true);
+    }
+
+    /**
+     * @return the encoded public key of the username's key, null if it has none
+     */
+    public byte[] publicKeyOf(String username) throws IOException {
+        Ed25519PrivateKeyParameters key = keys.get(username);
+        if(key == null)
+            key = load(username, false);
+        return key == null ? null : key.generatePublicKey().getEncoded();
+    }
+
+    private synchronized Ed25519PrivateKeyParameters load(String username, boolean generate) throws IOException {
+        Ed25519PrivateKeyParameters key = keys.get(username);
+        if(key != null)
+            return key;
+        Path file = dir.resolve(fileName(username));
+        try {
+            key = new Ed25519PrivateKeyParameters(Files.readAllBytes(file), 0);
+        } catch (NoSuchFileException e) {
+            if(!generate)
+                return null;
+            key = new Ed25519PrivateKeyParameters(random);
+            Path tmp = Files.createTempFile(dir, "vouch", ".tmp");
+            try {
+                try {
+                    Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+                } catch (UnsupportedOperationException e1) {
+                    // not a POSIX file system
+                }
+                Files.write(tmp, key.getEncoded());
+                Files.move(tmp, file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        keys.put(username, key);
+        return key;
+    }
+
+    private static String fileName(String username) {
+        return ContentHasher.hexSha256(username) + ".key";
+    }
+}
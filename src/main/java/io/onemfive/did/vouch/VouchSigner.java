@@ -0,0 +1,226 @@
+package io.onemfive.did.vouch;
+
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.signers.Ed25519Signer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Signs and verifies vouches with Ed25519, checking the verified vouch cache first.
+ *
+ * A vouch carries its signer's public key but is only verified against the key the verifier
+ * already knows for the signer; one whose embedded key differs, or whose signer has no known
+ * key, is invalid so nobody can vouch in another's name with a key of their own.
+ *
+ * The trust the signer places in the signee is signed too, so only the signer decides how
+ * much its vouch counts for in the web of trust; full trust is left out of the signed message
+ * so vouches signed before weights were keep verifying.
+ *
+ * Attributes are signed by their SHA-256 digest in a canonical form: map entries sorted by
+ * key, lists in order and other values as their string form, each length-prefixed, so the
+ * same attributes always give the same digest whatever map they arrive in.
+ *
+ * @author objectorange
+ */
+public final class VouchSigner {
+
+    private static final byte[] CONTEXT = "1m5-did-vouch-v1".getBytes(StandardCharsets.UTF_8);
+    // below this many vouches a batch is verified on the calling thread
+    private static final int MIN_PARALLEL_BATCH = 8;
+
+    /**
+     * Public keys of signers known to the verifier.
+     */
+    public interface SignerKeys {
+        /**
+         * @return the signer's encoded Ed25519 public key, null if unknown
+         */
+        byte[] publicKeyOf(String signer);
+    }
+
+    private final VerifiedVouchCache cache;
+
+    public VouchSigner(VerifiedVouchCache cache) {
+        this.cache = cache;
+    }
+
+    public Vouch sign(String signer, String signee, Map<String,Object> attributes, Ed25519PrivateKeyParameters key) {
+        return sign(signer, signee, attributes, 1, key);
+    }
+
+    /**
+     * @param weight trust the signer places in the signee, in (0,1]
+     */
+    public Vouch sign(String signer, String signee, Map<String,Object> attributes, float weight, Ed25519PrivateKeyParameters key) {
+        if(!(weight > 0 && weight <= 1))
+            throw new IllegalArgumentException("Vouch weight must be in (0,1]: "+weight);
+        byte[] digest = digest(attributes);
+        byte[] publicKey = key.generatePublicKey().getEncoded();
+        long signedAt = System.currentTimeMillis();
+        Ed25519Signer s = new Ed25519Signer();
+        s.init(true, key);
+        byte[] message = message(signer, signee, digest, signedAt, weight);
+        s.update(message, 0, message.length);
+        Vouch vouch = new Vouch(signer, signee, publicKey, digest, signedAt, weight, s.generateSignature());
+        cache.put(vouch);
+        return vouch;
+    }
+
+    /**
+     * @param signerPublicKey the key known for the vouch's signer, null if none is
+     * @return true if the vouch carries that key, a weight in (0,1] and its signature is valid for it
+     */
+    public boolean verify(Vouch vouch, byte[] signerPublicKey) {
+        if(vouch == null || vouch.getSigner() == null || vouch.getSignee() == null
+                || vouch.getSignerPublicKey() == null || vouch.getSignerPublicKey().length != Ed25519PublicKeyParameters.KEY_SIZE
+                || vouch.getAttributesDigest() == null || vouch.getSignature() == null
+                || !(vouch.getWeight() > 0 && vouch.getWeight() <= 1))
+            return false;
+        if(signerPublicKey == null || !MessageDigest.isEqual(signerPublicKey, vouch.getSignerPublicKey()))
+            return false;
+        if(cache.contains(vouch))
+            return true;
+        Ed25519Signer s = new Ed25519Signer();
+        s.init(false, new Ed25519PublicKeyParameters(vouch.getSignerPublicKey(), 0));
+        byte[] message = message(vouch.getSigner(), vouch.getSignee(), vouch.getAttributesDigest(), vouch.getSignedAt(), vouch.getWeight());
+        s.update(message, 0, message.length);
+        boolean valid = s.verifySignature(vouch.getSignature());
+        if(valid)
+            cache.put(vouch);
+        return valid;
+    }
+
+    /**
+     * Verifies vouches not already cached against their signers' known keys, in parallel on
+     * the pool for larger batches.
+     * @param keys looked up on the calling thread only
+     * @return validity of each vouch in order
+     */
+    public boolean[] verifyAll(final List<Vouch> vouches, SignerKeys keys, ForkJoinPool pool) {
+        boolean[] valid = new boolean[vouches.size()];
+        final byte[][] signerKeys = new byte[vouches.size()][];
+        List<Integer> uncached = new ArrayList<>();
+        for(int i=0; i<vouches.size(); i++) {
+            Vouch v = vouches.get(i);
+            if(v == null || v.getSigner() == null)
+                continue;
+            signerKeys[i] = keys.publicKeyOf(v.getSigner());
+            if(signerKeys[i] == null || v.getSignerPublicKey() == null
+                    || !MessageDigest.isEqual(signerKeys[i], v.getSignerPublicKey()))
+                continue;
+            if(v.getSignature() != null && cache.contains(v))
+                valid[i] = true;
+            else
+                uncached.add(i);
+        }
+        if(uncached.size() < MIN_PARALLEL_BATCH || pool == null) {
+            for(int i : uncached) {
+                valid[i] = verify(vouches.get(i), signerKeys[i]);
+            }
+            return valid;
+        }
+        List<Callable<Boolean>> tasks = new ArrayList<>(uncached.size());
+        for(final int i : uncached) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return verify(vouches.get(i), signerKeys[i]);
+                }
+            });
+        }
+        List<Future<Boolean>> results = pool.invokeAll(tasks);
+        for(int i=0; i<results.size(); i++) {
+            try {
+                valid[uncached.get(i)] = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return valid;
+            } catch (ExecutionException e) {
+                valid[uncached.get(i)] = false;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * SHA-256 of the attributes in canonical form.
+     */
+    public static byte[] digest(Map<String,Object> attributes) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            write(out, attributes);
+            out.flush();
+            return MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to digest vouch attributes", e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Object value) throws IOException {
+        if(value instanceof Map) {
+            Map<String,Object> sorted = new TreeMap<>();
+            for(Map.Entry<?,?> e : ((Map<?,?>)value).entrySet()) {
+                sorted.put(String.valueOf(e.getKey()), e.getValue());
+            }
+            out.writeByte('M');
+            out.writeInt(sorted.size());
+            for(Map.Entry<String,Object> e : sorted.entrySet()) {
+                writeString(out, e.getKey());
+                write(out, e.getValue());
+            }
+        } else if(value instanceof Collection) {
+            Collection<?> c = (Collection<?>)value;
+            out.writeByte('L');
+            out.writeInt(c.size());
+            for(Object o : c) {
+                write(out, o);
+            }
+        } else if(value == null) {
+            out.writeByte('N');
+        } else {
+            out.writeByte('S');
+            writeString(out, String.valueOf(value));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] message(String signer, String signee, byte[] digest, long signedAt, float weight) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(CONTEXT.length + 64 + digest.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(CONTEXT);
+            writeString(out, signer);
+            writeString(out, signee);
+            out.writeInt(digest.length);
+            out.write(digest);
+            out.writeLong(signedAt);
+            if(weight != 1)
+                out.writeFloat(weight);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
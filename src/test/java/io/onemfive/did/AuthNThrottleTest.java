@@ -0,0 +1,76 @@
+package io.onemfive.did;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Failed attempts must be throttled per username, per origin and globally once their bursts are spent.
+ *
+ * @author objectorange
+ */
+public class AuthNThrottleTest {
+
+    @Test
+    public void testUsernameBurstAndBackoff() {
+        AuthNThrottle throttle = new AuthNThrottle(1, 3, 0, 1, 0, 1, 0, 0, 100);
+        for(int i=0; i<3; i++) {
+            assert (throttle.check("alice", null) == AuthNThrottle.Result.ALLOWED);
+            throttle.failed("alice", null);
+        }
+        assert (throttle.check("alice", null) == AuthNThrottle.Result.USERNAME);
+        assert (throttle.check("bob", null) == AuthNThrottle.Result.ALLOWED);
+
+        AuthNThrottle backoff = new AuthNThrottle(0, 1, 0, 1, 0, 1, 60000, 60000, 100);
+        backoff.failed("alice", null);
+        assert (backoff.check("alice", null) == AuthNThrottle.Result.ALLOWED);
+        backoff.failed("alice", null);
+        assert (backoff.check("alice", null) == AuthNThrottle.Result.BACKOFF);
+        backoff.succeeded("alice");
+        assert (backoff.check("alice", null) == AuthNThrottle.Result.ALLOWED);
+        assert (backoff.getThrottled() == 1);
+    }
+
+    @Test
+    public void testOriginAndGlobal() {
+        AuthNThrottle throttle = new AuthNThrottle(0, 1, 1, 2, 0, 1, 0, 0, 100);
+        throttle.failed("alice", "peer1");
+        throttle.failed("bob", "peer1");
+        assert (throttle.check("carol", "peer1") == AuthNThrottle.Result.ORIGIN);
+        assert (throttle.check("carol", "peer2") == AuthNThrottle.Result.ALLOWED);
+        assert (throttle.check("carol", null) == AuthNThrottle.Result.ALLOWED);
+
+        AuthNThrottle global = new AuthNThrottle(0, 1, 0, 1, 1, 2, 0, 0, 100);
+        global.failed("alice", null);
+        global.failed("bob", null);
+        assert (global.check("carol", null) == AuthNThrottle.Result.GLOBAL);
+    }
+
+    @Test
+    public void testKnownUsernameNotHeldByGlobal() {
+        AuthNThrottle throttle = new AuthNThrottle(0, 1, 0, 1, 1, 2, 0, 0, 100);
+        throttle.succeeded("alice");
+        throttle.failed("mallory1", null);
+        throttle.failed("mallory2", null);
+        assert (throttle.check("carol", null) == AuthNThrottle.Result.GLOBAL);
+        assert (throttle.check("alice", null) == AuthNThrottle.Result.ALLOWED);
+        // failing again makes it unknown until it next authenticates
+        throttle.failed("alice", null);
+        assert (throttle.check("alice", null) == AuthNThrottle.Result.GLOBAL);
+    }
+
+    @Test
+    public void testTrackedKeysBounded() {
+        AuthNThrottle throttle = new AuthNThrottle(1, 1, 1, 1, 0, 1, 0, 0, 10);
+        for(int i=0; i<100; i++) {
+            throttle.failed("user"+i, "peer"+i);
+        }
+        Map<String,Object> m = throttle.toMap();
+        assert ((Integer)m.get("trackedUsernames") == 10);
+        assert ((Integer)m.get("trackedOrigins") == 10);
+        assert ((Long)m.get("untracked") == 90);
+        assert ((Long)m.get("failures") == 100);
+        // tracked ones are still throttled
+        assert (throttle.check("user0", null) == AuthNThrottle.Result.USERNAME);
+    }
+}
@@ -0,0 +1,150 @@
+package io.onemfive.did;
+
+import io.onemfive.data.DID;
+import io.onemfive.did.dao.DIDCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Multi-threaded stress of the state DIDService shares across envelope handling threads.
+ *
+ * @author objectorange
+ */
+public class DIDConcurrencyTest {
+
+    private static final int THREADS = 16;
+
+    private ExecutorService pool;
+
+    @Before
+    public void startUp() {
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Test
+    public void testNodeDIDElectedOnce() throws Exception {
+        for(int round=0; round<50; round++) {
+            final LocalDIDRegistry registry = new LocalDIDRegistry();
+            final CountDownLatch go = new CountDownLatch(1);
+            final AtomicInteger elected = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for(int i=0; i<THREADS; i++) {
+                final DID did = did("user-"+round+"-"+i);
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        go.await();
+                        if(registry.cacheAuthenticated(did))
+                            elected.incrementAndGet();
+                        return null;
+                    }
+                }));
+            }
+            go.countDown();
+            for(Future<?> f : futures) f.get(10, TimeUnit.SECONDS);
+            assert (elected.get() == 1);
+            assert (registry.getNodeDID() != null);
+            assert (registry.localUserCount() == THREADS);
+        }
+    }
+
+    @Test
+    public void testUsernameLocksSerializeSameUser() throws Exception {
+        final UsernameLocks locks = new UsernameLocks(8);
+        final String[] usernames = {"Alice", "Bob", "Charlie", "Dave"};
+        final int[] counters = new int[usernames.length];
+        final int iterations = 20000;
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t=0; t<THREADS; t++) {
+            futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    go.await();
+                    for(int i=0; i<iterations; i++) {
+                        int u = i % usernames.length;
+                        Lock lock = locks.lockFor(usernames[u]);
+                        lock.lock();
+                        try {
+                            counters[u]++;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        go.countDown();
+        for(Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        int total = 0;
+        for(int c : counters) total += c;
+        assert (total == THREADS * iterations);
+    }
+
+    @Test
+    public void testCacheStaysBoundedUnderContention() throws Exception {
+        final int maxSize = 256;
+        final DIDCache cache = new DIDCache(maxSize, 0);
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int t=0; t<THREADS; t++) {
+            final int offset = t;
+            futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    go.await();
+                    for(int i=0; i<5000; i++) {
+                        String username = "user-"+((i * 31 + offset) % 1024);
+                        if(cache.get(username) == null)
+                            cache.put(did(username));
+                        if(i % 97 == 0)
+                            cache.invalidate(username);
+                    }
+                    return null;
+                }
+            }));
+        }
+        go.countDown();
+        for(Future<?> f : futures) f.get(30, TimeUnit.SECONDS);
+        assert (cache.size() <= maxSize);
+        assert (cache.getHits() + cache.getMisses() == THREADS * 5000);
+        assert (cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void testStaleReadNotCachedAfterInvalidation() {
+        DIDCache cache = new DIDCache(100, 300);
+        // a reader takes the generation and reads the store...
+        long generation = cache.generation("Alice");
+        // ...while a save under the lock writes and invalidates
+        cache.invalidate("Alice");
+        assert (!cache.put(did("Alice"), generation));
+        assert (cache.get("Alice") == null);
+        assert (cache.put(did("Alice"), cache.generation("Alice")));
+        assert (cache.get("Alice") != null);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private static DID did(String username) {
+        DID did = new DID();
+        did.setUsername(username);
+        return did;
+    }
+}
@@ -0,0 +1,947 @@
+package io.onemfive.did;
+
+import io.onemfive.core.MessageProducer;
+import io.onemfive.data.DID;
+import io.onemfive.data.Envelope;
+import io.onemfive.data.util.DLC;
+import io.onemfive.data.util.Base64;
+import io.onemfive.data.util.JSONParser;
+import io.onemfive.did.dao.DIDRecordCodec;
+import io.onemfive.did.dao.LogDIDStore;
+import io.onemfive.did.hash.DigestEngine;
+import io.onemfive.did.vouch.Vouch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations driven end to end through envelopes as the bus delivers them.
+ *
+ * @author objectorange
+ */
+public class DIDServiceTest {
+
+    private final BlockingQueue<Envelope> completed = new LinkedBlockingQueue<>();
+    private Path dir;
+    private DIDService service;
+    private boolean sharded;
+
+    @Before
+    public void startUp() throws Exception {
+        dir = Files.createTempDirectory("did");
+    }
+
+    @Test
+    public void testFailedStartClosesStore() throws Exception {
+        int running = threadsNamed("LogDIDStore-Maintenance");
+        Properties p = config();
+        // a directory cannot be opened as the revocation log
+        p.setProperty(DIDService.PROP_REVOCATION_FILE, dir.toString());
+        DIDService failed = newService();
+        assert (!failed.start(p));
+        long deadline = System.currentTimeMillis() + 5000;
+        while(threadsNamed("LogDIDStore-Maintenance") > running && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assert (threadsNamed("LogDIDStore-Maintenance") <= running);
+
+        p.remove(DIDService.PROP_REVOCATION_FILE);
+        start(p);
+        assert (save("Alice", "1234").getUsername().equals("Alice"));
+    }
+
+    @Test
+    public void testAsyncAuthenticate() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_AUTHN_ASYNC, "true");
+        start(p);
+        save("Alice", "1234");
+
+        Envelope e = authenticate("Alice", "1234");
+        service.handleDocument(e);
+        // completed later through the producer
+        assert (completed.poll(30, TimeUnit.SECONDS) == e);
+        AuthenticateDIDRequest r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e);
+        assert (r.did.getAuthenticated());
+        assert (r.token != null);
+
+        e = authenticate("Alice", "4321");
+        service.handleDocument(e);
+        assert (completed.poll(30, TimeUnit.SECONDS) == e);
+        r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e);
+        assert (!r.did.getAuthenticated());
+        assert (r.errorCode == AuthenticateDIDRequest.DID_PASSPHRASE_MISMATCH);
+
+        // nothing to verify so handled inline
+        e = authenticate("Bob", "1234");
+        service.handleDocument(e);
+        r = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e);
+        assert (r.errorCode == AuthenticateDIDRequest.DID_USERNAME_UNKNOWN);
+        assert (completed.isEmpty());
+    }
+
+    @Test
+    public void testAsyncAuthenticateHoldsShard() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_AUTHN_ASYNC, "true");
+        p.setProperty(DIDService.PROP_DISPATCH_SHARDS, "1");
+        start(p);
+        Envelope saved = envelope(DIDService.OPERATION_SAVE);
+        DLC.addData(DID.class, did("Alice", "1234"), saved);
+        service.handleDocument(saved);
+        assert (completed.poll(30, TimeUnit.SECONDS) == saved);
+        // elects the node DID, which is never revoked
+        saved = envelope(DIDService.OPERATION_SAVE);
+        DLC.addData(DID.class, did("Node", "0000"), saved);
+        service.handleDocument(saved);
+        assert (completed.poll(30, TimeUnit.SECONDS) == saved);
+        Envelope authN = authenticate("Node", "0000");
+        service.handleDocument(authN);
+        assert (completed.poll(30, TimeUnit.SECONDS) == authN);
+
+        authN = authenticate("Alice", "1234");
+        Envelope revoke = envelope(DIDService.OPERATION_REVOKE);
+        RevokeRequest rr = new RevokeRequest();
+        rr.did = did("Alice", "1234");
+        DLC.addData(RevokeRequest.class, rr, revoke);
+        service.handleDocument(authN);
+        service.handleDocument(revoke);
+        // the revocation waits for the authentication ahead of it to complete
+        assert (completed.poll(30, TimeUnit.SECONDS) == authN);
+        assert (completed.poll(30, TimeUnit.SECONDS) == revoke);
+        assert (((AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, authN)).did.getAuthenticated());
+        assert (rr.revokedCount == 1);
+    }
+
+    @Test
+    public void testBatchAuthenticate() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        Envelope e = batchAuthenticate(did("Alice", "1234"), did("Alice", "4321"), did("Bob", "1234"), null);
+        service.handleDocument(e);
+        assertBatchAuthenticated(e);
+        // waited for on the caller's thread
+        assert (completed.isEmpty());
+    }
+
+    @Test
+    public void testAsyncBatchAuthenticate() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_AUTHN_ASYNC, "true");
+        start(p);
+        save("Alice", "1234");
+        Envelope e = batchAuthenticate(did("Alice", "1234"), did("Alice", "4321"), did("Bob", "1234"), null);
+        service.handleDocument(e);
+        assert (completed.poll(30, TimeUnit.SECONDS) == e);
+        assertBatchAuthenticated(e);
+    }
+
+    @Test
+    public void testTreeHash() throws Exception {
+        start(config());
+        String content = "Gr\u00fc\u00dfe, \u4e16\u754c";
+        Envelope e = envelope(DIDService.OPERATION_HASH);
+        HashRequest hr = new HashRequest();
+        hr.contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        hr.generateTreeHash = true;
+        hr.returnChunkHashes = true;
+        hr.treeChunkSize = 4;
+        DLC.addData(HashRequest.class, hr, e);
+        service.handleDocument(e);
+        assert (hr.treeHash != null);
+
+        // the same content given as text is hashed as UTF-8 whatever the platform charset
+        e = envelope(DIDService.OPERATION_VERIFY_HASH);
+        VerifyHashRequest vr = new VerifyHashRequest();
+        vr.content = content;
+        vr.hashToVerify = hr.treeHash;
+        vr.isTreeHash = true;
+        vr.treeChunkSize = 4;
+        vr.chunkHashes = hr.chunkHashes;
+        vr.chunkIndex = hr.chunkHashes.size() - 1;
+        DLC.addData(VerifyHashRequest.class, vr, e);
+        service.handleDocument(e);
+        assert (vr.isAMatch);
+
+        // chunk hashes from other content can list more chunks than this content has
+        e = envelope(DIDService.OPERATION_VERIFY_HASH);
+        vr = new VerifyHashRequest();
+        vr.content = "Gr\u00fc\u00dfe";
+        vr.hashToVerify = hr.treeHash;
+        vr.isTreeHash = true;
+        vr.treeChunkSize = 4;
+        vr.chunkHashes = hr.chunkHashes;
+        vr.chunkIndex = hr.chunkHashes.size() - 1;
+        DLC.addData(VerifyHashRequest.class, vr, e);
+        service.handleDocument(e);
+        assert (!vr.isAMatch);
+        assert (vr.errorCode == VerifyHashRequest.CHUNK_INDEX_OUT_OF_RANGE);
+    }
+
+    @Test
+    public void testLegacyRecordsMigratedOnStart() throws Exception {
+        Path storeDir = dir.resolve("did").resolve("store");
+        Files.createDirectories(storeDir);
+        LogDIDStore store = new LogDIDStore(storeDir, LogDIDStore.DEFAULT_SEGMENT_SIZE, LogDIDStore.DEFAULT_COMPACTION_RATIO, false);
+        store.save("Alice", JSONParser.toString(did("Alice", null).toMap()).getBytes(), true);
+        store.close();
+
+        // swept on start without ever being read
+        start(config());
+        for(int i=0; i<100 && service.getMigratedRecords() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assert (service.getMigratedRecords() == 1);
+        service.shutdown();
+        service = null;
+
+        store = new LogDIDStore(storeDir, LogDIDStore.DEFAULT_SEGMENT_SIZE, LogDIDStore.DEFAULT_COMPACTION_RATIO, false);
+        assert (DIDRecordCodec.isBinary(store.load("Alice")));
+        store.close();
+    }
+
+    @Test
+    public void testHashAndVerifyWithoutHashAlgorithm() throws Exception {
+        start(config());
+        for(String algorithm : new String[]{"BLAKE2b", DigestEngine.SHA512_256, DigestEngine.SHA256}) {
+            Envelope e = envelope(DIDService.OPERATION_HASH);
+            HashRequest hr = new HashRequest();
+            hr.contentToHash = "content";
+            hr.algorithm = algorithm;
+            hr.generateHash = true;
+            hr.encodeHash = true;
+            DLC.addData(HashRequest.class, hr, e);
+            service.handleDocument(e);
+            assert (hr.hash != null);
+
+            // verified by the algorithm HASH returned whether or not Hash.Algorithm names it
+            e = envelope(DIDService.OPERATION_VERIFY_HASH);
+            VerifyHashRequest vr = new VerifyHashRequest();
+            vr.content = "content";
+            vr.hashToVerify = hr.hash;
+            vr.algorithm = hr.algorithm;
+            DLC.addData(VerifyHashRequest.class, vr, e);
+            service.handleDocument(e);
+            assert (vr.isAMatch);
+
+            e = envelope(DIDService.OPERATION_VERIFY_HASH);
+            vr = new VerifyHashRequest();
+            vr.contentBuffer = ByteBuffer.wrap("other".getBytes(StandardCharsets.UTF_8));
+            vr.hashToVerify = hr.hash;
+            vr.algorithm = hr.algorithm;
+            DLC.addData(VerifyHashRequest.class, vr, e);
+            service.handleDocument(e);
+            assert (!vr.isAMatch);
+        }
+    }
+
+    @Test
+    public void testVouchRequiresProofPerRequest() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        save("Bob", "5678");
+        Envelope e = authenticate("Alice", "1234");
+        service.handleDocument(e);
+        String token = ((AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e)).token;
+        assert (token != null);
+
+        // having authenticated before is not enough
+        assert (vouch(did("Alice", null), null).errorCode == VouchRequest.SIGNER_NOT_AUTHENTICATED);
+        assert (vouch(did("Alice", "4321"), null).errorCode == VouchRequest.SIGNER_NOT_AUTHENTICATED);
+        // a token issued to another username does not prove the signer
+        assert (vouch(did("Bob", null), token).errorCode == VouchRequest.SIGNER_NOT_AUTHENTICATED);
+        VouchRequest r = vouch(did("Alice", null), token);
+        assert (r.errorCode == -1 && r.vouch != null);
+        r = vouch(did("Alice", "1234"), null);
+        assert (r.errorCode == -1 && r.vouch != null);
+    }
+
+    @Test
+    public void testOverwritingImportEndsSessions() throws Exception {
+        start(config());
+        String node = node();
+        save("Alice", "1234");
+        String token = token("Alice", "1234");
+        ExportDIDsRequest er = exportDIDs("dids.archive", false, node);
+        assert (er.errorCode == -1 && er.didCount == 2);
+
+        // kept as stored, so its sessions go on
+        assert (importDIDs(er.path, false, node).skippedCount == 2);
+        assert (validateToken(token).errorCode == -1);
+        // replaced, perhaps with another passphrase, so they end
+        ImportDIDsRequest ir = importDIDs(er.path, true, node);
+        assert (ir.errorCode == -1 && ir.didCount == 2);
+        assert (validateToken(token).errorCode == AuthenticateDIDRequest.DID_TOKEN_REVOKED);
+    }
+
+    @Test
+    public void testArchiveRequiresNodeAndArchiveDir() throws Exception {
+        start(config());
+        String node = node();
+        save("Alice", "1234");
+        String token = token("Alice", "1234");
+        assert (exportDIDs("dids.archive", false, null).errorCode == ExportDIDsRequest.NODE_NOT_AUTHENTICATED);
+        Envelope e = envelope(DIDService.OPERATION_EXPORT);
+        ExportDIDsRequest er = new ExportDIDsRequest();
+        er.path = "dids.archive";
+        er.node = did("Alice", null);
+        er.token = token;
+        DLC.addData(ExportDIDsRequest.class, er, e);
+        service.handleDocument(e);
+        assert (er.errorCode == ExportDIDsRequest.NODE_NOT_AUTHENTICATED);
+        assert (exportDIDs("../dids.archive", false, node).errorCode == ExportDIDsRequest.PATH_NOT_ALLOWED);
+        assert (exportDIDs(dir.resolve("dids.archive").toString(), false, node).errorCode == ExportDIDsRequest.PATH_NOT_ALLOWED);
+        assert (!Files.exists(dir.resolve("dids.archive")));
+
+        assert (exportDIDs("dids.archive", false, node).errorCode == -1);
+        assert (exportDIDs("dids.archive", false, node).errorCode == ExportDIDsRequest.ARCHIVE_EXISTS);
+        assert (exportDIDs("dids.archive", true, node).errorCode == -1);
+        assert (importDIDs("dids.archive", false, null).errorCode == ImportDIDsRequest.NODE_NOT_AUTHENTICATED);
+        assert (importDIDs("../archives/../../did/archives/dids.archive", false, node).errorCode == -1);
+        assert (importDIDs("../store", false, node).errorCode == ImportDIDsRequest.PATH_NOT_ALLOWED);
+    }
+
+    @Test
+    public void testBatchVerifyVouches() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        save("Bob", "5678");
+        Vouch vouch = vouch(did("Alice", null), token("Alice", "1234")).vouch;
+        byte[] signature = vouch.getSignature().clone();
+        signature[0] ^= 1;
+        Vouch tampered = new Vouch(vouch.getSigner(), vouch.getSignee(), vouch.getSignerPublicKey(),
+                vouch.getAttributesDigest(), vouch.getSignedAt(), signature);
+        // signed by a key of its own for a signer this node has no key for
+        Vouch unknown = new Vouch("Carol", vouch.getSignee(), vouch.getSignerPublicKey(),
+                vouch.getAttributesDigest(), vouch.getSignedAt(), vouch.getSignature());
+        BatchVerifyVouchesRequest vr = verifyVouches(vouch, tampered, null, unknown);
+        assert (vr.errorCodes[0] == BatchVerifyVouchesRequest.ITEM_OK);
+        assert (vr.errorCodes[1] == BatchVerifyVouchesRequest.ITEM_SIGNATURE_INVALID);
+        assert (vr.errorCodes[2] == BatchVerifyVouchesRequest.ITEM_VOUCH_REQUIRED);
+        assert (vr.errorCodes[3] == BatchVerifyVouchesRequest.ITEM_SIGNER_KEY_UNKNOWN);
+    }
+
+    @Test
+    public void testVouchKeyExported() throws Exception {
+        start(config());
+        String node = node();
+        save("Alice", "1234");
+        save("Bob", "5678");
+        Vouch vouch = vouch(did("Alice", null), token("Alice", "1234")).vouch;
+        // saved again without the key, which the record keeps
+        save("Alice", "4321");
+        assert (exportDIDs("dids.archive", false, node).didCount == 3);
+        Path archive = dir.resolve("did").resolve("archives").resolve("dids.archive");
+
+        // a node without Alice's vouching key verifies her vouches by the key on her imported record
+        service.shutdown();
+        dir = Files.createTempDirectory("did");
+        start(config());
+        node = node();
+        Files.createDirectories(dir.resolve("did").resolve("archives"));
+        Files.copy(archive, dir.resolve("did").resolve("archives").resolve("dids.archive"));
+        assert (verifyVouches(vouch).errorCodes[0] == BatchVerifyVouchesRequest.ITEM_SIGNER_KEY_UNKNOWN);
+        assert (importDIDs("dids.archive", false, node).didCount == 2);
+        assert (verifyVouches(vouch).errorCodes[0] == BatchVerifyVouchesRequest.ITEM_OK);
+    }
+
+    @Test
+    public void testReverifiedVouchKeepsWeight() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_TRUST_ANCHORS, "Alice");
+        start(p);
+        save("Alice", "1234");
+        save("Bob", "5678");
+        Envelope e = envelope(DIDService.OPERATION_VOUCH);
+        VouchRequest r = new VouchRequest();
+        r.signer = did("Alice", null);
+        r.token = token("Alice", "1234");
+        r.signee = did("Bob", null);
+        r.attributesToSign = new HashMap<>();
+        r.attributesToSign.put("trust", 0.3);
+        DLC.addData(VouchRequest.class, r, e);
+        service.handleDocument(e);
+        assert (r.errorCode == -1 && r.vouch.getWeight() == 0.3f);
+        double trust = trust("Bob");
+        assert (trust > 0);
+        Path log = dir.resolve("did").resolve("trust.log");
+        long logged = Files.size(log);
+
+        // already in the web of trust, so neither reweighted nor logged again
+        for(int i=0; i<3; i++) {
+            assert (verifyVouches(r.vouch).errorCodes[0] == BatchVerifyVouchesRequest.ITEM_OK);
+        }
+        assert (trust("Bob") == trust && Files.size(log) == logged);
+    }
+
+    @Test
+    public void testRevokeEndsVouchingAndSessions() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        save("Bob", "5678");
+        node();
+        String token = token("Alice", "1234");
+        Vouch vouch = vouch(did("Alice", null), token).vouch;
+        RevokeRequest rr = revoke(did("Alice", null), token, did("Alice", null));
+        assert (rr.errorCode == -1 && rr.revokedCount == 1);
+
+        assert (verifyVouches(vouch).errorCodes[0] == BatchVerifyVouchesRequest.ITEM_SIGNER_REVOKED);
+        // revoking ends the DID's sessions and it can neither sign nor authenticate again
+        assert (validateToken(token).errorCode == AuthenticateDIDRequest.DID_TOKEN_REVOKED);
+        assert (vouch(did("Alice", "1234"), null).errorCode == VouchRequest.SIGNER_NOT_AUTHENTICATED);
+        Envelope e = authenticate("Alice", "1234");
+        service.handleDocument(e);
+        AuthenticateDIDRequest ar = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e);
+        assert (ar.errorCode == AuthenticateDIDRequest.DID_REVOKED && !ar.did.getAuthenticated());
+    }
+
+    @Test
+    public void testBatchVerify() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        save("Bob", "5678");
+        assert (revoke(null, null, did("Bob", "5678")).revokedCount == 1);
+
+        Envelope e = envelope(DIDService.OPERATION_BATCH_VERIFY);
+        BatchVerifyRequest r = new BatchVerifyRequest();
+        r.dids = new ArrayList<>(Arrays.asList(did("Alice", null), did("Bob", null), did("Carol", null), null));
+        DLC.addData(BatchVerifyRequest.class, r, e);
+        service.handleDocument(e);
+        assert (r.errorCodes[0] == BatchVerifyRequest.ITEM_OK && r.results.get(0).getVerified());
+        assert (r.errorCodes[1] == AuthenticateDIDRequest.DID_REVOKED && !r.results.get(1).getVerified());
+        assert (r.errorCodes[2] == AuthenticateDIDRequest.DID_USERNAME_UNKNOWN && !r.results.get(2).getVerified());
+        assert (r.errorCodes[3] == AuthenticateDIDRequest.DID_REQUIRED && r.results.get(3) == null);
+    }
+
+    @Test
+    public void testRevokeToken() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        String token = token("Alice", "1234");
+        AuthenticateDIDRequest r = validateToken(token);
+        assert (r.errorCode == -1 && r.did.getUsername().equals("Alice") && r.did.getAuthenticated());
+
+        Envelope e = envelope(DIDService.OPERATION_REVOKE_TOKEN);
+        r = new AuthenticateDIDRequest();
+        r.token = token;
+        DLC.addData(AuthenticateDIDRequest.class, r, e);
+        service.handleDocument(e);
+        assert (r.errorCode == -1);
+        assert (validateToken(token).errorCode == AuthenticateDIDRequest.DID_TOKEN_REVOKED);
+        assert (validateToken("not a token").errorCode == AuthenticateDIDRequest.DID_TOKEN_FORMAT_MISMATCH);
+        // the DID's other sessions go on
+        assert (validateToken(token("Alice", "1234")).errorCode == -1);
+    }
+
+    @Test
+    public void testValidateTokenReturnsStoredDID() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_TOKEN_KEY, Base64.encode(new byte[32]));
+        start(p);
+        save("Alice", "1234");
+        String token = token("Alice", "1234");
+        Envelope e = envelope(DIDService.OPERATION_VALIDATE_TOKEN);
+        AuthenticateDIDRequest r = new AuthenticateDIDRequest();
+        r.token = token;
+        r.did = did("Alice", null);
+        r.did.setAlias("Mallory");
+        DID supplied = r.did;
+        DLC.addData(AuthenticateDIDRequest.class, r, e);
+        service.handleDocument(e);
+        assert (r.errorCode == -1 && r.did != supplied && r.did.getAuthenticated() && !supplied.getAuthenticated());
+        assert (r.did.getAlias() == null && r.did.getPassphraseHash() != null && e.getDID() == r.did);
+
+        // a token outliving the DID it was issued for authenticates nothing
+        service.shutdown();
+        p.setProperty(DIDService.PROP_STORE_LOG_DIR, dir.resolve("other").toString());
+        p.setProperty(DIDService.PROP_SNAPSHOT_ENABLED, "false");
+        start(p);
+        r = validateToken(token);
+        assert (r.errorCode == AuthenticateDIDRequest.DID_USERNAME_UNKNOWN && !r.did.getAuthenticated());
+    }
+
+    @Test
+    public void testResolveVersions() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_STORE_BACKEND, "versioned");
+        start(p);
+        DID did = did("Alice", "1234");
+        did.setAlias("first");
+        Envelope e = envelope(DIDService.OPERATION_SAVE);
+        DLC.addData(DID.class, did, e);
+        service.handleDocument(e);
+        did = did("Alice", "1234");
+        did.setAlias("second");
+        e = envelope(DIDService.OPERATION_SAVE);
+        DLC.addData(DID.class, did, e);
+        service.handleDocument(e);
+
+        ResolveDIDRequest r = resolve("Alice", 1);
+        assert (r.errorCode == -1 && r.version == 1 && r.latestVersion == 2);
+        assert (r.did.getAlias().equals("first"));
+        assert (r.did.getPassphraseHash() == null);
+        r = resolve("Alice", 0);
+        assert (r.errorCode == -1 && r.version == 2 && r.did.getAlias().equals("second"));
+        assert (resolve("Alice", 3).errorCode == ResolveDIDRequest.VERSION_UNKNOWN);
+        assert (resolve("Bob", 0).errorCode == ResolveDIDRequest.DID_UNKNOWN);
+    }
+
+    @Test
+    public void testResolveWithoutVersions() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        assert (resolve("Alice", 0).errorCode == ResolveDIDRequest.VERSIONS_NOT_KEPT);
+    }
+
+    @Test
+    public void testConcurrentHandleDocument() throws Exception {
+        start(config());
+        save("Bob", "5678");
+        runConcurrently(8, 10);
+        // handled inline on the callers' threads
+        assert (completed.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentShardedHandleDocument() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_DISPATCH_SHARDS, "4");
+        sharded = true;
+        start(p);
+        save("Bob", "5678");
+        assert (completed.poll(30, TimeUnit.SECONDS) != null);
+        List<Envelope> sent = runConcurrently(8, 10);
+        // every envelope completed exactly once through the producer
+        Set<Envelope> done = Collections.newSetFromMap(new IdentityHashMap<Envelope,Boolean>());
+        for(int i=0; i<sent.size(); i++) {
+            Envelope e = completed.poll(30, TimeUnit.SECONDS);
+            assert (e != null && done.add(e));
+        }
+        assert (done.containsAll(sent) && completed.isEmpty());
+    }
+
+    /**
+     * Threads each save their own DID, then authenticate, vouch for Bob and verify in turn,
+     * waiting for any envelope completed asynchronously before checking its result.
+     * @return every envelope handled
+     */
+    private List<Envelope> runConcurrently(int threads, final int rounds) throws Exception {
+        final List<Envelope> sent = Collections.synchronizedList(new ArrayList<Envelope>());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for(int t=0; t<threads; t++) {
+                final String username = "user"+t;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Envelope e = envelope(DIDService.OPERATION_SAVE);
+                        DLC.addData(DID.class, did(username, "1234"), e);
+                        handleAndWait(e, sent);
+                        for(int i=0; i<rounds; i++) {
+                            // too few failures to be throttled
+                            boolean mistyped = i % 5 == 4;
+                            e = authenticate(username, mistyped ? "4321" : "1234");
+                            handleAndWait(e, sent);
+                            AuthenticateDIDRequest ar = (AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e);
+                            assert (ar.did.getAuthenticated() != mistyped);
+
+                            e = envelope(DIDService.OPERATION_VOUCH);
+                            VouchRequest vr = new VouchRequest();
+                            vr.signer = did(username, "1234");
+                            vr.signee = did("Bob", null);
+                            vr.attributesToSign = new HashMap<>();
+                            vr.attributesToSign.put("round", String.valueOf(i));
+                            DLC.addData(VouchRequest.class, vr, e);
+                            handleAndWait(e, sent);
+                            assert (vr.errorCode == -1 && vr.vouch != null);
+
+                            e = envelope(DIDService.OPERATION_BATCH_VERIFY_VOUCHES);
+                            BatchVerifyVouchesRequest bv = new BatchVerifyVouchesRequest();
+                            bv.vouches = new ArrayList<>(Collections.singletonList(vr.vouch));
+                            DLC.addData(BatchVerifyVouchesRequest.class, bv, e);
+                            handleAndWait(e, sent);
+                            assert (bv.errorCodes[0] == BatchVerifyVouchesRequest.ITEM_OK);
+
+                            e = envelope(DIDService.OPERATION_BATCH_VERIFY);
+                            BatchVerifyRequest br = new BatchVerifyRequest();
+                            br.dids = new ArrayList<>(Arrays.asList(did(username, null), did("Bob", null)));
+                            DLC.addData(BatchVerifyRequest.class, br, e);
+                            handleAndWait(e, sent);
+                            assert (br.errorCodes[0] == BatchVerifyRequest.ITEM_OK);
+                            assert (br.errorCodes[1] == BatchVerifyRequest.ITEM_OK);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return sent;
+    }
+
+    /**
+     * Handles the envelope and, under sharded dispatch, waits until its shard has run it; the
+     * envelope is then left on the completed queue for the caller to account for.
+     */
+    private void handleAndWait(Envelope e, List<Envelope> sent) throws InterruptedException {
+        sent.add(e);
+        service.handleDocument(e);
+        long deadline = System.currentTimeMillis() + 30000;
+        while(sharded && !completed.contains(e) && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+    }
+
+    private BatchVerifyVouchesRequest verifyVouches(Vouch... vouches) {
+        Envelope e = envelope(DIDService.OPERATION_BATCH_VERIFY_VOUCHES);
+        BatchVerifyVouchesRequest r = new BatchVerifyVouchesRequest();
+        r.vouches = new ArrayList<>(Arrays.asList(vouches));
+        DLC.addData(BatchVerifyVouchesRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private ResolveDIDRequest resolve(String username, int version) {
+        Envelope e = envelope(DIDService.OPERATION_RESOLVE);
+        ResolveDIDRequest r = new ResolveDIDRequest();
+        r.did = did(username, null);
+        r.version = version;
+        DLC.addData(ResolveDIDRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    @Test
+    public void testRevokeVouch() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_TRUST_ANCHORS, "Alice");
+        start(p);
+        save("Alice", "1234");
+        save("Bob", "5678");
+        String token = token("Alice", "1234");
+        Vouch vouch = vouch(did("Alice", null), token).vouch;
+        assert (trust("Bob") > 0);
+
+        assert (revokeVouch(did("Alice", "4321"), null).errorCode == VouchRequest.SIGNER_NOT_AUTHENTICATED);
+        assert (trust("Bob") > 0);
+        VouchRequest r = revokeVouch(did("Alice", null), token);
+        assert (r.errorCode == -1 && r.removed);
+        assert (trust("Bob") == 0);
+        // the withdrawn vouch no longer counts when verified again
+        assert (verifyVouches(vouch).errorCodes[0] == BatchVerifyVouchesRequest.ITEM_VOUCH_REVOKED);
+        assert (trust("Bob") == 0);
+        assert (!revokeVouch(did("Alice", null), token).removed);
+
+        Thread.sleep(2);
+        vouch(did("Alice", null), token);
+        assert (trust("Bob") > 0);
+    }
+
+    @Test
+    public void testTrustAnchors() throws Exception {
+        start(config());
+        String node = node();
+        save("Alice", "1234");
+        save("Bob", "5678");
+        assert (trust("Node") == 1);
+        // vouching does not make a DID an anchor
+        String token = token("Alice", "1234");
+        vouch(did("Alice", null), token);
+        assert (trust("Alice") == 0 && trust("Bob") == 0);
+
+        assert (trustAnchor(DIDService.OPERATION_ADD_TRUST_ANCHOR, did("Alice", null), token, "Alice").errorCode
+                == TrustAnchorRequest.NODE_NOT_AUTHENTICATED);
+        assert (trustAnchor(DIDService.OPERATION_ADD_TRUST_ANCHOR, did("Node", null), "not a token", "Alice").errorCode
+                == TrustAnchorRequest.NODE_NOT_AUTHENTICATED);
+        assert (trust("Alice") == 0);
+        TrustAnchorRequest r = trustAnchor(DIDService.OPERATION_ADD_TRUST_ANCHOR, did("Node", null), node, "Alice");
+        assert (r.errorCode == -1 && r.changed && trust("Alice") == 1 && trust("Bob") > 0);
+        r = trustAnchor(DIDService.OPERATION_REMOVE_TRUST_ANCHOR, did("Node", null), node, "Alice");
+        assert (r.errorCode == -1 && r.changed && trust("Alice") == 0 && trust("Bob") == 0);
+        assert (!trustAnchor(DIDService.OPERATION_REMOVE_TRUST_ANCHOR, did("Node", null), node, "Alice").changed);
+    }
+
+    @Test
+    public void testRevokedDIDLeavesWebOfTrust() throws Exception {
+        Properties p = config();
+        p.setProperty(DIDService.PROP_TRUST_ANCHORS, "Alice, Bob");
+        start(p);
+        save("Alice", "1234");
+        save("Bob", "5678");
+        vouch(did("Alice", "1234"), null);
+        VouchRequest r = vouch(did("Bob", "5678"), null, "Carol");
+        assert (r.errorCode == -1 && trust("Carol") > 0);
+
+        assert (revoke(null, null, did("Bob", "5678")).revokedCount == 1);
+        // neither as an anchor nor in the middle of a path
+        assert (trust("Carol") == 0);
+        service.shutdown();
+        // nor once configured as an anchor again
+        start(p);
+        assert (trust("Carol") == 0);
+        assert (verifyVouches(r.vouch).errorCodes[0] == BatchVerifyVouchesRequest.ITEM_SIGNER_REVOKED);
+        assert (trust("Carol") == 0);
+    }
+
+    @Test
+    public void testRevokeRequiresProof() throws Exception {
+        start(config());
+        save("Alice", "1234");
+        save("Bob", "5678");
+        save("Carol", "9012");
+        String node = node();
+        assert (revoke(null, null, did("Alice", null)).errorCode == RevokeRequest.REVOKER_NOT_AUTHENTICATED);
+        assert (revoke(null, null, did("Alice", "4321")).errorCode == RevokeRequest.REVOKER_NOT_AUTHENTICATED);
+        // only the node DID revokes others
+        assert (revoke(did("Bob", "5678"), null, did("Alice", null)).errorCode == RevokeRequest.REVOKER_NOT_AUTHENTICATED);
+        assert (revoke(did("Node", null), "not a token", did("Alice", null)).errorCode == RevokeRequest.REVOKER_NOT_AUTHENTICATED);
+        assert (revoke(did("Node", null), node, did("Node", null)).errorCode == RevokeRequest.NODE_DID_NOT_REVOCABLE);
+        assert (revoke(null, null, did("Node", "0000")).errorCode == RevokeRequest.NODE_DID_NOT_REVOCABLE);
+        assert (validateToken(node).errorCode == -1);
+
+        Envelope e = envelope(DIDService.OPERATION_REVOKE);
+        RevokeRequest rr = new RevokeRequest();
+        rr.dids = new ArrayList<>(Arrays.asList(did("Alice", null), did("Bob", null)));
+        rr.revoker = did("Node", null);
+        rr.token = node;
+        DLC.addData(RevokeRequest.class, rr, e);
+        service.handleDocument(e);
+        assert (rr.errorCode == -1 && rr.revokedCount == 2);
+        // a feed naming the node DID is refused whole
+        rr.dids = new ArrayList<>(Arrays.asList(did("Carol", null), did("Node", null)));
+        rr.revokedCount = 0;
+        e = envelope(DIDService.OPERATION_REVOKE);
+        DLC.addData(RevokeRequest.class, rr, e);
+        service.handleDocument(e);
+        assert (rr.errorCode == RevokeRequest.NODE_DID_NOT_REVOCABLE && rr.revokedCount == 0);
+        assert (revoke(null, null, did("Carol", "9012")).revokedCount == 1);
+    }
+
+    /**
+     * Elects Node, with passphrase 0000, the node DID.
+     * @return a session token issued to it
+     */
+    private String node() {
+        save("Node", "0000");
+        return token("Node", "0000");
+    }
+
+    /**
+     * @param revoker DID the request acts for, did if null
+     */
+    private RevokeRequest revoke(DID revoker, String token, DID did) {
+        Envelope e = envelope(DIDService.OPERATION_REVOKE);
+        RevokeRequest r = new RevokeRequest();
+        r.did = did;
+        r.revoker = revoker;
+        r.token = token;
+        DLC.addData(RevokeRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private double trust(String username) {
+        Envelope e = envelope(DIDService.OPERATION_GET_TRUST);
+        GetTrustRequest r = new GetTrustRequest();
+        r.to = did(username, null);
+        DLC.addData(GetTrustRequest.class, r, e);
+        service.handleDocument(e);
+        return r.trust;
+    }
+
+    private TrustAnchorRequest trustAnchor(String operation, DID node, String token, String username) {
+        Envelope e = envelope(operation);
+        TrustAnchorRequest r = new TrustAnchorRequest();
+        r.node = node;
+        r.token = token;
+        r.did = did(username, null);
+        DLC.addData(TrustAnchorRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private VouchRequest revokeVouch(DID signer, String token) {
+        Envelope e = envelope(DIDService.OPERATION_REVOKE_VOUCH);
+        VouchRequest r = new VouchRequest();
+        r.signer = signer;
+        r.token = token;
+        r.signee = did("Bob", null);
+        DLC.addData(VouchRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+
+    /**
+     * @param token session token of the node DID
+     */
+    private ExportDIDsRequest exportDIDs(String path, boolean overwrite, String token) {
+        Envelope e = envelope(DIDService.OPERATION_EXPORT);
+        ExportDIDsRequest r = new ExportDIDsRequest();
+        r.path = path;
+        r.overwrite = overwrite;
+        r.node = did("Node", null);
+        r.token = token;
+        DLC.addData(ExportDIDsRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    /**
+     * @param token session token of the node DID
+     */
+    private ImportDIDsRequest importDIDs(String path, boolean overwrite, String token) {
+        Envelope e = envelope(DIDService.OPERATION_IMPORT);
+        ImportDIDsRequest r = new ImportDIDsRequest();
+        r.path = path;
+        r.node = did("Node", null);
+        r.token = token;
+        r.resume = false;
+        r.overwrite = overwrite;
+        DLC.addData(ImportDIDsRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private String token(String username, String passphrase) {
+        Envelope e = authenticate(username, passphrase);
+        service.handleDocument(e);
+        return ((AuthenticateDIDRequest)DLC.getData(AuthenticateDIDRequest.class, e)).token;
+    }
+
+    private AuthenticateDIDRequest validateToken(String token) {
+        Envelope e = envelope(DIDService.OPERATION_VALIDATE_TOKEN);
+        AuthenticateDIDRequest r = new AuthenticateDIDRequest();
+        r.token = token;
+        DLC.addData(AuthenticateDIDRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private VouchRequest vouch(DID signer, String token) {
+        return vouch(signer, token, "Bob");
+    }
+
+    private VouchRequest vouch(DID signer, String token, String signee) {
+        Envelope e = envelope(DIDService.OPERATION_VOUCH);
+        VouchRequest r = new VouchRequest();
+        r.signer = signer;
+        r.token = token;
+        r.signee = did(signee, null);
+        r.attributesToSign = new HashMap<>();
+        r.attributesToSign.put("name", signee);
+        DLC.addData(VouchRequest.class, r, e);
+        service.handleDocument(e);
+        return r;
+    }
+
+    private static void assertBatchAuthenticated(Envelope e) {
+        BatchAuthenticateRequest r = (BatchAuthenticateRequest)DLC.getData(BatchAuthenticateRequest.class, e);
+        assert (r.errorCodes[0] == BatchAuthenticateRequest.ITEM_OK);
+        assert (r.errorCodes[1] == AuthenticateDIDRequest.DID_PASSPHRASE_MISMATCH);
+        assert (r.errorCodes[2] == AuthenticateDIDRequest.DID_USERNAME_UNKNOWN);
+        assert (r.errorCodes[3] == AuthenticateDIDRequest.DID_REQUIRED);
+        // the repeated username is not marked authenticated by the other item's success
+        assert (r.results.get(0).getAuthenticated());
+        assert (!r.results.get(1).getAuthenticated());
+        assert (r.results.get(0) != r.results.get(1));
+        assert (r.results.get(3) == null);
+    }
+
+    @After
+    public void tearDown() {
+        if(service != null)
+            service.shutdown();
+    }
+
+    private Properties config() {
+        Properties p = new Properties();
+        p.setProperty("1m5.dir.base", dir.toString());
+        p.setProperty(DIDService.PROP_STORE_BACKEND, "log");
+        p.setProperty(DIDService.PROP_PASSWORD_HASH_COST, String.valueOf(PasswordHasher.MIN_COST));
+        return p;
+    }
+
+    private void start(Properties p) {
+        service = newService();
+        assert (service.start(p));
+    }
+
+    private DIDService newService() {
+        return new DIDService(new MessageProducer() {
+            @Override
+            public boolean send(Envelope e) {
+                return completed.add(e);
+            }
+        }, null);
+    }
+
+    private static int threadsNamed(String name) {
+        int count = 0;
+        for(Thread t : Thread.getAllStackTraces().keySet()) {
+            if(t.isAlive() && name.equals(t.getName()))
+                count++;
+        }
+        return count;
+    }
+
+    private DID save(String username, String passphrase) {
+        Envelope e = envelope(DIDService.OPERATION_SAVE);
+        DLC.addData(DID.class, did(username, passphrase), e);
+        service.handleDocument(e);
+        return e.getDID();
+    }
+
+    private static Envelope authenticate(String username, String passphrase) {
+        Envelope e = envelope(DIDService.OPERATION_AUTHENTICATE);
+        AuthenticateDIDRequest r = new AuthenticateDIDRequest();
+        r.did = did(username, passphrase);
+        DLC.addData(AuthenticateDIDRequest.class, r, e);
+        return e;
+    }
+
+    private static Envelope batchAuthenticate(DID... dids) {
+        Envelope e = envelope(DIDService.OPERATION_BATCH_AUTHENTICATE);
+        BatchAuthenticateRequest r = new BatchAuthenticateRequest();
+        r.dids = new ArrayList<>(Arrays.asList(dids));
+        DLC.addData(BatchAuthenticateRequest.class, r, e);
+        return e;
+    }
+
+    private static Envelope envelope(String operation) {
+        Envelope e = Envelope.documentFactory();
+        DLC.addRoute(DIDService.class, operation, e);
+        e.setRoute(e.getDynamicRoutingSlip().nextRoute());
+        return e;
+    }
+
+    private static DID did(String username, String passphrase) {
+        DID did = new DID();
+        did.setUsername(username);
+        did.setPassphrase(passphrase);
+        return did;
+    }
+}
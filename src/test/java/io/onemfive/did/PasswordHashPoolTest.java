@@ -0,0 +1,63 @@
+package io.onemfive.did;
+
+import io.onemfive.data.Hash;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pool must call back with each verification's result, never compute more hashes at once
+ * than permitted and reject work beyond its queue instead of queueing without bound.
+ *
+ * @author objectorange
+ */
+public class PasswordHashPoolTest {
+
+    @Test
+    public void testVerifiesOnPool() throws Exception {
+        Hash hash = new PasswordHasher(PasswordHasher.MIN_COST).hash("1234");
+        PasswordHashPool pool = new PasswordHashPool(4, 64, 2);
+        final AtomicInteger matched = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(20);
+        for(int i=0; i<20; i++) {
+            assert (pool.submit(i % 2 == 0 ? "1234" : "4321", hash, new PasswordHashPool.Callback() {
+                @Override
+                public void verified(Boolean authN) {
+                    (authN != null && authN ? matched : failed).incrementAndGet();
+                    done.countDown();
+                }
+            }));
+        }
+        assert (done.await(30, TimeUnit.SECONDS));
+        assert (matched.get() == 10 && failed.get() == 10);
+        assert (pool.getCompleted() == 20);
+        assert (pool.getInFlight() == 0);
+        assert (pool.verify("1234", hash));
+        pool.shutdown(1000);
+    }
+
+    @Test
+    public void testSaturatedPoolRejects() throws Exception {
+        final Hash hash = new PasswordHasher(PasswordHasher.MIN_COST + 4).hash("1234");
+        PasswordHashPool pool = new PasswordHashPool(1, 1, 1);
+        final CountDownLatch done = new CountDownLatch(2);
+        PasswordHashPool.Callback callback = new PasswordHashPool.Callback() {
+            @Override
+            public void verified(Boolean authN) {
+                done.countDown();
+            }
+        };
+        int accepted = 0;
+        for(int i=0; i<10; i++) {
+            if(pool.submit("1234", hash, callback)) accepted++;
+        }
+        // one computing and one queued
+        assert (accepted <= 2);
+        assert (pool.getRejected() == 10 - accepted);
+        assert (pool.getMaxConcurrentHashes() == 1);
+        pool.shutdown(30000);
+    }
+}
@@ -0,0 +1,61 @@
+package io.onemfive.did;
+
+import io.onemfive.data.Hash;
+import org.junit.Test;
+
+/**
+ * Hashes must verify at the cost they were made with and report when a higher cost is wanted.
+ *
+ * @author objectorange
+ */
+public class PasswordHasherTest {
+
+    @Test
+    public void testHashAndVerify() throws Exception {
+        PasswordHasher hasher = new PasswordHasher(PasswordHasher.MIN_COST);
+        Hash hash = hasher.hash("1234");
+        assert (hash.getHash().startsWith(PasswordHasher.ID + PasswordHasher.MIN_COST + "$"));
+        assert (PasswordHasher.cost(hash) == PasswordHasher.MIN_COST);
+        assert (PasswordHasher.verify("1234", hash));
+        assert (!PasswordHasher.verify("4321", hash));
+        // salted
+        assert (!hash.getHash().equals(hasher.hash("1234").getHash()));
+    }
+
+    @Test
+    public void testOutdated() throws Exception {
+        Hash hash = new PasswordHasher(PasswordHasher.MIN_COST).hash("1234");
+        PasswordHasher stronger = new PasswordHasher(PasswordHasher.MIN_COST + 1);
+        assert (stronger.isOutdated(hash));
+        assert (!new PasswordHasher(PasswordHasher.MIN_COST).isOutdated(hash));
+        assert (stronger.isOutdated(new Hash("1000:00:00", Hash.Algorithm.PBKDF2WithHmacSHA1)));
+        assert (PasswordHasher.verify("1234", hash));
+    }
+
+    @Test
+    public void testCalibrate() throws Exception {
+        assert (PasswordHasher.calibrate(1) == PasswordHasher.MIN_COST);
+        int cost = PasswordHasher.calibrate(50);
+        assert (cost >= PasswordHasher.MIN_COST && cost <= PasswordHasher.MAX_COST);
+    }
+
+    @Test
+    public void testCalibrateWithinBudget() throws Exception {
+        long start = System.currentTimeMillis();
+        // a target no host reaches must still stop at the budget
+        int cost = PasswordHasher.calibrate(Long.MAX_VALUE / 1000000L, 200);
+        assert (cost < PasswordHasher.MAX_COST);
+        assert (System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testCostAboveMaxRejected() throws Exception {
+        Hash hash = new PasswordHasher(PasswordHasher.MIN_COST).hash("1234");
+        String saltAndHash = hash.getHash().substring(hash.getHash().lastIndexOf('$') + 1);
+        for(int c : new int[]{31, 32, 63, 99}) {
+            Hash forged = new Hash(PasswordHasher.ID + c + "$" + saltAndHash, Hash.Algorithm.PBKDF2WithHmacSHA1);
+            assert (!PasswordHasher.verify("1234", forged));
+            assert (PasswordHasher.cost(forged) == -1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.onemfive.did;
+
+import io.onemfive.data.util.Base64;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tokens must only validate unaltered, unexpired and unrevoked for the key they were issued with.
+ *
+ * @author objectorange
+ */
+public class SessionTokensTest {
+
+    @Test
+    public void testIssueAndValidate() {
+        SessionTokens tokens = new SessionTokens(null, 60);
+        String token = tokens.issue("alice");
+        assert (tokens.validate(token, "alice") == SessionTokens.Result.VALID);
+        assert (tokens.validate(token, null) == SessionTokens.Result.VALID);
+        assert ("alice".equals(tokens.username(token)));
+        assert (tokens.validate(token, "bob") == SessionTokens.Result.MALFORMED);
+        assert (new SessionTokens(null, 60).validate(token, "alice") == SessionTokens.Result.MALFORMED);
+
+        byte[] tampered = Base64.decode(token);
+        tampered[tampered.length - 1] ^= 1;
+        assert (tokens.validate(Base64.encode(tampered), "alice") == SessionTokens.Result.MALFORMED);
+        assert (tokens.validate("not a token", "alice") == SessionTokens.Result.MALFORMED);
+    }
+
+    @Test
+    public void testRevoke() {
+        SessionTokens tokens = new SessionTokens(null, 60);
+        String first = tokens.issue("alice");
+        String second = tokens.issue("alice");
+        assert (tokens.revoke(first));
+        assert (tokens.validate(first, "alice") == SessionTokens.Result.REVOKED);
+
+        tokens.revokeAll("alice");
+        assert (tokens.validate(second, "alice") == SessionTokens.Result.REVOKED);
+        // issued after the revocation
+        assert (tokens.validate(tokens.issue("alice"), "alice") == SessionTokens.Result.VALID);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        SessionTokens tokens = new SessionTokens(null, 1);
+        String token = tokens.issue("alice");
+        Thread.sleep(1100);
+        assert (tokens.validate(token, "alice") == SessionTokens.Result.EXPIRED);
+    }
+
+    @Test
+    public void testRevocationsSurviveRestart() throws Exception {
+        byte[] key = new byte[32];
+        Path dir = Files.createTempDirectory("didtokens");
+        Path file = dir.resolve("token-revocations.log");
+        try {
+            SessionTokens tokens = SessionTokens.open(key, 60, file);
+            String revoked = tokens.issue("alice");
+            String before = tokens.issue("bob");
+            tokens.revoke(revoked);
+            tokens.revokeAll("bob");
+            tokens.close();
+
+            tokens = SessionTokens.open(key, 60, file);
+            assert (tokens.validate(revoked, "alice") == SessionTokens.Result.REVOKED);
+            assert (tokens.validate(before, "bob") == SessionTokens.Result.REVOKED);
+            assert (tokens.validate(tokens.issue("alice"), "alice") == SessionTokens.Result.VALID);
+            tokens.close();
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testRevocationsPurgedOnceExpired() throws Exception {
+        SessionTokens tokens = new SessionTokens(null, 1);
+        tokens.revoke(tokens.issue("alice"));
+        tokens.revokeAll("alice");
+        Thread.sleep(1100);
+        tokens.revokeAll("bob");
+        assert (tokens.getRevoked() == 0);
+        assert (tokens.getRevokedUsernames() == 1);
+    }
+}
@@ -0,0 +1,77 @@
+package io.onemfive.did;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tasks sharing a key must run in submission order, a saturated shard must reject rather
+ * than queue without bound and shutdown must drain what was accepted.
+ *
+ * @author objectorange
+ */
+public class ShardedDispatcherTest {
+
+    @Test
+    public void testSameKeyRunsInOrder() throws Exception {
+        ShardedDispatcher d = new ShardedDispatcher(4, 10000, ShardedDispatcher.OnFull.BLOCK, 5000);
+        final Map<String,List<Integer>> seen = new HashMap<>();
+        String[] keys = {"Alice", "Bob", "Charlie", "Dave", "Eve"};
+        for(String key : keys) {
+            seen.put(key, Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        for(int i=0; i<1000; i++) {
+            final String key = keys[i % keys.length];
+            final int n = i;
+            assert (d.dispatch(key, new Runnable() {
+                @Override
+                public void run() {
+                    seen.get(key).add(n);
+                }
+            }));
+        }
+        assert (d.shutdown(10000));
+        for(List<Integer> order : seen.values()) {
+            assert (order.size() == 200);
+            for(int i=1; i<order.size(); i++) {
+                assert (order.get(i) > order.get(i-1));
+            }
+        }
+        assert (d.getDispatched() == 1000);
+    }
+
+    @Test
+    public void testFullShardRejects() throws Exception {
+        ShardedDispatcher d = new ShardedDispatcher(1, 2, ShardedDispatcher.OnFull.DEAD_LETTER, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        assert (d.dispatch("Alice", blocker));
+        assert (running.await(5, TimeUnit.SECONDS));
+        assert (d.dispatch("Alice", blocker));
+        assert (d.dispatch("Alice", blocker));
+        // one running and two queued
+        assert (!d.dispatch("Alice", blocker));
+        assert (d.getRejected() == 1);
+        assert (d.queueDepth() == 2);
+        release.countDown();
+        assert (d.shutdown(5000));
+        assert (!d.dispatch("Alice", blocker));
+    }
+}
@@ -0,0 +1,70 @@
+package io.onemfive.did.contact;
+
+import io.onemfive.did.dao.ContactStore;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Prefix searches must page through matches in order and the store must reload the latest
+ * version of each contact.
+ *
+ * @author objectorange
+ */
+public class ContactBookTest {
+
+    @Test
+    public void testSearch() {
+        ContactBook book = new ContactBook();
+        book.add(new Contact("alice", "Ally", "f1", null));
+        book.add(new Contact("albert", "Bert", "f2", null));
+        book.add(new Contact("bob", "Alfie", "f3", null));
+        book.add(new Contact("carol", null, null, null));
+
+        ContactBook.Page page = book.search("AL", 0, 10, true);
+        assert (page.total == 3);
+        assert (page.contacts.get(0).getUsername().equals("albert"));
+        assert (page.contacts.get(1).getUsername().equals("bob")); // alfie
+        assert (page.contacts.get(2).getUsername().equals("alice")); // alice before ally, listed once
+
+        page = book.search("al", 1, 1, true);
+        assert (page.total == 3);
+        assert (page.contacts.size() == 1 && page.contacts.get(0).getUsername().equals("bob"));
+        assert (page.more);
+        // without counting the total the search stops past the page
+        page = book.search("al", 0, 2, false);
+        assert (page.total == -1 && page.more);
+        assert (page.contacts.get(1).getUsername().equals("bob"));
+        page = book.search("al", 1, 2, false);
+        assert (!page.more && page.contacts.size() == 2);
+        assert (page.contacts.get(1).getUsername().equals("alice"));
+        assert (book.search("", 0, 10, true).total == 4);
+        assert (book.search("z", 0, 10, true).total == 0);
+
+        // replacing a contact drops its old alias and fingerprint
+        book.add(new Contact("bob", "Robert", "f4", null));
+        assert (book.search("alf", 0, 10, true).total == 0);
+        assert (book.search("rob", 0, 10, false).contacts.get(0).getUsername().equals("bob"));
+        assert (book.getByFingerprint("f3") == null);
+        assert (book.getByFingerprint("f4").getUsername().equals("bob"));
+        assert (book.size() == 4);
+    }
+
+    @Test
+    public void testStoreAppendsAndReloads() throws Exception {
+        ContactStore store = new ContactStore(Files.createTempDirectory("contacts"));
+        assert (store.load("owner").isEmpty());
+        store.append("owner", new Contact("alice", "Ally", null, null));
+        store.append("owner", new Contact("bob", null, "f1", "addr"));
+        store.append("owner", new Contact("alice", "Alice", null, null));
+        store.append("other", new Contact("carol", null, null, null));
+
+        List<Contact> contacts = store.load("owner");
+        assert (contacts.size() == 2);
+        assert (contacts.get(0).getAlias().equals("Alice"));
+        assert (contacts.get(1).getFingerprint().equals("f1") && contacts.get(1).getAddress().equals("addr"));
+        assert (contacts.get(1).getAlias() == null);
+        assert (store.load("other").size() == 1);
+    }
+}
@@ -0,0 +1,174 @@
+package io.onemfive.did.dao;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Archives must round trip every entry in chunks that decode independently, find a damaged
+ * chunk before decoding it and tell an archive cut short from a complete one.
+ *
+ * @author objectorange
+ */
+public class DIDArchiveTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] archive = archive(10, 4);
+        DIDArchive.Reader reader = new DIDArchive.Reader(new ByteArrayInputStream(archive));
+        Collector c = new Collector();
+        List<Integer> sequences = new ArrayList<>();
+        DIDArchive.Chunk chunk;
+        while((chunk = reader.next()) != null) {
+            sequences.add(chunk.sequence);
+            chunk.accept(c);
+        }
+        assert (reader.isComplete());
+        // 3 DID chunks of up to 4, then one each of revocations, anchors and vouches
+        assert (sequences.equals(Arrays.asList(0, 1, 2, 3, 4, 5)));
+        assert (c.entries.size() == 13);
+        assert (c.entries.get(0).equals("did:user0:record0"));
+        assert (c.entries.get(9).equals("did:user9:record9"));
+        assert (c.entries.get(10).equals("revoked:user3"));
+        assert (c.entries.get(11).equals("anchor:user0"));
+        assert (c.entries.get(12).equals("edge:user0>user1:0.5"));
+    }
+
+    @Test
+    public void testDamagedChunk() throws Exception {
+        byte[] archive = archive(10, 4);
+        archive[archive.length - 20] ^= 0x55; // inside the last chunk's deflated entries
+        DIDArchive.Reader reader = new DIDArchive.Reader(new ByteArrayInputStream(archive));
+        DIDArchive.Chunk chunk = null;
+        int accepted = 0;
+        try {
+            while((chunk = reader.next()) != null) {
+                chunk.accept(new Collector());
+                accepted++;
+            }
+            assert false;
+        } catch (IOException e) {
+            // chunks before the damaged one are applied
+            assert (accepted == 5);
+            assert (chunk != null && chunk.sequence == 5);
+        }
+    }
+
+    @Test
+    public void testCutShort() throws Exception {
+        byte[] archive = archive(10, 4);
+        byte[] cut = Arrays.copyOf(archive, archive.length - 30);
+        DIDArchive.Reader reader = new DIDArchive.Reader(new ByteArrayInputStream(cut));
+        int chunks = 0;
+        while(reader.next() != null) {
+            chunks++;
+        }
+        assert (!reader.isComplete());
+        assert (chunks < 6);
+
+        try {
+            new DIDArchive.Reader(new ByteArrayInputStream(new byte[]{1, 2}));
+            assert false;
+        } catch (IOException e) {
+            // not an archive
+        }
+    }
+
+    @Test
+    public void testOversizedChunkRejectedBeforeAllocating() throws Exception {
+        for(int[] lengths : new int[][]{{16, Integer.MAX_VALUE}, {Integer.MAX_VALUE, 16}, {16, 1024}}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream d = new DataOutputStream(out);
+            d.writeInt(DIDArchive.MAGIC);
+            d.writeByte(DIDArchive.VERSION_1);
+            d.writeLong(0);
+            d.writeInt(0xD1DAC400);
+            d.writeInt(0);
+            d.writeByte(DIDArchive.DIDS);
+            d.writeInt(1);
+            d.writeInt(lengths[0]);
+            d.writeInt(lengths[1]);
+            d.writeInt(0);
+            try {
+                new DIDArchive.Reader(new ByteArrayInputStream(out.toByteArray())).next();
+                assert false;
+            } catch (IOException e) {
+                // damaged header
+            }
+        }
+    }
+
+    @Test
+    public void testLargeRecordsSplitIntoChunks() throws Exception {
+        byte[] record = new byte[2 * 1024 * 1024];
+        new Random(1).nextBytes(record);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DIDArchive.Writer w = new DIDArchive.Writer(out, 100, Deflater.BEST_SPEED);
+        for(int i=0; i<3; i++) {
+            w.did("user"+i, record);
+        }
+        try {
+            w.did("huge", new byte[5 * 1024 * 1024]);
+            assert false;
+        } catch (IOException e) {
+            // larger than any chunk may be
+        }
+        w.close();
+        assert (w.getChunkCount() == 3);
+        DIDArchive.Reader reader = new DIDArchive.Reader(new ByteArrayInputStream(out.toByteArray()));
+        Collector c = new Collector();
+        DIDArchive.Chunk chunk;
+        while((chunk = reader.next()) != null) {
+            chunk.accept(c);
+        }
+        assert (reader.isComplete() && c.entries.size() == 3);
+    }
+
+    private static byte[] archive(int dids, int chunkSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DIDArchive.Writer w = new DIDArchive.Writer(out, chunkSize, Deflater.BEST_SPEED);
+        for(int i=0; i<dids; i++) {
+            w.did("user"+i, ("record"+i).getBytes("UTF-8"));
+        }
+        w.revocation("user3");
+        w.trustAnchor("user0");
+        w.trustEdge("user0", "user1", 0.5f);
+        w.close();
+        w.close();
+        assert (w.getChunkCount() == 6);
+        assert (w.getEntryCount() == dids + 3);
+        return out.toByteArray();
+    }
+
+    private static final class Collector implements DIDArchive.Visitor {
+        private final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void did(String username, byte[] record) throws IOException {
+            entries.add("did:"+username+":"+new String(record, "UTF-8"));
+        }
+
+        @Override
+        public void revocation(String username) {
+            entries.add("revoked:"+username);
+        }
+
+        @Override
+        public void trustAnchor(String username) {
+            entries.add("anchor:"+username);
+        }
+
+        @Override
+        public void trustEdge(String signer, String signee, float weight) {
+            entries.add("edge:"+signer+">"+signee+":"+weight);
+        }
+    }
+}
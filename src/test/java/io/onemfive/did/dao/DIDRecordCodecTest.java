@@ -0,0 +1,89 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.data.DID;
+import io.onemfive.data.util.JSONParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary records must decode to the map they were encoded from, field by field or whole,
+ * and legacy JSON records must stay readable.
+ *
+ * @author objectorange
+ */
+public class DIDRecordCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        Map<String,Object> nested = new HashMap<>();
+        nested.put("n", 7);
+        List<Object> list = new ArrayList<>();
+        list.add("a");
+        list.add(null);
+        list.add(nested);
+        Map<String,Object> m = new HashMap<>();
+        m.put("string", "Gr\u00fc\u00dfe");
+        m.put("boolean", true);
+        m.put("int", 42);
+        m.put("long", Long.MAX_VALUE);
+        m.put("double", 0.5d);
+        m.put("null", null);
+        m.put("map", nested);
+        m.put("list", list);
+        m.put("bytes", new byte[]{1, 2, 3});
+
+        byte[] record = DIDRecordCodec.encode(m);
+        assert (DIDRecordCodec.isBinary(record));
+        Map<String,Object> decoded = DIDRecordCodec.toMap(record);
+        assert (Arrays.equals((byte[])decoded.remove("bytes"), new byte[]{1, 2, 3}));
+        m.remove("bytes");
+        assert (decoded.equals(m));
+    }
+
+    @Test
+    public void testReadsOnlyNamedFields() {
+        DID did = new DID();
+        did.setUsername("Alice");
+        did.setAlias("alice");
+        byte[] record = DIDRecordCodec.encode(did);
+
+        assert ("Alice".equals(DIDRecordCodec.readField(record, DIDRecordCodec.FIELD_USERNAME)));
+        assert (DIDRecordCodec.readField(record, "absent") == null);
+        DID partial = DIDRecordCodec.toDID(record, Collections.singletonList(DIDRecordCodec.FIELD_USERNAME));
+        assert ("Alice".equals(partial.getUsername()));
+        assert (partial.getAlias() == null);
+        assert ("alice".equals(DIDRecordCodec.toDID(record).getAlias()));
+    }
+
+    @Test
+    public void testLegacyJSONReadable() {
+        DID did = new DID();
+        did.setUsername("Alice");
+        did.setAlias("alice");
+        byte[] json = JSONParser.toString(did.toMap()).getBytes();
+        assert (!DIDRecordCodec.isBinary(json));
+        DID decoded = DIDRecordCodec.toDID(json);
+        assert ("Alice".equals(decoded.getUsername()));
+        assert ("alice".equals(decoded.getAlias()));
+        // re-encoded as binary it decodes the same
+        assert ("alice".equals(DIDRecordCodec.toDID(DIDRecordCodec.encode(decoded)).getAlias()));
+    }
+
+    @Test
+    public void testUnsupportedValueRejected() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("object", new Object());
+        try {
+            DIDRecordCodec.encode(m);
+            assert (false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
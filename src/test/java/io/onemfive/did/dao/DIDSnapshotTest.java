@@ -0,0 +1,87 @@
+package io.onemfive.did.dao;
+
+import io.onemfive.data.DID;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshots must restore node, local users and the hottest cached DIDs in that order,
+ * never replacing what has been cached since and never restoring a damaged file.
+ *
+ * @author objectorange
+ */
+public class DIDSnapshotTest {
+
+    @Test
+    public void testWriteAndRestore() throws Exception {
+        DIDCache cache = new DIDCache(100, 300);
+        for(int i=0; i<5; i++) {
+            cache.put(did("user"+i));
+        }
+        cache.get("user1"); // hottest
+        List<DIDCache.Entry> hottest = cache.hottest(3);
+        assert (hottest.size() == 3);
+        assert (hottest.get(0).did.getUsername().equals("user1"));
+
+        Path file = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+        int written = DIDSnapshot.write(file, did("node"), Collections.singletonList(did("local")), hottest);
+        assert (written == 5);
+
+        DIDSnapshot snapshot = DIDSnapshot.open(file);
+        assert (snapshot.size() == 5);
+        final List<String> restored = new ArrayList<>();
+        final DIDCache warm = new DIDCache(100, 300);
+        warm.put(did("user1"));
+        snapshot.restore(new DIDSnapshot.Restorer() {
+            @Override
+            public boolean restore(byte kind, DID did, long ageMillis) {
+                restored.add(kind+":"+did.getUsername());
+                if(kind == DIDSnapshot.CACHED && !"user1".equals(did.getUsername()))
+                    assert (warm.restore(did, ageMillis));
+                return true;
+            }
+        });
+        assert (restored.get(0).equals(DIDSnapshot.NODE+":node"));
+        assert (restored.get(1).equals(DIDSnapshot.LOCAL_USER+":local"));
+        assert (restored.get(2).equals(DIDSnapshot.CACHED+":user1"));
+        // cached since start so not replaced
+        assert (!warm.restore(did("user1"), 0));
+        assert (warm.size() == 3);
+    }
+
+    @Test
+    public void testExpiredNotRestored() {
+        DIDCache cache = new DIDCache(100, 1);
+        assert (!cache.restore(did("old"), 2000));
+        assert (cache.restore(did("recent"), 10));
+        assert (cache.get("recent") != null);
+    }
+
+    @Test
+    public void testCorruptRejected() throws Exception {
+        Path file = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+        DIDSnapshot.write(file, did("node"), Collections.<DID>emptyList(), Collections.<DIDCache.Entry>emptyList());
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            DIDSnapshot.open(file);
+            assert (false);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static DID did(String username) {
+        DID did = new DID();
+        did.setUsername(username);
+        return did;
+    }
+}
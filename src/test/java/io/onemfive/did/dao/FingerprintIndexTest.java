@@ -0,0 +1,36 @@
+package io.onemfive.did.dao;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Key owners must survive a reopen with the latest owner winning.
+ *
+ * @author objectorange
+ */
+public class FingerprintIndexTest {
+
+    @Test
+    public void testPutAndReopen() throws Exception {
+        Path file = Files.createTempDirectory("fingerprints").resolve("fingerprints.idx");
+        FingerprintIndex index = FingerprintIndex.open(file);
+        assert (index.owner("f1") == null);
+        assert (index.put("f1", "alice") == null);
+        assert (index.put("f1", "alice") == null);
+        assert (index.put("f2", "bob") == null);
+        assert ("bob".equals(index.put("f2", "carol")));
+        assert (index.owner("f1").equals("alice"));
+        index.close();
+        long size = Files.size(file);
+
+        index = FingerprintIndex.open(file);
+        assert (index.size() == 2);
+        assert (index.owner("f2").equals("carol"));
+        // unchanged owners are not appended again
+        index.put("f1", "alice");
+        index.close();
+        assert (Files.size(file) == size);
+    }
+}
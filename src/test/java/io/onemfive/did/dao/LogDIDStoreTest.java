@@ -0,0 +1,182 @@
+package io.onemfive.did.dao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The log must replay to the last durable state after reopening, torn writes and compaction.
+ *
+ * @author objectorange
+ */
+public class LogDIDStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path dir;
+
+    @Before
+    public void startUp() throws Exception {
+        dir = Files.createTempDirectory("didlog");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.toFile().listFiles();
+        if(files != null) {
+            for(File f : files) {
+                f.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    @Test
+    public void testReopenRecoversIndex() throws Exception {
+        LogDIDStore store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        store.save("alice", "a1".getBytes(), true);
+        store.save("bob", "b1".getBytes(), true);
+        store.save("alice", "a2".getBytes(), false);
+        store.save("carol", "c1".getBytes(), true);
+        store.delete("carol");
+        store.close();
+
+        store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        assert (Arrays.equals("a2".getBytes(), store.load("alice")));
+        assert (Arrays.equals("b1".getBytes(), store.load("bob")));
+        assert (store.load("carol") == null);
+        assert (store.size() == 2);
+        try {
+            store.save("dave", "d1".getBytes(), false);
+            assert (false);
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        store.close();
+    }
+
+    @Test
+    public void testTornRecordDiscarded() throws Exception {
+        LogDIDStore store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        store.save("alice", "a1".getBytes(), true);
+        store.save("bob", "b1".getBytes(), true);
+        store.close();
+
+        // flip the last byte of bob's record as if the write was torn
+        try (RandomAccessFile f = new RandomAccessFile(dir.resolve("did-00000000.log").toFile(), "rw")) {
+            long last = (14 + 5 + 2) + (14 + 3 + 2) - 1;
+            f.seek(last);
+            int b = f.read();
+            f.seek(last);
+            f.write(b ^ 1);
+        }
+
+        store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        assert (Arrays.equals("a1".getBytes(), store.load("alice")));
+        assert (store.load("bob") == null);
+        store.save("bob", "b2".getBytes(), true);
+        store.close();
+
+        store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        assert (Arrays.equals("b2".getBytes(), store.load("bob")));
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        LogDIDStore store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        byte[] record = new byte[200];
+        for(int i=0; i<100; i++) {
+            record[0] = (byte)i;
+            store.save("user"+(i % 5), record, true);
+        }
+        assert (store.getDeadBytes() > store.getTotalBytes() / 2);
+        assert (store.compactIfNeeded());
+        assert (store.getDeadBytes() == 0);
+        assert (store.size() == 5);
+        for(int i=95; i<100; i++) {
+            assert (store.load("user"+(i % 5))[0] == (byte)i);
+        }
+        store.close();
+
+        store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        assert (store.size() == 5);
+        assert (store.load("user0")[0] == (byte)95);
+        assert (dir.toFile().listFiles().length == 1);
+        store.close();
+    }
+
+    @Test
+    public void testWritesDuringCompaction() throws Exception {
+        final LogDIDStore store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        final byte[] record = new byte[200];
+        for(int i=0; i<100; i++) {
+            store.save("user"+(i % 5), record, true);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger written = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(!done.get()) {
+                        int i = written.incrementAndGet();
+                        store.save("user"+(i % 5), ByteBuffer.allocate(200).putInt(0, i).array(), true);
+                        if(i % 7 == 0) store.delete("user"+(i % 5));
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        writer.start();
+        int compactions = 0;
+        while(compactions < 20) {
+            if(store.compactIfNeeded()) compactions++;
+        }
+        done.set(true);
+        writer.join();
+        assert (store.getDeadBytes() >= 0 && store.getDeadBytes() <= store.getTotalBytes());
+
+        Map<String,byte[]> expected = new HashMap<>();
+        for(String username : store.usernames()) {
+            expected.put(username, store.load(username));
+        }
+        store.close();
+        LogDIDStore reopened = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        assert (reopened.size() == expected.size());
+        for(Map.Entry<String,byte[]> entry : expected.entrySet()) {
+            assert (Arrays.equals(entry.getValue(), reopened.load(entry.getKey())));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testClosedStoreRejectsAccess() throws Exception {
+        LogDIDStore store = new LogDIDStore(dir, SEGMENT_SIZE, 0.5, false);
+        store.save("alice", "a1".getBytes(), true);
+        store.close();
+        try {
+            store.load("alice");
+            assert (false);
+        } catch (ClosedChannelException e) {
+            // expected
+        }
+        assert (store.usernames().isEmpty());
+        assert (!store.compactIfNeeded());
+    }
+}
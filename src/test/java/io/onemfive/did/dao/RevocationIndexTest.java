@@ -0,0 +1,49 @@
+package io.onemfive.did.dao;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Revocations must survive a reopen, even after a torn write, and be fetchable by sequence.
+ *
+ * @author objectorange
+ */
+public class RevocationIndexTest {
+
+    @Test
+    public void testRevokeAndReopen() throws Exception {
+        Path file = Files.createTempDirectory("revocations").resolve("revocations.log");
+        RevocationIndex index = RevocationIndex.open(file);
+        assert (!index.isRevoked("alice"));
+        assert (index.revoke(Arrays.asList("alice", "bob", "alice")) == 2);
+        assert (index.revoke(Collections.singletonList("bob")) == 0);
+        assert (index.revoke(Collections.singletonList("carol")) == 1);
+        assert (index.isRevoked("alice") && index.isRevoked("carol"));
+        assert (index.getSequence() == 3);
+        assert (index.since(1, 10).equals(Arrays.asList("bob", "carol")));
+        assert (index.since(3, 10).isEmpty());
+        assert (index.since(0, 1).equals(Collections.singletonList("alice")));
+        index.close();
+
+        // a record torn by a crash is dropped and appends continue after the last whole one
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+            out.write(new byte[]{0, 5, 'd', 'a'});
+        }
+        index = RevocationIndex.open(file);
+        assert (index.getSequence() == 3);
+        assert (index.since(0, 10).equals(Arrays.asList("alice", "bob", "carol")));
+        index.revoke(Collections.singletonList("dave"));
+        index.close();
+
+        index = RevocationIndex.open(file);
+        assert (index.isRevoked("dave"));
+        assert (index.since(3, 10).equals(Collections.singletonList("dave")));
+        index.close();
+    }
+}
@@ -0,0 +1,112 @@
+package io.onemfive.did.dao;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The filter must never deny an added username and must survive a save and load, or a crash
+ * through its journal.
+ *
+ * @author objectorange
+ */
+public class UsernameFilterTest {
+
+    private static final int USERNAMES = 10000;
+
+    @Test
+    public void testNoFalseNegatives() {
+        UsernameFilter filter = new UsernameFilter(USERNAMES, 0.01);
+        for(int i=0; i<USERNAMES; i++) {
+            filter.add("user"+i);
+        }
+        for(int i=0; i<USERNAMES; i++) {
+            assert (filter.mightContain("user"+i));
+        }
+        int falsePositives = 0;
+        for(int i=0; i<USERNAMES; i++) {
+            if(filter.mightContain("other"+i))
+                falsePositives++;
+        }
+        // configured for 1%; allow for variance
+        assert (falsePositives < USERNAMES * 0.03);
+        assert (filter.getAdded() == USERNAMES);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Path dir = Files.createTempDirectory("didfilter");
+        Path file = dir.resolve("usernames.filter");
+        try {
+            UsernameFilter filter = new UsernameFilter(1000, 0.01);
+            filter.add("alice");
+            filter.add("bob");
+            filter.save(file);
+
+            UsernameFilter loaded = UsernameFilter.load(file);
+            assert (loaded.mightContain("alice"));
+            assert (loaded.mightContain("bob"));
+            assert (loaded.getAdded() == 2);
+            assert (loaded.getExpectedFalsePositiveRate() == filter.getExpectedFalsePositiveRate());
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testUnseededAnswersMaybe() throws Exception {
+        UsernameFilter filter = new UsernameFilter(1000, 0.01, false);
+        assert (filter.mightContain("alice"));
+        filter.add("bob");
+        Path dir = Files.createTempDirectory("didfilter");
+        Path file = dir.resolve("usernames.filter");
+        try {
+            filter.save(file);
+            UsernameFilter loaded = UsernameFilter.load(file);
+            assert (!loaded.isSeeded());
+            assert (loaded.mightContain("alice"));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void testJournalReplayedAfterCrash() throws Exception {
+        Path dir = Files.createTempDirectory("didfilter");
+        Path file = dir.resolve("usernames.filter");
+        Path journalFile = dir.resolve("usernames.filter.log");
+        try {
+            UsernameFilter filter = new UsernameFilter(1000, 0.01);
+            filter.add("alice");
+            filter.save(file);
+            UsernameJournal journal = UsernameJournal.open(journalFile);
+            assert (filter.add("bob"));
+            journal.append("bob");
+            journal.append("carol");
+            journal.close();
+            // a torn last entry
+            try (OutputStream out = Files.newOutputStream(journalFile, StandardOpenOption.APPEND)) {
+                out.write(new byte[]{0, 9, 'd'});
+            }
+
+            UsernameFilter loaded = UsernameFilter.load(file);
+            assert (UsernameJournal.replay(journalFile, loaded) == 2);
+            assert (loaded.mightContain("alice"));
+            assert (loaded.mightContain("bob"));
+            assert (loaded.mightContain("carol"));
+
+            journal = UsernameJournal.open(journalFile);
+            journal.close();
+            assert (UsernameJournal.replay(journalFile, new UsernameFilter(1000, 0.01)) == 0);
+        } finally {
+            Files.deleteIfExists(journalFile);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package io.onemfive.did.dao;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every version must resolve to the document saved as it, whether replayed from a checkpoint,
+ * served from memory or read back after a reopen, and saves must append only what changed.
+ *
+ * @author objectorange
+ */
+public class VersionedDIDStoreTest {
+
+    @Test
+    public void testResolveVersions() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 4, 100, false);
+        Map<String,Object> doc = document();
+        for(int i=1; i<=10; i++) {
+            doc.put("key", "key-"+i);
+            if(i == 5) doc.remove("alias");
+            store.save("alice", DIDRecordCodec.encode(doc), true);
+        }
+        // unchanged saves add no version
+        store.save("alice", DIDRecordCodec.encode(doc), true);
+        assert (store.latestVersion("alice") == 10);
+        check(store);
+        store.close();
+
+        VersionedDIDStore reopened = new VersionedDIDStore(dir, 4, 100, false);
+        check(reopened);
+        assert (DIDRecordCodec.toMap(reopened.load("alice")).get("key").equals("key-10"));
+        assert (reopened.usernames().contains("alice"));
+        assert (reopened.resolve("alice", 11) == null);
+        assert (reopened.resolve("bob", 1) == null);
+    }
+
+    @Test
+    public void testDeltasAreSmall() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 16, 100, false);
+        Map<String,Object> doc = document();
+        StringBuilder big = new StringBuilder();
+        for(int i=0; i<1000; i++) big.append('x');
+        doc.put("description", big.toString());
+        store.save("alice", DIDRecordCodec.encode(doc), true);
+        long first = size(dir);
+        doc.put("key", "rotated");
+        store.save("alice", DIDRecordCodec.encode(doc), true);
+        assert (size(dir) - first < 200);
+    }
+
+    @Test
+    public void testTornEntryDropped() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 4, 100, false);
+        Map<String,Object> doc = document();
+        store.save("alice", DIDRecordCodec.encode(doc), true);
+        doc.put("key", "k2");
+        store.save("alice", DIDRecordCodec.encode(doc), true);
+        store.close();
+        Path log = only(dir);
+        try (RandomAccessFile f = new RandomAccessFile(log.toFile(), "rw")) {
+            f.setLength(f.length() - 3);
+        }
+        VersionedDIDStore reopened = new VersionedDIDStore(dir, 4, 100, false);
+        assert (reopened.latestVersion("alice") == 1);
+        doc.put("key", "k3");
+        reopened.save("alice", DIDRecordCodec.encode(doc), true);
+        reopened.close();
+        assert (new VersionedDIDStore(dir, 4, 100, false).resolve("alice", 2).document.get("key").equals("k3"));
+    }
+
+    @Test
+    public void testReadFromLastIndexedCheckpoint() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 4, 100, false);
+        Map<String,Object> doc = document();
+        for(int i=1; i<=10; i++) {
+            doc.put("key", "key-"+i);
+            if(i == 5) doc.remove("alias");
+            store.save("alice", DIDRecordCodec.encode(doc), true);
+        }
+        store.close();
+        // damage the first checkpoint's payload: only a resolve replaying it may read it
+        Path log = only(dir);
+        try (RandomAccessFile f = new RandomAccessFile(log.toFile(), "rw")) {
+            long damaged = 8 + "alice".length() + 21 + 2;
+            f.seek(damaged);
+            int b = f.read();
+            f.seek(damaged);
+            f.write(b ^ 0xFF);
+        }
+        VersionedDIDStore reopened = new VersionedDIDStore(dir, 4, 100, false);
+        assert (reopened.latestVersion("alice") == 10);
+        assert (DIDRecordCodec.toMap(reopened.load("alice")).get("key").equals("key-10"));
+        assert (reopened.resolve("alice", 9).document.get("key").equals("key-9"));
+        try {
+            reopened.resolve("alice", 1);
+            assert (false);
+        } catch (IOException e) {
+            // corrupt entries are reported, never replayed
+        }
+    }
+
+    @Test
+    public void testMismatchedIndexRebuilt() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 4, 100, false);
+        Map<String,Object> doc = document();
+        for(int i=1; i<=10; i++) {
+            doc.put("key", "key-"+i);
+            if(i == 5) doc.remove("alias");
+            store.save("alice", DIDRecordCodec.encode(doc), true);
+        }
+        store.close();
+        Path index = Paths.get(only(dir) + ".idx");
+        byte[] good = Files.readAllBytes(index);
+        ByteBuffer wrong = ByteBuffer.allocate(12);
+        wrong.putInt(3).putLong(20);
+        Files.write(index, wrong.array());
+        check(new VersionedDIDStore(dir, 4, 100, false));
+        assert (Arrays.equals(Files.readAllBytes(index), good));
+
+        Files.delete(index);
+        check(new VersionedDIDStore(dir, 4, 100, false));
+        assert (Arrays.equals(Files.readAllBytes(index), good));
+    }
+
+    @Test
+    public void testUnreadableLogMovedAside() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 4, 100, false);
+        store.save("alice", DIDRecordCodec.encode(document()), true);
+        store.close();
+        Path log = only(dir);
+        byte[] junk = new byte[100];
+        Files.write(log, junk);
+
+        VersionedDIDStore reopened = new VersionedDIDStore(dir, 4, 100, false);
+        assert (reopened.load("alice") == null);
+        reopened.save("alice", DIDRecordCodec.encode(document()), true);
+        assert (reopened.latestVersion("alice") == 1);
+        int rejected = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.rejected-*")) {
+            for(Path f : files) {
+                assert (Arrays.equals(Files.readAllBytes(f), junk));
+                rejected++;
+            }
+        }
+        assert (rejected == 1);
+    }
+
+    @Test
+    public void testUsernamesSkipsImplausibleNameLength() throws Exception {
+        Path dir = Files.createTempDirectory("versions");
+        VersionedDIDStore store = new VersionedDIDStore(dir, 4, 100, false);
+        store.save("alice", DIDRecordCodec.encode(document()), true);
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(0xD1D0DE17).putInt(Integer.MAX_VALUE).putLong(0);
+        Files.write(dir.resolve("bogus.didlog"), header.array());
+        assert (store.usernames().size() == 1 && store.usernames().contains("alice"));
+    }
+
+    private static void check(VersionedDIDStore store) throws Exception {
+        for(int i=1; i<=10; i++) {
+            VersionedDIDStore.Version v = store.resolve("alice", i);
+            assert (v.version == i);
+            assert (v.document.get("key").equals("key-"+i));
+            assert (v.document.get("username").equals("alice"));
+            assert ((i < 5) == v.document.containsKey("alias"));
+        }
+        assert (store.resolve("alice", 0).version == 10);
+    }
+
+    private static Map<String,Object> document() {
+        Map<String,Object> doc = new HashMap<>();
+        doc.put("username", "alice");
+        doc.put("alias", "Alice");
+        doc.put("key", "key-0");
+        return doc;
+    }
+
+    private static long size(Path dir) throws Exception {
+        return Files.size(only(dir));
+    }
+
+    private static Path only(Path dir) throws Exception {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.didlog")) {
+            return files.iterator().next();
+        }
+    }
+}
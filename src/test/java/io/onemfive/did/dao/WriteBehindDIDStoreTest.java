@@ -0,0 +1,122 @@
+package io.onemfive.did.dao;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Queued saves must be readable before they are written, coalesced, and all written by close.
+ *
+ * @author objectorange
+ */
+public class WriteBehindDIDStoreTest {
+
+    private static class MemoryStore implements DIDStore {
+        private final Map<String,byte[]> records = new HashMap<>();
+        private int saves;
+        private int syncs;
+        private boolean closed;
+        private volatile boolean failSync;
+
+        @Override
+        public synchronized byte[] load(String username) {
+            return records.get(username);
+        }
+
+        @Override
+        public synchronized void save(String username, byte[] record, boolean autoCreate) {
+            records.put(username, record);
+            saves++;
+        }
+
+        @Override
+        public synchronized Collection<String> usernames() {
+            return new ArrayList<>(records.keySet());
+        }
+
+        @Override
+        public synchronized void sync() throws IOException {
+            if(failSync) throw new IOException("sync failed");
+            syncs++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testCoalescedAndFlushedOnClose() throws Exception {
+        MemoryStore memory = new MemoryStore();
+        WriteBehindDIDStore store = new WriteBehindDIDStore(memory, 1000, 60000);
+        for(int i=0; i<100; i++) {
+            store.save("user"+(i % 10), new byte[]{(byte)i}, true);
+        }
+        assert (memory.saves == 0);
+        assert (store.load("user3")[0] == 93);
+        try {
+            store.save("nobody", new byte[]{1}, false);
+            assert (false);
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        store.close();
+        assert (memory.closed);
+        assert (memory.saves == 10);
+        assert (memory.syncs == 1);
+        assert (Arrays.equals(new byte[]{99}, memory.load("user9")));
+        try {
+            store.save("user1", new byte[]{1}, true);
+            assert (false);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFlushesOnBatchSize() throws Exception {
+        MemoryStore memory = new MemoryStore();
+        WriteBehindDIDStore store = new WriteBehindDIDStore(memory, 10, 60000);
+        for(int i=0; i<10; i++) {
+            store.save("user"+i, new byte[]{(byte)i}, true);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while(store.getGroups() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert (memory.saves == 10);
+        store.close();
+    }
+
+    @Test
+    public void testFailedSyncRequeuedAndReported() throws Exception {
+        MemoryStore memory = new MemoryStore();
+        memory.failSync = true;
+        WriteBehindDIDStore store = new WriteBehindDIDStore(memory, 1, 60000);
+        // the queue fills as every flush fails, then a save waiting for room gets the failure
+        boolean failed = false;
+        for(int i=0; i<1000 && !failed; i++) {
+            try {
+                store.save("user"+i, new byte[]{(byte)i}, true);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+        assert (failed);
+        assert (store.getFailures() > 0);
+        assert (Arrays.equals(new byte[]{0}, store.load("user0")));
+
+        memory.failSync = false;
+        store.flush();
+        assert (store.getQueued() == 0);
+        assert (Arrays.equals(new byte[]{0}, memory.load("user0")));
+        store.close();
+    }
+}
@@ -0,0 +1,104 @@
+package io.onemfive.did.hash;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pooled digests must match the published test vectors whatever the content source and
+ * however often the thread's instance is reused.
+ *
+ * @author objectorange
+ */
+public class DigestEngineTest {
+
+    private static final byte[] ABC = "abc".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testVectors() throws Exception {
+        assert (hex(DigestEngine.digest(DigestEngine.SHA256, ABC)).equals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"));
+        assert (hex(DigestEngine.digest(DigestEngine.SHA512_256, ABC)).equals("53048e2681941ef99b2e29b76b4c7dabe4c2d0c634fc6d46e0e2f13107e7af23"));
+        assert (hex(DigestEngine.digest(DigestEngine.BLAKE2B_512, ABC)).equals("ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d17d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923"));
+        assert (DigestEngine.digestLength(DigestEngine.BLAKE2B_256) == 32);
+    }
+
+    @Test
+    public void testSourcesAgree() throws Exception {
+        byte[] content = new byte[3 * ContentHasher.BUFFER_SIZE + 11];
+        new Random(7).nextBytes(content);
+        Path file = Files.createTempFile("digest", ".bin");
+        try {
+            Files.write(file, content);
+            for(String algorithm : new String[]{DigestEngine.SHA256, DigestEngine.SHA512_256, DigestEngine.BLAKE2B_256}) {
+                byte[] expected = DigestEngine.digest(algorithm, content);
+                ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+                direct.put(content).flip();
+                assert (Arrays.equals(expected, DigestEngine.digest(algorithm, direct)));
+                assert (direct.position() == 0);
+                assert (Arrays.equals(expected, DigestEngine.digest(algorithm, ByteBuffer.wrap(content))));
+                assert (Arrays.equals(expected, DigestEngine.digest(algorithm, new ByteArrayInputStream(content))));
+                assert (Arrays.equals(expected, DigestEngine.digest(algorithm, file)));
+                // reused instance starts clean
+                assert (Arrays.equals(expected, DigestEngine.digest(algorithm, content)));
+            }
+        } finally {
+            Files.delete(file);
+        }
+        assert (Arrays.equals(DigestEngine.digest(DigestEngine.SHA256, content, 5, 100),
+                MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(content, 5, 105))));
+    }
+
+    @Test
+    public void testResetAfterFailedRead() throws Exception {
+        for(String algorithm : new String[]{DigestEngine.SHA256, DigestEngine.BLAKE2B_256}) {
+            InputStream failing = new InputStream() {
+                private int read;
+                @Override
+                public int read() {
+                    if(read++ < 10)
+                        return 'x';
+                    throw new IllegalStateException("broken stream");
+                }
+            };
+            try {
+                DigestEngine.digest(algorithm, failing);
+                assert (false);
+            } catch (IllegalStateException e) {
+                // the partial update must not leak into the next digest on this thread
+            }
+            assert (Arrays.equals(DigestEngine.digest(algorithm, ABC), DigestEngine.digest(algorithm, new ByteArrayInputStream(ABC))));
+        }
+    }
+
+    @Test
+    public void testAlgorithmNames() throws Exception {
+        assert (DigestEngine.algorithm("sha256").equals(DigestEngine.SHA256));
+        assert (DigestEngine.algorithm("blake2b").equals(DigestEngine.BLAKE2B_256));
+        assert (DigestEngine.algorithm("SHA512/256").equals(DigestEngine.SHA512_256));
+        assert (DigestEngine.isSupported(DigestEngine.FAST));
+        assert (!DigestEngine.isSupported("MD5"));
+        try {
+            DigestEngine.digest("MD5", ABC);
+            assert (false);
+        } catch (NoSuchAlgorithmException e) {
+            // expected
+        }
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder(b.length * 2);
+        for(byte x : b) {
+            sb.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
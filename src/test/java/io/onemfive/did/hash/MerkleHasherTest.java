@@ -0,0 +1,73 @@
+package io.onemfive.did.hash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tree hashes must not depend on how content is supplied or how many threads hash it.
+ *
+ * @author objectorange
+ */
+public class MerkleHasherTest {
+
+    private ForkJoinPool pool;
+    private byte[] content;
+
+    @Before
+    public void startUp() {
+        pool = new ForkJoinPool(4);
+        content = new byte[1000 * 1000 + 17];
+        new Random(42).nextBytes(content);
+    }
+
+    @Test
+    public void testSourcesAgree() throws Exception {
+        MerkleHasher hasher = new MerkleHasher(pool, 4096);
+        MerkleHasher.Tree fromBuffer = hasher.hash(ByteBuffer.wrap(content));
+        MerkleHasher.Tree fromStream = hasher.hash(new ByteArrayInputStream(content));
+        Path file = Files.createTempFile("merkle", ".bin");
+        try {
+            Files.write(file, content);
+            MerkleHasher.Tree fromFile = hasher.hash(file);
+            assert (Arrays.equals(fromBuffer.root, fromFile.root));
+        } finally {
+            Files.delete(file);
+        }
+        assert (Arrays.equals(fromBuffer.root, fromStream.root));
+        assert (fromBuffer.leaves.length == (content.length + 4095) / 4096);
+        MerkleHasher.Tree sequential = new MerkleHasher(new ForkJoinPool(1), 4096).hash(ByteBuffer.wrap(content));
+        assert (Arrays.equals(fromBuffer.root, sequential.root));
+    }
+
+    @Test
+    public void testSingleChunkReverify() {
+        MerkleHasher hasher = new MerkleHasher(pool, 4096);
+        MerkleHasher.Tree tree = hasher.hash(ByteBuffer.wrap(content));
+        assert (Arrays.equals(tree.leaves[7], hasher.hashChunk(ByteBuffer.wrap(content), 7)));
+        assert (Arrays.equals(tree.root, MerkleHasher.root(tree.leaves)));
+        content[7 * 4096 + 1] ^= 1;
+        assert (!Arrays.equals(tree.leaves[7], hasher.hashChunk(ByteBuffer.wrap(content), 7)));
+        assert (Arrays.equals(tree.leaves[8], hasher.hashChunk(ByteBuffer.wrap(content), 8)));
+    }
+
+    @Test
+    public void testEmptyContent() {
+        MerkleHasher.Tree tree = new MerkleHasher(pool, 4096).hash(ByteBuffer.allocate(0));
+        assert (tree.leaves.length == 1);
+        assert (tree.root.length == 32);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,52 @@
+package io.onemfive.did.metrics;
+
+import io.onemfive.did.AuthenticateDIDRequest;
+import io.onemfive.did.DIDService;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Percentiles must stay within the histogram's precision and error codes must be reported by name.
+ *
+ * @author objectorange
+ */
+public class DIDMetricsTest {
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for(long v=1; v<=100000; v++) {
+            h.record(v * 1000);
+        }
+        assert (h.getCount() == 100000);
+        assert (Math.abs(h.getValueAtPercentile(50) - 50000000L) <= 50000000L * 0.04);
+        assert (Math.abs(h.getValueAtPercentile(99) - 99000000L) <= 99000000L * 0.04);
+        assert (h.getValueAtPercentile(100) == h.getMaxNanos());
+        assert (h.getMaxNanos() == 100000000L);
+        for(long v : new long[]{0, 1, 63, 64, 65, 1000, 1L << 30, (1L << 41) - 1}) {
+            long reported = LatencyHistogram.highestEquivalentValue(LatencyHistogram.index(v));
+            assert (reported >= v && reported - v <= Math.max(1, v / 32));
+        }
+        h.reset();
+        assert (h.getCount() == 0 && h.getValueAtPercentile(99) == 0);
+    }
+
+    @Test
+    public void testErrorCountsNamed() {
+        DIDMetrics metrics = new DIDMetrics(Arrays.asList(DIDService.OPERATION_AUTHENTICATE),
+                Collections.<Class<?>>singletonList(AuthenticateDIDRequest.class));
+        metrics.error(AuthenticateDIDRequest.class, AuthenticateDIDRequest.DID_USERNAME_UNKNOWN);
+        metrics.error(AuthenticateDIDRequest.class, AuthenticateDIDRequest.DID_USERNAME_UNKNOWN);
+        metrics.error(AuthenticateDIDRequest.class, -1);
+        metrics.operation(DIDService.OPERATION_AUTHENTICATE).record(1000);
+        metrics.operation("NOT_AN_OPERATION").record(1000);
+        Map<String,Long> errors = metrics.getErrorCounts();
+        assert (errors.size() == 1);
+        assert (errors.get("AuthenticateDIDRequest.DID_USERNAME_UNKNOWN") == 2L);
+        assert (metrics.getCounts().get(DIDService.OPERATION_AUTHENTICATE) == 1L);
+        assert (metrics.getCounts().get(DIDMetrics.UNKNOWN_OPERATION) == 1L);
+    }
+}
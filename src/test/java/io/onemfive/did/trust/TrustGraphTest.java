@@ -0,0 +1,196 @@
+package io.onemfive.did.trust;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Trust must decay per hop, stop at the maximum depth and stay equal to trust computed from
+ * scratch as vouches and anchors are added and removed.
+ *
+ * @author objectorange
+ */
+public class TrustGraphTest {
+
+    @Test
+    public void testChain() {
+        TrustGraph g = new TrustGraph(3, 0.5f);
+        g.addAnchor("a");
+        g.addEdge("a", "b", 1);
+        g.addEdge("b", "c", 1);
+        g.addEdge("c", "d", 1);
+        g.addEdge("d", "e", 1);
+        assert (g.trust("a") == 1);
+        assert (g.trust("b") == 0.5f);
+        assert (g.trust("d") == 0.125f);
+        assert (g.trust("e") == 0); // beyond the maximum depth
+        assert (g.trustPath("d").equals(Arrays.asList("a", "b", "c", "d")));
+
+        // a shorter but weaker path is used once the stronger one is cut
+        g.addEdge("a", "d", 0.1f);
+        assert (g.trust("d") == 0.125f);
+        assert (g.removeEdge("b", "c"));
+        assert (g.trust("c") == 0);
+        assert (g.trust("d") == 0.05f);
+        assert (g.trustPath("d").equals(Arrays.asList("a", "d")));
+        assert (g.trust("e") == 0.025f);
+        assert (!g.removeEdge("b", "c"));
+
+        TrustGraph.Result r = g.trust("b", "e");
+        assert (r.trust == 0);
+        r = g.trust("a", "e");
+        assert (r.trust == 0.025f);
+        assert (r.path.equals(Arrays.asList("a", "d", "e")));
+    }
+
+    @Test
+    public void testIncrementalMatchesRebuilt() {
+        Random random = new Random(7);
+        int nodes = 200;
+        TrustGraph g = new TrustGraph(3, 0.5f);
+        float[][] weights = new float[nodes][nodes];
+        g.addAnchor("0");
+        g.addAnchor("1");
+        for(int i=0; i<4000; i++) {
+            int from = random.nextInt(nodes);
+            int to = random.nextInt(nodes);
+            if(from == to) continue;
+            if(random.nextInt(3) == 0) {
+                g.removeEdge(""+from, ""+to);
+                weights[from][to] = 0;
+            } else {
+                float w = (1 + random.nextInt(4)) / 4f;
+                g.addEdge(""+from, ""+to, w);
+                weights[from][to] = w;
+            }
+        }
+        TrustGraph rebuilt = new TrustGraph(3, 0.5f);
+        for(int from=0; from<nodes; from++) {
+            for(int to=0; to<nodes; to++) {
+                if(weights[from][to] > 0) rebuilt.addEdge(""+from, ""+to, weights[from][to]);
+            }
+        }
+        rebuilt.addAnchor("0");
+        rebuilt.addAnchor("1");
+        assert (g.getEdgeCount() == rebuilt.getEdgeCount());
+        for(int v=0; v<nodes; v++) {
+            assert (g.trust(""+v) == rebuilt.trust(""+v));
+            assert (g.trust("5", ""+v).trust == rebuilt.trust("5", ""+v).trust);
+        }
+    }
+
+    @Test
+    public void testLogReplay() throws Exception {
+        Path dir = Files.createTempDirectory("trust");
+        Path file = dir.resolve("trust.log");
+        TrustGraph g = new TrustGraph();
+        TrustLog log = TrustLog.open(file, g);
+        log.anchor("a");
+        log.added("a", "b", 1);
+        log.added("b", "c", 0.5f);
+        log.removed("a", "b");
+        log.added("a", "b", 0.5f);
+        log.close();
+
+        g = new TrustGraph();
+        TrustLog.open(file, g).close();
+        assert (g.isAnchor("a"));
+        assert (g.getEdgeCount() == 2);
+        assert (g.trust("c") == 0.5f * 0.5f * 0.5f * 0.5f);
+    }
+
+    @Test
+    public void testRemoveAnchorAndSignerEdges() {
+        TrustGraph g = new TrustGraph(3, 0.5f);
+        g.addAnchor("a");
+        g.addAnchor("x");
+        g.addEdge("a", "b", 1);
+        g.addEdge("b", "c", 1);
+        g.addEdge("x", "c", 0.5f);
+        assert (g.trust("c") == 0.25f);
+        assert (g.removeAnchor("a"));
+        assert (!g.removeAnchor("a"));
+        assert (!g.isAnchor("a") && g.trust("a") == 0 && g.trust("b") == 0);
+        assert (g.trust("c") == 0.25f);
+
+        g.addAnchor("a");
+        // no trust passes through a signer whose vouches are all removed
+        assert (g.removeEdgesFrom("b").equals(Arrays.asList("c")));
+        assert (g.trust("b") == 0.5f && g.trust("c") == 0.25f);
+        assert (g.trustPath("c").equals(Arrays.asList("x", "c")));
+        assert (g.getEdgeCount() == 2);
+        assert (g.removeEdgesFrom("b").isEmpty());
+
+        TrustGraph rebuilt = new TrustGraph(3, 0.5f);
+        rebuilt.addEdge("a", "b", 1);
+        rebuilt.addEdge("x", "c", 0.5f);
+        rebuilt.addAnchor("a");
+        rebuilt.addAnchor("x");
+        for(String v : new String[]{"a", "b", "c", "x"}) {
+            assert (g.trust(v) == rebuilt.trust(v));
+        }
+    }
+
+    @Test
+    public void testAddEdgeIfAbsent() {
+        TrustGraph g = new TrustGraph();
+        g.addAnchor("a");
+        assert (g.addEdgeIfAbsent("a", "b", 0.3f));
+        assert (!g.addEdgeIfAbsent("a", "b", 1));
+        assert (g.weight("a", "b") == 0.3f && g.trust("b") == 0.3f * TrustGraph.DEFAULT_DECAY);
+        assert (g.weight("b", "a") == 0 && g.weight("a", "z") == 0);
+    }
+
+    @Test
+    public void testRevokedEdgeRemembered() {
+        TrustGraph g = new TrustGraph();
+        g.addAnchor("a");
+        g.addEdge("a", "b", 1);
+        assert (g.revokeEdge("a", "b", 100));
+        assert (g.trust("b") == 0 && g.revokedAt("a", "b") == 100);
+        // an earlier withdrawal does not move it back
+        assert (!g.revokeEdge("a", "b", 50));
+        assert (g.revokedAt("a", "b") == 100);
+        assert (g.revokedAt("b", "a") == 0 && g.revokedAt("a", "z") == 0);
+    }
+
+    @Test
+    public void testLogReplayRemovals() throws Exception {
+        Path dir = Files.createTempDirectory("trust");
+        Path file = dir.resolve("trust.log");
+        TrustGraph g = new TrustGraph();
+        TrustLog log = TrustLog.open(file, g);
+        log.anchor("a");
+        log.anchor("x");
+        log.added("a", "b", 1);
+        log.added("x", "c", 1);
+        log.unanchored("x");
+        log.removed("a", "b", 100);
+        log.added("a", "c", 0.5f);
+        log.removed("a", "c", 200);
+        // vouched again after withdrawing it
+        log.added("a", "c", 1);
+        // churn enough for the log to be compacted when opened
+        for(int i=0; i<6; i++) {
+            log.added("a", "d", 1);
+            log.removed("a", "d");
+        }
+        log.close();
+        long length = Files.size(file);
+
+        for(int i=0; i<2; i++) {
+            // the second time from the log compacted on the first
+            g = new TrustGraph();
+            TrustLog.open(file, g).close();
+            assert (g.isAnchor("a") && !g.isAnchor("x"));
+            assert (g.getEdgeCount() == 2);
+            assert (g.trust("b") == 0 && g.trust("c") == 0.5f);
+            assert (g.revokedAt("a", "b") == 100 && g.revokedAt("a", "c") == 200);
+            assert (g.trust("d") == 0);
+        }
+        assert (Files.size(file) < length);
+    }
+}
@@ -0,0 +1,134 @@
+package io.onemfive.did.vouch;
+
+import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Vouches must verify only unaltered and repeated verifications must hit the cache.
+ *
+ * @author objectorange
+ */
+public class VouchSignerTest {
+
+    @Test
+    public void testSignAndVerify() {
+        VerifiedVouchCache cache = new VerifiedVouchCache(100);
+        VouchSigner signer = new VouchSigner(cache);
+        Ed25519PrivateKeyParameters key = new Ed25519PrivateKeyParameters(new SecureRandom());
+        Map<String,Object> attributes = new HashMap<>();
+        attributes.put("name", "Bob");
+        attributes.put("trust", 5);
+        Vouch vouch = signer.sign("alice", "bob", attributes, key);
+
+        // a fresh cache so the signature is checked
+        VouchSigner verifier = new VouchSigner(new VerifiedVouchCache(100));
+        byte[] aliceKey = key.generatePublicKey().getEncoded();
+        assert (verifier.verify(vouch, aliceKey));
+        Map<String,Object> reordered = new LinkedHashMap<>();
+        reordered.put("trust", 5);
+        reordered.put("name", "Bob");
+        assert (Arrays.equals(vouch.getAttributesDigest(), VouchSigner.digest(reordered)));
+
+        Vouch forged = new Vouch("alice", "carol", vouch.getSignerPublicKey(), vouch.getAttributesDigest(),
+                vouch.getSignedAt(), vouch.getSignature());
+        assert (!verifier.verify(forged, aliceKey));
+        // cached under the same signature but must not hit for a different signee
+        assert (!signer.verify(forged, aliceKey));
+    }
+
+    @Test
+    public void testWeightSigned() {
+        VouchSigner signer = new VouchSigner(new VerifiedVouchCache(100));
+        Ed25519PrivateKeyParameters key = new Ed25519PrivateKeyParameters(new SecureRandom());
+        byte[] aliceKey = key.generatePublicKey().getEncoded();
+        Vouch vouch = signer.sign("alice", "bob", new HashMap<String,Object>(), 0.3f, key);
+        assert (vouch.getWeight() == 0.3f);
+
+        VouchSigner verifier = new VouchSigner(new VerifiedVouchCache(100));
+        Vouch copy = new Vouch();
+        copy.fromMap(vouch.toMap());
+        assert (verifier.verify(copy, aliceKey) && copy.getWeight() == 0.3f);
+        Vouch raised = new Vouch("alice", "bob", vouch.getSignerPublicKey(), vouch.getAttributesDigest(),
+                vouch.getSignedAt(), 1, vouch.getSignature());
+        assert (!verifier.verify(raised, aliceKey));
+        // cached under the same signature but must not hit for a different weight
+        assert (!signer.verify(raised, aliceKey));
+    }
+
+    @Test
+    public void testBatchVerifyUsesCache() {
+        VerifiedVouchCache signerCache = new VerifiedVouchCache(100);
+        VouchSigner signer = new VouchSigner(signerCache);
+        Ed25519PrivateKeyParameters key = new Ed25519PrivateKeyParameters(new SecureRandom());
+        final byte[] aliceKey = key.generatePublicKey().getEncoded();
+        VouchSigner.SignerKeys keys = new VouchSigner.SignerKeys() {
+            @Override
+            public byte[] publicKeyOf(String signer) {
+                return "alice".equals(signer) ? aliceKey : null;
+            }
+        };
+        List<Vouch> vouches = new ArrayList<>();
+        for(int i=0; i<20; i++) {
+            Map<String,Object> attributes = new HashMap<>();
+            attributes.put("i", i);
+            vouches.add(signer.sign("alice", "user"+i, attributes, key));
+        }
+        vouches.add(null);
+        VerifiedVouchCache cache = new VerifiedVouchCache(100);
+        VouchSigner verifier = new VouchSigner(cache);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            boolean[] valid = verifier.verifyAll(vouches, keys, pool);
+            for(int i=0; i<20; i++) {
+                assert (valid[i]);
+            }
+            assert (!valid[20]);
+            assert (cache.size() == 20);
+            long hits = cache.getHits();
+            valid = verifier.verifyAll(vouches, keys, pool);
+            assert (valid[0] && valid[19]);
+            assert (cache.getHits() == hits + 20);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testForgedSignerKeyRejected() {
+        Ed25519PrivateKeyParameters aliceKey = new Ed25519PrivateKeyParameters(new SecureRandom());
+        final byte[] alicePublicKey = aliceKey.generatePublicKey().getEncoded();
+        VouchSigner.SignerKeys keys = new VouchSigner.SignerKeys() {
+            @Override
+            public byte[] publicKeyOf(String signer) {
+                return "alice".equals(signer) ? alicePublicKey : null;
+            }
+        };
+        Map<String,Object> attributes = new HashMap<>();
+        attributes.put("trust", 1);
+        // mallory signs as alice with a key of her own; the vouch is self-consistent
+        VouchSigner mallory = new VouchSigner(new VerifiedVouchCache(100));
+        Vouch forged = mallory.sign("alice", "mallory", attributes, new Ed25519PrivateKeyParameters(new SecureRandom()));
+        Vouch unknown = mallory.sign("nobody", "mallory", attributes, new Ed25519PrivateKeyParameters(new SecureRandom()));
+        Vouch genuine = new VouchSigner(new VerifiedVouchCache(100)).sign("alice", "bob", attributes, aliceKey);
+
+        VerifiedVouchCache cache = new VerifiedVouchCache(100);
+        VouchSigner verifier = new VouchSigner(cache);
+        assert (!verifier.verify(forged, alicePublicKey));
+        assert (!verifier.verify(forged, null));
+        assert (verifier.verify(genuine, alicePublicKey));
+        boolean[] valid = verifier.verifyAll(Arrays.asList(forged, unknown, genuine), keys, null);
+        assert (!valid[0] && !valid[1] && valid[2]);
+        // a forged vouch must not hit through the signer cache either
+        assert (!mallory.verify(forged, alicePublicKey));
+        assert (cache.size() == 1);
+    }
+}